@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2010 Kathryn Huxtable.
+ *
+ * This file is part of the Image Generator Maven plugin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.kathrynhuxtable.maven.plugins.imageGenerator;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.UIManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures creating the components of one of each kind in the synthetic
+ * config, including finding their constructors and installing their UI
+ * delegates in the look and feel.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ConstructBenchmark {
+
+    /** The look and feel class name. */
+    @Param({ "javax.swing.plaf.metal.MetalLookAndFeel", "javax.swing.plaf.nimbus.NimbusLookAndFeel" })
+    public String lookAndFeel;
+
+    /** One image of each kind of component. */
+    private ImageInfo[] infos;
+
+    /** The renderer, which keeps the constructors it has found. */
+    private ComponentRenderer renderer;
+
+    /**
+     * Set the look and feel and read the images.
+     *
+     * @throws Exception if the look and feel cannot be set.
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        UIManager.setLookAndFeel(lookAndFeel);
+        infos    = SyntheticConfig.createInfos(SyntheticConfig.COMPONENT_COUNT);
+        renderer = new ComponentRenderer(new ImagePool(0));
+    }
+
+    /**
+     * Create the components with the constructors already found, as for
+     * every image after the first of each kind.
+     *
+     * @param  blackhole receives each component.
+     *
+     * @throws Exception if a component cannot be created.
+     */
+    @Benchmark
+    public void construct(Blackhole blackhole) throws Exception {
+        for (ImageInfo info : infos) {
+            blackhole.consume(renderer.createComponent(info));
+        }
+    }
+
+    /**
+     * Create the components with a new renderer, so that every constructor
+     * is looked up again, as for the first image of each kind.
+     *
+     * @param  blackhole receives each component.
+     *
+     * @throws Exception if a component cannot be created.
+     */
+    @Benchmark
+    public void constructUncached(Blackhole blackhole) throws Exception {
+        ComponentRenderer uncached = new ComponentRenderer(new ImagePool(0));
+
+        for (ImageInfo info : infos) {
+            blackhole.consume(uncached.createComponent(info));
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2010 Kathryn Huxtable.
+ *
+ * This file is part of the Image Generator Maven plugin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.kathrynhuxtable.maven.plugins.imageGenerator;
+
+import java.awt.image.BufferedImage;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures encoding a painted component as a PNG, with each encoder, for a
+ * range of panel sizes. The output is counted and discarded, so the disk is
+ * not measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class EncodeBenchmark {
+
+    /**
+     * The encoder: {@code imageio}, {@code builtin}, or
+     * {@code builtin-parallel}, which compresses with one thread per
+     * processor.
+     */
+    @Param({ "imageio", "builtin", "builtin-parallel" })
+    public String encoder;
+
+    /** The filter strategy of the builtin encoder. */
+    @Param({ "none", "adaptive" })
+    public String filterStrategy;
+
+    /** The panel size, as width "x" height. */
+    @Param({ "36x26", "120x37", "420x310", "1024x768" })
+    public String panelSize;
+
+    /** The painted image. */
+    private BufferedImage image;
+
+    /** The builtin encoder, or {@code null} if ImageIO is used. */
+    private PngEncoder pngEncoder;
+
+    /** The threads of the parallel encoder, or {@code null}. */
+    private ExecutorService deflatePool;
+
+    /**
+     * Paint a button to encode and create the encoder.
+     *
+     * @throws Exception if the button cannot be painted.
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        ImageInfo         info     = SyntheticConfig.createButton(panelSize);
+        ComponentRenderer renderer = new ComponentRenderer(new ImagePool(0));
+
+        renderer.setLookAndFeel("javax.swing.plaf.metal.MetalLookAndFeel");
+        renderer.layout(renderer.createComponent(info), info);
+        image = renderer.paint(info, new ImageScale(1f));
+
+        PngEncoder.Filter filter = PngEncoder.Filter.valueOf(filterStrategy.toUpperCase(Locale.ENGLISH));
+
+        if ("builtin".equals(encoder)) {
+            pngEncoder = new PngEncoder(6, filter, null);
+        } else if ("builtin-parallel".equals(encoder)) {
+            deflatePool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                                                       new NamedThreadFactory("imagegenerator-deflate"));
+            pngEncoder  = new PngEncoder(6, filter, deflatePool);
+        }
+    }
+
+    /**
+     * Stop the threads of the parallel encoder.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (deflatePool != null) {
+            deflatePool.shutdown();
+        }
+    }
+
+    /**
+     * Encode the image.
+     *
+     * @return the size of the encoded image, in bytes.
+     *
+     * @throws IOException if the image cannot be encoded.
+     */
+    @Benchmark
+    public long encode() throws IOException {
+        CountingOutputStream out = new CountingOutputStream();
+
+        if (pngEncoder != null) {
+            pngEncoder.write(image, out);
+        } else {
+            ImageIO.write(image, "png", out);
+        }
+
+        return out.count;
+    }
+
+    /**
+     * An output stream which counts and discards what is written to it.
+     */
+    private static class CountingOutputStream extends OutputStream {
+
+        /** The number of bytes written. */
+        long count;
+
+        /**
+         * @see java.io.OutputStream#write(int)
+         */
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        /**
+         * @see java.io.OutputStream#write(byte[], int, int)
+         */
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2010 Kathryn Huxtable.
+ *
+ * This file is part of the Image Generator Maven plugin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.kathrynhuxtable.maven.plugins.imageGenerator;
+
+import java.io.File;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the whole goal from end to end: once with nothing generated, so
+ * that every image is parsed, constructed, painted and written, and once with
+ * everything up to date, so that only the change detection is measured.
+ *
+ * <p>Each run takes long enough that it is timed singly.</p>
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class GenerateBenchmark {
+
+    /**
+     * A config file and an output directory for the goal.
+     */
+    @State(Scope.Benchmark)
+    public static class Project {
+
+        /** The number of images in the config file. */
+        @Param({ "10", "1000", "50000" })
+        public int entries;
+
+        /** The writer threads. */
+        @Param({ "0", "2" })
+        public int writerThreads;
+
+        /** The directory holding the config and the generated files. */
+        File directory;
+
+        /** The goal. */
+        ImageGeneratorMojo mojo;
+
+        /**
+         * Write the config file and configure the goal as the POM would.
+         *
+         * @throws Exception if the file cannot be written.
+         */
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            directory = SyntheticConfig.createTempDirectory("generate");
+
+            File configFile = new File(directory, "image-generator.xml");
+
+            SyntheticConfig.write(configFile, entries);
+
+            mojo = new ImageGeneratorMojo();
+            mojo.setLog(new QuietLog());
+            mojo.setConfigFile(configFile);
+            mojo.setLookAndFeel("javax.swing.plaf.metal.MetalLookAndFeel");
+            mojo.setLookAndFeelLayout("directory");
+            mojo.setScales("1");
+            mojo.setOutputDirectory(new File(directory, "images"));
+            mojo.setManifestFile(new File(directory, "image-generator.manifest"));
+            mojo.setWriterThreads(writerThreads);
+            mojo.setWriterQueueSize(0);
+            mojo.setEncoder("builtin");
+            mojo.setCompressionLevel(6);
+            mojo.setFilterStrategy("none");
+            mojo.setPalette("none");
+            mojo.setDeflateThreads(0);
+            mojo.setImagePoolMaxMemory(64);
+            mojo.setCacheMaxSize(256);
+            mojo.setMetricsFile(new File(directory, "image-generator-metrics.json"));
+            mojo.setDuplicateImages("link");
+
+            prepare();
+        }
+
+        /**
+         * Prepare the output directory once the goal is configured. Does
+         * nothing unless overridden.
+         *
+         * @throws Exception if the goal fails.
+         */
+        void prepare() throws Exception {
+        }
+
+        /**
+         * Delete the config and the generated files.
+         */
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            SyntheticConfig.delete(directory);
+        }
+
+        /**
+         * Delete the generated files and the manifest, so that everything
+         * is generated again.
+         */
+        void clean() {
+            SyntheticConfig.delete(new File(directory, "images"));
+            new File(directory, "image-generator.manifest").delete();
+        }
+    }
+
+    /**
+     * The project with nothing generated before each run.
+     */
+    @State(Scope.Benchmark)
+    public static class CleanProject extends Project {
+
+        /**
+         * Delete the generated files.
+         */
+        @Setup(Level.Invocation)
+        public void cleanBeforeRun() {
+            clean();
+        }
+    }
+
+    /**
+     * The project with everything generated before the first run.
+     */
+    @State(Scope.Benchmark)
+    public static class UpToDateProject extends Project {
+
+        /**
+         * Generate everything once.
+         *
+         * @throws Exception if the goal fails.
+         */
+        @Override
+        void prepare() throws Exception {
+            mojo.execute();
+        }
+    }
+
+    /**
+     * Generate every image.
+     *
+     * @param  project the project, with nothing generated.
+     *
+     * @throws Exception if the goal fails.
+     */
+    @Benchmark
+    public void generateAll(CleanProject project) throws Exception {
+        project.mojo.execute();
+    }
+
+    /**
+     * Run the goal with every image up to date.
+     *
+     * @param  project the project, with everything generated.
+     *
+     * @throws Exception if the goal fails.
+     */
+    @Benchmark
+    public void generateUpToDate(UpToDateProject project) throws Exception {
+        project.mojo.execute();
+    }
+
+    /**
+     * A log which drops the line logged for each image, so that the console
+     * is not measured.
+     */
+    private static class QuietLog extends SystemStreamLog {
+
+        /**
+         * @see org.apache.maven.plugin.logging.SystemStreamLog#info(java.lang.CharSequence)
+         */
+        @Override
+        public void info(CharSequence content) {
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2010 Kathryn Huxtable.
+ *
+ * This file is part of the Image Generator Maven plugin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.kathrynhuxtable.maven.plugins.imageGenerator;
+
+import java.awt.image.BufferedImage;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures painting a laid out component into a pooled image, for a range of
+ * panel sizes and scales.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class PaintBenchmark {
+
+    /** The look and feel class name. */
+    @Param({ "javax.swing.plaf.metal.MetalLookAndFeel", "javax.swing.plaf.nimbus.NimbusLookAndFeel" })
+    public String lookAndFeel;
+
+    /** The panel size, as width "x" height. */
+    @Param({ "36x26", "120x37", "420x310", "1024x768" })
+    public String panelSize;
+
+    /** The scale to paint at. */
+    @Param({ "1", "2" })
+    public float scale;
+
+    /** The pool the images are painted into. */
+    private ImagePool imagePool;
+
+    /** The renderer, holding the laid out component. */
+    private ComponentRenderer renderer;
+
+    /** The image specification. */
+    private ImageInfo info;
+
+    /** The scale to paint at. */
+    private ImageScale imageScale;
+
+    /**
+     * Create and lay out a button filling most of the panel.
+     *
+     * @throws Exception if the look and feel cannot be set.
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        info       = SyntheticConfig.createButton(panelSize);
+        imagePool  = new ImagePool(64L * 1024L * 1024L);
+        renderer   = new ComponentRenderer(imagePool);
+        imageScale = new ImageScale(scale);
+        renderer.setLookAndFeel(lookAndFeel);
+        renderer.layout(renderer.createComponent(info), info);
+    }
+
+    /**
+     * Paint the panel and return the image to the pool, as the writer does
+     * once the image is written.
+     *
+     * @return the painted image.
+     */
+    @Benchmark
+    public BufferedImage paint() {
+        BufferedImage image = renderer.paint(info, imageScale);
+
+        imagePool.release(image);
+        return image;
+    }
+}
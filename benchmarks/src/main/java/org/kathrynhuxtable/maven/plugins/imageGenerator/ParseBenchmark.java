@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2010 Kathryn Huxtable.
+ *
+ * This file is part of the Image Generator Maven plugin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.kathrynhuxtable.maven.plugins.imageGenerator;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures parsing the config file, as the goal does when reading the config
+ * and saved config files. The images are passed to a black hole, so only the
+ * parser is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ParseBenchmark {
+
+    /** The number of images in the config file. */
+    @Param({ "10", "1000", "50000" })
+    public int entries;
+
+    /** The directory holding the config file. */
+    private File directory;
+
+    /** The config file. */
+    private File configFile;
+
+    /**
+     * Write the config file.
+     *
+     * @throws Exception if the file cannot be written.
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        directory  = SyntheticConfig.createTempDirectory("parse");
+        configFile = new File(directory, "image-generator.xml");
+        SyntheticConfig.write(configFile, entries);
+    }
+
+    /**
+     * Delete the config file.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        SyntheticConfig.delete(directory);
+    }
+
+    /**
+     * Parse the config file.
+     *
+     * @param  blackhole receives each image.
+     *
+     * @throws Exception if the file cannot be parsed.
+     */
+    @Benchmark
+    public void parse(final Blackhole blackhole) throws Exception {
+        InputStream stream = new FileInputStream(configFile);
+
+        try {
+            ConfigParser.parse(stream, new ConfigParser.ImageHandler() {
+                    public void image(String filename, ImageInfo info) throws MojoExecutionException {
+                        blackhole.consume(filename);
+                        blackhole.consume(info);
+                    }
+                });
+        } finally {
+            stream.close();
+        }
+    }
+}
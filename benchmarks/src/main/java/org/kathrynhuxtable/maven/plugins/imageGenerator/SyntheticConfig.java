@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2010 Kathryn Huxtable.
+ *
+ * This file is part of the Image Generator Maven plugin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.kathrynhuxtable.maven.plugins.imageGenerator;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Writes synthetic config files for the benchmarks. The images cycle through
+ * a few stock Swing components, with and without arguments and client
+ * properties, at a range of sizes, so that every stage has realistic work.
+ */
+final class SyntheticConfig {
+
+    /** The class, argument type and argument value of each component. */
+    private static final String[][] COMPONENTS = {
+        { "javax.swing.JButton", "String", "Button" },
+        { "javax.swing.JCheckBox", "String", "Check" },
+        { "javax.swing.JRadioButton", "String", "Radio" },
+        { "javax.swing.JTextField", "String", "Text" },
+        { "javax.swing.JLabel", "String", "Label" },
+        { "javax.swing.JProgressBar", "Integer", "0" },
+        { "javax.swing.JToggleButton", "String", "Toggle" },
+        { "javax.swing.JSeparator", null, null },
+    };
+
+    /** The number of kinds of component. */
+    static final int COMPONENT_COUNT = COMPONENTS.length;
+
+    /** The component sizes, as width and height, from small icons to panels. */
+    static final int[][] SIZES = {
+        { 16, 16 },
+        { 100, 27 },
+        { 200, 60 },
+        { 400, 300 },
+    };
+
+    /**
+     * Not instantiable.
+     */
+    private SyntheticConfig() {
+    }
+
+    /**
+     * Write a config file with a number of images.
+     *
+     * @param  file    the file to write.
+     * @param  entries the number of images.
+     *
+     * @throws IOException if the file cannot be written.
+     */
+    static void write(File file, int entries) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+
+        try {
+            write(writer, entries);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Parse the images of a synthetic config, without writing it to a file.
+     *
+     * @param  entries the number of images.
+     *
+     * @return the images, in order.
+     *
+     * @throws Exception if the config cannot be parsed.
+     */
+    static ImageInfo[] createInfos(int entries) throws Exception {
+        StringWriter          writer = new StringWriter();
+        final List<ImageInfo> infos  = new ArrayList<ImageInfo>(entries);
+
+        write(writer, entries);
+        ConfigParser.parse(new ByteArrayInputStream(writer.toString().getBytes("UTF-8")), new ConfigParser.ImageHandler() {
+                public void image(String filename, ImageInfo info) {
+                    infos.add(info);
+                }
+            });
+
+        return infos.toArray(new ImageInfo[infos.size()]);
+    }
+
+    /**
+     * Create the specification of a button centered in a panel, the button
+     * filling most of the panel.
+     *
+     * @param  panelSize the panel size, as width "x" height, e.g. "120x37".
+     *
+     * @return the image specification.
+     */
+    static ImageInfo createButton(String panelSize) {
+        String[]  size = panelSize.split("x");
+        ImageInfo info = new ImageInfo();
+
+        info.className   = "javax.swing.JButton";
+        info.panelWidth  = Integer.parseInt(size[0]);
+        info.panelHeight = Integer.parseInt(size[1]);
+        info.width       = info.panelWidth - 20;
+        info.height      = info.panelHeight - 10;
+        info.args        = new Object[] { "Button" };
+        info.properties  = new HashMap<String, Object>();
+
+        return info;
+    }
+
+    /**
+     * Write a config with a number of images.
+     *
+     * @param  writer  the writer to write the config to.
+     * @param  entries the number of images.
+     *
+     * @throws IOException if the config cannot be written.
+     */
+    private static void write(Writer writer, int entries) throws IOException {
+        writer.write("<?xml version=\"1.0\"?>\n<images>\n");
+
+        for (int i = 0; i < entries; i++) {
+            String[] component = COMPONENTS[i % COMPONENTS.length];
+            int[]    size      = SIZES[(i / COMPONENTS.length) % SIZES.length];
+
+            writer.write("  <image file=\"image-" + i + "\" class=\"" + component[0] + "\" width=\"" + size[0]
+                         + "\" height=\"" + size[1] + "\" panelWidth=\"" + (size[0] + 20) + "\" panelHeight=\""
+                         + (size[1] + 10) + "\">\n");
+
+            if (component[1] != null) {
+                writer.write("    <argument type=\"" + component[1] + "\" value=\"" + component[2] + "\" />\n");
+            }
+
+            if (i % 3 == 0) {
+                writer.write("    <clientProperty name=\"JComponent.sizeVariant\" type=\"String\" value=\"small\" />\n");
+            }
+
+            writer.write("  </image>\n");
+        }
+
+        writer.write("</images>\n");
+    }
+
+    /**
+     * Create an empty temporary directory.
+     *
+     * @param  prefix the prefix of the directory name.
+     *
+     * @return the directory.
+     *
+     * @throws IOException if the directory cannot be created.
+     */
+    static File createTempDirectory(String prefix) throws IOException {
+        File dir = File.createTempFile(prefix, "");
+
+        if (!dir.delete() || !dir.mkdir()) {
+            throw new IOException("Unable to create temporary directory " + dir);
+        }
+
+        return dir;
+    }
+
+    /**
+     * Delete a directory and everything in it.
+     *
+     * @param dir the directory.
+     */
+    static void delete(File dir) {
+        File[] files = dir.listFiles();
+
+        if (files != null) {
+            for (File file : files) {
+                delete(file);
+            }
+        }
+
+        dir.delete();
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright (c) 2010 Kathryn Huxtable.
+ *
+ * This file is part of the Image Generator Maven plugin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.kathrynhuxtable.maven.plugins.imageGenerator;
+
+import java.awt.image.BufferedImage;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.swing.JComponent;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * Renders the batches of images sent by the goal to a {@link RenderDaemon}
+ * or a {@link RenderWorker}, keeping the look and feels, the components'
+ * classes and the image pool between batches.
+ *
+ * @see DaemonProtocol
+ */
+class BatchRenderer {
+
+    /** The pool of images to paint into, kept between batches. */
+    private final ImagePool imagePool;
+
+    /** Creates and paints the components, kept between batches. */
+    private final ComponentRenderer renderer;
+
+    /** The threads used to compress large images, or {@code null} if none. */
+    private final ExecutorService deflatePool;
+
+    /** Writes the images to files, as the client asked. */
+    private ImageEncoder imageEncoder;
+
+    /** The number of writer threads the client asked for. */
+    private int writerThreads;
+
+    /** The maximum number of images painted but not yet written. */
+    private int writerQueueSize;
+
+    /** The height of the strips tall panels are painted in, or zero. */
+    private int tileHeight;
+
+    /**
+     * Create a new BatchRenderer.
+     *
+     * @param maxPoolBytes   the maximum number of bytes of images to keep for
+     *                       reuse.
+     * @param deflateThreads the number of threads used to compress large
+     *                       images. One or less compresses them on the
+     *                       writing thread.
+     */
+    public BatchRenderer(long maxPoolBytes, int deflateThreads) {
+        this.imagePool   = new ImagePool(maxPoolBytes);
+        this.renderer    = new ComponentRenderer(imagePool);
+        this.deflatePool = deflateThreads > 1
+                           ? Executors.newFixedThreadPool(deflateThreads, new NamedThreadFactory("imagegenerator-deflate")) : null;
+    }
+
+    /**
+     * Set up a look and feel in advance.
+     *
+     * @param  laf the look and feel class name.
+     *
+     * @throws MojoExecutionException if unable to set the look and feel.
+     */
+    public void setLookAndFeel(String laf) throws MojoExecutionException {
+        renderer.setLookAndFeel(laf);
+    }
+
+    /**
+     * Read the settings used to write the image files.
+     *
+     * @param  in the stream from the client.
+     *
+     * @throws IOException if the stream cannot be read.
+     */
+    public void readSettings(DataInputStream in) throws IOException {
+        String encoder          = in.readUTF();
+        int    compressionLevel = in.readInt();
+        String filterStrategy   = in.readUTF();
+        String palette          = in.readUTF();
+        int    paletteMaxError  = in.readInt();
+
+        writerThreads   = in.readInt();
+        writerQueueSize = in.readInt();
+        tileHeight      = in.readInt();
+        imageEncoder    = new ImageEncoder("imageio".equals(encoder)
+                                           ? null
+                                           : new PngEncoder(compressionLevel, PngEncoder.Filter.valueOf(filterStrategy), deflatePool),
+                                           !"none".equals(palette), "lossy".equals(palette) ? paletteMaxError : 0);
+    }
+
+    /**
+     * Render a batch of images, then reply with an error message, which is
+     * empty on success, and the timings of each image file.
+     *
+     * @param  in  the stream from the client.
+     * @param  out the stream to the client.
+     *
+     * @throws IOException if the connection fails.
+     */
+    public void renderBatch(DataInputStream in, DataOutputStream out) throws IOException {
+        ImageWriterPool                 writerPool = new ImageWriterPool(writerThreads, writerQueueSize);
+        List<RenderMetrics.ImageRecord> records    = new ArrayList<RenderMetrics.ImageRecord>();
+        String                          error      = null;
+
+        try {
+            while (in.readByte() == DaemonProtocol.IMAGE) {
+                String    laf   = in.readUTF();
+                ImageInfo info  = DaemonProtocol.readImageInfo(in);
+                int       count = in.readInt();
+                File[]    files = new File[count];
+
+                List<RenderMetrics.ImageRecord> imageRecords = new ArrayList<RenderMetrics.ImageRecord>(count);
+
+                for (int i = 0; i < count; i++) {
+                    ImageScale      scale      = new ImageScale(in.readFloat());
+                    String          spec       = in.readUTF();
+                    ImageDerivative derivative = null;
+
+                    if (spec.length() > 0) {
+                        try {
+                            derivative = ImageDerivative.parseDerivative(spec);
+                        } catch (MojoExecutionException e) {
+                            throw new IOException(e.getMessage());
+                        }
+                    }
+
+                    files[i] = new File(in.readUTF());
+                    imageRecords.add(new RenderMetrics.ImageRecord(files[i].getPath(), laf, scale, derivative,
+                                                                   RenderMetrics.RENDERED, null));
+                }
+
+                // After an error, read the rest of the batch but render no more.
+                if (error == null) {
+                    try {
+                        drawImage(writerPool, laf, info, files, imageRecords);
+                        records.addAll(imageRecords);
+                    } catch (MojoExecutionException e) {
+                        error = e.getMessage();
+                    } catch (RuntimeException e) {
+                        error = "Error rendering " + info.className + ": " + e;
+                    }
+                }
+            }
+
+            if (error == null) {
+                writerPool.finish();
+            }
+        } catch (MojoExecutionException e) {
+            error = e.getMessage();
+        } finally {
+            if (error != null) {
+                writerPool.abort();
+            }
+        }
+
+        out.writeUTF(error == null ? "" : truncate(error));
+        out.writeInt(error == null ? records.size() : 0);
+        if (error == null) {
+            for (RenderMetrics.ImageRecord record : records) {
+                DaemonProtocol.writeRecord(out, record);
+            }
+        }
+
+        out.flush();
+    }
+
+    /**
+     * Stop the threads used to compress large images.
+     */
+    public void close() {
+        if (deflatePool != null) {
+            deflatePool.shutdown();
+        }
+    }
+
+    /**
+     * Render an image at each of its scales and queue the image files to be
+     * written, each followed by its derivatives.
+     *
+     * @param  writerPool the pool used to write the image files.
+     * @param  laf        the look and feel class name.
+     * @param  info       the image specification.
+     * @param  files      the image file for each record.
+     * @param  records    the metrics record of each image file, one for each
+     *                    scale, each followed by those of its derivatives.
+     *
+     * @throws MojoExecutionException if an error occurs.
+     */
+    private void drawImage(ImageWriterPool writerPool, String laf, final ImageInfo info, final File[] files,
+            List<RenderMetrics.ImageRecord> records) throws MojoExecutionException {
+        renderer.setLookAndFeel(laf);
+
+        long       start  = System.nanoTime();
+        JComponent c      = renderer.reuseComponent(info);
+        boolean    reused = c != null;
+
+        if (!reused) {
+            c = renderer.createComponent(info);
+        }
+
+        renderer.applyState(c, info);
+
+        long constructed = System.nanoTime();
+
+        if (!reused) {
+            renderer.layout(c, info);
+        }
+
+        records.get(0).constructTime = constructed - start;
+        records.get(0).layoutTime    = System.nanoTime() - constructed;
+
+        for (int i = 0; i < files.length; i++) {
+            final RenderMetrics.ImageRecord record = records.get(i);
+
+            if (record.derivative != null) {
+                continue;
+            } else if (ComponentRenderer.isTiled(info, record.scale, tileHeight)) {
+                renderer.paintTiled(info, record.scale, tileHeight, files[i], imageEncoder, record);
+                continue;
+            }
+
+            long          paintStart = System.nanoTime();
+            BufferedImage image      = renderer.paint(info, record.scale);
+
+            record.paintTime = System.nanoTime() - paintStart;
+
+            final int first = i + 1;
+            int       end   = first;
+
+            while (end < files.length && records.get(end).derivative != null) {
+                end++;
+            }
+
+            final List<RenderMetrics.ImageRecord> derived = records.subList(first, end);
+
+            writerPool.submit(files[i], image, new ImageWriterPool.ImageFileWriter() {
+                    public void writeImageFile(File file, BufferedImage image) throws MojoExecutionException {
+                        imageEncoder.write(file, image, record);
+
+                        for (int j = 0; j < derived.size(); j++) {
+                            imageEncoder.writeDerivative(files[first + j], image, info, derived.get(j));
+                        }
+
+                        imagePool.release(image);
+                    }
+                });
+        }
+    }
+
+    /**
+     * Shorten an error message to fit in a message.
+     *
+     * @param  message the error message.
+     *
+     * @return the message, no longer than 8000 characters.
+     */
+    private static String truncate(String message) {
+        return message.length() > 8000 ? message.substring(0, 8000) : message;
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright (c) 2010 Kathryn Huxtable.
+ *
+ * This file is part of the Image Generator Maven plugin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.kathrynhuxtable.maven.plugins.imageGenerator;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * The state of the inputs and outputs of the last execution which generated
+ * the images, described cheaply enough to be checked before the config file
+ * is parsed, so that an execution with nothing to do can return at once.
+ *
+ * <p>The stamp records a digest of the goal's settings, the length,
+ * modification time and digest of the config file, the lengths and
+ * modification times of the files on the runtime classpath, the length and
+ * modification time of the manifest, and the modification time of each
+ * directory holding images. The images themselves are not examined, so an
+ * image added, removed or replaced is noticed by its directory, but one
+ * rewritten in place is not.</p>
+ *
+ * <p>An execution empties the stamp when it starts and fills it in when it
+ * has finished, writing into the existing file so that the stamp does not
+ * change the modification time of a directory it records.</p>
+ */
+class BuildStamp {
+
+    /** The version of the stamp, changed whenever its contents change. */
+    private static final String VERSION = "1";
+
+    /** The prefix of the property holding each directory's modification time. */
+    private static final String DIRECTORY = "directory.";
+
+    /** The recorded state. */
+    private final Properties properties;
+
+    /**
+     * Create a new BuildStamp.
+     *
+     * @param properties the recorded state.
+     */
+    private BuildStamp(Properties properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * Read a stamp.
+     *
+     * @param  file the stamp file.
+     *
+     * @return the stamp, or {@code null} if it is missing, empty or of another
+     *         version.
+     */
+    static BuildStamp read(File file) {
+        Properties properties = new Properties();
+
+        try {
+            InputStream in = new FileInputStream(file);
+
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+
+        return VERSION.equals(properties.getProperty("version")) ? new BuildStamp(properties) : null;
+    }
+
+    /**
+     * Check whether anything has changed since the stamp was written. The
+     * cheapest checks are made first, and the config file is only read if
+     * its length or modification time has changed.
+     *
+     * @param  settings          the description of the goal's settings.
+     * @param  configFile        the config file.
+     * @param  classpathElements the runtime classpath elements. May be
+     *                           {@code null}.
+     * @param  manifestFile      the manifest file.
+     *
+     * @return what has changed, or {@code null} if nothing has.
+     */
+    String check(String settings, File configFile, List<String> classpathElements, File manifestFile) {
+        if (!Digests.sha1(settings).equals(properties.getProperty("settings"))) {
+            return "the settings";
+        } else if (!stamp(manifestFile).equals(properties.getProperty("manifest"))) {
+            return "the manifest";
+        }
+
+        for (String name : properties.stringPropertyNames()) {
+            if (name.startsWith(DIRECTORY)) {
+                File directory = new File(name.substring(DIRECTORY.length()));
+
+                if (!String.valueOf(directory.lastModified()).equals(properties.getProperty(name))) {
+                    return "directory " + directory;
+                }
+            }
+        }
+
+        if (!stampClasspath(classpathElements).equals(properties.getProperty("classpath"))) {
+            return "the classpath";
+        } else if (!stamp(configFile).equals(properties.getProperty("config"))) {
+            try {
+                if (!configFile.isFile() || !Digests.sha1(configFile).equals(properties.getProperty("configHash"))) {
+                    return "the config file";
+                }
+            } catch (IOException e) {
+                return "the config file";
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Empty a stamp, so that it matches nothing until it is written again,
+     * without removing the file.
+     *
+     * @param  file the stamp file.
+     *
+     * @throws IOException if the file cannot be written.
+     */
+    static void clear(File file) throws IOException {
+        if (file.exists()) {
+            new FileOutputStream(file).close();
+        }
+    }
+
+    /**
+     * Record the state of the inputs and outputs of an execution which has
+     * just generated the images.
+     *
+     * @param  file              the stamp file.
+     * @param  settings          the description of the goal's settings.
+     * @param  configFile        the config file.
+     * @param  classpathElements the runtime classpath elements. May be
+     *                           {@code null}.
+     * @param  manifestFile      the manifest file.
+     * @param  directories       the directories holding the images.
+     *
+     * @throws IOException if the config file cannot be read or the stamp
+     *                     cannot be written.
+     */
+    static void write(File file, String settings, File configFile, List<String> classpathElements, File manifestFile,
+            Collection<File> directories) throws IOException {
+        // Create the file first, in case it is in one of the directories.
+        if (!file.exists() && !file.createNewFile()) {
+            throw new IOException("Unable to create " + file);
+        }
+
+        Properties properties = new Properties();
+
+        properties.setProperty("version", VERSION);
+        properties.setProperty("settings", Digests.sha1(settings));
+        properties.setProperty("config", stamp(configFile));
+        properties.setProperty("configHash", Digests.sha1(configFile));
+        properties.setProperty("classpath", stampClasspath(classpathElements));
+        properties.setProperty("manifest", stamp(manifestFile));
+
+        for (File directory : directories) {
+            properties.setProperty(DIRECTORY + directory.getAbsolutePath(), String.valueOf(directory.lastModified()));
+        }
+
+        OutputStream out = new FileOutputStream(file);
+
+        try {
+            properties.store(out, "Image generator up to date check");
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Describe the state of the runtime classpath cheaply, by the length and
+     * modification time of each jar and of the files in each directory.
+     *
+     * @param  classpathElements the classpath elements. May be {@code null}.
+     *
+     * @return the description, which changes whenever a file on the classpath
+     *         does.
+     */
+    static String stampClasspath(List<String> classpathElements) {
+        StringBuilder buffer = new StringBuilder();
+
+        if (classpathElements != null) {
+            for (String element : classpathElements) {
+                File file = new File(element);
+
+                buffer.append(element).append('=');
+                buffer.append(file.isDirectory() ? stamp(Collections.singletonList(file)) : stamp(file)).append('\n');
+            }
+        }
+
+        return Digests.sha1(buffer.toString());
+    }
+
+    /**
+     * Describe the state of a file cheaply, by its length and modification
+     * time.
+     *
+     * @param  file the file.
+     *
+     * @return the description, which changes whenever the file does.
+     */
+    static String stamp(File file) {
+        return file.exists() ? file.length() + ":" + file.lastModified() : "missing";
+    }
+
+    /**
+     * Describe the state of the files in directories cheaply, by their number,
+     * total length and the sum of their modification times.
+     *
+     * @param  directories the directories.
+     *
+     * @return the description, which changes whenever a file is added,
+     *         removed, or changed.
+     */
+    static String stamp(List<File> directories) {
+        long[] totals = new long[3];
+
+        for (File directory : directories) {
+            addToStamp(directory, totals);
+        }
+
+        return totals[0] + ":" + totals[1] + ":" + totals[2];
+    }
+
+    /**
+     * Add the files in a directory and its subdirectories to a stamp.
+     *
+     * @param directory the directory.
+     * @param totals    the number, total length and sum of modification times
+     *                  of the files so far.
+     */
+    private static void addToStamp(File directory, long[] totals) {
+        File[] files = directory.listFiles();
+
+        if (files == null) {
+            return;
+        }
+
+        for (File file : files) {
+            if (file.isDirectory()) {
+                addToStamp(file, totals);
+            } else {
+                totals[0]++;
+                totals[1] += file.length();
+                totals[2] += file.lastModified();
+            }
+        }
+    }
+}
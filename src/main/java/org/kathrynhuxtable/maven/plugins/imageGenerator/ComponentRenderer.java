@@ -0,0 +1,583 @@
+/*
+ * Copyright (c) 2010 Kathryn Huxtable.
+ *
+ * This file is part of the Image Generator Maven plugin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.kathrynhuxtable.maven.plugins.imageGenerator;
+
+import java.awt.Component;
+import java.awt.DefaultKeyboardFocusManager;
+import java.awt.Graphics2D;
+import java.awt.KeyboardFocusManager;
+import java.awt.image.BufferedImage;
+
+import java.io.File;
+
+import java.lang.reflect.Constructor;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.swing.AbstractButton;
+import javax.swing.ButtonModel;
+import javax.swing.JComponent;
+import javax.swing.JPanel;
+import javax.swing.LookAndFeel;
+import javax.swing.SwingUtilities;
+import javax.swing.UIManager;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * Creates Swing components from their image specifications and paints them
+ * into buffered images, embedded in a panel of the current look and feel.
+ *
+ * <p>A renderer is used from a single painting thread. It sets the look and
+ * feel of the whole JVM, so renderers sharing the JVM must paint while
+ * holding {@link RenderSession#SWING_LOCK}.</p>
+ *
+ * <p>Executions sharing a renderer each set the class loader for their own
+ * classes before painting. The look and feel is only set again if that
+ * class loader loads another class for it.</p>
+ */
+class ComponentRenderer {
+
+    /** Finds and remembers the constructor for each class and argument types. */
+    private final ConstructorResolver constructorResolver;
+
+    /** The pool of images to paint into. */
+    private final ImagePool imagePool;
+
+    /** The class loader the renderer was created with. */
+    private final ClassLoader defaultClassLoader;
+
+    /** The class loader for the component classes of the current execution. */
+    private ClassLoader classLoader;
+
+    /**
+     * A JPanel used for embedding the images. This is reused by each image in
+     * the same look and feel.
+     */
+    private JPanel panel;
+
+    /** The look and feel the panel was created in. */
+    private String currentLookAndFeel;
+
+    /** The look and feel set for the panel, to tell if another renderer has set its own since. */
+    private LookAndFeel installedLookAndFeel;
+
+    /** The component of the last image drawn in a state, kept to draw its other states. */
+    private JComponent stateComponent;
+
+    /** The image the state component was created for. */
+    private ImageInfo stateInfo;
+
+    /** The values of the flags the current state replaced, to restore before the next state. */
+    private final Map<String, Boolean> replacedFlags = new HashMap<String, Boolean>();
+
+    /** The values of the client properties the current state replaced. */
+    private final Map<String, Object> replacedProperties = new HashMap<String, Object>();
+
+    /** The component to paint as the focus owner, or {@code null} if none. */
+    private JComponent focusOwner;
+
+    /**
+     * Create a new ComponentRenderer.
+     *
+     * @param imagePool the pool of images to paint into.
+     */
+    public ComponentRenderer(ImagePool imagePool) {
+        this(imagePool, ComponentRenderer.class.getClassLoader());
+    }
+
+    /**
+     * Create a new ComponentRenderer which loads the component classes from a
+     * class loader.
+     *
+     * @param imagePool   the pool of images to paint into.
+     * @param classLoader the class loader for the component classes.
+     */
+    public ComponentRenderer(ImagePool imagePool, ClassLoader classLoader) {
+        this.imagePool           = imagePool;
+        this.defaultClassLoader  = classLoader;
+        this.classLoader         = classLoader;
+        this.constructorResolver = new ConstructorResolver(classLoader);
+    }
+
+    /**
+     * Set the class loader for the component classes, and for the look and
+     * feel if it loads another class for the current one. The current look
+     * and feel is then set again before the next image.
+     *
+     * @param classLoader the class loader.
+     */
+    public void setClassLoader(ClassLoader classLoader) {
+        if (classLoader == this.classLoader) {
+            return;
+        }
+
+        this.classLoader = classLoader;
+
+        // A component of another execution's classes is not to be reused.
+        stateComponent = null;
+
+        if (installedLookAndFeel != null && installedLookAndFeel.getClass() != loadClass(currentLookAndFeel)) {
+            panel = null;
+        }
+    }
+
+    /**
+     * Forget the classes loaded from a class loader which is no longer used,
+     * going back to the class loader the renderer was created with if it was
+     * the current one.
+     *
+     * @param classLoader the class loader.
+     */
+    public void release(ClassLoader classLoader) {
+        if (classLoader == defaultClassLoader) {
+            return;
+        } else if (classLoader == this.classLoader) {
+            setClassLoader(defaultClassLoader);
+        }
+
+        constructorResolver.forget(classLoader);
+    }
+
+    /**
+     * Set the UI and create the JPanel if not already done for this look and
+     * feel. This allows us to only do this if we need to, saving execution
+     * time when no changes are made. A new panel is created for each look and
+     * feel so that nothing installed by one is painted by another. The look
+     * and feel is set again if another renderer has set its own since.
+     *
+     * @param  laf the look and feel class name.
+     *
+     * @throws MojoExecutionException if unable to set the UI.
+     */
+    public void setLookAndFeel(String laf) throws MojoExecutionException {
+        if (panel == null || !laf.equals(currentLookAndFeel)) {
+            installLookAndFeel(laf);
+
+            panel = new JPanel();
+            panel.setOpaque(true);
+            currentLookAndFeel = laf;
+        } else if (UIManager.getLookAndFeel() != installedLookAndFeel) {
+            installLookAndFeel(laf);
+            SwingUtilities.updateComponentTreeUI(panel);
+
+            // Draw the other states from a component created in this look and feel.
+            stateComponent = null;
+        }
+    }
+
+    /**
+     * Set the look and feel of the JVM.
+     *
+     * @param  laf the look and feel class name.
+     *
+     * @throws MojoExecutionException if unable to set the UI.
+     */
+    private void installLookAndFeel(String laf) throws MojoExecutionException {
+        try {
+            UIManager.setLookAndFeel(laf);
+        } catch (Exception e) {
+            throw new MojoExecutionException("Unable to set look and feel " + laf + ": " + e, e);
+        }
+
+        installedLookAndFeel = UIManager.getLookAndFeel();
+    }
+
+    /**
+     * Create the Swing object for an image and set its client properties.
+     *
+     * @param  info the image specification.
+     *
+     * @return the newly created Swing object.
+     *
+     * @throws MojoExecutionException if the Swing object cannot be created.
+     */
+    public JComponent createComponent(ImageInfo info) throws MojoExecutionException {
+        // Create the Swing object.
+        JComponent c = createSwingObject(info.className, info.args);
+
+        // Set its properties.
+        for (String key : info.properties.keySet()) {
+            c.putClientProperty(key, info.properties.get(key));
+        }
+
+        stateComponent = info.state == null ? null : c;
+        stateInfo      = info;
+        focusOwner     = null;
+        replacedFlags.clear();
+        replacedProperties.clear();
+
+        return c;
+    }
+
+    /**
+     * Get the component drawn in the last state of an image to draw another
+     * state of it, undoing the last state. The component is only reused if
+     * it is still laid out in the panel, so construction, layout and
+     * installation of its UI delegate are shared by all the states.
+     *
+     * @param  info the image specification.
+     *
+     * @return the component, or {@code null} if it must be created.
+     */
+    public JComponent reuseComponent(ImageInfo info) {
+        if (info.state == null || stateComponent == null || stateComponent.getParent() != panel || !stateInfo.sameComponent(info)) {
+            return null;
+        }
+
+        // Undo the flags in the reverse order they were applied.
+        for (int i = ImageState.FLAGS.length - 1; i >= 0; i--) {
+            String flag = ImageState.FLAGS[i];
+
+            if (replacedFlags.containsKey(flag)) {
+                setFlag(stateComponent, flag, replacedFlags.get(flag));
+            }
+        }
+
+        for (Map.Entry<String, Object> entry : replacedProperties.entrySet()) {
+            stateComponent.putClientProperty(entry.getKey(), entry.getValue());
+        }
+
+        replacedFlags.clear();
+        replacedProperties.clear();
+        stateInfo = info;
+
+        return stateComponent;
+    }
+
+    /**
+     * Apply the state of an image to its component, remembering the values
+     * it replaces.
+     *
+     * @param  c    the component.
+     * @param  info the image specification. If it has no state, nothing is
+     *              done.
+     *
+     * @throws MojoExecutionException if the state sets a button flag on a
+     *                                component which is not a button.
+     */
+    public void applyState(JComponent c, ImageInfo info) throws MojoExecutionException {
+        ImageState state = info.state;
+
+        if (state == null) {
+            return;
+        }
+
+        for (int i = 0; i < ImageState.FLAGS.length; i++) {
+            String  flag  = ImageState.FLAGS[i];
+            Boolean value = state.flags.get(flag);
+
+            if (value == null) {
+                continue;
+            } else if (i >= ImageState.FIRST_BUTTON_FLAG && !(c instanceof AbstractButton)) {
+                throw new MojoExecutionException("Unable to set " + flag + " in state " + state.name + ", since " + info.className
+                                                 + " is not a button");
+            }
+
+            replacedFlags.put(flag, getFlag(c, flag));
+            setFlag(c, flag, value);
+        }
+
+        for (Map.Entry<String, Object> entry : state.properties.entrySet()) {
+            replacedProperties.put(entry.getKey(), c.getClientProperty(entry.getKey()));
+            c.putClientProperty(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Embed the control in the panel, centered at its desired size.
+     *
+     * @param c    the control to embed.
+     * @param info the image specification, giving the sizes of the control and
+     *             the panel.
+     */
+    public void layout(JComponent c, ImageInfo info) {
+        panel.removeAll();
+        panel.setSize(info.panelWidth, info.panelHeight);
+
+        panel.add(c);
+        c.setBounds((info.panelWidth - info.width) / 2, (info.panelHeight - info.height) / 2, info.width, info.height);
+    }
+
+    /**
+     * Paint the panel to a buffered image from the image pool. The panel is
+     * laid out at its desired size and painted through a scaled graphics
+     * context, so only the resolution of the image changes with the scale.
+     *
+     * @param  info  the image specification, giving the size of the panel.
+     * @param  scale the scale to paint at.
+     *
+     * @return the buffered image containing the printed control against a panel
+     *         background.
+     */
+    public BufferedImage paint(ImageInfo info, ImageScale scale) {
+        BufferedImage        image    = imagePool.acquire(scale.scale(info.panelWidth), scale.scale(info.panelHeight));
+        KeyboardFocusManager previous = overrideFocusOwner();
+
+        try {
+            paintStrip(image, scale, 0, false);
+        } finally {
+            restoreFocusManager(previous);
+        }
+
+        return image;
+    }
+
+    /**
+     * Check whether the panel is too tall at a scale to be painted in one
+     * image.
+     *
+     * @param  info       the image specification, giving the size of the
+     *                    panel.
+     * @param  scale      the scale to paint at.
+     * @param  tileHeight the height of the strips to paint tall panels in, or
+     *                    zero to paint every panel whole.
+     *
+     * @return {@code true} if the panel must be painted in strips,
+     *         {@code false} otherwise.
+     */
+    public static boolean isTiled(ImageInfo info, ImageScale scale, int tileHeight) {
+        return tileHeight > 0 && scale.scale(info.panelHeight) > tileHeight;
+    }
+
+    /**
+     * Paint the panel to an image file a strip of rows at a time, encoding
+     * each strip as it is painted. Only one strip is held in memory, and it
+     * is reused for each strip, so the memory used depends on the width of
+     * the panel but not its height. Each strip is painted through a
+     * translated and clipped graphics context, which gives the same pixels
+     * as painting the panel whole.
+     *
+     * @param  info         the image specification, giving the size of the
+     *                      panel.
+     * @param  scale        the scale to paint at.
+     * @param  tileHeight   the height of each strip.
+     * @param  file         the file to write the image to.
+     * @param  imageEncoder writes the image to the file.
+     * @param  record       the metrics record of the image file.
+     *
+     * @throws MojoExecutionException if unable to write the file.
+     */
+    public void paintTiled(ImageInfo info, final ImageScale scale, int tileHeight, File file, ImageEncoder imageEncoder,
+            final RenderMetrics.ImageRecord record) throws MojoExecutionException {
+        int                  width    = scale.scale(info.panelWidth);
+        int                  height   = scale.scale(info.panelHeight);
+        final BufferedImage  strip    = imagePool.acquire(width, Math.min(tileHeight, height));
+        KeyboardFocusManager previous = overrideFocusOwner();
+
+        record.paintTime = 0;
+
+        try {
+            imageEncoder.writeTiled(file, width, height, new PngEncoder.StripPainter() {
+                    public BufferedImage paintStrip(int y) {
+                        long start = System.nanoTime();
+
+                        ImagePool.clear(strip);
+                        ComponentRenderer.this.paintStrip(strip, scale, y, true);
+                        record.paintTime += System.nanoTime() - start;
+                        return strip;
+                    }
+                }, record);
+        } finally {
+            restoreFocusManager(previous);
+            imagePool.release(strip);
+        }
+    }
+
+    /**
+     * Paint the rows of the panel from a row down into an image.
+     *
+     * @param image the image, as wide as the panel at the scale.
+     * @param scale the scale to paint at.
+     * @param y     the row of the panel at the top of the image.
+     * @param clip  {@code true} to clip the painting to the image, so that
+     *              components outside it are skipped.
+     */
+    private void paintStrip(BufferedImage image, ImageScale scale, int y, boolean clip) {
+        Graphics2D g = image.createGraphics();
+
+        try {
+            if (clip) {
+                g.translate(0, -y);
+                g.clipRect(0, y, image.getWidth(), image.getHeight());
+            }
+
+            if (scale.factor != 1f) {
+                g.scale(scale.factor, scale.factor);
+            }
+
+            panel.paint(g);
+        } finally {
+            g.dispose();
+        }
+    }
+
+    /**
+     * Report the component being painted in a focused state as the focus
+     * owner, since a headless component cannot be given the focus.
+     *
+     * @return the focus manager to restore once painted, or {@code null} if
+     *         it was not replaced.
+     */
+    private KeyboardFocusManager overrideFocusOwner() {
+        if (focusOwner == null) {
+            return null;
+        }
+
+        KeyboardFocusManager previous = KeyboardFocusManager.getCurrentKeyboardFocusManager();
+
+        KeyboardFocusManager.setCurrentKeyboardFocusManager(new FocusOwnerOverride(focusOwner));
+        return previous;
+    }
+
+    /**
+     * Restore the focus manager replaced while painting.
+     *
+     * @param previous the focus manager, or {@code null} if it was not
+     *                 replaced.
+     */
+    private void restoreFocusManager(KeyboardFocusManager previous) {
+        if (previous != null) {
+            KeyboardFocusManager.setCurrentKeyboardFocusManager(previous);
+        }
+    }
+
+    /**
+     * Get the value of a state flag of a component.
+     *
+     * @param  c    the component, which must be a button for the button
+     *              flags.
+     * @param  flag the flag.
+     *
+     * @return the value of the flag.
+     */
+    private boolean getFlag(JComponent c, String flag) {
+        if ("enabled".equals(flag)) {
+            return c.isEnabled();
+        } else if ("focused".equals(flag)) {
+            return focusOwner == c;
+        }
+
+        ButtonModel model = ((AbstractButton) c).getModel();
+
+        if ("selected".equals(flag)) {
+            return model.isSelected();
+        } else if ("rollover".equals(flag)) {
+            return model.isRollover();
+        } else if ("pressed".equals(flag)) {
+            return model.isPressed();
+        } else {
+            return model.isArmed();
+        }
+    }
+
+    /**
+     * Set a state flag of a component.
+     *
+     * @param c     the component, which must be a button for the button flags.
+     * @param flag  the flag.
+     * @param value the value of the flag.
+     */
+    private void setFlag(JComponent c, String flag, boolean value) {
+        if ("enabled".equals(flag)) {
+            c.setEnabled(value);
+            return;
+        } else if ("focused".equals(flag)) {
+            focusOwner = value ? c : null;
+            return;
+        }
+
+        ButtonModel model = ((AbstractButton) c).getModel();
+
+        if ("selected".equals(flag)) {
+            model.setSelected(value);
+        } else if ("rollover".equals(flag)) {
+            model.setRollover(value);
+        } else if ("pressed".equals(flag)) {
+            model.setPressed(value);
+        } else {
+            model.setArmed(value);
+        }
+    }
+
+    /**
+     * Load a class from the current class loader without initializing it.
+     *
+     * @param  className the class name.
+     *
+     * @return the class, or {@code null} if it cannot be loaded.
+     */
+    private Class<?> loadClass(String className) {
+        try {
+            return Class.forName(className, false, classLoader);
+        } catch (ClassNotFoundException e) {
+            return null;
+        } catch (LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * Create a Swing object from its class name and arguments.
+     *
+     * @param  className the class name.
+     * @param  args      the arguments. May be empty.
+     *
+     * @return the newly created Swing object.
+     *
+     * @throws MojoExecutionException if the Swing object cannot be created.
+     */
+    private JComponent createSwingObject(String className, Object... args) throws MojoExecutionException {
+        Constructor<?> constructor = constructorResolver.resolve(classLoader, className, args);
+
+        try {
+            return (JComponent) constructor.newInstance(args);
+        } catch (Exception e) {
+            throw new MojoExecutionException("Unable to create the object " + className
+                                             + ConstructorResolver.describe(constructor.getParameterTypes()), e);
+        }
+    }
+
+    /**
+     * A focus manager which reports a component as the focus owner, so that
+     * the look and feel paints its focus.
+     */
+    private static class FocusOwnerOverride extends DefaultKeyboardFocusManager {
+        private final Component focusOwner;
+
+        /**
+         * Create a new FocusOwnerOverride.
+         *
+         * @param focusOwner the component to report as the focus owner.
+         */
+        public FocusOwnerOverride(Component focusOwner) {
+            this.focusOwner = focusOwner;
+        }
+
+        /**
+         * @see java.awt.KeyboardFocusManager#getFocusOwner()
+         */
+        @Override
+        public Component getFocusOwner() {
+            return focusOwner;
+        }
+    }
+}
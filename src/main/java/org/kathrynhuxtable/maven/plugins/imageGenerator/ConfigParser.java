@@ -0,0 +1,655 @@
+/*
+ * Copyright (c) 2010 Kathryn Huxtable.
+ *
+ * This file is part of the Image Generator Maven plugin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.kathrynhuxtable.maven.plugins.imageGenerator;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * A streaming parser for the XML image config file. Each image is passed to
+ * an {@link ImageHandler} as soon as its element has been read, so no more
+ * than one image is held in memory by the parser. An image with a
+ * {@code states} element is passed once for each state, in order, so that
+ * the states can be drawn from one component.
+ *
+ * <p>An {@code imageSet} element declares axes of values and a filename
+ * template, and is expanded into one image for each combination of values.
+ * The combinations are generated one at a time as they are passed to the
+ * handler, so the memory used does not grow with the number of them.</p>
+ */
+class ConfigParser {
+
+    /** The attributes giving the sizes of an image, in order. */
+    private static final String[] SIZE_ATTRIBUTES = { "width", "height", "panelWidth", "panelHeight" };
+
+    /** Matches a reference to an axis in the filename template of an image set. */
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\$\\{([^}]*)\\}");
+
+    /**
+     * Receives each image as it is parsed.
+     */
+    interface ImageHandler {
+
+        /**
+         * Handle a parsed image.
+         *
+         * @param  filename the filename to write the image into.
+         * @param  info     the image information.
+         *
+         * @throws MojoExecutionException if an error occurs.
+         */
+        void image(String filename, ImageInfo info) throws MojoExecutionException;
+    }
+
+    /**
+     * Not instantiable.
+     */
+    private ConfigParser() {
+    }
+
+    /**
+     * Parse an XML image config stream, passing each image to the handler.
+     *
+     * @param  stream  the XML config stream.
+     * @param  handler the handler to receive each image.
+     *
+     * @throws MojoExecutionException if the handler throws it, or if a value
+     *                                in the config cannot be parsed.
+     * @throws SAXException           if the XML is not well formed.
+     * @throws IOException            if the stream cannot be read.
+     */
+    static void parse(InputStream stream, ImageHandler handler) throws MojoExecutionException, SAXException, IOException {
+        SAXParser parser;
+
+        try {
+            parser = SAXParserFactory.newInstance().newSAXParser();
+        } catch (Exception e) {
+            throw new MojoExecutionException("Unable to create XML parser", e);
+        }
+
+        try {
+            parser.parse(stream, new ConfigHandler(handler));
+        } catch (HandlerException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Parse the value as an Object, given its type and value.
+     *
+     * @param  type  the type, e.g. String, Integer, Float, or Double.
+     * @param  value the String value.
+     *
+     * @return the value as an Object of the specified type.
+     *
+     * @throws MojoExecutionException if the type is not recognized.
+     */
+    static Object parseObject(String type, String value) throws MojoExecutionException {
+        Object obj = null;
+
+        if ("String".equals(type)) {
+            obj = value;
+        } else if ("Integer".equals(type)) {
+            obj = Integer.parseInt(value);
+        } else if ("Float".equals(type)) {
+            obj = Float.parseFloat(value);
+        } else if ("Double".equals(type)) {
+            obj = Double.parseDouble(value);
+        } else {
+            throw new MojoExecutionException("Unknown argument type: " + type);
+        }
+
+        return obj;
+    }
+
+    /**
+     * Get an attribute value, returning an empty string if it is missing, as
+     * the DOM does.
+     *
+     * @param  attributes the attributes of the element.
+     * @param  name       the attribute name.
+     *
+     * @return the attribute value, or an empty string.
+     */
+    private static String getAttribute(Attributes attributes, String name) {
+        String value = attributes.getValue(name);
+
+        return value == null ? "" : value;
+    }
+
+    /**
+     * The SAX handler which builds each ImageInfo from its element and the
+     * {@code argument}, {@code clientProperty} and {@code state} elements
+     * inside it, expanding image sets into their combinations.
+     */
+    private static class ConfigHandler extends DefaultHandler {
+        private final ImageHandler handler;
+        private int                imageDepth;
+        private String             filename;
+        private ImageInfo          info;
+        private List<Object>       argList;
+        private List<ImageState>   states;
+        private ImageState         state;
+        private Set<String>        stateNames;
+        private String[]           setSizes;
+        private List<Axis>         axes;
+        private Axis               axis;
+        private AxisValue          value;
+
+        /**
+         * Create a new ConfigHandler.
+         *
+         * @param handler the handler to receive each image.
+         */
+        public ConfigHandler(ImageHandler handler) {
+            this.handler = handler;
+        }
+
+        /**
+         * @see org.xml.sax.helpers.DefaultHandler#startElement(java.lang.String,
+         *      java.lang.String, java.lang.String, org.xml.sax.Attributes)
+         */
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+            try {
+                if ("image".equals(qName) && axes == null) {
+                    if (imageDepth++ == 0) {
+                        startImage(attributes);
+                    }
+                } else if ("imageSet".equals(qName) && info == null) {
+                    startImageSet(attributes);
+                } else if (axes != null && "axis".equals(qName)) {
+                    startAxis(attributes);
+                } else if (axis != null && "value".equals(qName)) {
+                    startValue(attributes);
+                } else if (info != null && "argument".equals(qName)) {
+                    List<Object> args = value == null ? argList : value.args;
+
+                    args.add(parseObject(getAttribute(attributes, "type"), getAttribute(attributes, "value")));
+                } else if (info != null && "clientProperty".equals(qName)) {
+                    Map<String, Object> properties = value != null ? value.properties
+                                                                   : state != null ? state.properties : info.properties;
+
+                    properties.put(getAttribute(attributes, "name"),
+                                   parseObject(getAttribute(attributes, "type"), getAttribute(attributes, "value")));
+                } else if (info != null && "states".equals(qName)) {
+                    if (states == null) {
+                        states     = new ArrayList<ImageState>();
+                        stateNames = new HashSet<String>();
+                    }
+                } else if (states != null && "state".equals(qName)) {
+                    startState(attributes);
+                }
+            } catch (MojoExecutionException e) {
+                throw new HandlerException(e);
+            } catch (NumberFormatException e) {
+                throw new HandlerException(new MojoExecutionException("Invalid number in image " + filename, e));
+            }
+        }
+
+        /**
+         * @see org.xml.sax.helpers.DefaultHandler#endElement(java.lang.String,
+         *      java.lang.String, java.lang.String)
+         */
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            try {
+                if ("state".equals(qName)) {
+                    state = null;
+                } else if ("value".equals(qName)) {
+                    value = null;
+                } else if ("axis".equals(qName) && axis != null) {
+                    if (axis.values.isEmpty()) {
+                        throw new MojoExecutionException("No value in axis " + axis.name + " of image set " + filename);
+                    }
+
+                    axis = null;
+                } else if ("image".equals(qName) && axes == null && --imageDepth == 0) {
+                    info.args = argList.toArray();
+                    passImage(filename, info);
+                    endImage();
+                } else if ("imageSet".equals(qName) && axes != null) {
+                    expandImageSet();
+                    endImage();
+                }
+            } catch (MojoExecutionException e) {
+                throw new HandlerException(e);
+            } catch (NumberFormatException e) {
+                throw new HandlerException(new MojoExecutionException("Invalid number in image set " + filename, e));
+            }
+        }
+
+        /**
+         * Start a new image from the attributes of its element.
+         *
+         * @param  attributes the attributes of the image element.
+         *
+         * @throws MojoExecutionException if the derivatives are invalid.
+         */
+        private void startImage(Attributes attributes) throws MojoExecutionException {
+            filename         = getAttribute(attributes, "file");
+            info             = createImageInfo(getAttribute(attributes, "class"), getSizes(attributes));
+            info.derivatives = getDerivatives(attributes);
+            argList          = new ArrayList<Object>();
+        }
+
+        /**
+         * Start a new image set from the attributes of its element. Its sizes
+         * are only parsed once the values of the axes have been applied to
+         * them.
+         *
+         * @param  attributes the attributes of the imageSet element.
+         *
+         * @throws MojoExecutionException if the derivatives are invalid.
+         */
+        private void startImageSet(Attributes attributes) throws MojoExecutionException {
+            filename         = getAttribute(attributes, "file");
+            setSizes         = getSizes(attributes);
+            info             = new ImageInfo();
+            info.className   = getAttribute(attributes, "class");
+            info.properties  = new HashMap<String, Object>();
+            info.derivatives = getDerivatives(attributes);
+            argList          = new ArrayList<Object>();
+            axes             = new ArrayList<Axis>();
+        }
+
+        /**
+         * Get the derivatives of an image or image set, which replace those of
+         * the goal.
+         *
+         * @param  attributes the attributes of the element.
+         *
+         * @return the derivatives, or {@code null} if the element has no
+         *         {@code derivatives} attribute.
+         *
+         * @throws MojoExecutionException if the derivatives are invalid.
+         */
+        private List<ImageDerivative> getDerivatives(Attributes attributes) throws MojoExecutionException {
+            String derivatives = attributes.getValue("derivatives");
+
+            if (derivatives == null) {
+                return null;
+            }
+
+            try {
+                return ImageDerivative.parse(derivatives);
+            } catch (MojoExecutionException e) {
+                throw new MojoExecutionException("Invalid derivatives of image " + filename + ": " + e.getMessage(), e);
+            }
+        }
+
+        /**
+         * Start a new axis of the image set.
+         *
+         * @param  attributes the attributes of the axis element.
+         *
+         * @throws MojoExecutionException if the axis has no name or a
+         *                                duplicate one.
+         */
+        private void startAxis(Attributes attributes) throws MojoExecutionException {
+            String name = getAttribute(attributes, "name");
+
+            if (name.length() == 0) {
+                throw new MojoExecutionException("An axis of image set " + filename + " has no name");
+            }
+
+            for (Axis a : axes) {
+                if (a.name.equals(name)) {
+                    throw new MojoExecutionException("Duplicate axis " + name + " in image set " + filename);
+                }
+            }
+
+            axis = new Axis(name);
+            axes.add(axis);
+        }
+
+        /**
+         * Start a new value of the current axis. Its size attributes replace
+         * those of the image set.
+         *
+         * @param  attributes the attributes of the value element.
+         *
+         * @throws MojoExecutionException if the value has no name.
+         */
+        private void startValue(Attributes attributes) throws MojoExecutionException {
+            String name = getAttribute(attributes, "name");
+
+            if (name.length() == 0) {
+                throw new MojoExecutionException("A value of axis " + axis.name + " of image set " + filename + " has no name");
+            }
+
+            value = new AxisValue(name, getSizes(attributes));
+            axis.values.add(value);
+        }
+
+        /**
+         * Pass an image to the handler, once for each state if it has any.
+         *
+         * @param  file  the filename.
+         * @param  image the image specification.
+         *
+         * @throws MojoExecutionException if the handler throws it, or the
+         *                                states element has no states.
+         */
+        private void passImage(String file, ImageInfo image) throws MojoExecutionException {
+            if (states == null) {
+                handler.image(file, image);
+            } else if (states.isEmpty()) {
+                throw new MojoExecutionException("No state in the states of image " + filename);
+            } else {
+                for (ImageState s : states) {
+                    handler.image(file + "-" + s.name, image.withState(s));
+                }
+            }
+        }
+
+        /**
+         * Expand the image set, passing the image for each combination of the
+         * values of its axes to the handler. The last axis varies fastest.
+         *
+         * @throws MojoExecutionException if the filename template refers to an
+         *                                unknown axis, or does not refer to an
+         *                                axis with several values, so that
+         *                                images would share a file.
+         */
+        private void expandImageSet() throws MojoExecutionException {
+            Matcher matcher = PLACEHOLDER.matcher(filename);
+            int[]   index   = new int[axes.size()];
+
+            while (matcher.find()) {
+                findAxis(matcher.group(1)).referenced = true;
+            }
+
+            for (Axis a : axes) {
+                if (!a.referenced && a.values.size() > 1) {
+                    throw new MojoExecutionException("The file of image set " + filename + " does not use axis " + a.name);
+                }
+            }
+
+            int i;
+
+            do {
+                passImage(expandFilename(index), expandImageInfo(index));
+
+                for (i = axes.size() - 1; i >= 0 && ++index[i] == axes.get(i).values.size(); i--) {
+                    index[i] = 0;
+                }
+            } while (i >= 0);
+        }
+
+        /**
+         * Find an axis of the image set by name.
+         *
+         * @param  name the name.
+         *
+         * @return the axis.
+         *
+         * @throws MojoExecutionException if there is no such axis.
+         */
+        private Axis findAxis(String name) throws MojoExecutionException {
+            for (Axis a : axes) {
+                if (a.name.equals(name)) {
+                    return a;
+                }
+            }
+
+            throw new MojoExecutionException("Unknown axis " + name + " in the file of image set " + filename);
+        }
+
+        /**
+         * Fill in the filename template of the image set with the names of a
+         * combination of values.
+         *
+         * @param  index the index of the value of each axis.
+         *
+         * @return the filename.
+         *
+         * @throws MojoExecutionException if there is no such axis.
+         */
+        private String expandFilename(int[] index) throws MojoExecutionException {
+            Matcher      matcher = PLACEHOLDER.matcher(filename);
+            StringBuffer buffer  = new StringBuffer();
+
+            while (matcher.find()) {
+                Axis a = findAxis(matcher.group(1));
+
+                matcher.appendReplacement(buffer, Matcher.quoteReplacement(a.values.get(index[axes.indexOf(a)]).name));
+            }
+
+            matcher.appendTail(buffer);
+            return buffer.toString();
+        }
+
+        /**
+         * Create the image specification for a combination of values. The
+         * arguments of each value follow those of the image set in the order
+         * of the axes, and the sizes and client properties of later axes
+         * replace those of earlier ones.
+         *
+         * @param  index the index of the value of each axis.
+         *
+         * @return the image specification.
+         */
+        private ImageInfo expandImageInfo(int[] index) {
+            String[]            sizes      = setSizes.clone();
+            List<Object>        args       = new ArrayList<Object>(argList);
+            Map<String, Object> properties = new HashMap<String, Object>(info.properties);
+
+            for (int i = 0; i < index.length; i++) {
+                AxisValue v = axes.get(i).values.get(index[i]);
+
+                for (int j = 0; j < sizes.length; j++) {
+                    if (v.sizes[j].length() > 0) {
+                        sizes[j] = v.sizes[j];
+                    }
+                }
+
+                args.addAll(v.args);
+                properties.putAll(v.properties);
+            }
+
+            ImageInfo image = createImageInfo(info.className, sizes);
+
+            image.args        = args.toArray();
+            image.properties  = properties;
+            image.derivatives = info.derivatives;
+
+            return image;
+        }
+
+        /**
+         * Forget the image or image set just passed to the handler.
+         */
+        private void endImage() {
+            filename   = null;
+            info       = null;
+            argList    = null;
+            states     = null;
+            stateNames = null;
+            setSizes   = null;
+            axes       = null;
+        }
+
+        /**
+         * Start a new state of the image from the attributes of its element.
+         * Every attribute but the name sets a flag to {@code true} or
+         * {@code false}.
+         *
+         * @param  attributes the attributes of the state element.
+         *
+         * @throws MojoExecutionException if the state has no name or a
+         *                                duplicate one, or an attribute is
+         *                                not a flag with a boolean value.
+         */
+        private void startState(Attributes attributes) throws MojoExecutionException {
+            state            = new ImageState();
+            state.name       = getAttribute(attributes, "name");
+            state.flags      = new HashMap<String, Boolean>();
+            state.properties = new HashMap<String, Object>();
+
+            if (state.name.length() == 0) {
+                throw new MojoExecutionException("A state of image " + filename + " has no name");
+            } else if (!stateNames.add(state.name)) {
+                throw new MojoExecutionException("Duplicate state " + state.name + " in image " + filename);
+            }
+
+            for (int i = 0; i < attributes.getLength(); i++) {
+                String name  = attributes.getQName(i);
+                String value = attributes.getValue(i);
+
+                if ("name".equals(name)) {
+                    continue;
+                } else if (!ImageState.isFlag(name)) {
+                    throw new MojoExecutionException("Unknown attribute " + name + " in state " + state.name + " of image "
+                                                     + filename);
+                } else if (!"true".equals(value) && !"false".equals(value)) {
+                    throw new MojoExecutionException("Invalid value " + value + " for " + name + " in state " + state.name
+                                                     + " of image " + filename);
+                }
+
+                state.flags.put(name, Boolean.valueOf(value));
+            }
+
+            states.add(state);
+        }
+    }
+
+    /**
+     * Get the size attributes of an element.
+     *
+     * @param  attributes the attributes of the element.
+     *
+     * @return the value of each of {@link #SIZE_ATTRIBUTES}, or an empty
+     *         string for those which are missing.
+     */
+    private static String[] getSizes(Attributes attributes) {
+        String[] sizes = new String[SIZE_ATTRIBUTES.length];
+
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = getAttribute(attributes, SIZE_ATTRIBUTES[i]);
+        }
+
+        return sizes;
+    }
+
+    /**
+     * Create an image specification with no arguments or client properties
+     * yet. The panel width and height default to the width and height.
+     *
+     * @param  className the class name of the component.
+     * @param  sizes     the value of each of {@link #SIZE_ATTRIBUTES}.
+     *
+     * @return the image specification.
+     */
+    private static ImageInfo createImageInfo(String className, String[] sizes) {
+        ImageInfo info = new ImageInfo();
+
+        info.className   = className;
+        info.width       = Integer.parseInt(sizes[0]);
+        info.height      = Integer.parseInt(sizes[1]);
+        info.panelWidth  = Integer.parseInt(sizes[2].length() == 0 ? sizes[0] : sizes[2]);
+        info.panelHeight = Integer.parseInt(sizes[3].length() == 0 ? sizes[1] : sizes[3]);
+        info.properties  = new HashMap<String, Object>();
+
+        return info;
+    }
+
+    /**
+     * An axis of an image set.
+     */
+    private static class Axis {
+        final String          name;
+        final List<AxisValue> values = new ArrayList<AxisValue>();
+        boolean               referenced;
+
+        /**
+         * Create a new Axis.
+         *
+         * @param name the name, referred to in the filename template.
+         */
+        public Axis(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * A value of an axis of an image set.
+     */
+    private static class AxisValue {
+        final String              name;
+        final String[]            sizes;
+        final List<Object>        args       = new ArrayList<Object>();
+        final Map<String, Object> properties = new HashMap<String, Object>();
+
+        /**
+         * Create a new AxisValue.
+         *
+         * @param name  the name, filled into the filename template.
+         * @param sizes the value of each of {@link #SIZE_ATTRIBUTES}, or an
+         *              empty string for those the image set gives.
+         */
+        public AxisValue(String name, String[] sizes) {
+            this.name  = name;
+            this.sizes = sizes;
+        }
+    }
+
+    /**
+     * Carries a MojoExecutionException out through the SAX parser.
+     */
+    private static class HandlerException extends SAXException {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Create a new HandlerException.
+         *
+         * @param cause the MojoExecutionException.
+         */
+        public HandlerException(MojoExecutionException cause) {
+            super(cause);
+        }
+
+        /**
+         * @see java.lang.Throwable#getCause()
+         */
+        @Override
+        public MojoExecutionException getCause() {
+            return (MojoExecutionException) super.getCause();
+        }
+    }
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright (c) 2010 Kathryn Huxtable.
+ *
+ * This file is part of the Image Generator Maven plugin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.kathrynhuxtable.maven.plugins.imageGenerator;
+
+import java.lang.reflect.Constructor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * Finds the constructor to use for a class name and a list of arguments, and
+ * remembers it for later images with the same class and argument types.
+ *
+ * <p>Matching follows the Java language rules for choosing a method. First
+ * only constructors whose parameters accept the arguments as objects are
+ * considered. If there are none, parameters of primitive type accept the
+ * matching wrapper type and any wrapper type that widens to it, so that an
+ * {@code Integer} argument matches an {@code int} or {@code long} parameter.
+ * The most specific of the matching constructors is chosen, and it is an
+ * error if there is no single most specific one.</p>
+ *
+ * <p>Constructors are remembered for each class loader they were resolved
+ * through, so that executions sharing a resolver but loading the project's
+ * classes through class loaders of their own each get their own classes.</p>
+ *
+ * <p>The resolver is not thread safe and is used from the painting thread.</p>
+ */
+class ConstructorResolver {
+
+    /** The primitive types, by their wrapper types. */
+    private static final Map<Class<?>, Class<?>> PRIMITIVES = new HashMap<Class<?>, Class<?>>();
+
+    static {
+        PRIMITIVES.put(Boolean.class, boolean.class);
+        PRIMITIVES.put(Byte.class, byte.class);
+        PRIMITIVES.put(Character.class, char.class);
+        PRIMITIVES.put(Short.class, short.class);
+        PRIMITIVES.put(Integer.class, int.class);
+        PRIMITIVES.put(Long.class, long.class);
+        PRIMITIVES.put(Float.class, float.class);
+        PRIMITIVES.put(Double.class, double.class);
+    }
+
+    /** The widening order of the numeric primitive types. */
+    private static final List<Class<?>> NUMERIC_ORDER = new ArrayList<Class<?>>();
+
+    static {
+        NUMERIC_ORDER.add(byte.class);
+        NUMERIC_ORDER.add(short.class);
+        NUMERIC_ORDER.add(int.class);
+        NUMERIC_ORDER.add(long.class);
+        NUMERIC_ORDER.add(float.class);
+        NUMERIC_ORDER.add(double.class);
+    }
+
+    /**
+     * The resolved constructors, by the class loader they were resolved
+     * through, then by class name and argument types.
+     */
+    private final Map<ClassLoader, Map<String, Constructor<?>>> constructors = new HashMap<ClassLoader, Map<String, Constructor<?>>>();
+
+    /** The class loader to load the classes from if none is given. */
+    private final ClassLoader classLoader;
+
+    /**
+     * Create a new ConstructorResolver which loads classes from a class
+     * loader.
+     *
+     * @param classLoader the class loader to load the classes from if none
+     *                    is given.
+     */
+    public ConstructorResolver(ClassLoader classLoader) {
+        this.classLoader = classLoader;
+    }
+
+    /**
+     * Find the constructor of a class to call with the given arguments.
+     *
+     * @param  className the class name.
+     * @param  args      the arguments. May be empty.
+     *
+     * @return the constructor.
+     *
+     * @throws MojoExecutionException if the class cannot be loaded, or if no
+     *                                single constructor matches the
+     *                                arguments.
+     */
+    public Constructor<?> resolve(String className, Object... args) throws MojoExecutionException {
+        return resolve(classLoader, className, args);
+    }
+
+    /**
+     * Find the constructor of a class loaded from a class loader to call with
+     * the given arguments.
+     *
+     * @param  classLoader the class loader.
+     * @param  className   the class name.
+     * @param  args        the arguments. May be empty.
+     *
+     * @return the constructor.
+     *
+     * @throws MojoExecutionException if the class cannot be loaded, or if no
+     *                                single constructor matches the
+     *                                arguments.
+     */
+    public Constructor<?> resolve(ClassLoader classLoader, String className, Object... args) throws MojoExecutionException {
+        Map<String, Constructor<?>> resolved = constructors.get(classLoader);
+
+        if (resolved == null) {
+            resolved = new HashMap<String, Constructor<?>>();
+            constructors.put(classLoader, resolved);
+        }
+
+        Class<?>[] argClasses = new Class<?>[args.length];
+
+        for (int i = 0; i < args.length; i++) {
+            argClasses[i] = args[i].getClass();
+        }
+
+        String         key         = className + describe(argClasses);
+        Constructor<?> constructor = resolved.get(key);
+
+        if (constructor == null) {
+            Class<?> c;
+
+            try {
+                c = Class.forName(className, true, classLoader);
+            } catch (ClassNotFoundException e) {
+                throw new MojoExecutionException("Unable to find the class " + className, e);
+            }
+
+            constructor = findConstructor(c, argClasses, false);
+            if (constructor == null) {
+                constructor = findConstructor(c, argClasses, true);
+            }
+
+            if (constructor == null) {
+                throw new MojoExecutionException("No public constructor of " + className + " matches the arguments "
+                                                 + describe(argClasses));
+            }
+
+            resolved.put(key, constructor);
+        }
+
+        return constructor;
+    }
+
+    /**
+     * Forget the constructors resolved through a class loader, which is no
+     * longer used.
+     *
+     * @param classLoader the class loader.
+     */
+    public void forget(ClassLoader classLoader) {
+        constructors.remove(classLoader);
+    }
+
+    /**
+     * Describe a list of argument types, e.g. "(String, Integer)".
+     *
+     * @param  types the argument types.
+     *
+     * @return the description.
+     */
+    static String describe(Class<?>[] types) {
+        StringBuilder buffer = new StringBuilder("(");
+
+        for (int i = 0; i < types.length; i++) {
+            if (i > 0) {
+                buffer.append(", ");
+            }
+
+            buffer.append(types[i].getSimpleName());
+        }
+
+        return buffer.append(')').toString();
+    }
+
+    /**
+     * Find the most specific public constructor applicable to the argument
+     * types.
+     *
+     * @param  c          the class.
+     * @param  argClasses the argument types.
+     * @param  unboxing   {@code true} if primitive parameters may accept
+     *                    wrapper arguments.
+     *
+     * @return the constructor, or {@code null} if none is applicable.
+     *
+     * @throws MojoExecutionException if more than one constructor is
+     *                                applicable and none is most specific.
+     */
+    private Constructor<?> findConstructor(Class<?> c, Class<?>[] argClasses, boolean unboxing) throws MojoExecutionException {
+        List<Constructor<?>> applicable = new ArrayList<Constructor<?>>();
+
+        for (Constructor<?> constructor : c.getConstructors()) {
+            if (isApplicable(constructor.getParameterTypes(), argClasses, unboxing)) {
+                applicable.add(constructor);
+            }
+        }
+
+        if (applicable.isEmpty()) {
+            return null;
+        }
+
+        List<Constructor<?>> best = new ArrayList<Constructor<?>>();
+
+        for (Constructor<?> candidate : applicable) {
+            boolean mostSpecific = true;
+
+            for (Constructor<?> other : applicable) {
+                if (other != candidate && !isMoreSpecific(candidate.getParameterTypes(), other.getParameterTypes())) {
+                    mostSpecific = false;
+                    break;
+                }
+            }
+
+            if (mostSpecific) {
+                best.add(candidate);
+            }
+        }
+
+        if (best.size() != 1) {
+            throw new MojoExecutionException("Ambiguous constructor for " + c.getName() + describe(argClasses)
+                                             + ", it matches " + applicable);
+        }
+
+        return best.get(0);
+    }
+
+    /**
+     * Test whether a constructor's parameters accept the argument types.
+     *
+     * @param  paramTypes the parameter types.
+     * @param  argClasses the argument types.
+     * @param  unboxing   {@code true} if primitive parameters may accept
+     *                    wrapper arguments.
+     *
+     * @return {@code true} if each argument is acceptable.
+     */
+    private boolean isApplicable(Class<?>[] paramTypes, Class<?>[] argClasses, boolean unboxing) {
+        if (paramTypes.length != argClasses.length) {
+            return false;
+        }
+
+        for (int i = 0; i < paramTypes.length; i++) {
+            if (paramTypes[i].isPrimitive()) {
+                Class<?> primitive = PRIMITIVES.get(argClasses[i]);
+
+                if (!unboxing || primitive == null || !isWidening(primitive, paramTypes[i])) {
+                    return false;
+                }
+            } else if (!paramTypes[i].isAssignableFrom(argClasses[i])) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Test whether each parameter type of one constructor is at least as
+     * specific as the corresponding parameter type of another.
+     *
+     * @param  types1 the parameter types of the first constructor.
+     * @param  types2 the parameter types of the second constructor.
+     *
+     * @return {@code true} if the first constructor is at least as specific.
+     */
+    private boolean isMoreSpecific(Class<?>[] types1, Class<?>[] types2) {
+        for (int i = 0; i < types1.length; i++) {
+            Class<?> t1 = types1[i];
+            Class<?> t2 = types2[i];
+
+            if (t1.isPrimitive() && t2.isPrimitive()) {
+                if (!isWidening(t1, t2)) {
+                    return false;
+                }
+            } else if (t1.isPrimitive() || t2.isPrimitive() || !t2.isAssignableFrom(t1)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Test whether a primitive type is the same as, or widens to, another.
+     *
+     * @param  from the primitive type to convert.
+     * @param  to   the primitive type to convert it to.
+     *
+     * @return {@code true} if the conversion is an identity or widening
+     *         primitive conversion.
+     */
+    private static boolean isWidening(Class<?> from, Class<?> to) {
+        if (from == to) {
+            return true;
+        } else if (from == char.class) {
+            return NUMERIC_ORDER.indexOf(to) >= NUMERIC_ORDER.indexOf(int.class);
+        }
+
+        int fromIndex = NUMERIC_ORDER.indexOf(from);
+
+        return fromIndex >= 0 && NUMERIC_ORDER.indexOf(to) > fromIndex;
+    }
+}
@@ -0,0 +1,480 @@
+/*
+ * Copyright (c) 2010 Kathryn Huxtable.
+ *
+ * This file is part of the Image Generator Maven plugin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.kathrynhuxtable.maven.plugins.imageGenerator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URISyntaxException;
+import java.net.URLDecoder;
+
+import java.security.CodeSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * The goal's connection to a {@link RenderDaemon} or a {@link RenderWorker}.
+ *
+ * <p>The images to render are sent with {@link #render} as they are found,
+ * and the daemon's reply is read by {@link #finish} once all have been sent.
+ * If the connection fails at any point the caller renders the images itself.
+ * </p>
+ */
+class DaemonClient {
+
+    /** How long to wait for a daemon to accept a connection, in milliseconds. */
+    private static final int CONNECT_TIMEOUT = 1000;
+
+    /** The socket connected to the daemon, or {@code null} for a worker. */
+    private final Socket socket;
+
+    /** The stream from the daemon. */
+    private final DataInputStream in;
+
+    /** The stream to the daemon. */
+    private final DataOutputStream out;
+
+    /**
+     * Create a new DaemonClient.
+     *
+     * @param  socket the socket connected to the daemon.
+     *
+     * @throws IOException if the socket's streams cannot be opened.
+     */
+    private DaemonClient(Socket socket) throws IOException {
+        this(socket, socket.getInputStream(), socket.getOutputStream());
+    }
+
+    /**
+     * Create a new DaemonClient.
+     *
+     * @param socket the socket connected to the daemon, or {@code null} for a
+     *               worker.
+     * @param in     the stream from the daemon or worker.
+     * @param out    the stream to the daemon or worker.
+     */
+    private DaemonClient(Socket socket, InputStream in, OutputStream out) {
+        this.socket = socket;
+        this.in     = new DataInputStream(new BufferedInputStream(in));
+        this.out    = new DataOutputStream(new BufferedOutputStream(out, 65536));
+    }
+
+    /**
+     * Connect to the daemon named by a port file, if it is running and renders
+     * for the same classpath. A daemon for a different classpath exits when
+     * asked.
+     *
+     * @param  portFile    the port file.
+     * @param  fingerprint the fingerprint of the daemon's classpath.
+     *
+     * @return the connection, or {@code null} if there is no daemon, or it
+     *         renders for another classpath.
+     *
+     * @throws IOException if the daemon is running but does not answer in
+     *                     time, as when it is busy or hung.
+     */
+    static DaemonClient connect(File portFile, String fingerprint) throws IOException {
+        Properties properties = DaemonProtocol.readPortFile(portFile);
+
+        if (properties == null) {
+            return null;
+        }
+
+        Socket socket = new Socket();
+
+        try {
+            socket.connect(new InetSocketAddress(InetAddress.getByName(null), Integer.parseInt(properties.getProperty("port"))),
+                           CONNECT_TIMEOUT);
+            socket.setSoTimeout(DaemonProtocol.HANDSHAKE_TIMEOUT);
+
+            DaemonClient client = new DaemonClient(socket);
+
+            client.out.writeInt(DaemonProtocol.VERSION);
+            client.out.writeUTF(properties.getProperty("token"));
+            client.out.writeUTF(fingerprint);
+            client.out.flush();
+
+            if (client.in.readBoolean()) {
+                // The batch may take as long as it takes to render.
+                socket.setSoTimeout(0);
+                return client;
+            }
+        } catch (ConnectException e) {
+            // The daemon has died without removing its port file.
+            portFile.delete();
+        } catch (IOException e) {
+            // The daemon is busy, hung, or being replaced by another. Leave it be.
+            close(socket);
+            throw e;
+        } catch (NumberFormatException e) {
+            portFile.delete();
+        }
+
+        close(socket);
+        return null;
+    }
+
+    /**
+     * Connect to a worker started by {@link #getCommand}, waiting for it to
+     * set up its look and feels.
+     *
+     * @param  process the worker.
+     *
+     * @return the connection.
+     *
+     * @throws IOException if the worker exits or is of another version.
+     */
+    static DaemonClient attach(Process process) throws IOException {
+        DaemonClient client  = new DaemonClient(null, process.getInputStream(), process.getOutputStream());
+        int          version = client.in.readInt();
+
+        if (version != DaemonProtocol.VERSION) {
+            client.close();
+            throw new IOException("The worker speaks protocol version " + version + ", expected " + DaemonProtocol.VERSION);
+        }
+
+        return client;
+    }
+
+    /**
+     * Get the command which runs a class of the plugin in a new headless JVM.
+     * The classpath is given by a jar holding only a manifest, so that the
+     * command stays short however long the classpath is.
+     *
+     * @param  classpath    the classpath.
+     * @param  mainClass    the class to run.
+     * @param  jarDirectory the directory to write the classpath jar into.
+     *
+     * @return the command, to which the arguments of the class are added.
+     *
+     * @throws IOException if the classpath jar cannot be written.
+     */
+    static List<String> getCommand(List<String> classpath, Class<?> mainClass, File jarDirectory) throws IOException {
+        List<String> command = new ArrayList<String>();
+
+        command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+        command.add("-Djava.awt.headless=true");
+        command.add("-cp");
+        command.add(getClasspathJar(classpath, jarDirectory).getPath());
+        command.add(mainClass.getName());
+        return command;
+    }
+
+    /**
+     * Get a jar whose manifest gives a classpath, writing it if it does not
+     * exist. The jar is named by the digest of the classpath, so a running
+     * daemon's jar is never rewritten, and it is written to a temporary file
+     * which is then renamed, so concurrent builds never see a partial one.
+     *
+     * @param  classpath    the classpath.
+     * @param  jarDirectory the directory to write the jar into.
+     *
+     * @return the jar.
+     *
+     * @throws IOException if the jar cannot be written.
+     */
+    static File getClasspathJar(List<String> classpath, File jarDirectory) throws IOException {
+        File jar = new File(jarDirectory, "classpath-" + Digests.sha1(join(classpath, "\n")) + ".jar");
+
+        if (jar.isFile()) {
+            return jar;
+        }
+
+        StringBuilder urls = new StringBuilder();
+
+        for (String element : classpath) {
+            if (urls.length() > 0) {
+                urls.append(' ');
+            }
+
+            // The URI of a directory ends in a slash, as the manifest requires.
+            urls.append(new File(element).getAbsoluteFile().toURI().toString());
+        }
+
+        Manifest manifest = new Manifest();
+
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.CLASS_PATH, urls.toString());
+
+        File temp = File.createTempFile("classpath", ".tmp", jarDirectory);
+
+        try {
+            new JarOutputStream(new FileOutputStream(temp), manifest).close();
+            if (!temp.renameTo(jar) && !jar.isFile()) {
+                throw new IOException("Unable to rename " + temp + " to " + jar);
+            }
+        } finally {
+            temp.delete();
+        }
+
+        return jar;
+    }
+
+    /**
+     * Start a daemon in the background, for later builds to use. The daemon
+     * runs the plugin's classes with the project's runtime classpath in a new
+     * headless JVM, and writes its output to a log file beside the port file.
+     *
+     * @param  portFile     the port file the daemon is to write.
+     * @param  classpath    the daemon's classpath.
+     * @param  fingerprint  the fingerprint of the classpath.
+     * @param  idleTimeout  how long the daemon waits for a build before
+     *                      exiting, in minutes.
+     * @param  maxPoolBytes the maximum number of bytes of images the daemon
+     *                      keeps for reuse.
+     * @param  lookAndFeels the look and feels for the daemon to set up in
+     *                      advance.
+     *
+     * @return the daemon's log file.
+     *
+     * @throws IOException if the daemon cannot be started.
+     */
+    static File start(File portFile, List<String> classpath, String fingerprint, int idleTimeout, long maxPoolBytes,
+            List<String> lookAndFeels) throws IOException {
+        List<String> command = getCommand(classpath, RenderDaemon.class, portFile.getParentFile());
+
+        command.add(portFile.getPath());
+        command.add(fingerprint);
+        command.add(Integer.toString(idleTimeout));
+        command.add(Long.toString(maxPoolBytes));
+        command.addAll(lookAndFeels);
+
+        File    log     = new File(portFile.getPath().replaceFirst("\\.port$", "") + ".log");
+        Process process = new ProcessBuilder(command).redirectErrorStream(true)
+                                                     .redirectOutput(ProcessBuilder.Redirect.appendTo(log)).start();
+
+        process.getOutputStream().close();
+        return log;
+    }
+
+    /**
+     * Get the classpath a daemon or worker needs: the plugin's own classes,
+     * the Maven plugin API they use, and the project's runtime classpath.
+     *
+     * @param  runtimeClasspathElements the project's runtime classpath.
+     *
+     * @return the classpath.
+     *
+     * @throws MojoExecutionException if the location of the plugin's classes
+     *                                cannot be found.
+     */
+    static List<String> getClasspath(List<String> runtimeClasspathElements) throws MojoExecutionException {
+        List<String> classpath = new ArrayList<String>();
+
+        classpath.add(getLocation(DaemonClient.class));
+        classpath.add(getLocation(MojoExecutionException.class));
+        if (runtimeClasspathElements != null) {
+            classpath.addAll(runtimeClasspathElements);
+        }
+
+        return classpath;
+    }
+
+    /**
+     * Send the settings used to write the image files.
+     *
+     * @param  encoder          the PNG encoder, {@code builtin} or
+     *                          {@code imageio}.
+     * @param  compressionLevel the compression level.
+     * @param  filterStrategy   the filter strategy.
+     * @param  palette          the palette reduction, {@code none},
+     *                          {@code lossless} or {@code lossy}.
+     * @param  paletteMaxError  the largest difference allowed in any channel
+     *                          by lossy palette reduction.
+     * @param  writerThreads    the number of writer threads.
+     * @param  writerQueueSize  the maximum number of images painted but not
+     *                          yet written.
+     * @param  tileHeight       the height of the strips tall panels are
+     *                          painted in, or zero to paint every panel whole.
+     *
+     * @throws IOException if the connection fails.
+     */
+    void begin(String encoder, int compressionLevel, String filterStrategy, String palette, int paletteMaxError, int writerThreads,
+            int writerQueueSize, int tileHeight) throws IOException {
+        out.writeUTF(encoder.toLowerCase(Locale.ENGLISH));
+        out.writeInt(compressionLevel);
+        out.writeUTF(filterStrategy.toUpperCase(Locale.ENGLISH));
+        out.writeUTF(palette.toLowerCase(Locale.ENGLISH));
+        out.writeInt(paletteMaxError);
+        out.writeInt(writerThreads);
+        out.writeInt(writerQueueSize);
+        out.writeInt(tileHeight);
+    }
+
+    /**
+     * Send an image to be rendered at several scales, with its derivatives.
+     *
+     * @param  lookAndFeel the look and feel class name.
+     * @param  info        the image specification.
+     * @param  records     the metrics records of the image files, one for each
+     *                     scale, each followed by those of its derivatives.
+     * @param  files       the image file for each record.
+     *
+     * @throws IOException if the connection fails.
+     */
+    void render(String lookAndFeel, ImageInfo info, List<RenderMetrics.ImageRecord> records, List<File> files)
+        throws IOException {
+        out.writeByte(DaemonProtocol.IMAGE);
+        out.writeUTF(lookAndFeel);
+        DaemonProtocol.writeImageInfo(out, info);
+        out.writeInt(records.size());
+        for (int i = 0; i < records.size(); i++) {
+            RenderMetrics.ImageRecord record = records.get(i);
+
+            out.writeFloat(record.scale.factor);
+            out.writeUTF(record.derivative == null ? "" : record.derivative.canonicalForm());
+            out.writeUTF(files.get(i).getAbsolutePath());
+        }
+    }
+
+    /**
+     * End the batch and wait for the daemon to render and write the images.
+     *
+     * @param  records the metrics records of every image file sent, in the
+     *                 order they were sent, which are given the daemon's
+     *                 timings.
+     *
+     * @return the daemon's error message, which is empty if all the images
+     *         were written.
+     *
+     * @throws IOException if the connection fails.
+     */
+    String finish(List<RenderMetrics.ImageRecord> records) throws IOException {
+        out.writeByte(DaemonProtocol.END);
+        out.flush();
+
+        String error = in.readUTF();
+        int    count = in.readInt();
+
+        if (error.length() == 0 && count != records.size()) {
+            throw new IOException("The daemon returned " + count + " images, expected " + records.size());
+        }
+
+        for (int i = 0; i < count; i++) {
+            DaemonProtocol.readRecord(in, records.get(i));
+        }
+
+        return error;
+    }
+
+    /**
+     * Close the connection. A worker exits once its input is closed.
+     */
+    void close() {
+        if (socket != null) {
+            close(socket);
+            return;
+        }
+
+        try {
+            out.close();
+        } catch (IOException e) {
+            // The worker has already exited.
+        }
+
+        try {
+            in.close();
+        } catch (IOException e) {
+            // Nothing to do.
+        }
+    }
+
+    /**
+     * Close a socket, ignoring errors.
+     *
+     * @param socket the socket.
+     */
+    private static void close(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Nothing to do.
+        }
+    }
+
+    /**
+     * Get the jar file or directory a class was loaded from.
+     *
+     * @param  c the class.
+     *
+     * @return the jar file or directory.
+     *
+     * @throws MojoExecutionException if the location cannot be found.
+     */
+    private static String getLocation(Class<?> c) throws MojoExecutionException {
+        CodeSource source = c.getProtectionDomain().getCodeSource();
+
+        if (source == null || source.getLocation() == null) {
+            throw new MojoExecutionException("Unable to find the location of " + c.getName());
+        }
+
+        try {
+            return new File(source.getLocation().toURI()).getPath();
+        } catch (URISyntaxException e) {
+            try {
+                return URLDecoder.decode(source.getLocation().getPath(), "UTF-8");
+            } catch (UnsupportedEncodingException e2) {
+                throw new MojoExecutionException("Unable to find the location of " + c.getName(), e2);
+            }
+        }
+    }
+
+    /**
+     * Join strings with a separator.
+     *
+     * @param  strings   the strings.
+     * @param  separator the separator.
+     *
+     * @return the joined string.
+     */
+    private static String join(List<String> strings, String separator) {
+        StringBuilder builder = new StringBuilder();
+
+        for (String s : strings) {
+            if (builder.length() > 0) {
+                builder.append(separator);
+            }
+
+            builder.append(s);
+        }
+
+        return builder.toString();
+    }
+}
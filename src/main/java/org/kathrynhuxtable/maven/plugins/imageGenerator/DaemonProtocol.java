@@ -0,0 +1,333 @@
+/*
+ * Copyright (c) 2010 Kathryn Huxtable.
+ *
+ * This file is part of the Image Generator Maven plugin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.kathrynhuxtable.maven.plugins.imageGenerator;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * The messages passed between the goal and a {@link RenderDaemon} over a
+ * local socket.
+ *
+ * <p>The daemon writes a port file holding its port, a random token and the
+ * fingerprint of its classpath. A client connects, sends the protocol
+ * version, the token and the fingerprint of its own classpath, and the daemon
+ * answers whether it can render for that classpath. If it can, the client
+ * sends the encoder settings, then an {@link #IMAGE} message for each image to
+ * render, then {@link #END}. Only then does the daemon reply, with an error
+ * message, which is empty on success, and the timings of each image file in
+ * the order they were sent. Nothing is read back while images are being
+ * sent, so neither side can block the other.</p>
+ *
+ * <p>Each side waits at most {@link #HANDSHAKE_TIMEOUT} for the other during
+ * the handshake, so that a client of a busy or hung daemon renders the images
+ * itself, and a connection which sends nothing cannot hold up the daemon.</p>
+ */
+final class DaemonProtocol {
+
+    /** The protocol version, changed whenever the messages change. */
+    static final int VERSION = 5;
+
+    /** How long either side waits for the other's handshake, in milliseconds. */
+    static final int HANDSHAKE_TIMEOUT = 5000;
+
+    /** Introduces an image to render. */
+    static final byte IMAGE = 1;
+
+    /** Ends the batch of images. */
+    static final byte END = 0;
+
+    /** Tags the type of an argument or client property value. */
+    private static final byte STRING  = 'S';
+    private static final byte INTEGER = 'I';
+    private static final byte FLOAT   = 'F';
+    private static final byte DOUBLE  = 'D';
+
+    /**
+     * Not instantiable.
+     */
+    private DaemonProtocol() {
+    }
+
+    /**
+     * Write an image specification.
+     *
+     * @param  out  the stream.
+     * @param  info the image specification.
+     *
+     * @throws IOException if the stream cannot be written, or a value is of a
+     *                     type the config file cannot produce.
+     */
+    static void writeImageInfo(DataOutputStream out, ImageInfo info) throws IOException {
+        out.writeUTF(info.className);
+        out.writeInt(info.width);
+        out.writeInt(info.height);
+        out.writeInt(info.panelWidth);
+        out.writeInt(info.panelHeight);
+
+        out.writeInt(info.args.length);
+        for (Object arg : info.args) {
+            writeValue(out, arg);
+        }
+
+        out.writeInt(info.properties.size());
+        for (Map.Entry<String, Object> entry : info.properties.entrySet()) {
+            out.writeUTF(entry.getKey());
+            writeValue(out, entry.getValue());
+        }
+
+        out.writeBoolean(info.state != null);
+        if (info.state != null) {
+            out.writeUTF(info.state.name);
+
+            out.writeInt(info.state.flags.size());
+            for (Map.Entry<String, Boolean> entry : info.state.flags.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeBoolean(entry.getValue());
+            }
+
+            out.writeInt(info.state.properties.size());
+            for (Map.Entry<String, Object> entry : info.state.properties.entrySet()) {
+                out.writeUTF(entry.getKey());
+                writeValue(out, entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Read an image specification.
+     *
+     * @param  in the stream.
+     *
+     * @return the image specification.
+     *
+     * @throws IOException if the stream cannot be read.
+     */
+    static ImageInfo readImageInfo(DataInputStream in) throws IOException {
+        ImageInfo info = new ImageInfo();
+
+        info.className   = in.readUTF();
+        info.width       = in.readInt();
+        info.height      = in.readInt();
+        info.panelWidth  = in.readInt();
+        info.panelHeight = in.readInt();
+
+        info.args = new Object[in.readInt()];
+        for (int i = 0; i < info.args.length; i++) {
+            info.args[i] = readValue(in);
+        }
+
+        int count = in.readInt();
+
+        info.properties = new HashMap<String, Object>();
+        for (int i = 0; i < count; i++) {
+            info.properties.put(in.readUTF(), readValue(in));
+        }
+
+        if (in.readBoolean()) {
+            info.state            = new ImageState();
+            info.state.name       = in.readUTF();
+            info.state.flags      = new HashMap<String, Boolean>();
+            info.state.properties = new HashMap<String, Object>();
+
+            count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                info.state.flags.put(in.readUTF(), in.readBoolean());
+            }
+
+            count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                info.state.properties.put(in.readUTF(), readValue(in));
+            }
+        }
+
+        return info;
+    }
+
+    /**
+     * Write a value of one of the types the config file can produce.
+     *
+     * @param  out   the stream.
+     * @param  value the value.
+     *
+     * @throws IOException if the stream cannot be written, or the value is of
+     *                     another type.
+     */
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value instanceof String) {
+            out.writeByte(STRING);
+            out.writeUTF((String) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(INTEGER);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Float) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else {
+            throw new IOException("Cannot send a value of " + (value == null ? "null" : value.getClass()) + " to the daemon");
+        }
+    }
+
+    /**
+     * Read a value written by {@link #writeValue(DataOutputStream, Object)}.
+     *
+     * @param  in the stream.
+     *
+     * @return the value.
+     *
+     * @throws IOException if the stream cannot be read, or the type is not
+     *                     recognized.
+     */
+    private static Object readValue(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+
+        switch (type) {
+
+        case STRING:
+            return in.readUTF();
+
+        case INTEGER:
+            return in.readInt();
+
+        case FLOAT:
+            return in.readFloat();
+
+        case DOUBLE:
+            return in.readDouble();
+
+        default:
+            throw new IOException("Unknown value type " + type);
+        }
+    }
+
+    /**
+     * Write the timings of an image file.
+     *
+     * @param  out    the stream.
+     * @param  record the metrics record of the image file.
+     *
+     * @throws IOException if the stream cannot be written.
+     */
+    static void writeRecord(DataOutputStream out, RenderMetrics.ImageRecord record) throws IOException {
+        out.writeLong(record.constructTime);
+        out.writeLong(record.layoutTime);
+        out.writeLong(record.paintTime);
+        out.writeLong(record.encodeTime);
+        out.writeLong(record.writeTime);
+        out.writeLong(record.bytes);
+        out.writeInt(record.paletteColors);
+        out.writeLong(record.bytesSaved);
+    }
+
+    /**
+     * Read the timings of an image file into its record.
+     *
+     * @param  in     the stream.
+     * @param  record the metrics record of the image file.
+     *
+     * @throws IOException if the stream cannot be read.
+     */
+    static void readRecord(DataInputStream in, RenderMetrics.ImageRecord record) throws IOException {
+        record.constructTime = in.readLong();
+        record.layoutTime    = in.readLong();
+        record.paintTime     = in.readLong();
+        record.encodeTime    = in.readLong();
+        record.writeTime     = in.readLong();
+        record.bytes         = in.readLong();
+        record.paletteColors = in.readInt();
+        record.bytesSaved    = in.readLong();
+    }
+
+    /**
+     * Read a daemon's port file.
+     *
+     * @param  file the port file.
+     *
+     * @return the port file's properties, or {@code null} if it cannot be
+     *         read.
+     */
+    static Properties readPortFile(File file) {
+        Properties properties = new Properties();
+
+        try {
+            InputStream in = new FileInputStream(file);
+
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+
+        return properties;
+    }
+
+    /**
+     * Write a daemon's port file, readable only by its owner. It is written to
+     * a temporary file which is then renamed, so a client never reads a
+     * partial file.
+     *
+     * @param  file       the port file.
+     * @param  properties the port, token and fingerprint.
+     *
+     * @throws IOException if the file cannot be written.
+     */
+    static void writePortFile(File file, Properties properties) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+
+        temp.delete();
+        if (!temp.createNewFile()) {
+            throw new IOException("Unable to create " + temp);
+        }
+
+        temp.setReadable(false, false);
+        temp.setReadable(true, true);
+
+        OutputStream out = new FileOutputStream(temp);
+
+        try {
+            properties.store(out, "Image generator rendering daemon");
+        } finally {
+            out.close();
+        }
+
+        if (!temp.renameTo(file)) {
+            file.delete();
+            if (!temp.renameTo(file)) {
+                throw new IOException("Unable to rename " + temp + " to " + file);
+            }
+        }
+    }
+}
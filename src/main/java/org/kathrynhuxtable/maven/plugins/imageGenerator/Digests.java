@@ -0,0 +1,332 @@
+/*
+ * Copyright (c) 2010 Kathryn Huxtable.
+ *
+ * This file is part of the Image Generator Maven plugin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.kathrynhuxtable.maven.plugins.imageGenerator;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Static helpers for computing the SHA-1 digests used to identify image
+ * specifications and classpaths.
+ */
+final class Digests {
+
+    /** Hexadecimal digits, for formatting digests. */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /** The first line of a jar digest file, changed whenever the format does. */
+    private static final String DIGESTS_HEADER = "imagegenerator-jar-digests 1";
+
+    /**
+     * The digests of the jars read so far in this JVM, by path, length and
+     * modification time, shared by the modules of a reactor build.
+     */
+    private static final Map<String, String> jarDigests = new ConcurrentHashMap<String, String>();
+
+    /**
+     * Not instantiable.
+     */
+    private Digests() {
+    }
+
+    /**
+     * Create a new SHA-1 message digest.
+     *
+     * @return the message digest.
+     */
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-1.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Compute the SHA-1 digest of a string, as hexadecimal.
+     *
+     * @param  s the string.
+     *
+     * @return the digest of the UTF-8 encoding of the string.
+     */
+    static String sha1(String s) {
+        MessageDigest digest = newDigest();
+
+        update(digest, s);
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Compute the SHA-1 digest of the contents of a file, as hexadecimal.
+     *
+     * @param  file the file.
+     *
+     * @return the digest.
+     *
+     * @throws IOException if the file cannot be read.
+     */
+    static String sha1(File file) throws IOException {
+        MessageDigest digest = newDigest();
+
+        updateFile(digest, file);
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Compute a fingerprint of the runtime classpath from the contents of its
+     * elements, but not their paths, so that the same classes give the same
+     * fingerprint wherever they are checked out or downloaded to. Jars
+     * contribute the digest of their contents, and directories the relative
+     * paths and contents of the files beneath them.
+     *
+     * <p>The digest of each jar is remembered by its path, length and
+     * modification time, for the rest of the JVM and in the digest file, and
+     * is only computed again when one of them changes.</p>
+     *
+     * @param  classpathElements the classpath elements. May be {@code null}.
+     * @param  digestFile        the file of jar digests, or {@code null} to
+     *                           remember them only in this JVM.
+     *
+     * @return the fingerprint, as hexadecimal.
+     *
+     * @throws IOException if a classpath element cannot be read.
+     */
+    static String fingerprintClasspath(List<String> classpathElements, File digestFile) throws IOException {
+        MessageDigest digest = newDigest();
+
+        if (classpathElements == null) {
+            return toHex(digest.digest());
+        }
+
+        Map<String, String> saved   = null;
+        Map<String, String> created = new LinkedHashMap<String, String>();
+
+        for (String element : classpathElements) {
+            File file = new File(element);
+
+            if (file.isDirectory()) {
+                update(digest, "directory");
+                updateDirectory(digest, file, "");
+                continue;
+            } else if (!file.isFile()) {
+                update(digest, "missing");
+                continue;
+            }
+
+            String key       = file.getAbsolutePath() + '\t' + file.length() + '\t' + file.lastModified();
+            String jarDigest = jarDigests.get(key);
+
+            if (jarDigest == null && digestFile != null) {
+                if (saved == null) {
+                    saved = readJarDigests(digestFile);
+                }
+
+                jarDigest = saved.get(key);
+            }
+
+            if (jarDigest == null) {
+                jarDigest = sha1(file);
+                created.put(key, jarDigest);
+            }
+
+            jarDigests.put(key, jarDigest);
+            update(digest, "jar " + jarDigest);
+        }
+
+        if (digestFile != null && !created.isEmpty()) {
+            writeJarDigests(digestFile, saved == null ? readJarDigests(digestFile) : saved, created);
+        }
+
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Read a file of jar digests. A missing or unreadable file is treated as
+     * empty.
+     *
+     * @param  file the digest file.
+     *
+     * @return the digest of each jar, by its path, length and modification
+     *         time.
+     */
+    private static Map<String, String> readJarDigests(File file) {
+        Map<String, String> saved = new LinkedHashMap<String, String>();
+
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+
+            try {
+                if (!DIGESTS_HEADER.equals(reader.readLine())) {
+                    return saved;
+                }
+
+                for (String line = null; (line = reader.readLine()) != null;) {
+                    int tab = line.lastIndexOf('\t');
+
+                    if (tab > 0) {
+                        saved.put(line.substring(0, tab), line.substring(tab + 1));
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            // Compute the digest of every jar.
+        }
+
+        return saved;
+    }
+
+    /**
+     * Write a file of jar digests, replacing the saved digest of any jar whose
+     * length or modification time has changed. Failure to write the file is
+     * not an error.
+     *
+     * @param file    the digest file.
+     * @param saved   the digests read from the file.
+     * @param created the digests computed since, by the jar's path, length
+     *                and modification time.
+     */
+    private static void writeJarDigests(File file, Map<String, String> saved, Map<String, String> created) {
+        Set<String> paths = new HashSet<String>();
+
+        for (String key : created.keySet()) {
+            paths.add(key.substring(0, key.indexOf('\t')));
+        }
+
+        StringBuilder contents = new StringBuilder(DIGESTS_HEADER).append('\n');
+
+        for (Map.Entry<String, String> entry : saved.entrySet()) {
+            if (!paths.contains(entry.getKey().substring(0, entry.getKey().indexOf('\t')))) {
+                contents.append(entry.getKey()).append('\t').append(entry.getValue()).append('\n');
+            }
+        }
+
+        for (Map.Entry<String, String> entry : created.entrySet()) {
+            contents.append(entry.getKey()).append('\t').append(entry.getValue()).append('\n');
+        }
+
+        IndexedClassLoader.writeIndex(file, contents.toString());
+    }
+
+    /**
+     * Format bytes as hexadecimal.
+     *
+     * @param  bytes the bytes.
+     *
+     * @return the hexadecimal string.
+     */
+    static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2]     = HEX[(bytes[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+
+        return new String(chars);
+    }
+
+    /**
+     * Add a string and a separator to a digest.
+     *
+     * @param digest the digest.
+     * @param s      the string.
+     */
+    static void update(MessageDigest digest, String s) {
+        try {
+            digest.update(s.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            // Every Java platform is required to support UTF-8.
+            throw new IllegalStateException(e);
+        }
+
+        digest.update((byte) 0);
+    }
+
+    /**
+     * Add the relative paths and contents of the files in a directory to a
+     * digest, in a stable order.
+     *
+     * @param  digest the digest.
+     * @param  dir    the directory.
+     * @param  prefix the path of the directory relative to the classpath
+     *                element.
+     *
+     * @throws IOException if a file cannot be read.
+     */
+    private static void updateDirectory(MessageDigest digest, File dir, String prefix) throws IOException {
+        String[] names = dir.list();
+
+        if (names == null) {
+            return;
+        }
+
+        Arrays.sort(names);
+        for (String name : names) {
+            File file = new File(dir, name);
+
+            if (file.isDirectory()) {
+                updateDirectory(digest, file, prefix + name + "/");
+            } else {
+                update(digest, prefix + name);
+                updateFile(digest, file);
+            }
+        }
+    }
+
+    /**
+     * Add the contents of a file to a digest.
+     *
+     * @param  digest the digest.
+     * @param  file   the file.
+     *
+     * @throws IOException if the file cannot be read.
+     */
+    static void updateFile(MessageDigest digest, File file) throws IOException {
+        InputStream in     = new FileInputStream(file);
+        byte[]      buffer = new byte[8192];
+
+        try {
+            for (int n; (n = in.read(buffer)) > 0;) {
+                digest.update(buffer, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2010 Kathryn Huxtable.
+ *
+ * This file is part of the Image Generator Maven plugin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.kathrynhuxtable.maven.plugins.imageGenerator;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+/**
+ * Compares an image with its baseline, pixel by pixel, as non-premultiplied
+ * ARGB. Two pixels which are both fully transparent are the same whatever
+ * their colors, since palette images may give them any color.
+ *
+ * <p>In strict mode, with no tolerance and no pixels allowed to differ, the
+ * comparison stops at the first difference. Otherwise each pixel differs if
+ * any of its channels differs by more than the tolerance, and the image has
+ * changed if more pixels differ than are allowed. Only a changed image is
+ * measured and given a diff image, in a second pass.</p>
+ *
+ * <p>A comparator holds no state, so it may be used from several threads at
+ * once.</p>
+ */
+class ImageComparator {
+
+    /** The color of a changed pixel in a diff image. */
+    private static final int CHANGED = 0xffff0000;
+
+    /** The largest difference allowed in any channel of a pixel. */
+    private final int tolerance;
+
+    /** The number of pixels which may differ before the image has changed. */
+    private final int maxPixels;
+
+    /**
+     * Create a new ImageComparator.
+     *
+     * @param tolerance the largest difference allowed in the red, green, blue
+     *                  or alpha value of a pixel.
+     * @param maxPixels the number of pixels which may differ without the
+     *                  image having changed.
+     */
+    public ImageComparator(int tolerance, int maxPixels) {
+        this.tolerance = tolerance;
+        this.maxPixels = maxPixels;
+    }
+
+    /**
+     * Check whether an image has changed from its baseline.
+     *
+     * @param  baseline the baseline image.
+     * @param  image    the image.
+     *
+     * @return {@code true} if the image has changed, {@code false} otherwise.
+     */
+    public boolean hasChanged(BufferedImage baseline, BufferedImage image) {
+        if (baseline.getWidth() != image.getWidth() || baseline.getHeight() != image.getHeight()) {
+            return true;
+        }
+
+        int[] a = PaletteImage.getPixels(baseline);
+        int[] b = PaletteImage.getPixels(image);
+
+        if (tolerance == 0 && maxPixels == 0) {
+            for (int i = 0; i < a.length; i++) {
+                if (a[i] != b[i] && ((a[i] | b[i]) >>> 24) != 0) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        int differing = 0;
+
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] != b[i] && differs(a[i], b[i]) && ++differing > maxPixels) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Measure how a changed image differs from its baseline, and draw a diff
+     * image over the area of both, showing the baseline faded to gray with
+     * the differing pixels in red. A pixel outside either image differs if
+     * the other image has anything there.
+     *
+     * @param  baseline the baseline image.
+     * @param  image    the image.
+     * @param  diff     {@code true} to draw the diff image, {@code false} to
+     *                  only measure.
+     *
+     * @return the difference.
+     */
+    public Difference measure(BufferedImage baseline, BufferedImage image, boolean diff) {
+        int   width     = Math.max(baseline.getWidth(), image.getWidth());
+        int   height    = Math.max(baseline.getHeight(), image.getHeight());
+        int[] a         = getPixels(baseline, width, height);
+        int[] b         = getPixels(image, width, height);
+        int[] out       = diff ? new int[width * height] : null;
+        int   differing = 0;
+        int   maxDiff   = 0;
+
+        for (int i = 0; i < a.length; i++) {
+            int pa = a[i];
+            int pb = b[i];
+
+            if (pa != pb && ((pa | pb) >>> 24) != 0) {
+                int d = maxChannelDifference(pa, pb);
+
+                if (d > tolerance) {
+                    differing++;
+                    if (d > maxDiff) {
+                        maxDiff = d;
+                    }
+
+                    if (out != null) {
+                        out[i] = CHANGED;
+                    }
+
+                    continue;
+                }
+            }
+
+            if (out != null) {
+                out[i] = fade(pa);
+            }
+        }
+
+        BufferedImage diffImage = null;
+
+        if (out != null) {
+            diffImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            System.arraycopy(out, 0, ((DataBufferInt) diffImage.getRaster().getDataBuffer()).getData(), 0, out.length);
+        }
+
+        return new Difference(differing, maxDiff, diffImage);
+    }
+
+    /**
+     * Check whether two different pixels differ by more than the tolerance.
+     *
+     * @param  a the first pixel.
+     * @param  b the second pixel.
+     *
+     * @return {@code true} if they do, {@code false} otherwise.
+     */
+    private boolean differs(int a, int b) {
+        return ((a | b) >>> 24) != 0 && maxChannelDifference(a, b) > tolerance;
+    }
+
+    /**
+     * Get the largest difference between the channels of two pixels.
+     *
+     * @param  a the first pixel.
+     * @param  b the second pixel.
+     *
+     * @return the largest difference, from 0 to 255.
+     */
+    private static int maxChannelDifference(int a, int b) {
+        int max = 0;
+
+        for (int shift = 0; shift < 32; shift += 8) {
+            int d = Math.abs(((a >>> shift) & 0xff) - ((b >>> shift) & 0xff));
+
+            if (d > max) {
+                max = d;
+            }
+        }
+
+        return max;
+    }
+
+    /**
+     * Fade a pixel of the baseline to a light gray of the same brightness, to
+     * show the unchanged parts of a diff image.
+     *
+     * @param  argb the pixel.
+     *
+     * @return the faded pixel, with a quarter of the alpha.
+     */
+    private static int fade(int argb) {
+        int alpha = (argb >>> 24) / 4;
+        int gray  = (((argb >> 16) & 0xff) * 77 + ((argb >> 8) & 0xff) * 150 + (argb & 0xff) * 29) >> 8;
+
+        return (alpha << 24) | (gray << 16) | (gray << 8) | gray;
+    }
+
+    /**
+     * Get an image's pixels in an area at least as large as the image, with
+     * the pixels outside it transparent.
+     *
+     * @param  image  the image.
+     * @param  width  the width of the area.
+     * @param  height the height of the area.
+     *
+     * @return the pixels, row by row.
+     */
+    private static int[] getPixels(BufferedImage image, int width, int height) {
+        int[] pixels = PaletteImage.getPixels(image);
+
+        if (image.getWidth() == width && image.getHeight() == height) {
+            return pixels;
+        }
+
+        int[] area = new int[width * height];
+
+        for (int y = 0; y < image.getHeight(); y++) {
+            System.arraycopy(pixels, y * image.getWidth(), area, y * width, image.getWidth());
+        }
+
+        return area;
+    }
+
+    /**
+     * How a changed image differs from its baseline.
+     */
+    static class Difference {
+
+        /** The number of pixels which differ by more than the tolerance. */
+        final int pixels;
+
+        /** The largest difference in any channel of any pixel. */
+        final int maxDifference;
+
+        /** The diff image, or {@code null} if none was drawn. */
+        final BufferedImage diffImage;
+
+        /**
+         * Create a new Difference.
+         *
+         * @param pixels        the number of differing pixels.
+         * @param maxDifference the largest difference in any channel.
+         * @param diffImage     the diff image, or {@code null} if none.
+         */
+        Difference(int pixels, int maxDifference, BufferedImage diffImage) {
+            this.pixels        = pixels;
+            this.maxDifference = maxDifference;
+            this.diffImage     = diffImage;
+        }
+    }
+}
@@ -0,0 +1,539 @@
+/*
+ * Copyright (c) 2010 Kathryn Huxtable.
+ *
+ * This file is part of the Image Generator Maven plugin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.kathrynhuxtable.maven.plugins.imageGenerator;
+
+import java.awt.image.BufferedImage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+
+import java.nio.file.Files;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * Goal generates the images, reusing those which are unchanged, and compares
+ * each with the image of the same name in a baseline directory, such as the
+ * output directory of an earlier release.
+ *
+ * <p>Images with the same contents as their baselines are unchanged without
+ * being decoded. The others are compared pixel by pixel on several threads.
+ * A report lists the images which have changed, the images which have no
+ * baseline, and the baselines which have no image, and a diff image is
+ * written for each changed image, showing the pixels which differ in red.</p>
+ *
+ * @description                  Compare the images with a baseline.
+ * @goal                         compare
+ * @requiresDependencyResolution runtime
+ */
+public class ImageCompareMojo extends ImageGeneratorMojo {
+
+    /** The most paths listed in the log for each kind of difference. */
+    private static final int MAX_LISTED = 10;
+
+    /** An image with the same pixels as its baseline. */
+    static final String UNCHANGED = "unchanged";
+
+    /** An image which differs from its baseline. */
+    static final String CHANGED = "changed";
+
+    /** An image with no baseline. */
+    static final String ADDED = "added";
+
+    /**
+     * Location of the directory holding the baseline images, laid out as the
+     * output directory is.
+     *
+     * @parameter expression="${imagegenerator.baselineDirectory}"
+     *            default-value="${basedir}/src/site/image-baseline"
+     */
+    private File baselineDirectory;
+
+    /**
+     * Location of the directory to write a diff image for each changed image
+     * into, with the same name as the image.
+     *
+     * @parameter expression="${imagegenerator.diffDirectory}"
+     *            default-value="${project.build.directory}/image-diffs"
+     */
+    private File diffDirectory;
+
+    /**
+     * Location of the JSON report of the changed, added and removed images.
+     *
+     * @parameter expression="${imagegenerator.compareReportFile}"
+     *            default-value="${project.build.directory}/imagegenerator-compare.json"
+     */
+    private File compareReportFile;
+
+    /**
+     * Largest difference allowed in the red, green, blue or alpha value of a
+     * pixel before the pixel differs from the baseline.
+     *
+     * @parameter expression="${imagegenerator.compareTolerance}" default-value="0"
+     */
+    private int compareTolerance;
+
+    /**
+     * Number of pixels of an image which may differ from the baseline without
+     * the image having changed.
+     *
+     * @parameter expression="${imagegenerator.compareMaxPixels}" default-value="0"
+     */
+    private int compareMaxPixels;
+
+    /**
+     * Number of threads used to compare the images. Zero uses one thread per
+     * processor.
+     *
+     * @parameter expression="${imagegenerator.compareThreads}" default-value="0"
+     */
+    private int compareThreads;
+
+    /**
+     * Whether to write a diff image for each changed image. If not, the diff
+     * images left by earlier runs are deleted.
+     *
+     * @parameter expression="${imagegenerator.writeDiffImages}" default-value="true"
+     */
+    private boolean writeDiffImages;
+
+    /**
+     * Whether to fail the build if any image has changed, been added or been
+     * removed.
+     *
+     * @parameter expression="${imagegenerator.failOnChange}" default-value="false"
+     */
+    private boolean failOnChange;
+
+    /**
+     * Set the baseline directory.
+     *
+     * @param baselineDirectory the directory holding the baseline images.
+     */
+    public void setBaselineDirectory(File baselineDirectory) {
+        this.baselineDirectory = baselineDirectory;
+    }
+
+    /**
+     * Set the diff directory.
+     *
+     * @param diffDirectory the directory to write the diff images into.
+     */
+    public void setDiffDirectory(File diffDirectory) {
+        this.diffDirectory = diffDirectory;
+    }
+
+    /**
+     * Set the location of the comparison report.
+     *
+     * @param compareReportFile the report file.
+     */
+    public void setCompareReportFile(File compareReportFile) {
+        this.compareReportFile = compareReportFile;
+    }
+
+    /**
+     * Set the tolerance of each channel.
+     *
+     * @param compareTolerance the largest difference allowed in a channel.
+     */
+    public void setCompareTolerance(int compareTolerance) {
+        this.compareTolerance = compareTolerance;
+    }
+
+    /**
+     * Set the number of pixels which may differ.
+     *
+     * @param compareMaxPixels the number of pixels.
+     */
+    public void setCompareMaxPixels(int compareMaxPixels) {
+        this.compareMaxPixels = compareMaxPixels;
+    }
+
+    /**
+     * Set the number of comparison threads.
+     *
+     * @param compareThreads the number of threads, or zero for one per
+     *                       processor.
+     */
+    public void setCompareThreads(int compareThreads) {
+        this.compareThreads = compareThreads;
+    }
+
+    /**
+     * Set whether to write diff images.
+     *
+     * @param writeDiffImages {@code true} to write a diff image for each
+     *                        changed image.
+     */
+    public void setWriteDiffImages(boolean writeDiffImages) {
+        this.writeDiffImages = writeDiffImages;
+    }
+
+    /**
+     * Set whether to fail the build if any image differs from the baseline.
+     *
+     * @param failOnChange {@code true} to fail the build.
+     */
+    public void setFailOnChange(boolean failOnChange) {
+        this.failOnChange = failOnChange;
+    }
+
+    /**
+     * @see org.apache.maven.plugin.AbstractMojo#execute()
+     */
+    public void execute() throws MojoExecutionException {
+        if (!baselineDirectory.isDirectory()) {
+            throw new MojoExecutionException("The baseline directory " + baselineDirectory + " does not exist");
+        } else if (compareTolerance < 0 || compareTolerance > 255) {
+            throw new MojoExecutionException("The compare tolerance must be between 0 and 255: " + compareTolerance);
+        }
+
+        generate();
+
+        final List<String> paths    = new ArrayList<String>();
+        final Set<String>  expected = new HashSet<String>();
+
+        // Only this shard's images were rendered, but the other shards' baselines are not removed.
+        listImageFiles(new ImageFileHandler() {
+                public void imageFile(String filename, String path, String fingerprint, String specHash) {
+                    if (isInShard(filename)) {
+                        paths.add(path);
+                    }
+
+                    expected.add(path);
+                }
+            });
+
+        long             start       = System.nanoTime();
+        List<Comparison> comparisons = compareImages(paths);
+        List<String>     removed     = new ArrayList<String>();
+
+        findBaselines(baselineDirectory, "", expected, removed);
+
+        List<String> changed = new ArrayList<String>();
+        List<String> added   = new ArrayList<String>();
+
+        for (Comparison comparison : comparisons) {
+            if (comparison.outcome.equals(CHANGED)) {
+                changed.add(comparison.path);
+            } else if (comparison.outcome.equals(ADDED)) {
+                added.add(comparison.path);
+            }
+        }
+
+        getLog().info("Compared " + comparisons.size() + " images with " + baselineDirectory + " in "
+                      + RenderMetrics.millis(System.nanoTime() - start) + " ms: " + changed.size() + " changed, " + added.size()
+                      + " added and " + removed.size() + " removed");
+        logPaths("Changed", changed);
+        logPaths("Added", added);
+        logPaths("Removed", removed);
+
+        try {
+            writeReport(comparisons, removed);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to write " + compareReportFile, e);
+        }
+
+        if (failOnChange && changed.size() + added.size() + removed.size() > 0) {
+            throw new MojoExecutionException("The images differ from the baseline, see " + compareReportFile);
+        }
+    }
+
+    /**
+     * Compare the images with their baselines on several threads, writing the
+     * diff images of those which have changed and deleting any left from an
+     * earlier comparison of those which have not.
+     *
+     * @param  paths the paths of the images, relative to the output directory.
+     *
+     * @return the comparison of each image, in the same order.
+     *
+     * @throws MojoExecutionException if an image cannot be read, or a diff
+     *                                image cannot be written.
+     */
+    private List<Comparison> compareImages(List<String> paths) throws MojoExecutionException {
+        final ImageComparator comparator = new ImageComparator(compareTolerance, compareMaxPixels);
+        final PngEncoder      pngEncoder = new PngEncoder(6, PngEncoder.Filter.NONE, null);
+        int                   threads    = compareThreads > 0 ? compareThreads : Runtime.getRuntime().availableProcessors();
+        ExecutorService       executor   = Executors.newFixedThreadPool(threads, new NamedThreadFactory("imagegenerator-compare"));
+
+        List<Future<Comparison>> futures     = new ArrayList<Future<Comparison>>(paths.size());
+        List<Comparison>         comparisons = new ArrayList<Comparison>(paths.size());
+
+        try {
+            for (final String path : paths) {
+                futures.add(executor.submit(new Callable<Comparison>() {
+                            public Comparison call() throws IOException {
+                                return compareImage(path, comparator, pngEncoder);
+                            }
+                        }));
+            }
+
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    comparisons.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    throw new MojoExecutionException("Unable to compare the image file " + paths.get(i) + ": "
+                                                     + e.getCause().getMessage(), e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while comparing images", e);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return comparisons;
+    }
+
+    /**
+     * Compare an image with its baseline.
+     *
+     * @param  path       the path of the image, relative to the output
+     *                    directory.
+     * @param  comparator compares the pixels.
+     * @param  pngEncoder writes the diff image.
+     *
+     * @return the comparison.
+     *
+     * @throws IOException if an image cannot be read, or the diff image
+     *                     cannot be written.
+     */
+    private Comparison compareImage(String path, ImageComparator comparator, PngEncoder pngEncoder) throws IOException {
+        File file     = new File(getOutputDirectory(), path);
+        File baseline = new File(baselineDirectory, path);
+        File diffFile = new File(diffDirectory, path);
+
+        if (!file.isFile()) {
+            throw new IOException("The image file has not been generated");
+        } else if (!baseline.isFile()) {
+            diffFile.delete();
+            return new Comparison(path, ADDED, 0, 0, null);
+        } else if (baseline.length() == file.length()
+                && Arrays.equals(Files.readAllBytes(baseline.toPath()), Files.readAllBytes(file.toPath()))) {
+            diffFile.delete();
+            return new Comparison(path, UNCHANGED, 0, 0, null);
+        }
+
+        BufferedImage baselineImage = read(baseline);
+        BufferedImage image         = read(file);
+
+        if (!comparator.hasChanged(baselineImage, image)) {
+            diffFile.delete();
+            return new Comparison(path, UNCHANGED, 0, 0, null);
+        }
+
+        ImageComparator.Difference difference = comparator.measure(baselineImage, image, writeDiffImages);
+
+        if (difference.diffImage == null) {
+            diffFile.delete();
+            return new Comparison(path, CHANGED, difference.pixels, difference.maxDifference, null);
+        }
+
+        File dir = diffFile.getParentFile();
+
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create directory " + dir);
+        }
+
+        pngEncoder.write(difference.diffImage, diffFile);
+        return new Comparison(path, CHANGED, difference.pixels, difference.maxDifference, diffFile);
+    }
+
+    /**
+     * Find the baseline images which have no image.
+     *
+     * @param dir      the directory to search.
+     * @param prefix   the path of the directory relative to the baseline
+     *                 directory, ending in a slash unless empty.
+     * @param expected the paths of the images.
+     * @param removed  receives the paths of the baseline images with no
+     *                 image.
+     */
+    private void findBaselines(File dir, String prefix, Set<String> expected, List<String> removed) {
+        File[] files = dir.listFiles();
+
+        if (files == null) {
+            return;
+        }
+
+        Arrays.sort(files);
+        for (File file : files) {
+            String path = prefix + file.getName();
+
+            if (file.isDirectory()) {
+                findBaselines(file, path + "/", expected, removed);
+            } else if (path.endsWith(".png") && !expected.contains(path)) {
+                removed.add(path);
+            }
+        }
+    }
+
+    /**
+     * Write the comparison report.
+     *
+     * @param  comparisons the comparison of each image.
+     * @param  removed     the paths of the baseline images with no image.
+     *
+     * @throws IOException if the report cannot be written.
+     */
+    private void writeReport(List<Comparison> comparisons, List<String> removed) throws IOException {
+        Writer writer = RenderMetrics.openWriter(compareReportFile);
+
+        try {
+            int unchanged = 0;
+
+            for (Comparison comparison : comparisons) {
+                if (comparison.outcome.equals(UNCHANGED)) {
+                    unchanged++;
+                }
+            }
+
+            writer.write("{\n  \"baselineDirectory\": " + RenderMetrics.quote(baselineDirectory.getPath()) + ",\n");
+            writer.write("  \"tolerance\": " + compareTolerance + ",\n");
+            writer.write("  \"maxPixels\": " + compareMaxPixels + ",\n");
+            writer.write("  \"unchanged\": " + unchanged + ",\n");
+            writer.write("  \"changed\": [");
+
+            String separator = "\n";
+
+            for (Comparison comparison : comparisons) {
+                if (comparison.outcome.equals(CHANGED)) {
+                    writer.write(separator + "    {\"file\": " + RenderMetrics.quote(comparison.path) + ", \"pixels\": "
+                                 + comparison.pixels + ", \"maxDifference\": " + comparison.maxDifference + ", \"diffImage\": "
+                                 + (comparison.diffFile == null ? "null" : RenderMetrics.quote(comparison.diffFile.getPath())) + "}");
+                    separator = ",\n";
+                }
+            }
+
+            writer.write("\n  ],\n  \"added\": [");
+            separator = "\n";
+
+            for (Comparison comparison : comparisons) {
+                if (comparison.outcome.equals(ADDED)) {
+                    writer.write(separator + "    " + RenderMetrics.quote(comparison.path));
+                    separator = ",\n";
+                }
+            }
+
+            writer.write("\n  ],\n  \"removed\": [");
+            separator = "\n";
+
+            for (String path : removed) {
+                writer.write(separator + "    " + RenderMetrics.quote(path));
+                separator = ",\n";
+            }
+
+            writer.write("\n  ]\n}\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Log the first few paths of a kind of difference.
+     *
+     * @param label the kind of difference.
+     * @param paths the paths.
+     */
+    private void logPaths(String label, List<String> paths) {
+        for (int i = 0; i < paths.size() && i < MAX_LISTED; i++) {
+            getLog().info("  " + label + ": " + paths.get(i));
+        }
+
+        if (paths.size() > MAX_LISTED) {
+            getLog().info("  " + label + ": " + (paths.size() - MAX_LISTED) + " more");
+        }
+    }
+
+    /**
+     * Read an image file.
+     *
+     * @param  file the image file.
+     *
+     * @return the image.
+     *
+     * @throws IOException if the file cannot be read or is not an image.
+     */
+    private static BufferedImage read(File file) throws IOException {
+        BufferedImage image = ImageIO.read(file);
+
+        if (image == null) {
+            throw new IOException("Unable to read " + file);
+        }
+
+        return image;
+    }
+
+    /**
+     * The comparison of an image with its baseline.
+     */
+    private static class Comparison {
+
+        /** The path of the image, relative to the output directory. */
+        final String path;
+
+        /** The outcome: unchanged, changed or added. */
+        final String outcome;
+
+        /** The number of pixels which differ, if changed. */
+        final int pixels;
+
+        /** The largest difference in any channel, if changed. */
+        final int maxDifference;
+
+        /** The diff image, or {@code null} if none was written. */
+        final File diffFile;
+
+        /**
+         * Create a new Comparison.
+         *
+         * @param path          the path of the image.
+         * @param outcome       the outcome.
+         * @param pixels        the number of pixels which differ.
+         * @param maxDifference the largest difference in any channel.
+         * @param diffFile      the diff image, or {@code null} if none.
+         */
+        Comparison(String path, String outcome, int pixels, int maxDifference, File diffFile) {
+            this.path          = path;
+            this.outcome       = outcome;
+            this.pixels        = pixels;
+            this.maxDifference = maxDifference;
+            this.diffFile      = diffFile;
+        }
+    }
+}
@@ -0,0 +1,437 @@
+/*
+ * Copyright (c) 2010 Kathryn Huxtable.
+ *
+ * This file is part of the Image Generator Maven plugin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.kathrynhuxtable.maven.plugins.imageGenerator;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * A smaller copy of each image, such as a thumbnail, written beside it.
+ *
+ * <p>A derivative is made from the image already painted at each scale, so
+ * the component is neither created nor painted again. It is either a fraction
+ * of the image's size, e.g. {@code thumb=50%}, or the largest size which fits
+ * within a box, e.g. {@code icon=64x} for at most 64 pixels wide or
+ * {@code icon=64x48}. The box is measured at scale one, and is scaled with the
+ * image. A derivative is never larger than its image. Its file has a hyphen
+ * and its name added to the filename, e.g. {@code button-thumb@2x.png}.</p>
+ *
+ * <p>The image is reduced in steps, halving it while it is at least twice
+ * the size wanted, then averaging the area each pixel covers for the last
+ * step. The colors are premultiplied by their alpha throughout, so that
+ * transparent pixels do not darken the edges of the component.</p>
+ */
+class ImageDerivative {
+
+    /** A derivative in a list of derivatives. */
+    private static final Pattern DERIVATIVE = Pattern.compile("([A-Za-z0-9_.]+(?:-[A-Za-z0-9_.]+)*)=(.+)");
+
+    /** A box a derivative must fit within. */
+    private static final Pattern BOX = Pattern.compile("(\\d*)x(\\d*)");
+
+    /** The name of the derivative. */
+    final String name;
+
+    /** The fraction of the image's size, or zero if it fits within a box. */
+    final float factor;
+
+    /** The largest width at scale one, or zero if the width is not limited. */
+    final int maxWidth;
+
+    /** The largest height at scale one, or zero if the height is not limited. */
+    final int maxHeight;
+
+    /** The suffix added to the filename. */
+    final String suffix;
+
+    /**
+     * Create a new ImageDerivative.
+     *
+     * @param name      the name of the derivative.
+     * @param factor    the fraction of the image's size, or zero if it fits
+     *                  within a box.
+     * @param maxWidth  the largest width at scale one, or zero.
+     * @param maxHeight the largest height at scale one, or zero.
+     */
+    private ImageDerivative(String name, float factor, int maxWidth, int maxHeight) {
+        this.name      = name;
+        this.factor    = factor;
+        this.maxWidth  = maxWidth;
+        this.maxHeight = maxHeight;
+        this.suffix    = "-" + name;
+    }
+
+    /**
+     * Parse a comma separated list of derivatives, e.g.
+     * "thumb=50%, icon=64x".
+     *
+     * @param  derivatives the derivatives.
+     *
+     * @return the derivatives, in the order given, which may be empty.
+     *
+     * @throws MojoExecutionException if a derivative is invalid or its name is
+     *                                repeated.
+     */
+    static List<ImageDerivative> parse(String derivatives) throws MojoExecutionException {
+        List<ImageDerivative> list = new ArrayList<ImageDerivative>();
+
+        for (String s : derivatives.split(",")) {
+            s = s.trim();
+            if (s.length() == 0) {
+                continue;
+            }
+
+            ImageDerivative derivative = parseDerivative(s);
+
+            for (ImageDerivative other : list) {
+                if (other.name.equals(derivative.name)) {
+                    throw new MojoExecutionException("Derivative " + derivative.name + " is specified more than once");
+                }
+            }
+
+            list.add(derivative);
+        }
+
+        return list;
+    }
+
+    /**
+     * Parse a single derivative, e.g. "thumb=0.5" or "icon=64x48".
+     *
+     * @param  s the derivative.
+     *
+     * @return the derivative.
+     *
+     * @throws MojoExecutionException if the derivative is invalid.
+     */
+    static ImageDerivative parseDerivative(String s) throws MojoExecutionException {
+        Matcher matcher = DERIVATIVE.matcher(s);
+
+        if (!matcher.matches()) {
+            throw new MojoExecutionException("Invalid derivative \"" + s + "\", expected a name and a size such as thumb=50%");
+        }
+
+        String  name = matcher.group(1);
+        String  size = matcher.group(2).trim();
+        Matcher box  = BOX.matcher(size);
+
+        if (box.matches()) {
+            int maxWidth  = box.group(1).length() == 0 ? 0 : parseSize(s, box.group(1));
+            int maxHeight = box.group(2).length() == 0 ? 0 : parseSize(s, box.group(2));
+
+            if (maxWidth == 0 && maxHeight == 0) {
+                throw new MojoExecutionException("Derivative " + name + " must limit the width or the height");
+            }
+
+            return new ImageDerivative(name, 0f, maxWidth, maxHeight);
+        }
+
+        float factor;
+
+        try {
+            factor = size.endsWith("%") ? Float.parseFloat(size.substring(0, size.length() - 1)) / 100f : Float.parseFloat(size);
+        } catch (NumberFormatException e) {
+            throw new MojoExecutionException("Invalid size in derivative \"" + s + "\"", e);
+        }
+
+        if (!(factor > 0f && factor <= 1f)) {
+            throw new MojoExecutionException("Derivative " + name + " must be larger than 0% and no larger than 100%");
+        }
+
+        return new ImageDerivative(name, factor, 0, 0);
+    }
+
+    /**
+     * Parse a positive size in pixels.
+     *
+     * @param  s    the derivative, for the error message.
+     * @param  size the size.
+     *
+     * @return the size.
+     *
+     * @throws MojoExecutionException if the size is not positive.
+     */
+    private static int parseSize(String s, String size) throws MojoExecutionException {
+        try {
+            int value = Integer.parseInt(size);
+
+            if (value > 0) {
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below.
+        }
+
+        throw new MojoExecutionException("Invalid size in derivative \"" + s + "\"");
+    }
+
+    /**
+     * Get a string which uniquely describes this derivative, which
+     * {@link #parseDerivative(String)} reads back, e.g. "thumb=0.5" or
+     * "icon=64x".
+     *
+     * @return the canonical form.
+     */
+    String canonicalForm() {
+        if (factor > 0f) {
+            return name + "=" + factor;
+        }
+
+        return name + "=" + (maxWidth > 0 ? String.valueOf(maxWidth) : "") + "x" + (maxHeight > 0 ? String.valueOf(maxHeight) : "");
+    }
+
+    /**
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof ImageDerivative && canonicalForm().equals(((ImageDerivative) obj).canonicalForm());
+    }
+
+    /**
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        return canonicalForm().hashCode();
+    }
+
+    /**
+     * Create the derivative of an image painted at any scale.
+     *
+     * @param  image the image.
+     * @param  info  the image specification, whose panel size is that of the
+     *               image at scale one.
+     *
+     * @return the derivative, which is the image itself if it is already
+     *         small enough.
+     */
+    public BufferedImage derive(BufferedImage image, ImageInfo info) {
+        double fraction = factor;
+
+        if (factor == 0f) {
+            fraction = 1.0;
+            if (maxWidth > 0) {
+                fraction = Math.min(fraction, maxWidth / (double) info.panelWidth);
+            }
+
+            if (maxHeight > 0) {
+                fraction = Math.min(fraction, maxHeight / (double) info.panelHeight);
+            }
+        }
+
+        int width  = Math.max(1, (int) Math.round(image.getWidth() * fraction));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * fraction));
+
+        if (width >= image.getWidth() && height >= image.getHeight()) {
+            return image;
+        }
+
+        return downscale(image, width, height);
+    }
+
+    /**
+     * Reduce an image to a smaller size, halving it while it is at least
+     * twice the size, then averaging the area each pixel covers.
+     *
+     * @param  image  the image.
+     * @param  width  the width, no larger than the image's.
+     * @param  height the height, no larger than the image's.
+     *
+     * @return the new image.
+     */
+    static BufferedImage downscale(BufferedImage image, int width, int height) {
+        int   w      = image.getWidth();
+        int   h      = image.getHeight();
+        int[] pixels = premultiply(PaletteImage.getPixels(image));
+
+        while (w >= width * 2 || h >= height * 2) {
+            int halfWidth  = w >= width * 2 ? (w + 1) / 2 : w;
+            int halfHeight = h >= height * 2 ? (h + 1) / 2 : h;
+
+            pixels = halve(pixels, w, h, halfWidth, halfHeight);
+            w      = halfWidth;
+            h      = halfHeight;
+        }
+
+        if (w != width || h != height) {
+            // Each pass transposes the pixels, so two leave them upright.
+            pixels = averageRows(pixels, w, h, width);
+            pixels = averageRows(pixels, h, width, height);
+        }
+
+        BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        int[]         data   = ((DataBufferInt) result.getRaster().getDataBuffer()).getData();
+
+        for (int i = 0; i < data.length; i++) {
+            data[i] = unpremultiply(pixels[i]);
+        }
+
+        return result;
+    }
+
+    /**
+     * Premultiply the colors of pixels by their alpha, in place.
+     *
+     * @param  pixels the non-premultiplied ARGB pixels.
+     *
+     * @return the pixels.
+     */
+    private static int[] premultiply(int[] pixels) {
+        for (int i = 0; i < pixels.length; i++) {
+            int argb  = pixels[i];
+            int alpha = argb >>> 24;
+
+            if (alpha == 0) {
+                pixels[i] = 0;
+            } else if (alpha != 255) {
+                int r = (((argb >> 16) & 0xff) * alpha + 127) / 255;
+                int g = (((argb >> 8) & 0xff) * alpha + 127) / 255;
+                int b = ((argb & 0xff) * alpha + 127) / 255;
+
+                pixels[i] = (alpha << 24) | (r << 16) | (g << 8) | b;
+            }
+        }
+
+        return pixels;
+    }
+
+    /**
+     * Divide the colors of a premultiplied pixel by its alpha.
+     *
+     * @param  argb the premultiplied pixel.
+     *
+     * @return the non-premultiplied pixel.
+     */
+    private static int unpremultiply(int argb) {
+        int alpha = argb >>> 24;
+
+        if (alpha == 255 || alpha == 0) {
+            return argb;
+        }
+
+        int r = Math.min(255, (((argb >> 16) & 0xff) * 255 + alpha / 2) / alpha);
+        int g = Math.min(255, (((argb >> 8) & 0xff) * 255 + alpha / 2) / alpha);
+        int b = Math.min(255, ((argb & 0xff) * 255 + alpha / 2) / alpha);
+
+        return (alpha << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    /**
+     * Halve premultiplied pixels in either or both directions, averaging each
+     * pair or square of pixels. The last row or column of an odd size is
+     * averaged with itself.
+     *
+     * @param  pixels    the pixels.
+     * @param  w         the width.
+     * @param  h         the height.
+     * @param  newWidth  the new width, which is half the width rounded up, or
+     *                   the width.
+     * @param  newHeight the new height, which is half the height rounded up,
+     *                   or the height.
+     *
+     * @return the halved pixels.
+     */
+    private static int[] halve(int[] pixels, int w, int h, int newWidth, int newHeight) {
+        int[] result = new int[newWidth * newHeight];
+        int   xStep  = newWidth == w ? 0 : 1;
+        int   yStep  = newHeight == h ? 0 : 1;
+
+        for (int y = 0; y < newHeight; y++) {
+            int row0 = (y << yStep) * w;
+            int row1 = Math.min((y << yStep) + yStep, h - 1) * w;
+
+            for (int x = 0; x < newWidth; x++) {
+                int x0   = x << xStep;
+                int x1   = Math.min(x0 + xStep, w - 1);
+                int p0   = pixels[row0 + x0];
+                int p1   = pixels[row0 + x1];
+                int p2   = pixels[row1 + x0];
+                int p3   = pixels[row1 + x1];
+                int argb = 0;
+
+                for (int shift = 0; shift < 32; shift += 8) {
+                    int sum = ((p0 >>> shift) & 0xff) + ((p1 >>> shift) & 0xff) + ((p2 >>> shift) & 0xff) + ((p3 >>> shift) & 0xff);
+
+                    argb |= ((sum + 2) >> 2) << shift;
+                }
+
+                result[y * newWidth + x] = argb;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Shrink each row of premultiplied pixels, averaging the part of each old
+     * pixel each new pixel covers, and transpose the result, so that its rows
+     * are the columns of the shrunken image.
+     *
+     * @param  pixels   the pixels.
+     * @param  w        the width.
+     * @param  h        the height.
+     * @param  newWidth the new width, no larger than the width.
+     *
+     * @return the shrunken pixels, {@code h} wide and {@code newWidth} high.
+     */
+    private static int[] averageRows(int[] pixels, int w, int h, int newWidth) {
+        int[]    result = new int[newWidth * h];
+        double   ratio  = w / (double) newWidth;
+        double[] sums   = new double[4];
+
+        for (int x = 0; x < newWidth; x++) {
+            double start = x * ratio;
+            double end   = Math.min(w, start + ratio);
+
+            for (int y = 0; y < h; y++) {
+                int row = y * w;
+
+                sums[0] = sums[1] = sums[2] = sums[3] = 0.0;
+
+                for (int i = (int) start; i < end; i++) {
+                    double cover = Math.min(end, i + 1) - Math.max(start, i);
+                    int    argb  = pixels[row + i];
+
+                    for (int c = 0; c < 4; c++) {
+                        sums[c] += ((argb >>> (c * 8)) & 0xff) * cover;
+                    }
+                }
+
+                int argb = 0;
+
+                for (int c = 0; c < 4; c++) {
+                    argb |= Math.min(255, (int) (sums[c] / ratio + 0.5)) << (c * 8);
+                }
+
+                result[x * h + y] = argb;
+            }
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2010 Kathryn Huxtable.
+ *
+ * This file is part of the Image Generator Maven plugin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.kathrynhuxtable.maven.plugins.imageGenerator;
+
+import java.awt.image.BufferedImage;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.imageio.ImageIO;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * Writes painted images to PNG files, with the builtin encoder or with
+ * ImageIO, recording the time spent encoding and writing each.
+ *
+ * <p>Images may be reduced to a palette and written as indexed color PNG
+ * files, which are usually several times smaller. Each is also encoded in
+ * full color, to write whichever is smaller and record the bytes saved.</p>
+ *
+ * <p>An encoder may be used from several writer threads at once.</p>
+ */
+class ImageEncoder {
+
+    /** The builtin PNG encoder, or {@code null} if ImageIO is used. */
+    private final PngEncoder pngEncoder;
+
+    /** Whether images are reduced to a palette if possible. */
+    private final boolean palette;
+
+    /**
+     * The largest difference allowed in any channel of any pixel when
+     * reducing an image to a palette, or zero to reduce only images with at
+     * most 256 colors.
+     */
+    private final int paletteMaxError;
+
+    /**
+     * Create a new ImageEncoder which writes full color images.
+     *
+     * @param pngEncoder the builtin PNG encoder, or {@code null} to use
+     *                   ImageIO.
+     */
+    public ImageEncoder(PngEncoder pngEncoder) {
+        this(pngEncoder, false, 0);
+    }
+
+    /**
+     * Create a new ImageEncoder.
+     *
+     * @param pngEncoder      the builtin PNG encoder, or {@code null} to use
+     *                        ImageIO.
+     * @param palette         {@code true} to reduce images to a palette if
+     *                        possible, {@code false} to write them in full
+     *                        color.
+     * @param paletteMaxError the largest difference allowed in any channel
+     *                        of any pixel when reducing an image to a
+     *                        palette, or zero to reduce only images with at
+     *                        most 256 colors, exactly.
+     */
+    public ImageEncoder(PngEncoder pngEncoder, boolean palette, int paletteMaxError) {
+        this.pngEncoder      = pngEncoder;
+        this.palette         = palette;
+        this.paletteMaxError = paletteMaxError;
+    }
+
+    /**
+     * Write the buffered image to the file, recording the time spent encoding
+     * and writing it. ImageIO gives no way to tell the two apart, so with
+     * ImageIO all the time is recorded as encoding.
+     *
+     * @param  file   the file to write the image to.
+     * @param  image  the buffered image.
+     * @param  record the metrics record of the image file.
+     *
+     * @throws MojoExecutionException if unable to write the file.
+     */
+    public void write(File file, BufferedImage image, RenderMetrics.ImageRecord record) throws MojoExecutionException {
+        long start = System.nanoTime();
+
+        // Replace rather than overwrite a hard link to another image file.
+        file.delete();
+
+        try {
+            PaletteImage paletteImage = palette ? PaletteImage.create(image, paletteMaxError) : null;
+
+            if (paletteImage != null) {
+                writePalette(file, image, paletteImage, record);
+            } else if (pngEncoder != null) {
+                RenderMetrics.TimingOutputStream timer = new RenderMetrics.TimingOutputStream(new FileOutputStream(file));
+                OutputStream                     out   = new BufferedOutputStream(timer, 65536);
+
+                try {
+                    pngEncoder.write(image, out);
+                } finally {
+                    out.close();
+                }
+
+                record.writeTime = timer.time;
+                record.bytes     = timer.bytes;
+            } else {
+                ImageIO.write(image, "png", file);
+                record.bytes = file.length();
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error writing image file " + file, e);
+        }
+
+        record.encodeTime = System.nanoTime() - start - record.writeTime;
+    }
+
+    /**
+     * Make a derivative of the buffered image and write it to the file,
+     * recording the time spent reducing the image as its paint time.
+     *
+     * @param  file   the file to write the derivative to.
+     * @param  image  the buffered image, which is not changed.
+     * @param  info   the image specification.
+     * @param  record the metrics record of the derivative's file, which gives
+     *                the derivative.
+     *
+     * @throws MojoExecutionException if unable to write the file.
+     */
+    public void writeDerivative(File file, BufferedImage image, ImageInfo info, RenderMetrics.ImageRecord record)
+        throws MojoExecutionException {
+        long          start   = System.nanoTime();
+        BufferedImage derived = record.derivative.derive(image, info);
+
+        record.paintTime = System.nanoTime() - start;
+        write(file, derived, record);
+    }
+
+    /**
+     * Write an image painted a strip of rows at a time to the file, in full
+     * color, recording the time spent encoding and writing it apart from the
+     * time spent painting, which the painter records.
+     *
+     * @param  file    the file to write the image to.
+     * @param  width   the image width.
+     * @param  height  the image height.
+     * @param  painter paints the strips of the image.
+     * @param  record  the metrics record of the image file.
+     *
+     * @throws MojoExecutionException if unable to write the file, or if
+     *                                ImageIO is used, which cannot write an
+     *                                image a strip at a time.
+     */
+    public void writeTiled(File file, int width, int height, PngEncoder.StripPainter painter, RenderMetrics.ImageRecord record)
+        throws MojoExecutionException {
+        if (pngEncoder == null) {
+            throw new MojoExecutionException("Panels painted in strips must be written with the builtin encoder");
+        }
+
+        long start = System.nanoTime();
+
+        file.delete();
+
+        try {
+            RenderMetrics.TimingOutputStream timer = new RenderMetrics.TimingOutputStream(new FileOutputStream(file));
+            OutputStream                     out   = new BufferedOutputStream(timer, 65536);
+
+            try {
+                pngEncoder.write(width, height, painter, out);
+            } finally {
+                out.close();
+            }
+
+            record.writeTime = timer.time;
+            record.bytes     = timer.bytes;
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error writing image file " + file, e);
+        }
+
+        record.encodeTime = System.nanoTime() - start - record.writeTime - record.paintTime;
+    }
+
+    /**
+     * Encode an image both in full color and as a palette image, and write
+     * whichever is smaller, recording the bytes saved.
+     *
+     * @param  file         the file to write the image to.
+     * @param  image        the buffered image.
+     * @param  paletteImage the image reduced to a palette.
+     * @param  record       the metrics record of the image file.
+     *
+     * @throws IOException if unable to write the file.
+     */
+    private void writePalette(File file, BufferedImage image, PaletteImage paletteImage, RenderMetrics.ImageRecord record)
+        throws IOException {
+        ByteArrayOutputStream fullColor = new ByteArrayOutputStream(65536);
+        ByteArrayOutputStream indexed   = new ByteArrayOutputStream(16384);
+
+        if (pngEncoder != null) {
+            pngEncoder.write(image, fullColor);
+            pngEncoder.write(paletteImage, indexed);
+        } else {
+            ImageIO.write(image, "png", fullColor);
+            ImageIO.write(paletteImage.toBufferedImage(), "png", indexed);
+        }
+
+        ByteArrayOutputStream smaller = indexed.size() < fullColor.size() ? indexed : fullColor;
+
+        RenderMetrics.TimingOutputStream timer = new RenderMetrics.TimingOutputStream(new FileOutputStream(file));
+
+        try {
+            smaller.writeTo(timer);
+        } finally {
+            timer.close();
+        }
+
+        record.writeTime     = timer.time;
+        record.bytes         = timer.bytes;
+        record.bytesSaved    = fullColor.size() - smaller.size();
+        record.paletteColors = smaller == indexed ? paletteImage.colors.length : 0;
+    }
+}
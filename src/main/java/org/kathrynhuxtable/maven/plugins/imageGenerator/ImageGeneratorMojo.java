@@ -19,348 +19,2249 @@
  */
 package org.kathrynhuxtable.maven.plugins.imageGenerator;
 
-import java.awt.Graphics;
 import java.awt.image.BufferedImage;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 
-import java.lang.reflect.Constructor;
+import java.nio.file.Files;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
-import javax.imageio.ImageIO;
+import javax.swing.JComponent;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * Goal creates a directory of images from Swing using a specified XML file.
+ *
+ * @description                  Create a directory of images from Swing using a
+ *                               specified XML file.
+ * @goal                         generate
+ * @phase                        pre-site
+ * @requiresDependencyResolution runtime
+ */
+public class ImageGeneratorMojo extends AbstractMojo {
+
+    /** The most images given to a rendering worker at once. */
+    private static final int MAX_BATCH_IMAGES = 16;
+
+    /** The most pixels, summed over the scales, given to a rendering worker at once. */
+    private static final long MAX_BATCH_COST = 2 * 1024 * 1024;
+
+    /**
+     * Location of the configuration file.
+     *
+     * @parameter expression="${imagegenerator.configFile}"
+     *            default-value="${basedir}/src/site/image-generator.xml"
+     */
+    private File configFile;
+
+    /**
+     * Name of the look and feel class. Either this or {@code lookAndFeels}
+     * must be specified.
+     *
+     * @parameter expression="${imagegenerator.lookAndFeel}"
+     */
+    private String lookAndFeel;
+
+    /**
+     * Names of several look and feel classes to render every image in. The
+     * images for each are written as {@code lookAndFeelLayout} specifies. If
+     * this is specified, {@code lookAndFeel} is ignored.
+     *
+     * @parameter
+     */
+    private List<String> lookAndFeels;
+
+    /**
+     * How the images are arranged when rendering several look and feels:
+     * {@code directory} writes each look and feel's images into a
+     * sub-directory named after it, e.g. {@code metal/button.png}, and
+     * {@code suffix} appends the name to each file, e.g.
+     * {@code button-metal.png}.
+     *
+     * @parameter expression="${imagegenerator.lookAndFeelLayout}" default-value="directory"
+     */
+    private String lookAndFeelLayout;
+
+    /**
+     * Comma separated scale factors to render each image at, e.g.
+     * {@code 1, 2} for standard and high resolution displays. Each component
+     * is created once and painted at every scale with the same layout. Images
+     * at a scale other than one have a suffix such as {@code @2x} or
+     * {@code @1.5x} added to their filename.
+     *
+     * @parameter expression="${imagegenerator.scales}" default-value="1"
+     */
+    private String scales;
+
+    /**
+     * Comma separated derivatives to make of each image, e.g.
+     * {@code thumb=50%, icon=64x}. Each derivative is a fraction of the
+     * image's size, or the largest size which fits within a box at scale
+     * one, such as {@code 64x} for at most 64 pixels wide or {@code 64x48}. It
+     * is reduced from the image already painted at each scale, and written
+     * with a hyphen and its name added to the filename, e.g.
+     * {@code button-thumb@2x.png}. The {@code derivatives} attribute of an
+     * image in the config file replaces these.
+     *
+     * @parameter expression="${imagegenerator.derivatives}"
+     */
+    private String derivatives;
+
+    /**
+     * Location of the output directory.
+     *
+     * @parameter expression="${imagegenerator.outputDirectory}"
+     *            default-value="${project.build.directory}/generated-site/resources/images"
+     */
+    private File outputDirectory;
+
+    /**
+     * Location of the manifest of the image files generated, used to skip
+     * the unchanged images and to delete those of removed entries.
+     *
+     * @parameter expression="${imagegenerator.manifestFile}"
+     *            default-value="${project.build.directory}/generated-site/image-generator.manifest"
+     */
+    private File manifestFile;
+
+    /**
+     * Whether to return at once, without parsing the config file, if nothing
+     * has changed since the last execution. The config file, the runtime
+     * classpath, the manifest and the directories holding the images are
+     * compared with a stamp written beside the manifest, by their lengths and
+     * modification times. An image rewritten in place, rather than replaced,
+     * is only noticed if the check is turned off.
+     *
+     * @parameter expression="${imagegenerator.upToDateCheck}" default-value="true"
+     */
+    private boolean upToDateCheck;
+
+    /**
+     * Index of the shard of the entries to render, from zero to one less
+     * than {@code shardCount}.
+     *
+     * @parameter expression="${imagegenerator.shardIndex}" default-value="0"
+     */
+    private int shardIndex;
+
+    /**
+     * Number of shards to divide the entries between, so that several
+     * machines can each render one for the merge goal to combine. Each entry
+     * belongs to the shard given by a hash of its filename, so it stays in
+     * the same shard as entries are added and removed. Each shard must have
+     * its own output directory and manifest file.
+     *
+     * @parameter expression="${imagegenerator.shardCount}" default-value="1"
+     */
+    private int shardCount;
+
+    /**
+     * Number of threads used to encode and write the image files while the
+     * next image is painted. Zero writes each image before painting the next.
+     *
+     * @parameter expression="${imagegenerator.writerThreads}" default-value="0"
+     */
+    private int writerThreads;
+
+    /**
+     * How to create the image files of entries with the same specification
+     * as an earlier entry, which are rendered only once: {@code link} makes
+     * a hard link to the first image file, falling back to a copy where hard
+     * links are not supported, {@code copy} copies it, and {@code render}
+     * renders every entry.
+     *
+     * @parameter expression="${imagegenerator.duplicateImages}" default-value="link"
+     */
+    private String duplicateImages;
+
+    /**
+     * Maximum number of painted images waiting to be written. This bounds the
+     * memory used when painting is faster than writing. Zero uses twice the
+     * number of writer threads.
+     *
+     * @parameter expression="${imagegenerator.writerQueueSize}" default-value="0"
+     */
+    private int writerQueueSize;
+
+    /**
+     * The PNG encoder to use: {@code builtin}, which writes straight from the
+     * image and is configured by {@code compressionLevel},
+     * {@code filterStrategy} and {@code deflateThreads}, or {@code imageio},
+     * which uses the standard ImageIO writer.
+     *
+     * @parameter expression="${imagegenerator.encoder}" default-value="builtin"
+     */
+    private String encoder;
+
+    /**
+     * The deflate compression level of the builtin PNG encoder, from 0 (fastest)
+     * to 9 (smallest).
+     *
+     * @parameter expression="${imagegenerator.compressionLevel}" default-value="6"
+     */
+    private int compressionLevel;
+
+    /**
+     * The PNG row filter used by the builtin encoder: {@code none},
+     * {@code sub}, {@code up}, {@code average}, {@code paeth}, or
+     * {@code adaptive}, which chooses a filter for each row. The flat colors
+     * of most Swing controls compress best with no filter.
+     *
+     * @parameter expression="${imagegenerator.filterStrategy}" default-value="none"
+     */
+    private String filterStrategy;
+
+    /**
+     * How to reduce the images to a palette of at most 256 colors, writing
+     * them as indexed color PNG files, which are usually several times
+     * smaller: {@code none}, {@code lossless}, which reduces only images
+     * with at most 256 colors, or {@code lossy}, which also reduces those
+     * with more, as long as no pixel changes by more than
+     * {@code paletteMaxError}. Each image is written in full color if that
+     * is smaller, or if it cannot be reduced.
+     *
+     * @parameter expression="${imagegenerator.palette}" default-value="none"
+     */
+    private String palette;
+
+    /**
+     * Largest difference allowed in the red, green, blue or alpha value of
+     * any pixel when {@code palette} is {@code lossy}.
+     *
+     * @parameter expression="${imagegenerator.paletteMaxError}" default-value="4"
+     */
+    private int paletteMaxError;
+
+    /**
+     * Number of threads the builtin encoder uses to compress large images in
+     * parallel. Zero uses one thread per processor. One compresses each image
+     * on its writer thread.
+     *
+     * @parameter expression="${imagegenerator.deflateThreads}" default-value="0"
+     */
+    private int deflateThreads;
+
+    /**
+     * Maximum memory, in megabytes, held by painted images kept for reuse
+     * once they have been written. Images of the same size are painted into
+     * again instead of being allocated for each image. Zero disables reuse.
+     *
+     * @parameter expression="${imagegenerator.imagePoolMaxMemory}" default-value="64"
+     */
+    private int imagePoolMaxMemory;
+
+    /**
+     * Height in pixels of the strips in which panels taller than this are
+     * painted. Each strip is encoded as soon as it is painted, so the memory
+     * used by a very large panel depends on its width and this height rather
+     * than on its whole size. Panels painted in strips are written in full
+     * color with the builtin encoder. Zero paints every panel whole.
+     *
+     * @parameter expression="${imagegenerator.tileHeight}" default-value="0"
+     */
+    private int tileHeight;
+
+    /**
+     * Location of a directory in which to cache rendered images between
+     * builds, e.g. {@code ${user.home}/.imagegenerator/cache}. Images are
+     * cached by their description, look and feel, and runtime classpath, so
+     * the cache may be shared by several projects. Cached images are hard
+     * linked into the output directory, or copied if the cache is on another
+     * file system. If not set, no cache is used.
+     *
+     * @parameter expression="${imagegenerator.cacheDirectory}"
+     */
+    private File cacheDirectory;
+
+    /**
+     * Maximum size of the image cache, in megabytes. The least recently used
+     * images are removed when the cache grows larger than this.
+     *
+     * @parameter expression="${imagegenerator.cacheMaxSize}" default-value="256"
+     */
+    private int cacheMaxSize;
+
+    /**
+     * Location of the JSON report of the time spent on each image, and why it
+     * was or was not generated.
+     *
+     * @parameter expression="${imagegenerator.metricsFile}"
+     *            default-value="${project.build.directory}/imagegenerator-metrics.json"
+     */
+    private File metricsFile;
+
+    /**
+     * Location of a CSV report of the time spent on each image, with a line
+     * per image file. If not set, no CSV report is written.
+     *
+     * @parameter expression="${imagegenerator.metricsCsvFile}"
+     */
+    private File metricsCsvFile;
+
+    /**
+     * Number of the slowest images to list in the log once the images are
+     * generated. Zero lists none.
+     *
+     * @parameter expression="${imagegenerator.metricsSlowestCount}" default-value="10"
+     */
+    private int metricsSlowestCount;
+
+    /**
+     * Whether to render in a background daemon which keeps the look and feel
+     * and the project's classes loaded between builds. If no daemon is
+     * running for the project's classpath, one is started for later builds
+     * and the images are rendered by the build as usual. The daemon is
+     * restarted whenever the classpath changes.
+     *
+     * @parameter expression="${imagegenerator.daemon}" default-value="false"
+     */
+    private boolean daemon;
+
+    /**
+     * Directory holding the port files and logs of the rendering daemons, and
+     * the jars giving the classpath of the daemons and workers.
+     *
+     * @parameter expression="${imagegenerator.daemonDirectory}"
+     *            default-value="${user.home}/.imagegenerator/daemon"
+     */
+    private File daemonDirectory;
+
+    /**
+     * Number of minutes a rendering daemon waits for a build before exiting.
+     *
+     * @parameter expression="${imagegenerator.daemonIdleTimeout}" default-value="30"
+     */
+    private int daemonIdleTimeout;
+
+    /**
+     * Number of headless JVMs to fork for rendering, each of which sets up the
+     * look and feels once and renders batches of images given to it by the
+     * build. Images are painted by every worker at once, so the rendering
+     * scales with the number of processors. Zero renders in the build, or in
+     * the daemon if one is used.
+     *
+     * @parameter expression="${imagegenerator.workers}" default-value="0"
+     */
+    private int workers;
+
+    /**
+     * Location of the index of the directories in each jar of the runtime
+     * classpath, which lets classes be found without searching every jar.
+     * The index of a jar is reused until its length or modification time
+     * changes. If not set, the jars are indexed on every execution.
+     *
+     * @parameter expression="${imagegenerator.classIndexFile}"
+     *            default-value="${project.build.directory}/imagegenerator-class-index"
+     */
+    private File classIndexFile;
+
+    /**
+     * Location of the digests of the contents of the jars of the runtime
+     * classpath, from which its fingerprint is computed. The digest of a jar
+     * is reused until its length or modification time changes. If not set,
+     * the digests are computed on every execution.
+     *
+     * @parameter expression="${imagegenerator.jarDigestFile}"
+     *            default-value="${project.build.directory}/imagegenerator-jar-digests"
+     */
+    private File jarDigestFile;
+
+    /**
+     * The project's runtime classpath elements, used to load and to detect
+     * changes to the classes being rendered.
+     *
+     * @parameter expression="${project.runtimeClasspathElements}"
+     * @readonly
+     */
+    private List<String> runtimeClasspathElements;
+
+    /**
+     * The start time of the Maven session, used to tell when the classes and
+     * look and feels kept from earlier executions belong to a finished one.
+     *
+     * @parameter expression="${session.startTime}"
+     * @readonly
+     */
+    private Date sessionStartTime;
+
+    /** The scales to render each image at. */
+    private List<ImageScale> imageScales;
+
+    /** The derivatives to make of each image without its own. */
+    private List<ImageDerivative> imageDerivatives;
+
+    /** The timings and outcomes of the images. */
+    private RenderMetrics metrics;
+
+    /** The image cache, or {@code null} if no cache is used. */
+    private RenderCache cache;
+
+    /** The pool of images to paint into. */
+    private ImagePool imagePool;
+
+    /**
+     * Creates and paints the components, or {@code null} if one must be
+     * created.
+     */
+    ComponentRenderer renderer;
+
+    /** Writes the images to files. */
+    private ImageEncoder imageEncoder;
+
+    /** The connection to the rendering daemon, or {@code null} if none. */
+    private DaemonClient daemonClient;
+
+    /**
+     * The image files of duplicate entries, to be linked or copied once the
+     * first image files are written.
+     */
+    private List<DuplicateImage> duplicates;
+
+    /** The number of entries with the same specification as an earlier one. */
+    private int duplicateEntries;
+
+    /** The entries which have duplicates, described by their first image. */
+    private Set<String> duplicatedOriginals;
+
+    /** The images sent to the rendering daemon, in the order sent. */
+    private List<DaemonImage> daemonImages;
+
+    /** The forked rendering workers, or {@code null} if none. */
+    private WorkerPool workerPool;
+
+    /** The batch being filled for the rendering workers. */
+    private WorkerPool.Batch workerBatch;
+
+    /**
+     * Whether the images are being regenerated as the config file changes.
+     * If so, the manifest is kept in memory rather than read each time.
+     */
+    boolean watching;
+
+    /**
+     * The manifest of the image files last generated, or {@code null} if it
+     * must be read.
+     */
+    private Manifest manifest;
+
+    /** The manifest of the image files being generated. */
+    private Manifest newManifest;
+
+    /** The image files to add to the new manifest once they are written. */
+    private List<ManifestFile> manifestFiles;
+
+    /** The number of entries left to the other shards. */
+    private int otherShardEntries;
+
+    /**
+     * The fingerprint of the runtime classpath, or {@code null} if it must be
+     * computed.
+     */
+    String classpathFingerprint;
+
+    /**
+     * The class loader for the components and look and feels, or
+     * {@code null} if one must be created.
+     */
+    ClassLoader classLoader;
+
+    /**
+     * The class loader for the jars of the runtime classpath, shared by the
+     * executions of the Maven session with the same jars, or {@code null} if
+     * not yet known.
+     */
+    ClassLoader dependencyClassLoader;
+
+    /**
+     * Set the config file.
+     *
+     * @param configFile the config file.
+     */
+    public void setConfigFile(File configFile) {
+        this.configFile = configFile;
+    }
+
+    /**
+     * Set the look and feel.
+     *
+     * @param lookAndFeel the look and feel class name.
+     */
+    public void setLookAndFeel(String lookAndFeel) {
+        this.lookAndFeel = lookAndFeel;
+    }
+
+    /**
+     * Set the look and feels.
+     *
+     * @param lookAndFeels the look and feel class names.
+     */
+    public void setLookAndFeels(List<String> lookAndFeels) {
+        this.lookAndFeels = lookAndFeels;
+    }
+
+    /**
+     * Set the layout of the images of several look and feels.
+     *
+     * @param lookAndFeelLayout the layout, {@code directory} or {@code suffix}.
+     */
+    public void setLookAndFeelLayout(String lookAndFeelLayout) {
+        this.lookAndFeelLayout = lookAndFeelLayout;
+    }
+
+    /**
+     * Set the scales.
+     *
+     * @param scales the comma separated scale factors.
+     */
+    public void setScales(String scales) {
+        this.scales = scales;
+    }
+
+    /**
+     * Set the derivatives.
+     *
+     * @param derivatives the comma separated derivatives.
+     */
+    public void setDerivatives(String derivatives) {
+        this.derivatives = derivatives;
+    }
+
+    /**
+     * Set the output directory.
+     *
+     * @param outputDirectory the output directory.
+     */
+    public void setOutputDirectory(File outputDirectory) {
+        this.outputDirectory = outputDirectory;
+    }
+
+    /**
+     * Set the manifest file.
+     *
+     * @param manifestFile the manifest file.
+     */
+    public void setManifestFile(File manifestFile) {
+        this.manifestFile = manifestFile;
+    }
+
+    /**
+     * Set whether to return at once if nothing has changed.
+     *
+     * @param upToDateCheck {@code true} to check whether anything has changed
+     *                      before parsing the config file.
+     */
+    public void setUpToDateCheck(boolean upToDateCheck) {
+        this.upToDateCheck = upToDateCheck;
+    }
+
+    /**
+     * Set the shard index.
+     *
+     * @param shardIndex the index of the shard to render.
+     */
+    public void setShardIndex(int shardIndex) {
+        this.shardIndex = shardIndex;
+    }
+
+    /**
+     * Set the shard count.
+     *
+     * @param shardCount the number of shards.
+     */
+    public void setShardCount(int shardCount) {
+        this.shardCount = shardCount;
+    }
+
+    /**
+     * Set the number of writer threads.
+     *
+     * @param writerThreads the number of writer threads.
+     */
+    public void setWriterThreads(int writerThreads) {
+        this.writerThreads = writerThreads;
+    }
+
+    /**
+     * Set how to create the image files of duplicate entries.
+     *
+     * @param duplicateImages {@code link}, {@code copy} or {@code render}.
+     */
+    public void setDuplicateImages(String duplicateImages) {
+        this.duplicateImages = duplicateImages;
+    }
+
+    /**
+     * Set the maximum number of painted images waiting to be written.
+     *
+     * @param writerQueueSize the maximum number of pending images.
+     */
+    public void setWriterQueueSize(int writerQueueSize) {
+        this.writerQueueSize = writerQueueSize;
+    }
+
+    /**
+     * Set the PNG encoder.
+     *
+     * @param encoder the PNG encoder, {@code builtin} or {@code imageio}.
+     */
+    public void setEncoder(String encoder) {
+        this.encoder = encoder;
+    }
+
+    /**
+     * Set the compression level.
+     *
+     * @param compressionLevel the compression level, from 0 to 9.
+     */
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * Set the filter strategy.
+     *
+     * @param filterStrategy the filter strategy.
+     */
+    public void setFilterStrategy(String filterStrategy) {
+        this.filterStrategy = filterStrategy;
+    }
+
+    /**
+     * Set the palette reduction.
+     *
+     * @param palette none, lossless or lossy.
+     */
+    public void setPalette(String palette) {
+        this.palette = palette;
+    }
+
+    /**
+     * Set the largest difference allowed by lossy palette reduction.
+     *
+     * @param paletteMaxError the largest difference in any channel.
+     */
+    public void setPaletteMaxError(int paletteMaxError) {
+        this.paletteMaxError = paletteMaxError;
+    }
+
+    /**
+     * Set the number of deflate threads.
+     *
+     * @param deflateThreads the number of deflate threads.
+     */
+    public void setDeflateThreads(int deflateThreads) {
+        this.deflateThreads = deflateThreads;
+    }
+
+    /**
+     * Set the maximum memory held by images kept for reuse.
+     *
+     * @param imagePoolMaxMemory the maximum memory, in megabytes.
+     */
+    public void setImagePoolMaxMemory(int imagePoolMaxMemory) {
+        this.imagePoolMaxMemory = imagePoolMaxMemory;
+    }
+
+    /**
+     * Set the height of the strips tall panels are painted in.
+     *
+     * @param tileHeight the height in pixels, or zero to paint every panel
+     *                   whole.
+     */
+    public void setTileHeight(int tileHeight) {
+        this.tileHeight = tileHeight;
+    }
+
+    /**
+     * Set the cache directory.
+     *
+     * @param cacheDirectory the cache directory, or {@code null} to use no
+     *                       cache.
+     */
+    public void setCacheDirectory(File cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    /**
+     * Set the maximum size of the cache.
+     *
+     * @param cacheMaxSize the maximum size of the cache, in megabytes.
+     */
+    public void setCacheMaxSize(int cacheMaxSize) {
+        this.cacheMaxSize = cacheMaxSize;
+    }
+
+    /**
+     * Set the JSON report file.
+     *
+     * @param metricsFile the JSON report file.
+     */
+    public void setMetricsFile(File metricsFile) {
+        this.metricsFile = metricsFile;
+    }
+
+    /**
+     * Set the CSV report file.
+     *
+     * @param metricsCsvFile the CSV report file, or {@code null} to write no
+     *                       CSV report.
+     */
+    public void setMetricsCsvFile(File metricsCsvFile) {
+        this.metricsCsvFile = metricsCsvFile;
+    }
+
+    /**
+     * Set the number of slowest images to log.
+     *
+     * @param metricsSlowestCount the number of images.
+     */
+    public void setMetricsSlowestCount(int metricsSlowestCount) {
+        this.metricsSlowestCount = metricsSlowestCount;
+    }
+
+    /**
+     * Set whether to render in a background daemon.
+     *
+     * @param daemon {@code true} to render in a daemon.
+     */
+    public void setDaemon(boolean daemon) {
+        this.daemon = daemon;
+    }
+
+    /**
+     * Set the daemon directory.
+     *
+     * @param daemonDirectory the directory holding the daemons' port files.
+     */
+    public void setDaemonDirectory(File daemonDirectory) {
+        this.daemonDirectory = daemonDirectory;
+    }
+
+    /**
+     * Set the daemon idle timeout.
+     *
+     * @param daemonIdleTimeout the idle timeout, in minutes.
+     */
+    public void setDaemonIdleTimeout(int daemonIdleTimeout) {
+        this.daemonIdleTimeout = daemonIdleTimeout;
+    }
+
+    /**
+     * Set the number of rendering workers.
+     *
+     * @param workers the number of headless JVMs to fork. Zero renders in the
+     *                build.
+     */
+    public void setWorkers(int workers) {
+        this.workers = workers;
+    }
+
+    /**
+     * Set the class index file.
+     *
+     * @param classIndexFile the class index file, or {@code null} to index
+     *                       the jars on every execution.
+     */
+    public void setClassIndexFile(File classIndexFile) {
+        this.classIndexFile = classIndexFile;
+    }
+
+    /**
+     * Set the jar digest file.
+     *
+     * @param jarDigestFile the jar digest file, or {@code null} to compute the
+     *                      digests on every execution.
+     */
+    public void setJarDigestFile(File jarDigestFile) {
+        this.jarDigestFile = jarDigestFile;
+    }
+
+    /**
+     * Set the runtime classpath elements.
+     *
+     * @param runtimeClasspathElements the runtime classpath elements.
+     */
+    public void setRuntimeClasspathElements(List<String> runtimeClasspathElements) {
+        this.runtimeClasspathElements = runtimeClasspathElements;
+    }
+
+    /**
+     * Set the start time of the Maven session.
+     *
+     * @param sessionStartTime the start time, or {@code null} if unknown.
+     */
+    public void setSessionStartTime(Date sessionStartTime) {
+        this.sessionStartTime = sessionStartTime;
+    }
+
+    /**
+     * Get the config file.
+     *
+     * @return the config file.
+     */
+    File getConfigFile() {
+        return configFile;
+    }
+
+    /**
+     * Get the output directory.
+     *
+     * @return the output directory.
+     */
+    File getOutputDirectory() {
+        return outputDirectory;
+    }
+
+    /**
+     * Get the manifest file.
+     *
+     * @return the manifest file.
+     */
+    File getManifestFile() {
+        return manifestFile;
+    }
+
+    /**
+     * Get the runtime classpath elements.
+     *
+     * @return the runtime classpath elements.
+     */
+    List<String> getRuntimeClasspathElements() {
+        return runtimeClasspathElements;
+    }
+
+    /**
+     * @see org.apache.maven.plugin.AbstractMojo#execute()
+     */
+    public void execute() throws MojoExecutionException {
+        if (upToDateCheck && isUpToDate()) {
+            return;
+        }
+
+        generate();
+    }
+
+    /**
+     * Check whether nothing has changed since the last execution which
+     * generated the images, without parsing the config file.
+     *
+     * @return {@code true} if the images are up to date, {@code false} if
+     *         they must be generated.
+     */
+    private boolean isUpToDate() {
+        long       start   = System.nanoTime();
+        BuildStamp stamp   = BuildStamp.read(getStampFile());
+        String     changed = stamp == null ? "the stamp" : stamp.check(describeSettings(), configFile, runtimeClasspathElements,
+                                                                          manifestFile);
+
+        if (changed != null) {
+            getLog().debug("Generating the images, since " + changed + " has changed");
+            return false;
+        }
+
+        getLog().info("The images are up to date, checked in " + RenderMetrics.millis(System.nanoTime() - start) + " ms");
+        return true;
+    }
+
+    /**
+     * Get the stamp file recording the state of the last execution, which is
+     * kept beside the manifest.
+     *
+     * @return the stamp file.
+     */
+    private File getStampFile() {
+        return new File(manifestFile.getPath() + ".stamp");
+    }
+
+    /**
+     * Describe the settings which affect the images generated and where they
+     * are written, for the stamp.
+     *
+     * @return the description.
+     */
+    private String describeSettings() {
+        StringBuilder buffer = new StringBuilder();
+
+        buffer.append("configFile ").append(configFile.getAbsolutePath()).append('\n');
+        buffer.append("outputDirectory ").append(outputDirectory.getAbsolutePath()).append('\n');
+        buffer.append("manifestFile ").append(manifestFile.getAbsolutePath()).append('\n');
+        buffer.append("lookAndFeel ").append(lookAndFeel).append('\n');
+        buffer.append("lookAndFeels ").append(lookAndFeels).append('\n');
+        buffer.append("lookAndFeelLayout ").append(lookAndFeelLayout).append('\n');
+        buffer.append("scales ").append(scales).append('\n');
+        buffer.append("derivatives ").append(derivatives).append('\n');
+        buffer.append("shard ").append(shardIndex).append(" of ").append(shardCount).append('\n');
+        buffer.append("duplicateImages ").append(duplicateImages).append('\n');
+        buffer.append("encoder ").append(encoder).append(' ').append(compressionLevel).append(' ').append(filterStrategy).append('\n');
+        buffer.append("palette ").append(palette).append(' ').append(paletteMaxError).append('\n');
+        buffer.append("tileHeight ").append(tileHeight).append('\n');
+
+        return buffer.toString();
+    }
+
+    /**
+     * Generate the images which have changed since the last execution.
+     *
+     * @throws MojoExecutionException if an error occurs.
+     */
+    void generate() throws MojoExecutionException {
+        metrics = new RenderMetrics();
+
+        try {
+            BuildStamp.clear(getStampFile());
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to clear " + getStampFile(), e);
+        }
+
+        if (classpathFingerprint == null) {
+            classpathFingerprint = fingerprintClasspath();
+        }
+
+        // The images depend on the palette reduction as well as the classes.
+        String             outputFingerprint = classpathFingerprint + describePalette();
+        List<RenderTarget> targets           = createRenderTargets(outputFingerprint);
+
+        imageScales      = ImageScale.parse(scales);
+        imageDerivatives = ImageDerivative.parse(derivatives == null ? "" : derivatives);
+        duplicates       = new ArrayList<DuplicateImage>();
+
+        duplicateEntries    = 0;
+        duplicatedOriginals = new HashSet<String>();
+
+        if (!"link".equalsIgnoreCase(duplicateImages) && !"copy".equalsIgnoreCase(duplicateImages)
+                && !"render".equalsIgnoreCase(duplicateImages)) {
+            throw new MojoExecutionException("Unknown duplicateImages \"" + duplicateImages + "\", expected link, copy or render");
+        } else if (shardCount < 1 || shardIndex < 0 || shardIndex >= shardCount) {
+            throw new MojoExecutionException("Invalid shard " + shardIndex + " of " + shardCount);
+        }
+
+        otherShardEntries = 0;
+
+        long readStart = System.nanoTime();
+
+        if (manifest == null || !watching) {
+            manifest = Manifest.read(manifestFile);
+        }
+
+        metrics.manifestRead(System.nanoTime() - readStart);
+        newManifest   = new Manifest();
+        manifestFiles = new ArrayList<ManifestFile>();
+
+        for (RenderTarget target : targets) {
+            createOutputDirectoryIfNecessary(target.getDirectory());
+        }
+
+        if (renderer == null) {
+            joinRenderSession(targets);
+        }
+
+        cache = cacheDirectory == null ? null : new RenderCache(cacheDirectory, cacheMaxSize * 1024L * 1024L, outputFingerprint);
+
+        ExecutorService deflatePool = createImageEncoder();
+
+        if (workers > 0) {
+            startWorkers(targets);
+        } else {
+            connectToDaemon(classpathFingerprint, targets);
+        }
+
+        // Swing loads the look and feel and its UI classes from here.
+        ClassLoader contextLoader = Thread.currentThread().getContextClassLoader();
+
+        Thread.currentThread().setContextClassLoader(classLoader);
+
+        try {
+            generateImageFiles(targets);
+        } finally {
+            Thread.currentThread().setContextClassLoader(contextLoader);
+
+            // The renderer and pool may be shared, and are not to hold this execution's classes or images after it.
+            synchronized (RenderSession.SWING_LOCK) {
+                renderer.release(classLoader);
+            }
+
+            imagePool.empty();
+
+            if (daemonClient != null) {
+                daemonClient.close();
+                daemonClient = null;
+            }
+
+            if (workerPool != null) {
+                workerPool.destroy();
+                workerPool = null;
+            }
+
+            if (deflatePool != null) {
+                deflatePool.shutdown();
+            }
+        }
+
+        if (shardCount > 1) {
+            getLog().info("Rendered shard " + shardIndex + " of " + shardCount + ", leaving " + otherShardEntries
+                          + " entries to the other shards");
+        }
+
+        updateManifest();
+        deleteRemovedImageFiles(manifest, newManifest);
+
+        Set<File> imageDirectories = getImageDirectories(newManifest);
+
+        writeManifest();
+
+        if (cache != null) {
+            int evicted = cache.evict();
+
+            if (evicted > 0) {
+                getLog().info("Removed " + evicted + " least recently used images from the cache");
+            }
+        }
+
+        metrics.finish();
+        writeMetrics();
+        writeStamp(imageDirectories);
+    }
 
-import javax.swing.JComponent;
-import javax.swing.JPanel;
-import javax.swing.UIManager;
+    /**
+     * Get the directories holding the image files in a manifest, and the
+     * output directory.
+     *
+     * @param  manifest the manifest.
+     *
+     * @return the directories.
+     */
+    private Set<File> getImageDirectories(Manifest manifest) {
+        Set<File> directories = new HashSet<File>();
+
+        directories.add(outputDirectory);
+        for (String path : manifest.getPaths()) {
+            directories.add(new File(outputDirectory, path).getParentFile());
+        }
+
+        return directories;
+    }
+
+    /**
+     * Record the state of the execution which has just generated the images,
+     * so that the next execution can return at once if nothing has changed.
+     * Failure to write the stamp is not an error.
+     *
+     * @param imageDirectories the directories holding the image files.
+     */
+    private void writeStamp(Set<File> imageDirectories) {
+        try {
+            BuildStamp.write(getStampFile(), describeSettings(), configFile, runtimeClasspathElements, manifestFile, imageDirectories);
+        } catch (IOException e) {
+            getLog().warn("Unable to write " + getStampFile(), e);
+        }
+    }
+
+    /**
+     * Write the metrics reports and log a summary with the slowest images.
+     * Failure to write a report is not an error.
+     */
+    private void writeMetrics() {
+        getLog().info("Rendered " + metrics.count(RenderMetrics.RENDERED) + " images, restored "
+                      + metrics.count(RenderMetrics.CACHED) + " from cache, "
+                      + ("copy".equalsIgnoreCase(duplicateImages) ? "copied " : "linked ")
+                      + metrics.count(RenderMetrics.DUPLICATE) + " duplicates, and left "
+                      + metrics.count(RenderMetrics.UNCHANGED) + " unchanged in "
+                      + RenderMetrics.millis(metrics.getElapsedTime()) + " ms");
+
+        if (metrics.countPalette() > 0) {
+            getLog().info("Wrote " + metrics.countPalette() + " images with palettes, saving " + metrics.getBytesSaved() + " bytes");
+        }
+
+        for (Map.Entry<String, Long> entry : metrics.getLookAndFeelTimes().entrySet()) {
+            getLog().info("Set look and feel " + entry.getKey() + " in " + RenderMetrics.millis(entry.getValue()) + " ms");
+        }
+
+        List<RenderMetrics.ImageRecord> slowest = metrics.getSlowest(metricsSlowestCount);
+
+        if (!slowest.isEmpty()) {
+            getLog().info("Slowest images:");
+            for (RenderMetrics.ImageRecord record : slowest) {
+                getLog().info("  " + record.name + ": " + RenderMetrics.describeTimes(record));
+            }
+        }
+
+        try {
+            metrics.writeJson(metricsFile);
+            if (metricsCsvFile != null) {
+                metrics.writeCsv(metricsCsvFile);
+            }
+        } catch (IOException e) {
+            getLog().warn("Unable to write the metrics report", e);
+        }
+    }
+
+    /**
+     * Create the image encoder, using the builtin PNG encoder unless ImageIO
+     * is to be used.
+     *
+     * @return the threads used by the encoder to compress large images, which
+     *         must be shut down when finished, or {@code null} if there are
+     *         none.
+     *
+     * @throws MojoExecutionException if the encoder parameters are invalid.
+     */
+    private ExecutorService createImageEncoder() throws MojoExecutionException {
+        boolean reduce   = !"none".equalsIgnoreCase(palette);
+        int     maxError = "lossy".equalsIgnoreCase(palette) ? paletteMaxError : 0;
+
+        imageEncoder = new ImageEncoder(null, reduce, maxError);
+
+        if ("imageio".equalsIgnoreCase(encoder)) {
+            if (tileHeight > 0) {
+                throw new MojoExecutionException("Panels painted in strips must be written with the builtin encoder");
+            }
+
+            return null;
+        } else if (!"builtin".equalsIgnoreCase(encoder)) {
+            throw new MojoExecutionException("Unknown encoder \"" + encoder + "\", expected builtin or imageio");
+        }
+
+        if (compressionLevel < 0 || compressionLevel > 9) {
+            throw new MojoExecutionException("Compression level must be between 0 and 9: " + compressionLevel);
+        }
+
+        PngEncoder.Filter filter;
+
+        try {
+            filter = PngEncoder.Filter.valueOf(filterStrategy.toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException e) {
+            throw new MojoExecutionException("Unknown filter strategy \"" + filterStrategy + "\"", e);
+        }
+
+        int             threads     = deflateThreads > 0 ? deflateThreads : Runtime.getRuntime().availableProcessors();
+        ExecutorService deflatePool = null;
+
+        if (threads > 1) {
+            deflatePool = Executors.newFixedThreadPool(threads, new NamedThreadFactory("imagegenerator-deflate"));
+        }
+
+        imageEncoder = new ImageEncoder(new PngEncoder(compressionLevel, filter, deflatePool), reduce, maxError);
+        return deflatePool;
+    }
+
+    /**
+     * Connect to the rendering daemon for the project's classpath, if the
+     * daemon is used. If none is running, start one for later builds. Failing
+     * to start one is not an error.
+     *
+     * @param  classpathFingerprint the fingerprint of the runtime classpath.
+     * @param  targets              the look and feels to render the images in.
+     *
+     * @throws MojoExecutionException if the daemon directory cannot be
+     *                                created.
+     */
+    private void connectToDaemon(String classpathFingerprint, List<RenderTarget> targets) throws MojoExecutionException {
+        if (!daemon) {
+            return;
+        }
+
+        createOutputDirectoryIfNecessary(daemonDirectory);
+
+        List<String> classpath = DaemonClient.getClasspath(runtimeClasspathElements);
+        File         portFile  = new File(daemonDirectory, Digests.sha1(configFile.getAbsolutePath()) + ".port");
+        String       fingerprint;
+
+        // The daemon's own classes are not part of the runtime classpath.
+        try {
+            fingerprint = Digests.sha1(Digests.fingerprintClasspath(classpath.subList(0, 2), jarDigestFile) + "\n" + classpathFingerprint);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to read the plugin classpath", e);
+        }
+
+        daemonImages = new ArrayList<DaemonImage>();
+
+        try {
+            daemonClient = DaemonClient.connect(portFile, fingerprint);
+        } catch (IOException e) {
+            getLog().warn("The rendering daemon did not answer, rendering in the build: " + e);
+            return;
+        }
+
+        if (daemonClient == null) {
+            List<String> lafs = new ArrayList<String>();
+
+            for (RenderTarget target : targets) {
+                lafs.add(target.lookAndFeel);
+            }
+
+            try {
+                File log = DaemonClient.start(portFile, classpath, fingerprint, daemonIdleTimeout, imagePoolMaxMemory * 1024L * 1024L,
+                                              lafs);
+
+                getLog().info("No rendering daemon is running for this classpath, started one for later builds, logging to " + log);
+            } catch (IOException e) {
+                getLog().warn("No rendering daemon is running for this classpath, and one cannot be started: " + e);
+            }
+
+            return;
+        }
+
+        try {
+            daemonClient.begin(encoder, compressionLevel, filterStrategy, palette, paletteMaxError, writerThreads, writerQueueSize,
+                               tileHeight);
+            getLog().info("Rendering in the daemon");
+        } catch (IOException e) {
+            getLog().warn("Unable to use the rendering daemon, rendering in the build", e);
+            daemonClient.close();
+            daemonClient = null;
+        }
+    }
+
+    /**
+     * Start the rendering workers, with the plugin's classes and the project's
+     * runtime classpath.
+     *
+     * @param  targets the look and feels to render the images in.
+     *
+     * @throws MojoExecutionException if the location of the plugin's classes
+     *                                cannot be found, or their classpath
+     *                                cannot be written.
+     */
+    private void startWorkers(List<RenderTarget> targets) throws MojoExecutionException {
+        if (daemon) {
+            getLog().warn("The rendering daemon is not used when rendering in workers");
+        }
+
+        List<String> command;
+
+        createOutputDirectoryIfNecessary(daemonDirectory);
+
+        try {
+            command = DaemonClient.getCommand(DaemonClient.getClasspath(runtimeClasspathElements), RenderWorker.class, daemonDirectory);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to write the classpath of the rendering workers", e);
+        }
+
+        command.add(Long.toString(imagePoolMaxMemory * 1024L * 1024L / workers));
+        for (RenderTarget target : targets) {
+            command.add(target.lookAndFeel);
+        }
+
+        workerPool  = new WorkerPool(command, workers);
+        workerBatch = new WorkerPool.Batch();
+        workerPool.start(encoder, compressionLevel, filterStrategy, palette, paletteMaxError, writerThreads, writerQueueSize,
+                         tileHeight);
+        getLog().info("Rendering in " + workers + " workers");
+    }
+
+    /**
+     * Create the class loader for the jars of the project's runtime
+     * classpath, which finds classes in them through an index saved between
+     * builds.
+     *
+     * @param  jars the jars.
+     *
+     * @return the class loader.
+     *
+     * @throws MojoExecutionException if the classpath cannot be read.
+     */
+    private ClassLoader createClassLoader(List<String> jars) throws MojoExecutionException {
+        long start = System.nanoTime();
+
+        try {
+            IndexedClassLoader loader = new IndexedClassLoader(jars, classIndexFile, ImageGeneratorMojo.class.getClassLoader());
+
+            if (loader.getJarsIndexed() > 0) {
+                getLog().info("Indexed " + loader.getJarsIndexed() + " jars of the runtime classpath in "
+                              + RenderMetrics.millis(System.nanoTime() - start) + " ms");
+            }
+
+            return loader;
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to read the runtime classpath", e);
+        }
+    }
+
+    /**
+     * Use the class loader for the jars, the look and feels and the image pool
+     * of the earlier executions in this Maven session with the same jars on
+     * the runtime classpath and the same look and feels, creating them if
+     * this is the first. The project's own class directories differ between
+     * modules, so they are loaded for this execution alone, by a class loader
+     * over the shared one which the shared renderer is given while painting
+     * this execution's images.
+     *
+     * @param  targets the look and feels to render the images in.
+     *
+     * @throws MojoExecutionException if the classpath cannot be read.
+     */
+    private void joinRenderSession(List<RenderTarget> targets) throws MojoExecutionException {
+        final List<String> jars        = new ArrayList<String>();
+        List<File>         directories = new ArrayList<File>();
+
+        if (runtimeClasspathElements != null) {
+            for (String element : runtimeClasspathElements) {
+                File file = new File(element);
+
+                if (file.isDirectory()) {
+                    directories.add(file);
+                } else {
+                    jars.add(element);
+                }
+            }
+        }
+
+        StringBuilder key;
+
+        try {
+            key = new StringBuilder(Digests.fingerprintClasspath(jars, jarDigestFile));
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to read the runtime classpath", e);
+        }
+
+        for (RenderTarget target : targets) {
+            key.append(' ').append(target.lookAndFeel);
+        }
+
+        final boolean[] created = new boolean[1];
+        RenderSession   session = RenderSession.get(sessionStartTime, key.toString(), new RenderSession.Factory() {
+                public RenderSession create() throws MojoExecutionException {
+                    created[0] = true;
+                    return new RenderSession(createClassLoader(jars), new ImagePool(imagePoolMaxMemory * 1024L * 1024L));
+                }
+            });
+
+        if (!created[0]) {
+            getLog().info("Reusing the dependencies and look and feels of an earlier execution");
+        }
+
+        dependencyClassLoader = session.classLoader;
+        imagePool             = session.imagePool;
+        renderer              = session.renderer;
+        classLoader           = directories.isEmpty() ? session.classLoader : new ProjectClassLoader(directories, session.classLoader);
+    }
+
+    /**
+     * Compute the fingerprint of the runtime classpath.
+     *
+     * @return the fingerprint.
+     *
+     * @throws MojoExecutionException if the classpath cannot be read.
+     */
+    private String fingerprintClasspath() throws MojoExecutionException {
+        try {
+            return Digests.fingerprintClasspath(runtimeClasspathElements, jarDigestFile);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to read the runtime classpath", e);
+        }
+    }
+
+    /**
+     * Describe the palette reduction, for adding to the fingerprints of the
+     * images. Nothing is added if the images are not reduced, so that the
+     * fingerprints are those of images written before palettes were.
+     *
+     * @return the description.
+     *
+     * @throws MojoExecutionException if the palette parameters are invalid.
+     */
+    private String describePalette() throws MojoExecutionException {
+        if ("none".equalsIgnoreCase(palette)) {
+            return "";
+        } else if ("lossless".equalsIgnoreCase(palette)) {
+            return "\npalette lossless";
+        } else if (!"lossy".equalsIgnoreCase(palette)) {
+            throw new MojoExecutionException("Unknown palette \"" + palette + "\", expected none, lossless or lossy");
+        } else if (paletteMaxError < 0 || paletteMaxError > 255) {
+            throw new MojoExecutionException("Palette maximum error must be between 0 and 255: " + paletteMaxError);
+        }
+
+        return "\npalette lossy " + paletteMaxError;
+    }
+
+    /**
+     * Create the look and feels to render the images in.
+     *
+     * @param  classpathFingerprint the fingerprint of the runtime classpath,
+     *                              and of the palette reduction if any.
+     *
+     * @return the render targets.
+     *
+     * @throws MojoExecutionException if no look and feel is specified, or the
+     *                                look and feel parameters are invalid.
+     */
+    private List<RenderTarget> createRenderTargets(String classpathFingerprint) throws MojoExecutionException {
+        List<RenderTarget> targets = new ArrayList<RenderTarget>();
+
+        if (lookAndFeels == null || lookAndFeels.isEmpty()) {
+            if (lookAndFeel == null || lookAndFeel.length() == 0) {
+                throw new MojoExecutionException("Either lookAndFeel or lookAndFeels must be specified");
+            }
+
+            targets.add(new RenderTarget(lookAndFeel, Digests.sha1(lookAndFeel + "\n" + classpathFingerprint), outputDirectory,
+                                         null, ""));
+            return targets;
+        }
+
+        boolean     subdirectories = "directory".equalsIgnoreCase(lookAndFeelLayout);
+        Set<String> names          = new HashSet<String>();
+
+        if (!subdirectories && !"suffix".equalsIgnoreCase(lookAndFeelLayout)) {
+            throw new MojoExecutionException("Unknown lookAndFeelLayout \"" + lookAndFeelLayout + "\", expected directory or suffix");
+        }
+
+        for (String laf : lookAndFeels) {
+            String name = RenderTarget.getShortName(laf);
+
+            if (!names.add(name)) {
+                throw new MojoExecutionException("More than one look and feel is named \"" + name + "\"");
+            }
+
+            targets.add(new RenderTarget(laf, Digests.sha1(laf + "\n" + classpathFingerprint), outputDirectory,
+                                         subdirectories ? name : null, subdirectories ? "" : "-" + name));
+        }
+
+        return targets;
+    }
+
+    /**
+     * Generate the image files, skipping any that are unchanged since they
+     * were recorded in the manifest. Images are generated as the config file
+     * is parsed, so the entries are never all held in memory. With several
+     * look and feels, the config file is parsed again for each in turn, since
+     * switching look and feel is expensive.
+     *
+     * @param  targets the look and feels to render the images in.
+     *
+     * @throws MojoExecutionException if an error occurs.
+     */
+    private void generateImageFiles(final List<RenderTarget> targets) throws MojoExecutionException {
+        final ImageWriterPool writerPool = new ImageWriterPool(writerThreads, writerQueueSize);
+        boolean               finished   = false;
+
+        try {
+            for (final RenderTarget target : targets) {
+                parseConfigFile(configFile, true, metrics.timeParsing(new ConfigParser.ImageHandler() {
+                            public void image(String filename, ImageInfo info) throws MojoExecutionException {
+                                generateImageFile(writerPool, target, filename, info);
+                            }
+                        }));
+            }
+
+            finishDaemon(writerPool);
+            finishWorkers(writerPool);
+            writerPool.finish();
+            finished = true;
+
+            createDuplicateImageFiles();
+        } finally {
+            if (!finished) {
+                writerPool.abort();
+            }
+        }
+    }
+
+    /**
+     * Generate an image file at each scale, with its derivatives, unless it is
+     * unchanged since it was recorded in the manifest or belongs to another
+     * shard. The component is created once for all the scales that must be
+     * rendered. An image and its derivatives at a scale are generated
+     * together if any of them must be, since the derivatives are made from
+     * the image.
+     *
+     * @param  writerPool the pool used to write the image files.
+     * @param  target     the look and feel to render the image in.
+     * @param  filename   the filename from the config file.
+     * @param  info       the image specification.
+     *
+     * @throws MojoExecutionException if an error occurs.
+     */
+    private void generateImageFile(ImageWriterPool writerPool, RenderTarget target, String filename, ImageInfo info)
+        throws MojoExecutionException {
+        if (!isInShard(filename)) {
+            otherShardEntries++;
+            return;
+        }
+
+        String                          specHash = Digests.sha1(info.canonicalForm());
+        String                          original = findOriginal(target, filename, specHash, info.derivatives);
+        List<ImageDerivative>           outputs  = getOutputs(info, imageDerivatives);
+        List<RenderMetrics.ImageRecord> stale    = new ArrayList<RenderMetrics.ImageRecord>(imageScales.size() * outputs.size());
+
+        for (ImageScale scale : imageScales) {
+            if (outputs.size() > 1 && ComponentRenderer.isTiled(info, scale, tileHeight)) {
+                throw new MojoExecutionException("Image " + target.describe(filename, scale)
+                                                 + " is painted in strips, so derivatives cannot be made of it");
+            }
+
+            String           fingerprint = target.getFingerprint(scale);
+            Manifest.Entry[] entries     = new Manifest.Entry[outputs.size()];
+            String           reason      = null;
+
+            for (int i = 0; i < entries.length; i++) {
+                ImageDerivative derivative = outputs.get(i);
+
+                entries[i] = manifest.get(target.getPath(filename, scale, derivative));
+                if (reason == null) {
+                    reason = getReasonToGenerate(fingerprint, getSpecHash(specHash, derivative),
+                                                 target.getImageFile(filename, scale, derivative), entries[i]);
+                }
+            }
+
+            boolean cached = reason != null && original == null;
+
+            for (int i = 0; cached && i < entries.length; i++) {
+                cached = restoreFromCache(target, scale, outputs.get(i), target.getImageFile(filename, scale, outputs.get(i)), info);
+            }
+
+            for (int i = 0; i < entries.length; i++) {
+                ImageDerivative derivative = outputs.get(i);
+                File            file       = target.getImageFile(filename, scale, derivative);
+
+                manifestFiles.add(new ManifestFile(target.getPath(filename, scale, derivative), fingerprint,
+                                                   getSpecHash(specHash, derivative), file, reason == null ? entries[i] : null));
+
+                if (reason == null) {
+                    metrics.add(filename, target, scale, derivative, RenderMetrics.UNCHANGED, null);
+                } else if (original != null) {
+                    duplicates.add(new DuplicateImage(target.getImageFile(original, scale, derivative), file,
+                                                      metrics.add(filename, target, scale, derivative, RenderMetrics.DUPLICATE,
+                                                                  reason)));
+                } else if (cached) {
+                    getLog().info("Restoring image file " + target.describe(filename, scale, derivative) + " from cache");
+                    metrics.add(filename, target, scale, derivative, RenderMetrics.CACHED, reason).bytes = file.length();
+                } else {
+                    stale.add(metrics.add(filename, target, scale, derivative, RenderMetrics.RENDERED, reason));
+                }
+            }
+        }
+
+        if (stale.isEmpty()) {
+            return;
+        } else if (workerPool != null) {
+            sendToWorker(target, filename, info, stale);
+        } else if (!sendToDaemon(writerPool, target, filename, info, stale)) {
+            renderImage(writerPool, target, filename, info, stale);
+        }
+    }
+
+    /**
+     * Get the image files written for an image at each scale: the image
+     * itself, then its derivatives.
+     *
+     * @param  info        the image specification.
+     * @param  derivatives the derivatives of images without their own.
+     *
+     * @return {@code null} for the image, followed by each derivative.
+     */
+    private static List<ImageDerivative> getOutputs(ImageInfo info, List<ImageDerivative> derivatives) {
+        List<ImageDerivative> outputs = new ArrayList<ImageDerivative>();
+
+        outputs.add(null);
+        outputs.addAll(info.derivatives != null ? info.derivatives : derivatives);
+
+        return outputs;
+    }
+
+    /**
+     * Get the specification digest recorded for an image file in the
+     * manifest.
+     *
+     * @param  specHash   the digest of the image specification.
+     * @param  derivative the derivative the image file holds, or {@code null}
+     *                    for the image.
+     *
+     * @return the digest.
+     */
+    private static String getSpecHash(String specHash, ImageDerivative derivative) {
+        return derivative == null ? specHash : Digests.sha1(specHash + "\nderivative " + derivative.canonicalForm());
+    }
+
+    /**
+     * Find the first entry with the same specification as an image, unless
+     * duplicates are rendered. Entries are remembered by the digest of their
+     * specification, so that the specifications themselves are not kept.
+     *
+     * @param  target      the look and feel the image is rendered in.
+     * @param  filename    the filename from the config file.
+     * @param  specHash    the digest of the image specification.
+     * @param  derivatives the image's own derivatives, or {@code null} if it
+     *                     has none.
+     *
+     * @return the filename of the first entry, or {@code null} if this is the
+     *         first.
+     */
+    private String findOriginal(RenderTarget target, String filename, String specHash, List<ImageDerivative> derivatives) {
+        if ("render".equalsIgnoreCase(duplicateImages)) {
+            return null;
+        }
+
+        String key = specHash;
+
+        // Only an entry with the same derivatives has all the files to duplicate.
+        if (derivatives != null) {
+            StringBuilder buffer = new StringBuilder(specHash).append("\nderivatives");
+
+            for (ImageDerivative derivative : derivatives) {
+                buffer.append(' ').append(derivative.canonicalForm());
+            }
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
+            key = Digests.sha1(buffer.toString());
+        }
+
+        String original = target.firstFilenames.get(key);
+
+        if (original == null) {
+            target.firstFilenames.put(key, filename);
+            return null;
+        } else if (original.equals(filename)) {
+            return null;
+        }
+
+        duplicateEntries++;
+        duplicatedOriginals.add(target.describe(original, imageScales.get(0)));
+        return original;
+    }
+
+    /**
+     * Create the image files of duplicate entries from the image files of the
+     * first entries with the same specifications, which have all been
+     * written.
+     *
+     * @throws MojoExecutionException if an image file cannot be created.
+     */
+    private void createDuplicateImageFiles() throws MojoExecutionException {
+        boolean link = "link".equalsIgnoreCase(duplicateImages);
+
+        for (DuplicateImage duplicate : duplicates) {
+            long start = System.nanoTime();
+
+            duplicate.file.delete();
+
+            try {
+                if (link) {
+                    try {
+                        Files.createLink(duplicate.file.toPath(), duplicate.original.toPath());
+                    } catch (IOException e) {
+                        getLog().warn("Unable to link image files, copying them instead: " + e);
+                        link = false;
+                    } catch (UnsupportedOperationException e) {
+                        getLog().warn("Unable to link image files, copying them instead: " + e);
+                        link = false;
+                    }
+                }
 
-import org.apache.maven.plugin.AbstractMojo;
-import org.apache.maven.plugin.MojoExecutionException;
+                if (!link) {
+                    RenderCache.copyFile(duplicate.original, duplicate.file);
+                }
+            } catch (IOException e) {
+                throw new MojoExecutionException("Unable to create image file " + duplicate.file + " from " + duplicate.original, e);
+            }
 
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
+            duplicate.record.writeTime = System.nanoTime() - start;
+            duplicate.record.bytes     = duplicate.file.length();
+        }
 
-/**
- * Goal creates a directory of images from Swing using a specified XML file.
- *
- * @description                  Create a directory of images from Swing using a
- *                               specified XML file.
- * @goal                         generate
- * @phase                        pre-site
- * @requiresDependencyResolution runtime
- * @configurator                 include-project-dependencies
- */
-public class ImageGeneratorMojo extends AbstractMojo {
+        if (duplicateEntries > 0) {
+            getLog().info("Found " + duplicateEntries + " duplicate entries of " + duplicatedOriginals.size() + " images, "
+                          + (link ? "linked " : "copied ") + duplicates.size() + " image files instead of rendering them");
+        }
+    }
 
     /**
-     * Location of the configuration file.
+     * Render an image in the build, setting the look and feel first. Other
+     * executions in the JVM may be rendering too, so the look and feel is set
+     * and the image painted while holding the Swing lock, and the image files
+     * written once it is released.
      *
-     * @parameter expression="${imagegenerator.configFile}"
-     *            default-value="${basedir}/src/site/image-generator.xml"
+     * @param  writerPool the pool used to write the image files.
+     * @param  target     the look and feel to render the image in.
+     * @param  filename   the filename from the config file.
+     * @param  info       the image specification.
+     * @param  records    the metrics records of the image files, one for each
+     *                    scale to render the image at.
+     *
+     * @throws MojoExecutionException if an error occurs.
      */
-    private File configFile;
+    private void renderImage(ImageWriterPool writerPool, RenderTarget target, String filename, ImageInfo info,
+            List<RenderMetrics.ImageRecord> records) throws MojoExecutionException {
+        BufferedImage[] images;
+
+        synchronized (RenderSession.SWING_LOCK) {
+            long start = System.nanoTime();
+
+            renderer.setClassLoader(classLoader);
+            renderer.setLookAndFeel(target.lookAndFeel);
+            metrics.lookAndFeelSet(target.lookAndFeel, System.nanoTime() - start);
+            images = drawImage(target, filename, info, records);
+        }
+
+        writeImageFiles(writerPool, target, filename, info, records, images);
+    }
 
     /**
-     * Name of the look and feel class.
+     * Send an image to the rendering daemon, if one is used. If the
+     * connection fails, the images already sent are rendered in the build.
      *
-     * @parameter expression="${imagegenerator.lookAndFeel}"
-     * @required
+     * @param  writerPool the pool used to write the image files.
+     * @param  target     the look and feel to render the image in.
+     * @param  filename   the filename from the config file.
+     * @param  info       the image specification.
+     * @param  records    the metrics records of the image files, one for each
+     *                    scale to render the image at.
+     *
+     * @return {@code true} if the image was sent, {@code false} if it must be
+     *         rendered in the build.
+     *
+     * @throws MojoExecutionException if an error occurs rendering the images
+     *                                already sent.
      */
-    private String lookAndFeel;
+    private boolean sendToDaemon(ImageWriterPool writerPool, RenderTarget target, String filename, ImageInfo info,
+            List<RenderMetrics.ImageRecord> records) throws MojoExecutionException {
+        if (daemonClient == null) {
+            return false;
+        }
+
+        DaemonImage image = new DaemonImage(target, filename, info, records);
+
+        try {
+            daemonClient.render(target.lookAndFeel, info, records, image.files);
+        } catch (IOException e) {
+            renderWithoutDaemon(writerPool, e);
+            return false;
+        }
+
+        for (RenderMetrics.ImageRecord record : records) {
+            getLog().info("Creating image file " + record.name + " in the daemon");
+        }
+
+        daemonImages.add(image);
+        return true;
+    }
 
     /**
-     * Location of the output directory.
+     * Wait for the rendering daemon to write the images sent to it, and store
+     * them in the cache. If the connection fails, the images are rendered in
+     * the build.
      *
-     * @parameter expression="${imagegenerator.outputDirectory}"
-     *            default-value="${project.build.directory}/generated-site/resources/images"
+     * @param  writerPool the pool used to write the image files.
+     *
+     * @throws MojoExecutionException if the daemon fails to render an image.
      */
-    private File outputDirectory;
+    private void finishDaemon(ImageWriterPool writerPool) throws MojoExecutionException {
+        if (daemonClient == null) {
+            return;
+        }
+
+        List<RenderMetrics.ImageRecord> records = new ArrayList<RenderMetrics.ImageRecord>();
+
+        for (DaemonImage image : daemonImages) {
+            records.addAll(image.records);
+        }
+
+        String error;
+
+        try {
+            error = daemonClient.finish(records);
+        } catch (IOException e) {
+            renderWithoutDaemon(writerPool, e);
+            return;
+        }
+
+        daemonClient.close();
+        daemonClient = null;
+
+        if (error.length() > 0) {
+            throw new MojoExecutionException("The rendering daemon failed: " + error);
+        }
+
+        for (DaemonImage image : daemonImages) {
+            for (int i = 0; i < image.records.size(); i++) {
+                storeInCache(image.target, image.records.get(i), image.files.get(i), image.info);
+            }
+        }
+
+        daemonImages.clear();
+    }
 
     /**
-     * Location of the saved configuration file.
+     * Give up on the rendering daemon after the connection fails, and render
+     * the images already sent to it in the build.
      *
-     * @parameter expression="${imagegenerator.savedConfigFile}"
-     *            default-value="${project.build.directory}/generated-site/image-generator.xml"
+     * @param  writerPool the pool used to write the image files.
+     * @param  e          the connection failure.
+     *
+     * @throws MojoExecutionException if an error occurs.
      */
-    private File savedConfigFile;
+    private void renderWithoutDaemon(ImageWriterPool writerPool, IOException e) throws MojoExecutionException {
+        getLog().warn("Lost the connection to the rendering daemon, rendering in the build: " + e);
+        daemonClient.close();
+        daemonClient = null;
 
-    /** A JPanel used for embedding the images. This is reused by each image. */
-    private JPanel panel;
+        for (DaemonImage image : daemonImages) {
+            renderImage(writerPool, image.target, image.filename, image.info, image.records);
+        }
+
+        daemonImages.clear();
+    }
 
     /**
-     * Set the config file.
+     * Add an image to the batch for the rendering workers, first submitting
+     * the batch if it is full. A batch is full once it holds enough images or
+     * enough pixels to be worth sending, estimated from the panel size at
+     * each scale, but the states of a component are never split between
+     * batches.
      *
-     * @param configFile the config file.
+     * @param  target   the look and feel to render the image in.
+     * @param  filename the filename from the config file.
+     * @param  info     the image specification.
+     * @param  records  the metrics records of the image files, one for each
+     *                  scale to render the image at.
+     *
+     * @throws MojoExecutionException if interrupted while waiting for a
+     *                                worker.
      */
-    public void setConfigFile(File configFile) {
-        this.configFile = configFile;
+    private void sendToWorker(RenderTarget target, String filename, ImageInfo info, List<RenderMetrics.ImageRecord> records)
+        throws MojoExecutionException {
+        List<DaemonImage> images = workerBatch.images;
+
+        if (!images.isEmpty() && (images.size() >= MAX_BATCH_IMAGES || workerBatch.cost >= MAX_BATCH_COST)) {
+            DaemonImage last = images.get(images.size() - 1);
+
+            if (info.state == null || last.info.state == null || last.target != target || !info.sameComponent(last.info)) {
+                workerPool.submit(workerBatch);
+                workerBatch = new WorkerPool.Batch();
+            }
+        }
+
+        for (RenderMetrics.ImageRecord record : records) {
+            if (record.derivative == null) {
+                workerBatch.cost += (long) record.scale.scale(info.panelWidth) * record.scale.scale(info.panelHeight);
+            }
+
+            getLog().info("Creating image file " + record.name + " in a worker");
+        }
+
+        workerBatch.images.add(new DaemonImage(target, filename, info, records));
     }
 
     /**
-     * Set the look and feel.
+     * Wait for the rendering workers to write the images given to them, and
+     * store them in the cache. The images of batches the workers could not
+     * render are rendered in the build.
      *
-     * @param lookAndFeel the look and feel class name.
+     * @param  writerPool the pool used to write the image files.
+     *
+     * @throws MojoExecutionException if a worker fails to render an image.
      */
-    public void setLookAndFeel(String lookAndFeel) {
-        this.lookAndFeel = lookAndFeel;
+    private void finishWorkers(ImageWriterPool writerPool) throws MojoExecutionException {
+        if (workerPool == null) {
+            return;
+        }
+
+        if (!workerBatch.images.isEmpty()) {
+            workerPool.submit(workerBatch);
+        }
+
+        List<WorkerPool.Batch> failed = workerPool.finish();
+
+        for (String warning : workerPool.getWarnings()) {
+            getLog().warn(warning);
+        }
+
+        for (WorkerPool.Batch batch : workerPool.getCompleted()) {
+            for (DaemonImage image : batch.images) {
+                for (int i = 0; i < image.records.size(); i++) {
+                    storeInCache(image.target, image.records.get(i), image.files.get(i), image.info);
+                }
+            }
+        }
+
+        if (!failed.isEmpty()) {
+            getLog().warn("Rendering " + failed.size() + " batches in the build");
+        }
+
+        for (WorkerPool.Batch batch : failed) {
+            for (DaemonImage image : batch.images) {
+                renderImage(writerPool, image.target, image.filename, image.info, image.records);
+            }
+        }
+
+        workerPool = null;
     }
 
     /**
-     * Set the output directory.
+     * Record the image files generated in the new manifest, once they have
+     * all been written.
      *
-     * @param outputDirectory the output directory.
+     * @throws MojoExecutionException if an image file cannot be read.
      */
-    public void setOutputDirectory(File outputDirectory) {
-        this.outputDirectory = outputDirectory;
+    private void updateManifest() throws MojoExecutionException {
+        for (ManifestFile file : manifestFiles) {
+            if (file.file.isFile()) {
+                try {
+                    newManifest.put(file.path, Manifest.Entry.create(file.fingerprint, file.specHash, file.file, file.previous));
+                } catch (IOException e) {
+                    throw new MojoExecutionException("Unable to read " + file.file, e);
+                }
+            }
+        }
+
+        manifestFiles = null;
     }
 
     /**
-     * Set the saved config file.
+     * Delete the image files in the last manifest which are not in the new
+     * one, because their entries were removed from the config file or their
+     * look and feels or scales are no longer rendered. Files changed since
+     * they were generated are left alone.
      *
-     * @param savedConfigFile the saved config file.
+     * @param previous the manifest of the image files last generated.
+     * @param current  the manifest of the image files generated now.
      */
-    public void setSavedConfigFile(File savedConfigFile) {
-        this.savedConfigFile = savedConfigFile;
+    void deleteRemovedImageFiles(Manifest previous, Manifest current) {
+        for (String path : previous.getPaths()) {
+            if (current.contains(path)) {
+                continue;
+            }
+
+            File file = new File(outputDirectory, path);
+
+            if (file.exists() && previous.get(path).matches(file)) {
+                getLog().info("Deleting image file " + path);
+                if (!file.delete()) {
+                    getLog().warn("Unable to delete " + file);
+                }
+            }
+        }
     }
 
     /**
-     * @see org.apache.maven.plugin.AbstractMojo#execute()
+     * Write the new manifest, and keep it for the next generation if
+     * watching.
+     *
+     * @throws MojoExecutionException if the manifest cannot be written.
      */
-    public void execute() throws MojoExecutionException {
-        Map<String, ImageInfo> config    = parseConfigFile(configFile, true);
-        Map<String, ImageInfo> oldConfig = parseConfigFile(savedConfigFile, false);
-
-        createOutputDirectoryIfNecessary();
+    private void writeManifest() throws MojoExecutionException {
+        try {
+            newManifest.write(manifestFile);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to write " + manifestFile, e);
+        }
 
-        panel = null;
+        manifest    = watching ? newManifest : null;
+        newManifest = null;
+    }
 
-        generateImageFiles(config, oldConfig);
+    /**
+     * Decide whether an image file must be generated, by comparing it with
+     * its entry in the manifest.
+     *
+     * @param  fingerprint the fingerprint of the look and feel, classpath and
+     *                     scale.
+     * @param  specHash    the digest of the image specification.
+     * @param  file        the image file.
+     * @param  entry       the manifest entry, or {@code null} if there is
+     *                     none.
+     *
+     * @return why the image must be generated, or {@code null} if it is
+     *         unchanged.
+     */
+    private String getReasonToGenerate(String fingerprint, String specHash, File file, Manifest.Entry entry) {
+        if (entry == null) {
+            return "new";
+        } else if (!fingerprint.equals(entry.fingerprint)) {
+            // The look and feel, the scale or the classes have changed.
+            return "fingerprint";
+        } else if (!file.exists()) {
+            return "missing";
+        } else if (!specHash.equals(entry.specHash)) {
+            return "changed";
+        } else if (!entry.matches(file)) {
+            return "modified";
+        }
 
-        copyConfigToOldConfig(configFile, savedConfigFile);
+        return null;
     }
 
     /**
-     * Set the UI and create the JPanel if not already done. This allows us to
-     * only do this if we need to, saving execution time when no changes are
-     * made.
+     * Link or copy an image from the cache to its output file, if it is
+     * cached.
+     *
+     * @param  target     the look and feel the image is rendered in.
+     * @param  scale      the scale the image is rendered at.
+     * @param  derivative the derivative the image file holds, or
+     *                    {@code null} for the image.
+     * @param  file       the output file.
+     * @param  info       the image specification.
      *
-     * @throws MojoExecutionException if unable to set the UI.
+     * @return {@code true} if the image was restored from the cache,
+     *         {@code false} if it must be rendered.
      */
-    private void createUIIfNecessary() throws MojoExecutionException {
-        if (panel == null) {
-            try {
-                UIManager.setLookAndFeel(lookAndFeel);
-            } catch (Exception e) {
-                e.printStackTrace();
-                throw new MojoExecutionException("Unable to set look and feel " + lookAndFeel, e);
-            }
+    private boolean restoreFromCache(RenderTarget target, ImageScale scale, ImageDerivative derivative, File file, ImageInfo info) {
+        if (cache == null) {
+            return false;
+        }
 
-            panel = new JPanel();
-            panel.setOpaque(true);
+        try {
+            return cache.restore(cache.getKey(info, target.lookAndFeel, scale, derivative), file);
+        } catch (IOException e) {
+            getLog().warn("Unable to restore image file " + file + " from cache", e);
+            return false;
         }
     }
 
     /**
-     * Generate the image files, skipping any that are identical to a filename
-     * in the saved config file.
-     *
-     * @param  config    the current config file.
-     * @param  oldConfig the saved config file, for comparison.
+     * Store a newly written image file in the cache, if one is used. Failure
+     * to store the file is not an error.
      *
-     * @throws MojoExecutionException if an error occurs.
+     * @param target the look and feel the image is rendered in.
+     * @param record the metrics record of the image file.
+     * @param file   the image file.
+     * @param info   the image specification.
      */
-    private void generateImageFiles(Map<String, ImageInfo> config, Map<String, ImageInfo> oldConfig) throws MojoExecutionException {
-        for (String filename : config.keySet()) {
-            ImageInfo info    = config.get(filename);
-            ImageInfo oldInfo = oldConfig.get(filename);
-            File      file    = new File(outputDirectory, filename + ".png");
-
-            if (oldInfo == null || !file.exists() || !info.equals(oldInfo)) {
-                getLog().info("Creating image file " + filename);
-                createUIIfNecessary();
-                drawImage(file, info.className, info.width, info.height, info.panelWidth, info.panelHeight, info.args,
-                          info.properties);
+    private void storeInCache(RenderTarget target, RenderMetrics.ImageRecord record, File file, ImageInfo info) {
+        if (cache != null) {
+            try {
+                cache.store(cache.getKey(info, target.lookAndFeel, record.scale, record.derivative), file);
+            } catch (IOException e) {
+                getLog().warn("Unable to store image file " + file + " in cache", e);
             }
         }
     }
 
     /**
-     * Create an image from the info and write it to a file.
+     * Create an image from the info at each scale. Another state of the last
+     * image is drawn from the same component. A panel too tall to paint whole
+     * is painted in strips and written to its file as it is painted. The
+     * derivatives are made when the image they follow is written.
      *
-     * @param  file        the file to write the image to.
-     * @param  className   the class of control to be created, e.g.
-     *                     "javax.swing.JButton".
-     * @param  width       the desired width of the control.
-     * @param  height      the desired height of the control.
-     * @param  panelWidth  the desired width of the panel it is embedded in.
-     * @param  panelHeight the desired height of the panel it is embedded in.
-     * @param  args        any arguments to the control constructor.
-     * @param  properties  a map containing the client properties to set on the
-     *                     control.
+     * @param  target   the look and feel the image is rendered in.
+     * @param  filename the filename from the config file.
+     * @param  info     the image specification.
+     * @param  records  the metrics records of the image files, one for each
+     *                  scale to render the image at, each followed by those
+     *                  of its derivatives.
+     *
+     * @return the images, one for each record, or {@code null} for those
+     *         already written and for the derivatives.
      *
      * @throws MojoExecutionException if an error occurs.
      */
-    private void drawImage(File file, String className, int width, int height, int panelWidth, int panelHeight, Object[] args,
-            Map<String, Object> properties) throws MojoExecutionException {
-        // Create the Swing object.
-        JComponent c = createSwingObject(className, args);
+    private BufferedImage[] drawImage(RenderTarget target, String filename, ImageInfo info, List<RenderMetrics.ImageRecord> records)
+        throws MojoExecutionException {
+        BufferedImage[] images = new BufferedImage[records.size()];
+        long            start  = System.nanoTime();
+        JComponent      c      = renderer.reuseComponent(info);
+        boolean         reused = c != null;
+
+        if (!reused) {
+            c = renderer.createComponent(info);
+        }
+
+        renderer.applyState(c, info);
+
+        long constructed = System.nanoTime();
 
-        // Set its properties.
-        for (String key : properties.keySet()) {
-            c.putClientProperty(key, properties.get(key));
+        if (!reused) {
+            renderer.layout(c, info);
         }
 
-        // Paint to a buffered image.
-        BufferedImage image = paintToBufferedImage(c, width, height, panelWidth, panelHeight);
+        records.get(0).constructTime = constructed - start;
+        records.get(0).layoutTime    = System.nanoTime() - constructed;
+
+        for (int i = 0; i < images.length; i++) {
+            RenderMetrics.ImageRecord record = records.get(i);
+
+            getLog().info("Creating image file " + record.name);
+
+            if (record.derivative != null) {
+                continue;
+            } else if (ComponentRenderer.isTiled(info, record.scale, tileHeight)) {
+                renderer.paintTiled(info, record.scale, tileHeight, target.getImageFile(filename, record.scale), imageEncoder, record);
+                continue;
+            }
+
+            // Paint to a buffered image.
+            long paintStart = System.nanoTime();
+
+            images[i]        = renderer.paint(info, record.scale);
+            record.paintTime = System.nanoTime() - paintStart;
+        }
 
-        // Write the file.
-        writeImageFile(file, image);
+        return images;
     }
 
     /**
-     * Create a Swing object from its class name and arguments.
-     *
-     * @param  className the class name.
-     * @param  args      the arguments. May be empty.
+     * Queue the images of an entry to be written to files. The derivatives
+     * of each image are made and written on the same thread, after it.
      *
-     * @return the newly created Swing object.
+     * @param  writerPool the pool used to write the image files.
+     * @param  target     the look and feel the image is rendered in.
+     * @param  filename   the filename from the config file.
+     * @param  info       the image specification.
+     * @param  records    the metrics records of the image files, one for each
+     *                    scale the image was rendered at, each followed by
+     *                    those of its derivatives.
+     * @param  images     the images, one for each record, or {@code null}
+     *                    for those already written and for the derivatives.
      *
-     * @throws MojoExecutionException if the Swing object cannot be created.
+     * @throws MojoExecutionException if an error occurs.
      */
-    private JComponent createSwingObject(String className, Object... args) throws MojoExecutionException {
-        try {
-            Class<?> c = Class.forName(className);
+    private void writeImageFiles(ImageWriterPool writerPool, final RenderTarget target, final String filename, final ImageInfo info,
+            List<RenderMetrics.ImageRecord> records, BufferedImage[] images) throws MojoExecutionException {
+        for (int i = 0; i < images.length; i++) {
+            final RenderMetrics.ImageRecord record = records.get(i);
+
+            if (record.derivative != null) {
+                continue;
+            } else if (images[i] == null) {
+                storeInCache(target, record, target.getImageFile(filename, record.scale), info);
+                continue;
+            }
 
-            Class<?>[] argClasses = new Class[args.length];
+            int end = i + 1;
 
-            for (int i = 0; i < args.length; i++) {
-                argClasses[i] = args[i].getClass();
+            while (end < records.size() && records.get(end).derivative != null) {
+                end++;
             }
 
-            Constructor<?> constructor = c.getConstructor(argClasses);
+            final List<RenderMetrics.ImageRecord> derived = records.subList(i + 1, end);
 
-            if (constructor == null) {
-                throw new MojoExecutionException("Failed to find the constructor for the class: " + className);
-            }
+            // Write the file, possibly on another thread.
+            writerPool.submit(target.getImageFile(filename, record.scale), images[i], new ImageWriterPool.ImageFileWriter() {
+                    public void writeImageFile(File file, BufferedImage image) throws MojoExecutionException {
+                        imageEncoder.write(file, image, record);
+                        storeInCache(target, record, file, info);
 
-            return (JComponent) constructor.newInstance(args);
-        } catch (Exception e) {
-            throw new MojoExecutionException("Unable to create the object " + className + "(" + args + ")", e);
+                        for (RenderMetrics.ImageRecord derivedRecord : derived) {
+                            File derivedFile = target.getImageFile(filename, derivedRecord.scale, derivedRecord.derivative);
+
+                            imageEncoder.writeDerivative(derivedFile, image, info, derivedRecord);
+                            storeInCache(target, derivedRecord, derivedFile, info);
+                        }
+
+                        imagePool.release(image);
+                    }
+                });
         }
     }
 
     /**
-     * Paint the control to a newly created buffered image.
+     * Pass each image file the config file describes, in every look and feel
+     * and at every scale, with its derivatives, to a handler with the
+     * fingerprint and specification digest it is recorded with in the
+     * manifest. Every shard is included, so the handler is given the
+     * filename of the entry, to check with {@link #isInShard(String)}.
      *
-     * @param  c           the control to paint.
-     * @param  width       the desired width of the control.
-     * @param  height      the desired height of the control.
-     * @param  panelWidth  the desired width of the panel it is embedded in.
-     * @param  panelHeight the desired height of the panel it is embedded in.
+     * @param  handler the handler to receive each image file.
      *
-     * @return the buffered image containing the printed control against a panel
-     *         background.
+     * @throws MojoExecutionException if the config file or the parameters are
+     *                                invalid, or the handler throws it.
      */
-    private BufferedImage paintToBufferedImage(JComponent c, int width, int height, int panelWidth, int panelHeight) {
-        panel.removeAll();
-        panel.setSize(panelWidth, panelHeight);
-
-        panel.add(c);
-        c.setBounds((panelWidth - width) / 2, (panelHeight - height) / 2, width, height);
+    void listImageFiles(final ImageFileHandler handler) throws MojoExecutionException {
+        if (classpathFingerprint == null) {
+            classpathFingerprint = fingerprintClasspath();
+        }
 
-        BufferedImage image = new BufferedImage(panelWidth, panelHeight, BufferedImage.TYPE_INT_ARGB);
-        Graphics      g     = image.createGraphics();
+        final List<ImageScale>      scaleList      = ImageScale.parse(scales);
+        final List<ImageDerivative> derivativeList = ImageDerivative.parse(derivatives == null ? "" : derivatives);
+
+        for (final RenderTarget target : createRenderTargets(classpathFingerprint + describePalette())) {
+            parseConfigFile(configFile, true, new ConfigParser.ImageHandler() {
+                    public void image(String filename, ImageInfo info) throws MojoExecutionException {
+                        String specHash = Digests.sha1(info.canonicalForm());
+
+                        for (ImageScale scale : scaleList) {
+                            for (ImageDerivative derivative : getOutputs(info, derivativeList)) {
+                                handler.imageFile(filename, target.getPath(filename, scale, derivative),
+                                                  target.getFingerprint(scale), getSpecHash(specHash, derivative));
+                            }
+                        }
+                    }
+                });
+        }
+    }
 
-        panel.paint(g);
-        return image;
+    /**
+     * Check whether an entry belongs to the shard this execution renders.
+     *
+     * @param  filename the filename from the config file.
+     *
+     * @return {@code true} if it does, {@code false} if another shard
+     *         renders it.
+     */
+    boolean isInShard(String filename) {
+        return shardCount <= 1 || getShard(filename, shardCount) == shardIndex;
     }
 
     /**
-     * Write the buffered image to the file.
+     * Get the shard an entry belongs to. The hash of the filename is mixed so
+     * that filenames differing only in their last character are spread over
+     * the shards.
      *
-     * @param  file  the file to write the image to.
-     * @param  image the buffered image.
+     * @param  filename   the filename from the config file.
+     * @param  shardCount the number of shards.
      *
-     * @throws MojoExecutionException if unable to write the file.
+     * @return the index of the shard.
      */
-    private void writeImageFile(File file, BufferedImage image) throws MojoExecutionException {
-        try {
-            ImageIO.write(image, "png", file);
-        } catch (IOException e) {
-            throw new MojoExecutionException("Error writing image file " + file, e);
-        }
+    static int getShard(String filename, int shardCount) {
+        int hash = filename.hashCode();
+
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+
+        return (hash & 0x7fffffff) % shardCount;
     }
 
     /**
-     * Parse an XML image config file into a hash of ImageInfo objects.
+     * Parse an XML image config file, passing each image to a handler as soon
+     * as it has been read.
      *
      * @param  filename    the XML config file.
      * @param  quitOnError {@code true} causes an exception to be thrown if an
      *                     error occurs, {@code false} ignores the error and
-     *                     returns the list as it currently is.
-     *
-     * @return a map of ImageInfo objects, indexed by image filename.
+     *                     stops parsing.
+     * @param  handler     the handler to receive each image.
      *
      * @throws MojoExecutionException if an error occurs and {@code quitOnError}
      *                                is {@code true}.
      */
-    private Map<String, ImageInfo> parseConfigFile(File filename, boolean quitOnError) throws MojoExecutionException {
-        Map<String, ImageInfo> list         = new HashMap<String, ImageInfo>();
-        InputStream            configStream = openInputStream(filename, quitOnError);
-        Document               doc          = null;
+    private void parseConfigFile(File filename, boolean quitOnError, ConfigParser.ImageHandler handler)
+        throws MojoExecutionException {
+        InputStream configStream = openInputStream(filename, quitOnError);
 
         if (configStream == null) {
             // This only happens if quitOnError is false and the stream couldn't be opened.
-            return list;
+            return;
         }
 
         try {
-            DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-            DocumentBuilder        db  = dbf.newDocumentBuilder();
-
-            doc = db.parse(configStream);
+            ConfigParser.parse(configStream, handler);
+        } catch (MojoExecutionException e) {
+            if (quitOnError) {
+                throw e;
+            }
         } catch (Exception e) {
-            closeInputStream(configStream);
             if (quitOnError) {
                 throw new MojoExecutionException("Unable to parse XML config file " + filename, e);
             }
-
-            return list;
-        }
-
-        doc.getDocumentElement().normalize();
-        NodeList nodeList = doc.getElementsByTagName("image");
-
-        for (int i = 0; i < nodeList.getLength(); i++) {
-            Node imageNode = nodeList.item(i);
-
-            if (imageNode.getNodeType() == Node.ELEMENT_NODE) {
-                ImageInfo info      = new ImageInfo();
-                String    imageFile = getImageInfo((Element) imageNode, info);
-
-                list.put(imageFile, info);
-            }
+        } finally {
+            closeInputStream(configStream);
         }
-
-        closeInputStream(configStream);
-
-        return list;
     }
 
     /**
@@ -402,13 +2303,15 @@ public class ImageGeneratorMojo extends AbstractMojo {
     }
 
     /**
-     * Get the File for the output directory, creating it if necessary.
+     * Get the File for an output directory, creating it if necessary.
+     *
+     * @param  outputDirectory the output directory.
      *
      * @throws MojoExecutionException if for some reason the directory cannot be
      *                                used, e.g. it is not a directory, or is
      *                                not writable.
      */
-    private void createOutputDirectoryIfNecessary() throws MojoExecutionException {
+    private void createOutputDirectoryIfNecessary(File outputDirectory) throws MojoExecutionException {
         if (outputDirectory.exists()) {
             if (!outputDirectory.isDirectory()) {
                 throw new MojoExecutionException("Output directory \"" + outputDirectory + "\" exists, but is not a directory.");
@@ -421,187 +2324,134 @@ public class ImageGeneratorMojo extends AbstractMojo {
     }
 
     /**
-     * Copy the current config file to the saved config file.
-     *
-     * @param  configFilename    the current config file name.
-     * @param  oldConfigFilename the saved config file name.
-     *
-     * @throws MojoExecutionException if an error occurs.
+     * Receives each image file the config file describes.
      */
-    private void copyConfigToOldConfig(File configFilename, File oldConfigFilename) throws MojoExecutionException {
-        BufferedReader reader = new BufferedReader(new InputStreamReader(openInputStream(configFilename, true)));
-
-        BufferedWriter writer = null;
-
-        try {
-            writer = new BufferedWriter(new FileWriter(oldConfigFilename));
-        } catch (IOException e) {
-            throw new MojoExecutionException("Unable to open for writing the file " + oldConfigFilename, e);
-        }
+    interface ImageFileHandler {
 
-        try {
-            for (String line = null; (line = reader.readLine()) != null;) {
-                writer.write(line);
-                writer.write("\n");
-            }
-        } catch (IOException e) {
-            throw new MojoExecutionException("Unable to write " + oldConfigFilename, e);
-        } finally {
-            try {
-                writer.close();
-            } catch (IOException e) {
-                // Do nothing.
-            }
-        }
+        /**
+         * Handle an image file.
+         *
+         * @param  filename    the filename of its entry in the config file.
+         * @param  path        the path of the image file relative to the
+         *                     output directory.
+         * @param  fingerprint the fingerprint of the look and feel, classpath
+         *                     and scale.
+         * @param  specHash    the digest of the image specification.
+         *
+         * @throws MojoExecutionException if an error occurs.
+         */
+        void imageFile(String filename, String path, String fingerprint, String specHash) throws MojoExecutionException;
     }
 
     /**
-     * Parse the XML for an image element to create the ImageInfo class for it.
-     *
-     * @param  imageElem the W3C Element containing the image information.
-     * @param  info      the ImageInfo object to fill with data from XML.
-     *
-     * @return the filename to write the image into.
-     *
-     * @throws MojoExecutionException if an error occurs.
+     * An image file to record in the new manifest once it is written.
      */
-    private String getImageInfo(Element imageElem, ImageInfo info) throws MojoExecutionException {
-        String filename = imageElem.getAttribute("file");
-
-        String w  = imageElem.getAttribute("width");
-        String h  = imageElem.getAttribute("height");
-        String pw = imageElem.getAttribute("panelWidth");
-        String ph = imageElem.getAttribute("panelHeight");
-
-        if (pw.length() == 0) {
-            pw = w;
-        }
+    private static class ManifestFile {
 
-        if (ph.length() == 0) {
-            ph = h;
-        }
-
-        info.className   = imageElem.getAttribute("class");
-        info.width       = Integer.parseInt(w);
-        info.height      = Integer.parseInt(h);
-        info.panelWidth  = Integer.parseInt(pw);
-        info.panelHeight = Integer.parseInt(ph);
+        /** The path of the image file relative to the output directory. */
+        final String path;
 
-        List<Object> argList = new ArrayList<Object>();
+        /** The fingerprint of the look and feel, classpath and scale. */
+        final String fingerprint;
 
-        NodeList nodeList = imageElem.getElementsByTagName("argument");
+        /** The digest of the image specification. */
+        final String specHash;
 
-        for (int i = 0; i < nodeList.getLength(); i++) {
-            Node node = nodeList.item(i);
+        /** The image file. */
+        final File file;
 
-            if (node.getNodeType() == Node.ELEMENT_NODE) {
-                Element argElem = (Element) node;
-                String  type    = argElem.getAttribute("type");
-                String  value   = argElem.getAttribute("value");
+        /** The previous manifest entry, or {@code null} if the file is rewritten. */
+        final Manifest.Entry previous;
 
-                argList.add(parseObject(type, value));
-            }
+        /**
+         * Create a new ManifestFile.
+         *
+         * @param path        the path of the image file relative to the
+         *                    output directory.
+         * @param fingerprint the fingerprint of the look and feel, classpath
+         *                    and scale.
+         * @param specHash    the digest of the image specification.
+         * @param file        the image file.
+         * @param previous    the previous manifest entry, or {@code null} if
+         *                    the file is rewritten.
+         */
+        ManifestFile(String path, String fingerprint, String specHash, File file, Manifest.Entry previous) {
+            this.path        = path;
+            this.fingerprint = fingerprint;
+            this.specHash    = specHash;
+            this.file        = file;
+            this.previous    = previous;
         }
+    }
 
-        info.args = argList.toArray();
-
-        info.properties = new HashMap<String, Object>();
-
-        nodeList = imageElem.getElementsByTagName("clientProperty");
-
-        for (int i = 0; i < nodeList.getLength(); i++) {
-            Node node = nodeList.item(i);
+    /**
+     * An image sent to the rendering daemon or a worker, kept so that it can
+     * be rendered in the build if the daemon or worker fails.
+     */
+    static class DaemonImage {
 
-            if (node.getNodeType() == Node.ELEMENT_NODE) {
-                Element argElem = (Element) node;
-                String  name    = argElem.getAttribute("name");
-                String  type    = argElem.getAttribute("type");
-                String  value   = argElem.getAttribute("value");
+        /** The look and feel the image is rendered in. */
+        final RenderTarget target;
 
-                info.properties.put(name, parseObject(type, value));
-            }
-        }
+        /** The filename from the config file. */
+        final String filename;
 
-        info.args = argList.toArray();
+        /** The image specification. */
+        final ImageInfo info;
 
-        return filename;
-    }
+        /** The metrics records of the image files. */
+        final List<RenderMetrics.ImageRecord> records;
 
-    /**
-     * Parse the value as an Object, given its type and value.
-     *
-     * @param  type  the type, e.g. String, Integer, Float, or Double.
-     * @param  value the String value.
-     *
-     * @return the value as an Object of the specified type.
-     *
-     * @throws MojoExecutionException if the type is not recognized.
-     */
-    private Object parseObject(String type, String value) throws MojoExecutionException {
-        Object obj = null;
+        /** The image file for each record. */
+        final List<File> files;
 
-        if ("String".equals(type)) {
-            obj = value;
-        } else if ("Integer".equals(type)) {
-            obj = Integer.parseInt(value);
-        } else if ("Float".equals(type)) {
-            obj = Float.parseFloat(value);
-        } else if ("Double".equals(type)) {
-            obj = Double.parseDouble(value);
-        } else {
-            throw new MojoExecutionException("Unknown argument type: " + type);
+        /**
+         * Create a new DaemonImage.
+         *
+         * @param target   the look and feel the image is rendered in.
+         * @param filename the filename from the config file.
+         * @param info     the image specification.
+         * @param records  the metrics records of the image files.
+         */
+        DaemonImage(RenderTarget target, String filename, ImageInfo info, List<RenderMetrics.ImageRecord> records) {
+            this.target   = target;
+            this.filename = filename;
+            this.info     = info;
+            this.records  = records;
+            this.files    = new ArrayList<File>(records.size());
+
+            for (RenderMetrics.ImageRecord record : records) {
+                files.add(target.getImageFile(filename, record.scale, record.derivative));
+            }
         }
-
-        return obj;
     }
 
     /**
-     * Information used to generate each image.
+     * The image file of a duplicate entry, created from the image file of the
+     * first entry with the same specification.
      */
-    public static class ImageInfo {
-        String              className;
-        int                 width;
-        int                 height;
-        int                 panelWidth;
-        int                 panelHeight;
-        Object[]            args;
-        Map<String, Object> properties;
+    private static class DuplicateImage {
 
-        /**
-         * @see java.lang.Object#equals(java.lang.Object)
-         */
-        @Override
-        public boolean equals(Object obj) {
-            if (!(obj instanceof ImageInfo)) {
-                return false;
-            }
+        /** The image file of the first entry. */
+        final File original;
 
-            ImageInfo other = (ImageInfo) obj;
+        /** The image file to create. */
+        final File file;
 
-            return (className.equals(other.className) && width == other.width && height == other.height && panelWidth == other.panelWidth
-                        && panelHeight == other.panelHeight && argsEquals(other) && properties.equals(other.properties));
-        }
+        /** The metrics record of the image file. */
+        final RenderMetrics.ImageRecord record;
 
         /**
-         * Compare args objects for equality.
+         * Create a new DuplicateImage.
          *
-         * @param  other the other ImageInfo object.
-         *
-         * @return {@code true} if the two args have the same number and each
-         *         element is equal, {@code false} otherwise.
+         * @param original the image file of the first entry.
+         * @param file     the image file to create.
+         * @param record   the metrics record of the image file.
          */
-        private boolean argsEquals(ImageInfo other) {
-            if (args.length != other.args.length) {
-                return false;
-            }
-
-            for (int i = 0; i < args.length; i++) {
-                if (!args[i].equals(other.args[i])) {
-                    return false;
-                }
-            }
-
-            return true;
+        DuplicateImage(File original, File file, RenderMetrics.ImageRecord record) {
+            this.original = original;
+            this.file     = file;
+            this.record   = record;
         }
     }
 }
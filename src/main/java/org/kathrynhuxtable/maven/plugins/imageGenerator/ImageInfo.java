@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2010 Kathryn Huxtable.
+ *
+ * This file is part of the Image Generator Maven plugin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.kathrynhuxtable.maven.plugins.imageGenerator;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Information used to generate each image.
+ */
+public class ImageInfo {
+    String                className;
+    int                   width;
+    int                   height;
+    int                   panelWidth;
+    int                   panelHeight;
+    Object[]              args;
+    Map<String, Object>   properties;
+    ImageState            state;
+    List<ImageDerivative> derivatives;
+
+    /**
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof ImageInfo)) {
+            return false;
+        }
+
+        ImageInfo other = (ImageInfo) obj;
+
+        return sameComponent(other) && (state == null ? other.state == null : state.equals(other.state))
+                   && (derivatives == null ? other.derivatives == null : derivatives.equals(other.derivatives));
+    }
+
+    /**
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        int hash = className.hashCode();
+
+        hash = 31 * hash + width;
+        hash = 31 * hash + height;
+        hash = 31 * hash + panelWidth;
+        hash = 31 * hash + panelHeight;
+        hash = 31 * hash + Arrays.hashCode(args);
+
+        hash = 31 * hash + properties.hashCode();
+
+        if (derivatives != null) {
+            hash = 31 * hash + derivatives.hashCode();
+        }
+
+        return state == null ? hash : 31 * hash + state.hashCode();
+    }
+
+    /**
+     * Create an image of the same component in a state.
+     *
+     * @param  state the state.
+     *
+     * @return the new ImageInfo object, sharing the arguments and client
+     *         properties of this one.
+     */
+    ImageInfo withState(ImageState state) {
+        ImageInfo info = new ImageInfo();
+
+        info.className   = className;
+        info.width       = width;
+        info.height      = height;
+        info.panelWidth  = panelWidth;
+        info.panelHeight = panelHeight;
+        info.args        = args;
+        info.properties  = properties;
+        info.state       = state;
+        info.derivatives = derivatives;
+
+        return info;
+    }
+
+    /**
+     * Check whether another image draws the same component, possibly in
+     * another state.
+     *
+     * @param  other the other ImageInfo object.
+     *
+     * @return {@code true} if the component is created and laid out the same
+     *         way, {@code false} otherwise.
+     */
+    boolean sameComponent(ImageInfo other) {
+        return (className.equals(other.className) && width == other.width && height == other.height && panelWidth == other.panelWidth
+                    && panelHeight == other.panelHeight && argsEquals(other) && properties.equals(other.properties));
+    }
+
+    /**
+     * Get a string which uniquely describes this image, for computing
+     * digests. Equal ImageInfo objects have equal canonical forms.
+     *
+     * @return the canonical form.
+     */
+    String canonicalForm() {
+        StringBuilder buffer = new StringBuilder();
+
+        buffer.append(className).append(' ').append(width).append('x').append(height).append(' ');
+        buffer.append(panelWidth).append('x').append(panelHeight);
+
+        for (Object arg : args) {
+            buffer.append("\nargument ");
+            appendValue(buffer, arg);
+        }
+
+        for (String name : new TreeSet<String>(properties.keySet())) {
+            buffer.append("\nclientProperty ").append(name.length()).append(':').append(name).append(' ');
+            appendValue(buffer, properties.get(name));
+        }
+
+        if (state != null) {
+            state.appendTo(buffer);
+        }
+
+        return buffer.toString();
+    }
+
+    /**
+     * Append a typed value to the canonical form. The length of the value
+     * is included so that values containing separators are unambiguous.
+     *
+     * @param buffer the buffer.
+     * @param value  the value.
+     */
+    static void appendValue(StringBuilder buffer, Object value) {
+        String s = String.valueOf(value);
+
+        buffer.append(value.getClass().getName()).append(' ').append(s.length()).append(':').append(s);
+    }
+
+    /**
+     * Compare args objects for equality.
+     *
+     * @param  other the other ImageInfo object.
+     *
+     * @return {@code true} if the two args have the same number and each
+     *         element is equal, {@code false} otherwise.
+     */
+    private boolean argsEquals(ImageInfo other) {
+        if (args.length != other.args.length) {
+            return false;
+        }
+
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].equals(other.args[i])) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
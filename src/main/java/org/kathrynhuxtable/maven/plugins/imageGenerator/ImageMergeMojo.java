@@ -0,0 +1,274 @@
+/*
+ * Copyright (c) 2010 Kathryn Huxtable.
+ *
+ * This file is part of the Image Generator Maven plugin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.kathrynhuxtable.maven.plugins.imageGenerator;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * Goal combines the images rendered by the shards of the generate goal into
+ * the output directory, with a manifest of them all, as if they had been
+ * generated in one execution.
+ *
+ * <p>Each sub-directory of the shard directory holds the output directory of
+ * one shard, with the manifest the shard wrote, named
+ * {@code image-generator.manifest}. Every image file the config file
+ * describes must have been rendered by exactly one shard from the same
+ * specification. An image file rendered by more than one shard is accepted if
+ * the shards agree on its contents. Only the image files which differ from
+ * those already in the output directory are copied.</p>
+ *
+ * @description                  Merge the images rendered by several shards.
+ * @goal                         merge
+ * @requiresDependencyResolution runtime
+ */
+public class ImageMergeMojo extends ImageGeneratorMojo {
+
+    /** The name of the manifest in each shard directory. */
+    static final String SHARD_MANIFEST = "image-generator.manifest";
+
+    /** The most paths listed when reporting missing, stale or ignored image files. */
+    private static final int MAX_LISTED = 10;
+
+    /**
+     * Location of the directory holding the output directory of each shard.
+     *
+     * @parameter expression="${imagegenerator.shardDirectory}"
+     *            default-value="${project.build.directory}/image-shards"
+     */
+    private File shardDirectory;
+
+    /**
+     * Set the shard directory.
+     *
+     * @param shardDirectory the directory holding the output directory of
+     *                       each shard.
+     */
+    public void setShardDirectory(File shardDirectory) {
+        this.shardDirectory = shardDirectory;
+    }
+
+    /**
+     * @see org.apache.maven.plugin.AbstractMojo#execute()
+     */
+    public void execute() throws MojoExecutionException {
+        Map<String, File>  sources           = new HashMap<String, File>();
+        final Manifest     shards            = readShards(sources);
+        final List<String> missing           = new ArrayList<String>();
+        final List<String> stale             = new ArrayList<String>();
+        final int[]        otherFingerprints = new int[1];
+
+        // The image files in the order the config file describes them, with their fingerprints here.
+        final Map<String, String> expected = new LinkedHashMap<String, String>();
+
+        listImageFiles(new ImageFileHandler() {
+                public void imageFile(String filename, String path, String fingerprint, String specHash) {
+                    Manifest.Entry entry = shards.get(path);
+
+                    if (entry == null) {
+                        missing.add(path);
+                    } else if (!specHash.equals(entry.specHash)) {
+                        stale.add(path);
+                    } else if (!fingerprint.equals(entry.fingerprint)) {
+                        otherFingerprints[0]++;
+                    }
+
+                    expected.put(path, fingerprint);
+                }
+            });
+
+        if (!missing.isEmpty()) {
+            throw new MojoExecutionException(missing.size() + " image files were rendered by no shard: " + list(missing));
+        } else if (!stale.isEmpty()) {
+            throw new MojoExecutionException(stale.size() + " image files were rendered from another configuration: "
+                                             + list(stale));
+        }
+
+        if (otherFingerprints[0] > 0) {
+            // Shards built with other versions of the jars change the fingerprint, but usually not the images.
+            getLog().warn(otherFingerprints[0] + " image files were rendered with another look and feel or classpath fingerprint,"
+                          + " recording them with this one");
+        }
+
+        List<String> ignored = new ArrayList<String>();
+
+        for (String path : shards.getPaths()) {
+            if (!expected.containsKey(path)) {
+                ignored.add(path);
+            }
+        }
+
+        if (!ignored.isEmpty()) {
+            getLog().warn("Ignoring " + ignored.size() + " image files which are not in the config file: " + list(ignored));
+        }
+
+        copyImageFiles(shards, sources, expected);
+    }
+
+    /**
+     * Read the manifests of the shards, checking that their image files are
+     * as recorded and that no two shards disagree about an image file.
+     *
+     * @param  sources receives the shard directory of each image file.
+     *
+     * @return the entries of every shard.
+     *
+     * @throws MojoExecutionException if there are no shards, a shard has no
+     *                                manifest, an image file has changed since
+     *                                its shard wrote it, or two shards wrote
+     *                                an image file differently.
+     */
+    private Manifest readShards(Map<String, File> sources) throws MojoExecutionException {
+        File[]   directories = shardDirectory.listFiles();
+        Manifest shards      = new Manifest();
+        int      count       = 0;
+        int      overlaps    = 0;
+
+        if (directories == null) {
+            throw new MojoExecutionException("Unable to read the shard directory " + shardDirectory);
+        }
+
+        Arrays.sort(directories);
+        for (File directory : directories) {
+            if (!directory.isDirectory()) {
+                continue;
+            }
+
+            File manifestFile = new File(directory, SHARD_MANIFEST);
+
+            if (!manifestFile.isFile()) {
+                throw new MojoExecutionException("The shard " + directory + " has no " + SHARD_MANIFEST);
+            }
+
+            Manifest manifest = Manifest.read(manifestFile);
+
+            for (String path : manifest.getPaths()) {
+                Manifest.Entry entry = manifest.get(path);
+                Manifest.Entry other = shards.get(path);
+
+                if (!entry.matches(new File(directory, path))) {
+                    throw new MojoExecutionException("The image file " + path + " in the shard " + directory
+                                                     + " is missing or has changed since it was written");
+                } else if (other == null) {
+                    shards.put(path, entry);
+                    sources.put(path, directory);
+                } else if (other.hash.equals(entry.hash) && other.specHash.equals(entry.specHash)) {
+                    overlaps++;
+                } else {
+                    throw new MojoExecutionException("The image file " + path + " was rendered differently by the shards "
+                                                     + sources.get(path) + " and " + directory);
+                }
+            }
+
+            count++;
+        }
+
+        if (count == 0) {
+            throw new MojoExecutionException("No shards found in " + shardDirectory);
+        }
+
+        getLog().info("Read " + shards.getPaths().size() + " image files from " + count + " shards");
+        if (overlaps > 0) {
+            getLog().warn(overlaps + " image files were rendered by more than one shard");
+        }
+
+        return shards;
+    }
+
+    /**
+     * Copy the image files into the output directory, unless they are there
+     * already, write the manifest and delete the image files no longer in it.
+     *
+     * @param  shards   the entries of every shard.
+     * @param  sources  the shard directory of each image file.
+     * @param  expected the fingerprint of each image file, in the order the
+     *                  config file describes them.
+     *
+     * @throws MojoExecutionException if an image file or the manifest cannot
+     *                                be written.
+     */
+    private void copyImageFiles(Manifest shards, Map<String, File> sources, Map<String, String> expected)
+        throws MojoExecutionException {
+        File     outputDirectory = getOutputDirectory();
+        Manifest previous        = Manifest.read(getManifestFile());
+        Manifest merged          = new Manifest();
+        int      copied          = 0;
+
+        for (Map.Entry<String, String> image : expected.entrySet()) {
+            String         path  = image.getKey();
+            Manifest.Entry entry = shards.get(path);
+            Manifest.Entry old   = previous.get(path);
+            File           file  = new File(outputDirectory, path);
+
+            try {
+                if (old != null && old.hash.equals(entry.hash) && old.matches(file)) {
+                    merged.put(path, new Manifest.Entry(image.getValue(), entry.specHash, old.length, old.lastModified, old.hash));
+                    continue;
+                }
+
+                file.getParentFile().mkdirs();
+
+                // Replace rather than overwrite the file, which may be linked to a duplicate.
+                file.delete();
+                RenderCache.copyFile(new File(sources.get(path), path), file);
+                merged.put(path, Manifest.Entry.create(image.getValue(), entry.specHash, file, entry));
+                copied++;
+            } catch (IOException e) {
+                throw new MojoExecutionException("Unable to copy the image file " + path + " from " + sources.get(path), e);
+            }
+        }
+
+        getLog().info("Merged " + expected.size() + " image files, copying " + copied + " of them");
+
+        deleteRemovedImageFiles(previous, merged);
+
+        try {
+            merged.write(getManifestFile());
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to write " + getManifestFile(), e);
+        }
+    }
+
+    /**
+     * List the first few of some paths, for an error message.
+     *
+     * @param  paths the paths.
+     *
+     * @return the first paths, separated by commas.
+     */
+    private static String list(List<String> paths) {
+        StringBuilder buffer = new StringBuilder();
+
+        for (int i = 0; i < paths.size() && i < MAX_LISTED; i++) {
+            buffer.append(i == 0 ? "" : ", ").append(paths.get(i));
+        }
+
+        return paths.size() > MAX_LISTED ? buffer.append(", ...").toString() : buffer.toString();
+    }
+}
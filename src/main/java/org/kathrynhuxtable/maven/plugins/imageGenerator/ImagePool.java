@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2010 Kathryn Huxtable.
+ *
+ * This file is part of the Image Generator Maven plugin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.kathrynhuxtable.maven.plugins.imageGenerator;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A pool of {@code TYPE_INT_ARGB} buffered images, so that images of the
+ * same size can be painted into again once they have been written rather than
+ * allocated afresh for every image.
+ *
+ * <p>The pool holds no more than a maximum number of bytes of free images.
+ * Images released when the pool is full are left to the garbage collector.
+ * Images are acquired on the painting thread and released on the writer
+ * threads, so all methods are synchronized.</p>
+ */
+class ImagePool {
+
+    /** The free images, by size. */
+    private final Map<Long, Deque<BufferedImage>> free = new HashMap<Long, Deque<BufferedImage>>();
+
+    /** The maximum number of bytes of free images. */
+    private final long maxBytes;
+
+    /** The number of bytes of free images. */
+    private long bytes;
+
+    /**
+     * Create a new ImagePool.
+     *
+     * @param maxBytes the maximum number of bytes of free images to keep. Zero
+     *                 keeps none.
+     */
+    public ImagePool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Get a transparent image of the given size, reusing a free one if there
+     * is one.
+     *
+     * @param  width  the image width.
+     * @param  height the image height.
+     *
+     * @return the image.
+     */
+    public synchronized BufferedImage acquire(int width, int height) {
+        Deque<BufferedImage> images = free.get(getKey(width, height));
+        BufferedImage        image  = images == null ? null : images.pollFirst();
+
+        if (image == null) {
+            return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        }
+
+        bytes -= getSize(image);
+        clear(image);
+        return image;
+    }
+
+    /**
+     * Make every pixel of an image from the pool transparent, so that it can
+     * be painted again.
+     *
+     * @param image the image.
+     */
+    static void clear(BufferedImage image) {
+        Arrays.fill(((DataBufferInt) image.getRaster().getDataBuffer()).getData(), 0);
+    }
+
+    /**
+     * Return an image to the pool once it is no longer used.
+     *
+     * @param image the image, which must have been acquired from this pool.
+     */
+    public synchronized void release(BufferedImage image) {
+        long size = getSize(image);
+
+        if (bytes + size > maxBytes) {
+            return;
+        }
+
+        Long                 key    = getKey(image.getWidth(), image.getHeight());
+        Deque<BufferedImage> images = free.get(key);
+
+        if (images == null) {
+            images = new ArrayDeque<BufferedImage>();
+            free.put(key, images);
+        }
+
+        images.addFirst(image);
+        bytes += size;
+    }
+
+    /**
+     * Let the garbage collector have the free images.
+     */
+    public synchronized void empty() {
+        free.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Get the key for images of a size.
+     *
+     * @param  width  the image width.
+     * @param  height the image height.
+     *
+     * @return the key.
+     */
+    private static Long getKey(int width, int height) {
+        return ((long) width << 32) | height;
+    }
+
+    /**
+     * Get the number of bytes used by an image.
+     *
+     * @param  image the image.
+     *
+     * @return the number of bytes of pixel data.
+     */
+    private static long getSize(BufferedImage image) {
+        return (long) image.getWidth() * image.getHeight() * 4;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2010 Kathryn Huxtable.
+ *
+ * This file is part of the Image Generator Maven plugin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.kathrynhuxtable.maven.plugins.imageGenerator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * A scale factor to render the images at, for high resolution displays.
+ *
+ * <p>The component is laid out at its size in the config file and painted
+ * through a scaled graphics context, so the image is larger but the layout is
+ * the same. Images at a scale other than one are written with a suffix such
+ * as {@code @2x} or {@code @1.5x} before the extension.</p>
+ */
+class ImageScale {
+
+    /** The scale factor. */
+    final float factor;
+
+    /** The suffix added to the filename, or an empty string at scale one. */
+    final String suffix;
+
+    /**
+     * Create a new ImageScale.
+     *
+     * @param factor the scale factor.
+     */
+    public ImageScale(float factor) {
+        this.factor = factor;
+
+        if (factor == 1f) {
+            suffix = "";
+        } else if (factor == (int) factor) {
+            suffix = "@" + (int) factor + "x";
+        } else {
+            suffix = "@" + factor + "x";
+        }
+    }
+
+    /**
+     * Parse a comma separated list of scale factors, e.g. "1, 1.5, 2".
+     *
+     * @param  scales the scale factors.
+     *
+     * @return the scales, in the order given.
+     *
+     * @throws MojoExecutionException if a scale factor is not a positive
+     *                                number or is repeated.
+     */
+    static List<ImageScale> parse(String scales) throws MojoExecutionException {
+        List<ImageScale> list = new ArrayList<ImageScale>();
+
+        for (String s : scales.split(",")) {
+            s = s.trim();
+            if (s.length() == 0) {
+                continue;
+            }
+
+            float factor;
+
+            try {
+                factor = Float.parseFloat(s);
+            } catch (NumberFormatException e) {
+                throw new MojoExecutionException("Invalid scale \"" + s + "\"", e);
+            }
+
+            if (!(factor > 0f) || Float.isInfinite(factor)) {
+                throw new MojoExecutionException("Scale must be a positive number: " + s);
+            }
+
+            ImageScale scale = new ImageScale(factor);
+
+            for (ImageScale other : list) {
+                if (other.suffix.equals(scale.suffix)) {
+                    throw new MojoExecutionException("Scale " + s + " is specified more than once");
+                }
+            }
+
+            list.add(scale);
+        }
+
+        if (list.isEmpty()) {
+            throw new MojoExecutionException("At least one scale must be specified");
+        }
+
+        return list;
+    }
+
+    /**
+     * Get the size of a dimension of the image at this scale, rounding up so
+     * that no part of the component is cut off.
+     *
+     * @param  size the size at scale one.
+     *
+     * @return the scaled size.
+     */
+    public int scale(int size) {
+        return factor == 1f ? size : (int) Math.ceil(size * (double) factor - 1e-6);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2010 Kathryn Huxtable.
+ *
+ * This file is part of the Image Generator Maven plugin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.kathrynhuxtable.maven.plugins.imageGenerator;
+
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * A state of a component, such as pressed or disabled, drawn from the same
+ * component instance as the other states of its image. The state is applied
+ * over the component as it was created, and is undone before the next state
+ * is applied.
+ */
+class ImageState {
+
+    /**
+     * The flags a state may set, in the order they are applied. They are
+     * undone in the reverse order, so that a pressed button is disarmed before
+     * it is released and does not fire an action.
+     */
+    static final String[] FLAGS = { "enabled", "focused", "selected", "rollover", "pressed", "armed" };
+
+    /** The flags which are only meaningful for buttons. */
+    static final int FIRST_BUTTON_FLAG = 2;
+
+    String               name;
+    Map<String, Boolean> flags;
+    Map<String, Object>  properties;
+
+    /**
+     * Check whether a name is one of the flags a state may set.
+     *
+     * @param  name the name.
+     *
+     * @return {@code true} if it is, {@code false} otherwise.
+     */
+    static boolean isFlag(String name) {
+        for (String flag : FLAGS) {
+            if (flag.equals(name)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * The name of the state is not compared, since it does not change how the
+     * state is drawn.
+     *
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof ImageState)) {
+            return false;
+        }
+
+        ImageState other = (ImageState) obj;
+
+        return flags.equals(other.flags) && properties.equals(other.properties);
+    }
+
+    /**
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        return 31 * flags.hashCode() + properties.hashCode();
+    }
+
+    /**
+     * Append a description of the state to the canonical form of its image.
+     *
+     * @param buffer the buffer holding the canonical form.
+     */
+    void appendTo(StringBuilder buffer) {
+        buffer.append("\nstate");
+
+        for (String flag : FLAGS) {
+            if (flags.containsKey(flag)) {
+                buffer.append(' ').append(flag).append('=').append(flags.get(flag));
+            }
+        }
+
+        for (String name : new TreeSet<String>(properties.keySet())) {
+            buffer.append("\nstate clientProperty ").append(name.length()).append(':').append(name).append(' ');
+            ImageInfo.appendValue(buffer, properties.get(name));
+        }
+    }
+}
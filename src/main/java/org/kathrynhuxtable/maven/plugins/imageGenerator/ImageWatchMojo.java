@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2010 Kathryn Huxtable.
+ *
+ * This file is part of the Image Generator Maven plugin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.kathrynhuxtable.maven.plugins.imageGenerator;
+
+import java.io.File;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * Goal generates the images, then watches the configuration file and the
+ * project's class directories and regenerates the changed images whenever
+ * they change, until interrupted.
+ *
+ * <p>The look and feel stays set up between changes, and the manifest is
+ * kept in memory, so only the added and modified images are rendered. The
+ * images of removed entries are deleted. When the classes change they are loaded
+ * afresh, and every image is rendered again.</p>
+ *
+ * @description                  Regenerate the images whenever the XML file
+ *                               or the project's classes change.
+ * @goal                         watch
+ * @requiresDependencyResolution runtime
+ */
+public class ImageWatchMojo extends ImageGeneratorMojo {
+
+    /**
+     * Number of milliseconds between checks for changes.
+     *
+     * @parameter expression="${imagegenerator.watchInterval}" default-value="100"
+     */
+    private int watchInterval;
+
+    /**
+     * Number of milliseconds the files must stay unchanged before the images
+     * are regenerated, so that a burst of saves is handled once.
+     *
+     * @parameter expression="${imagegenerator.watchDebounce}" default-value="200"
+     */
+    private int watchDebounce;
+
+    /**
+     * Set the watch interval.
+     *
+     * @param watchInterval the number of milliseconds between checks.
+     */
+    public void setWatchInterval(int watchInterval) {
+        this.watchInterval = watchInterval;
+    }
+
+    /**
+     * Set the watch debounce time.
+     *
+     * @param watchDebounce the number of milliseconds the files must stay
+     *                      unchanged.
+     */
+    public void setWatchDebounce(int watchDebounce) {
+        this.watchDebounce = watchDebounce;
+    }
+
+    /**
+     * @see org.kathrynhuxtable.maven.plugins.imageGenerator.ImageGeneratorMojo#execute()
+     */
+    public void execute() throws MojoExecutionException {
+        List<File> classDirectories = getClassDirectories();
+
+        watching = true;
+
+        try {
+            String configStamp = BuildStamp.stamp(getConfigFile());
+            String classStamp  = BuildStamp.stamp(classDirectories);
+
+            generate();
+
+            // The jars do not change while watching.
+            ClassLoader dependencies = dependencyClassLoader;
+
+            getLog().info("Watching " + getConfigFile() + " and " + classDirectories.size()
+                          + " class directories for changes");
+
+            while (true) {
+                sleep(watchInterval);
+
+                String newConfigStamp = BuildStamp.stamp(getConfigFile());
+                String newClassStamp  = BuildStamp.stamp(classDirectories);
+
+                if (newConfigStamp.equals(configStamp) && newClassStamp.equals(classStamp)) {
+                    continue;
+                }
+
+                // Wait for a burst of changes to end.
+                for (long quiet = System.currentTimeMillis(); System.currentTimeMillis() - quiet < watchDebounce;) {
+                    sleep(watchInterval);
+
+                    String config  = BuildStamp.stamp(getConfigFile());
+                    String classes = BuildStamp.stamp(classDirectories);
+
+                    if (!config.equals(newConfigStamp) || !classes.equals(newClassStamp)) {
+                        newConfigStamp = config;
+                        newClassStamp  = classes;
+                        quiet          = System.currentTimeMillis();
+                    }
+                }
+
+                if (!newClassStamp.equals(classStamp)) {
+                    getLog().info("Classes changed, loading them again");
+                    reloadClasses(classDirectories, dependencies);
+                }
+
+                configStamp = newConfigStamp;
+                classStamp  = newClassStamp;
+
+                try {
+                    generate();
+                } catch (MojoExecutionException e) {
+                    // Keep watching, so that the error can be fixed.
+                    getLog().error(e.getMessage(), e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            getLog().info("Stopped watching");
+        }
+    }
+
+    /**
+     * Load the project's classes afresh. The renderer sets up the look and
+     * feel again only if it is one of them.
+     *
+     * @param classDirectories the project's class directories.
+     * @param dependencies     the class loader for the rest of the classpath.
+     */
+    private void reloadClasses(List<File> classDirectories, ClassLoader dependencies) {
+        classLoader          = new ProjectClassLoader(classDirectories, dependencies);
+        classpathFingerprint = null;
+    }
+
+    /**
+     * Get the directories on the runtime classpath, which are those the
+     * project compiles its classes to.
+     *
+     * @return the class directories.
+     */
+    private List<File> getClassDirectories() {
+        List<File> directories = new ArrayList<File>();
+
+        if (getRuntimeClasspathElements() != null) {
+            for (String element : getRuntimeClasspathElements()) {
+                File file = new File(element);
+
+                if (file.isDirectory()) {
+                    directories.add(file);
+                }
+            }
+        }
+
+        return directories;
+    }
+
+    /**
+     * Wait before checking for changes again.
+     *
+     * @param  millis the number of milliseconds to wait.
+     *
+     * @throws InterruptedException if the thread is interrupted.
+     */
+    private static void sleep(int millis) throws InterruptedException {
+        Thread.sleep(Math.max(millis, 10));
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2010 Kathryn Huxtable.
+ *
+ * This file is part of the Image Generator Maven plugin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.kathrynhuxtable.maven.plugins.imageGenerator;
+
+import java.awt.image.BufferedImage;
+
+import java.io.File;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * Encodes and writes painted images on a pool of worker threads, so that the
+ * painting thread can get on with the next image.
+ *
+ * <p>The number of images which have been painted but not yet written is
+ * bounded. When the limit is reached
+ * {@link #submit(File, BufferedImage, ImageFileWriter)} blocks until a writer
+ * finishes, which caps the memory held by pending images.</p>
+ *
+ * <p>With no threads, each image is written on the calling thread before
+ * {@code submit} returns, which is the behavior of earlier versions.</p>
+ */
+class ImageWriterPool {
+
+    /**
+     * Writes an image. Each image is submitted with its own writer, so that
+     * the writer can carry whatever else is needed to finish the image.
+     */
+    interface ImageFileWriter {
+
+        /**
+         * Write the buffered image to the file.
+         *
+         * @param  file  the file to write the image to.
+         * @param  image the buffered image.
+         *
+         * @throws MojoExecutionException if unable to write the file.
+         */
+        void writeImageFile(File file, BufferedImage image) throws MojoExecutionException;
+    }
+
+    /** The worker threads, or {@code null} if writing on the calling thread. */
+    private final ExecutorService executor;
+
+    /** Permits for the images which may be pending at any one time. */
+    private final Semaphore pending;
+
+    /** The first failure from a worker thread, if any. */
+    private volatile MojoExecutionException failure;
+
+    /**
+     * Create a new ImageWriterPool.
+     *
+     * @param threads   the number of writer threads. Zero or less writes each
+     *                  image on the calling thread.
+     * @param queueSize the maximum number of images painted but not yet
+     *                  written. Zero or less uses twice the number of threads.
+     */
+    public ImageWriterPool(int threads, int queueSize) {
+        if (threads <= 0) {
+            executor = null;
+            pending  = null;
+        } else {
+            executor = Executors.newFixedThreadPool(threads, new NamedThreadFactory("imagegenerator-writer"));
+            pending  = new Semaphore(queueSize > 0 ? queueSize : threads * 2);
+        }
+    }
+
+    /**
+     * Queue an image to be written, blocking if too many images are already
+     * pending.
+     *
+     * @param  file   the file to write the image to.
+     * @param  image  the buffered image.
+     * @param  writer the writer used to write the image.
+     *
+     * @throws MojoExecutionException if a previously submitted image could not
+     *                                be written, or if this image could not be
+     *                                written when writing on the calling
+     *                                thread.
+     */
+    public void submit(final File file, final BufferedImage image, final ImageFileWriter writer) throws MojoExecutionException {
+        checkFailure();
+
+        if (executor == null) {
+            writer.writeImageFile(file, image);
+            return;
+        }
+
+        try {
+            pending.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while waiting to write image file " + file, e);
+        }
+
+        executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        if (failure == null) {
+                            writer.writeImageFile(file, image);
+                        }
+                    } catch (MojoExecutionException e) {
+                        recordFailure(e);
+                    } catch (RuntimeException e) {
+                        recordFailure(new MojoExecutionException("Error writing image file " + file, e));
+                    } finally {
+                        pending.release();
+                    }
+                }
+            });
+    }
+
+    /**
+     * Wait for all pending images to be written and stop the worker threads.
+     *
+     * @throws MojoExecutionException if any image could not be written.
+     */
+    public void finish() throws MojoExecutionException {
+        if (executor != null) {
+            executor.shutdown();
+
+            try {
+                while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                    // Keep waiting.
+                }
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+                throw new MojoExecutionException("Interrupted while waiting for image files to be written", e);
+            }
+        }
+
+        checkFailure();
+    }
+
+    /**
+     * Stop the worker threads without waiting for pending images. Used when
+     * the painting thread fails.
+     */
+    public void abort() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Record a failure from a worker thread. Only the first is kept.
+     *
+     * @param e the failure.
+     */
+    private synchronized void recordFailure(MojoExecutionException e) {
+        if (failure == null) {
+            failure = e;
+        }
+    }
+
+    /**
+     * Throw the first failure from a worker thread, if there was one.
+     *
+     * @throws MojoExecutionException the failure.
+     */
+    private void checkFailure() throws MojoExecutionException {
+        if (failure != null) {
+            abort();
+            throw failure;
+        }
+    }
+}
@@ -45,13 +45,20 @@ import org.codehaus.plexus.configuration.PlexusConfiguration;
  * http://old.nabble.com/Adding-project-dependencies-and-generated-classes-to-classpath-of-my-plugin-td18624435.html
  * </p>
  *
+ * <p>The goals of this plugin no longer use it: they load the project's
+ * classes through an {@link IndexedClassLoader} instead. It is kept for
+ * other plugins which name it as their configurator.</p>
+ *
  * @author             Brian Jackson
+ * @deprecated         the goals of this plugin load the runtime classpath
+ *                     themselves.
  * @since              Aug 1, 2008 3:04:17 PM
  * @plexus.component   role="org.codehaus.plexus.component.configurator.ComponentConfigurator"
  *                     role-hint="include-project-dependencies"
  * @plexus.requirement role="org.codehaus.plexus.component.configurator.converters.lookup.ConverterLookup"
  *                     role-hint="default"
  */
+@Deprecated
 public class IncludeProjectDependenciesComponentConfigurator extends AbstractComponentConfigurator {
 
     /**
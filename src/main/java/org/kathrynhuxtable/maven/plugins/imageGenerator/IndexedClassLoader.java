@@ -0,0 +1,549 @@
+/*
+ * Copyright (c) 2010 Kathryn Huxtable.
+ *
+ * This file is part of the Image Generator Maven plugin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.kathrynhuxtable.maven.plugins.imageGenerator;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+
+import java.security.CodeSigner;
+import java.security.CodeSource;
+import java.security.SecureClassLoader;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+/**
+ * A class loader for the project's runtime classpath which finds classes and
+ * resources in jars through an index of the directories each jar holds,
+ * rather than by asking every jar in turn.
+ *
+ * <p>The index of a jar is saved in an index file with the jar's length and
+ * modification time, and is reused by later builds while the jar is
+ * unchanged. Class directories are not indexed, since they change between
+ * builds, and are always searched, in their classpath order.</p>
+ */
+class IndexedClassLoader extends SecureClassLoader {
+
+    /** The first line of an index file, changed whenever the format does. */
+    private static final String INDEX_HEADER = "imagegenerator-class-index 1";
+
+    /** The classpath elements. */
+    private final File[] elements;
+
+    /** The URL of each classpath element. */
+    private final URL[] urls;
+
+    /** Whether each classpath element is a class directory. */
+    private final boolean[] isDirectory;
+
+    /** The open jar files, by classpath position, opened when first needed. */
+    private final JarFile[] jars;
+
+    /** The classpath positions of the class directories, in order. */
+    private final int[] directories;
+
+    /**
+     * The classpath positions of the jars holding each directory, in order.
+     * A directory is named as in a jar entry, with a trailing slash, or is
+     * empty for the root.
+     */
+    private final Map<String, int[]> index = new HashMap<String, int[]>();
+
+    /** The number of jars indexed, rather than taken from the index file. */
+    private int jarsIndexed;
+
+    /**
+     * Create a new IndexedClassLoader.
+     *
+     * @param  classpathElements the classpath elements, in order.
+     * @param  indexFile         the index file, or {@code null} to index
+     *                           every jar.
+     * @param  parent            the class loader to try first.
+     *
+     * @throws IOException if a jar cannot be read.
+     */
+    public IndexedClassLoader(List<String> classpathElements, File indexFile, ClassLoader parent) throws IOException {
+        super(parent);
+
+        elements    = new File[classpathElements.size()];
+        urls        = new URL[elements.length];
+        jars        = new JarFile[elements.length];
+        isDirectory = new boolean[elements.length];
+
+        Map<String, List<String>>  saved     = indexFile == null ? new HashMap<String, List<String>>() : readIndex(indexFile);
+        Map<String, List<Integer>> positions = new HashMap<String, List<Integer>>();
+        List<Integer>              dirs      = new ArrayList<Integer>();
+        StringBuilder              newIndex  = new StringBuilder(INDEX_HEADER).append('\n');
+
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = new File(classpathElements.get(i));
+            urls[i]     = elements[i].toURI().toURL();
+
+            if (elements[i].isDirectory()) {
+                isDirectory[i] = true;
+                dirs.add(i);
+                continue;
+            } else if (!elements[i].isFile()) {
+                continue;
+            }
+
+            String       key            = elements[i].getAbsolutePath() + '\t' + elements[i].length() + '\t' + elements[i].lastModified();
+            List<String> jarDirectories = saved.get(key);
+
+            if (jarDirectories == null) {
+                jarDirectories = listDirectories(elements[i]);
+                jarsIndexed++;
+            }
+
+            newIndex.append(key);
+            for (String dir : jarDirectories) {
+                newIndex.append('\t').append(dir);
+
+                List<Integer> list = positions.get(dir);
+
+                if (list == null) {
+                    list = new ArrayList<Integer>(1);
+                    positions.put(dir, list);
+                }
+
+                list.add(i);
+            }
+
+            newIndex.append('\n');
+        }
+
+        for (Map.Entry<String, List<Integer>> entry : positions.entrySet()) {
+            index.put(entry.getKey(), toArray(entry.getValue()));
+        }
+
+        directories = toArray(dirs);
+
+        if (indexFile != null && jarsIndexed > 0) {
+            writeIndex(indexFile, newIndex.toString());
+        }
+    }
+
+    /**
+     * Get the number of jars indexed, rather than taken from the index file.
+     *
+     * @return the number of jars.
+     */
+    public int getJarsIndexed() {
+        return jarsIndexed;
+    }
+
+    /**
+     * Close the jars opened so far. They are opened again if more classes or
+     * resources are loaded from them.
+     */
+    public synchronized void close() {
+        for (int i = 0; i < jars.length; i++) {
+            if (jars[i] != null) {
+                try {
+                    jars[i].close();
+                } catch (IOException e) {
+                    // Nothing more can be done with it.
+                }
+
+                jars[i] = null;
+            }
+        }
+    }
+
+    /**
+     * @see java.lang.ClassLoader#findClass(java.lang.String)
+     */
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        String path     = name.replace('.', '/') + ".class";
+        int    position = find(path);
+
+        if (position < 0) {
+            throw new ClassNotFoundException(name);
+        }
+
+        byte[] bytes;
+
+        try {
+            bytes = read(position, path);
+        } catch (IOException e) {
+            throw new ClassNotFoundException(name, e);
+        }
+
+        definePackageIfNecessary(name, position);
+
+        return defineClass(name, bytes, 0, bytes.length, new CodeSource(urls[position], (CodeSigner[]) null));
+    }
+
+    /**
+     * @see java.lang.ClassLoader#findResource(java.lang.String)
+     */
+    protected URL findResource(String name) {
+        int position = find(name);
+
+        return position < 0 ? null : getResourceURL(position, name);
+    }
+
+    /**
+     * @see java.lang.ClassLoader#findResources(java.lang.String)
+     */
+    protected Enumeration<URL> findResources(String name) throws IOException {
+        List<URL> found = new ArrayList<URL>();
+
+        for (int position : getCandidates(name)) {
+            if (contains(position, name)) {
+                found.add(getResourceURL(position, name));
+            }
+        }
+
+        return Collections.enumeration(found);
+    }
+
+    /**
+     * Find the first classpath element holding a resource.
+     *
+     * @param  name the resource name.
+     *
+     * @return the classpath position, or -1 if no element holds it.
+     */
+    private int find(String name) {
+        for (int position : getCandidates(name)) {
+            if (contains(position, name)) {
+                return position;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Get the classpath elements which may hold a resource: the class
+     * directories and the jars holding its directory, in classpath order.
+     *
+     * @param  name the resource name.
+     *
+     * @return the classpath positions.
+     */
+    private int[] getCandidates(String name) {
+        int[] jarPositions = index.get(name.substring(0, name.lastIndexOf('/') + 1));
+
+        if (jarPositions == null) {
+            return directories;
+        } else if (directories.length == 0) {
+            return jarPositions;
+        }
+
+        int[] merged = new int[directories.length + jarPositions.length];
+
+        for (int i = 0, d = 0, j = 0; i < merged.length; i++) {
+            if (j == jarPositions.length || (d < directories.length && directories[d] < jarPositions[j])) {
+                merged[i] = directories[d++];
+            } else {
+                merged[i] = jarPositions[j++];
+            }
+        }
+
+        return merged;
+    }
+
+    /**
+     * Check whether a classpath element holds a resource.
+     *
+     * @param  position the classpath position.
+     * @param  name     the resource name.
+     *
+     * @return {@code true} if it does, {@code false} otherwise.
+     */
+    private boolean contains(int position, String name) {
+        if (isDirectory[position]) {
+            return new File(elements[position], name).exists();
+        }
+
+        try {
+            return getJar(position).getEntry(name) != null;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Get the URL of a resource in a classpath element.
+     *
+     * @param  position the classpath position.
+     * @param  name     the resource name.
+     *
+     * @return the URL.
+     */
+    private URL getResourceURL(int position, String name) {
+        try {
+            if (isDirectory[position]) {
+                return new File(elements[position], name).toURI().toURL();
+            }
+
+            return new URL("jar:" + urls[position] + "!/" + name);
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Read a resource from a classpath element.
+     *
+     * @param  position the classpath position.
+     * @param  name     the resource name.
+     *
+     * @return the contents of the resource.
+     *
+     * @throws IOException if the resource cannot be read.
+     */
+    private byte[] read(int position, String name) throws IOException {
+        InputStream in;
+
+        if (isDirectory[position]) {
+            in = new FileInputStream(new File(elements[position], name));
+        } else {
+            JarFile  jar   = getJar(position);
+            ZipEntry entry = jar.getEntry(name);
+
+            in = jar.getInputStream(entry);
+        }
+
+        try {
+            ByteArrayOutputStream out    = new ByteArrayOutputStream(8192);
+            byte[]                buffer = new byte[8192];
+
+            for (int count; (count = in.read(buffer)) >= 0;) {
+                out.write(buffer, 0, count);
+            }
+
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Define the package of a class, from the manifest of its jar if it has
+     * one, unless it is already defined.
+     *
+     * @param className the class name.
+     * @param position  the classpath position of the class.
+     */
+    private void definePackageIfNecessary(String className, int position) {
+        int dot = className.lastIndexOf('.');
+
+        if (dot < 0) {
+            return;
+        }
+
+        String packageName = className.substring(0, dot);
+
+        if (getPackage(packageName) != null) {
+            return;
+        }
+
+        Manifest manifest = null;
+
+        if (!isDirectory[position]) {
+            try {
+                manifest = getJar(position).getManifest();
+            } catch (IOException e) {
+                // Define the package without the manifest's attributes.
+            }
+        }
+
+        try {
+            if (manifest == null) {
+                definePackage(packageName, null, null, null, null, null, null, null);
+            } else {
+                Attributes attributes = manifest.getMainAttributes();
+
+                definePackage(packageName, attributes.getValue(Attributes.Name.SPECIFICATION_TITLE),
+                              attributes.getValue(Attributes.Name.SPECIFICATION_VERSION),
+                              attributes.getValue(Attributes.Name.SPECIFICATION_VENDOR),
+                              attributes.getValue(Attributes.Name.IMPLEMENTATION_TITLE),
+                              attributes.getValue(Attributes.Name.IMPLEMENTATION_VERSION),
+                              attributes.getValue(Attributes.Name.IMPLEMENTATION_VENDOR), null);
+            }
+        } catch (IllegalArgumentException e) {
+            // Defined by another thread meanwhile.
+        }
+    }
+
+    /**
+     * Get the open jar file at a classpath position, opening it if necessary.
+     *
+     * @param  position the classpath position.
+     *
+     * @return the jar file.
+     *
+     * @throws IOException if the jar cannot be opened.
+     */
+    private synchronized JarFile getJar(int position) throws IOException {
+        if (jars[position] == null) {
+            jars[position] = new JarFile(elements[position]);
+        }
+
+        return jars[position];
+    }
+
+    /**
+     * List the directories holding the entries of a jar.
+     *
+     * @param  file the jar file.
+     *
+     * @return the directories, each with a trailing slash, or empty for the
+     *         root.
+     *
+     * @throws IOException if the jar cannot be read.
+     */
+    private static List<String> listDirectories(File file) throws IOException {
+        Set<String> directories = new LinkedHashSet<String>();
+        JarFile     jar         = new JarFile(file);
+
+        try {
+            for (Enumeration<? extends ZipEntry> e = jar.entries(); e.hasMoreElements();) {
+                String name = e.nextElement().getName();
+                int    end  = name.endsWith("/") ? name.lastIndexOf('/', name.length() - 2) : name.lastIndexOf('/');
+
+                directories.add(name.substring(0, end + 1));
+            }
+        } finally {
+            jar.close();
+        }
+
+        return new ArrayList<String>(directories);
+    }
+
+    /**
+     * Read an index file. A missing or unreadable file is treated as empty.
+     *
+     * @param  file the index file.
+     *
+     * @return the directories of each jar, by its path, length and
+     *         modification time.
+     */
+    private static Map<String, List<String>> readIndex(File file) {
+        Map<String, List<String>> saved = new HashMap<String, List<String>>();
+
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+
+            try {
+                if (!INDEX_HEADER.equals(reader.readLine())) {
+                    return saved;
+                }
+
+                for (String line = null; (line = reader.readLine()) != null;) {
+                    String[] fields = line.split("\t", -1);
+
+                    if (fields.length >= 3) {
+                        List<String> directories = new ArrayList<String>(fields.length - 3);
+
+                        for (int i = 3; i < fields.length; i++) {
+                            directories.add(fields[i]);
+                        }
+
+                        saved.put(fields[0] + '\t' + fields[1] + '\t' + fields[2], directories);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            // Index every jar.
+        }
+
+        return saved;
+    }
+
+    /**
+     * Write an index file, to a temporary file which is then renamed, so that
+     * a concurrent build never reads a partial index. Failure to write the
+     * index is not an error.
+     *
+     * @param file     the index file.
+     * @param contents the contents of the index.
+     */
+    static void writeIndex(File file, String contents) {
+        File temp = new File(file.getPath() + ".tmp");
+
+        try {
+            File dir = file.getAbsoluteFile().getParentFile();
+
+            if (dir != null && !dir.isDirectory()) {
+                dir.mkdirs();
+            }
+
+            Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), "UTF-8"));
+
+            try {
+                writer.write(contents);
+            } finally {
+                writer.close();
+            }
+
+            if (!temp.renameTo(file)) {
+                file.delete();
+                temp.renameTo(file);
+            }
+        } catch (IOException e) {
+            temp.delete();
+        }
+    }
+
+    /**
+     * Convert a list of classpath positions to an array.
+     *
+     * @param  list the classpath positions.
+     *
+     * @return the array.
+     */
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+
+        return array;
+    }
+}
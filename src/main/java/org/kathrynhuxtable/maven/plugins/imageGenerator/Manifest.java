@@ -0,0 +1,291 @@
+/*
+ * Copyright (c) 2010 Kathryn Huxtable.
+ *
+ * This file is part of the Image Generator Maven plugin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.kathrynhuxtable.maven.plugins.imageGenerator;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The image files written by the last execution, used to skip those whose
+ * specifications, look and feel and classes are unchanged, and to delete
+ * those whose entries have been removed.
+ *
+ * <p>The manifest is a UTF-8 text file with a header line followed by one
+ * tab separated line per image file: its path relative to the output
+ * directory, the fingerprint of its look and feel, classpath and scale, the
+ * SHA-1 digest of its specification, and its length, modification time and
+ * SHA-1 digest. It is written to a temporary file which is renamed over the
+ * old one, so a failed execution leaves the last complete manifest.</p>
+ */
+class Manifest {
+
+    /** The first line of a manifest, identifying its format. */
+    private static final String HEADER = "imagegenerator-manifest 1";
+
+    /** The entries, by path relative to the output directory. */
+    private final Map<String, Entry> entries;
+
+    /**
+     * Create a new, empty, Manifest.
+     */
+    public Manifest() {
+        this(new LinkedHashMap<String, Entry>());
+    }
+
+    /**
+     * Create a new Manifest.
+     *
+     * @param entries the entries, by path.
+     */
+    private Manifest(Map<String, Entry> entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * Read a manifest. A missing or unreadable manifest, or one in another
+     * format, is read as an empty one, so that every image is generated.
+     *
+     * @param  file the manifest file.
+     *
+     * @return the manifest.
+     */
+    public static Manifest read(File file) {
+        Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+
+        if (!file.isFile()) {
+            return new Manifest(entries);
+        }
+
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"), 65536);
+
+            try {
+                if (!HEADER.equals(reader.readLine())) {
+                    return new Manifest();
+                }
+
+                for (String line = null; (line = reader.readLine()) != null;) {
+                    String[] fields = line.split("\t");
+
+                    if (fields.length == 6) {
+                        entries.put(fields[0],
+                                    new Entry(fields[1], fields[2], Long.parseLong(fields[3]), Long.parseLong(fields[4]), fields[5]));
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            return new Manifest();
+        } catch (NumberFormatException e) {
+            return new Manifest();
+        }
+
+        return new Manifest(entries);
+    }
+
+    /**
+     * Write the manifest, replacing the old one only once it is complete.
+     *
+     * @param  file the manifest file.
+     *
+     * @throws IOException if the manifest cannot be written.
+     */
+    public void write(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        File dir  = file.getAbsoluteFile().getParentFile();
+
+        if (dir != null && !dir.isDirectory()) {
+            dir.mkdirs();
+        }
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), "UTF-8"), 65536);
+
+        try {
+            writer.write(HEADER);
+            writer.write('\n');
+
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                Entry e = entry.getValue();
+
+                writer.write(entry.getKey() + '\t' + e.fingerprint + '\t' + e.specHash + '\t' + e.length + '\t' + e.lastModified + '\t'
+                             + e.hash + '\n');
+            }
+        } catch (IOException e) {
+            writer.close();
+            temp.delete();
+            throw e;
+        }
+
+        writer.close();
+
+        if (!temp.renameTo(file)) {
+            // Some platforms cannot rename over an existing file.
+            file.delete();
+            if (!temp.renameTo(file)) {
+                temp.delete();
+                throw new IOException("Unable to rename " + temp + " to " + file);
+            }
+        }
+    }
+
+    /**
+     * Get the entry for an image file.
+     *
+     * @param  path the path of the image file relative to the output
+     *              directory.
+     *
+     * @return the entry, or {@code null} if there is none.
+     */
+    public Entry get(String path) {
+        return entries.get(path);
+    }
+
+    /**
+     * Add or replace the entry for an image file.
+     *
+     * @param path  the path of the image file relative to the output
+     *              directory.
+     * @param entry the entry.
+     */
+    public void put(String path, Entry entry) {
+        entries.put(path, entry);
+    }
+
+    /**
+     * Check whether there is an entry for an image file.
+     *
+     * @param  path the path of the image file relative to the output
+     *              directory.
+     *
+     * @return {@code true} if there is, {@code false} otherwise.
+     */
+    public boolean contains(String path) {
+        return entries.containsKey(path);
+    }
+
+    /**
+     * Get the paths of the image files.
+     *
+     * @return the paths, relative to the output directory.
+     */
+    public Set<String> getPaths() {
+        return entries.keySet();
+    }
+
+    /**
+     * The record of an image file written by an execution.
+     */
+    static class Entry {
+
+        /** The fingerprint of the look and feel, classpath and scale. */
+        final String fingerprint;
+
+        /** The SHA-1 digest of the image specification. */
+        final String specHash;
+
+        /** The length of the image file. */
+        final long length;
+
+        /** The modification time of the image file. */
+        final long lastModified;
+
+        /** The SHA-1 digest of the image file. */
+        final String hash;
+
+        /**
+         * Create a new Entry.
+         *
+         * @param fingerprint  the fingerprint of the look and feel, classpath
+         *                     and scale.
+         * @param specHash     the SHA-1 digest of the image specification.
+         * @param length       the length of the image file.
+         * @param lastModified the modification time of the image file.
+         * @param hash         the SHA-1 digest of the image file.
+         */
+        public Entry(String fingerprint, String specHash, long length, long lastModified, String hash) {
+            this.fingerprint  = fingerprint;
+            this.specHash     = specHash;
+            this.length       = length;
+            this.lastModified = lastModified;
+            this.hash         = hash;
+        }
+
+        /**
+         * Create the entry for an image file as it is now, reusing the digest
+         * of its previous entry if it has not been rewritten since.
+         *
+         * @param  fingerprint the fingerprint of the look and feel, classpath
+         *                     and scale.
+         * @param  specHash    the SHA-1 digest of the image specification.
+         * @param  file        the image file.
+         * @param  previous    the previous entry for the file, or
+         *                     {@code null} if it has been rewritten.
+         *
+         * @return the entry.
+         *
+         * @throws IOException if the image file cannot be read.
+         */
+        static Entry create(String fingerprint, String specHash, File file, Entry previous) throws IOException {
+            long   length       = file.length();
+            long   lastModified = file.lastModified();
+            String hash         = previous != null && previous.length == length ? previous.hash : Digests.sha1(file);
+
+            return new Entry(fingerprint, specHash, length, lastModified, hash);
+        }
+
+        /**
+         * Check whether an image file is still the one this entry records.
+         * The contents are only compared if its modification time has
+         * changed but not its length, as when it is touched or copied.
+         *
+         * @param  file the image file.
+         *
+         * @return {@code true} if it is, {@code false} if it is missing or has
+         *         been changed.
+         */
+        public boolean matches(File file) {
+            long fileLength = file.length();
+
+            if (fileLength != length || fileLength == 0 && !file.isFile()) {
+                return false;
+            } else if (file.lastModified() == lastModified) {
+                return true;
+            }
+
+            try {
+                return hash.equals(Digests.sha1(file));
+            } catch (IOException e) {
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,665 @@
+/*
+ * Copyright (c) 2010 Kathryn Huxtable.
+ *
+ * This file is part of the Image Generator Maven plugin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.kathrynhuxtable.maven.plugins.imageGenerator;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+
+import java.util.Arrays;
+
+/**
+ * An image reduced to a palette of at most 256 colors, each with its own
+ * alpha, for writing as an indexed color PNG file.
+ *
+ * <p>Swing components usually paint far fewer than 256 distinct colors, so
+ * most images are reduced exactly. Images with more colors may be reduced by
+ * median cut, as long as no pixel's color or alpha changes by more than a
+ * given amount; otherwise they are left in full color.</p>
+ */
+class PaletteImage {
+
+    /** The most colors a palette may hold. */
+    static final int MAX_COLORS = 256;
+
+    /** The image width. */
+    final int width;
+
+    /** The image height. */
+    final int height;
+
+    /**
+     * The palette, as non-premultiplied ARGB, with the colors which are not
+     * opaque first so that the PNG transparency chunk is as short as
+     * possible.
+     */
+    final int[] colors;
+
+    /** The palette index of each pixel, row by row. */
+    final byte[] indices;
+
+    /**
+     * Create a new PaletteImage.
+     *
+     * @param width   the image width.
+     * @param height  the image height.
+     * @param colors  the palette.
+     * @param indices the palette index of each pixel.
+     */
+    private PaletteImage(int width, int height, int[] colors, byte[] indices) {
+        this.width   = width;
+        this.height  = height;
+        this.colors  = colors;
+        this.indices = indices;
+    }
+
+    /**
+     * Reduce an image to a palette.
+     *
+     * @param  image    the image.
+     * @param  maxError the largest difference allowed in any channel of any
+     *                  pixel, or zero to reduce only images with at most 256
+     *                  colors, exactly.
+     *
+     * @return the reduced image, or {@code null} if it cannot be reduced
+     *         within the error allowed.
+     */
+    static PaletteImage create(BufferedImage image, int maxError) {
+        int   width  = image.getWidth();
+        int   height = image.getHeight();
+        int[] argb   = getPixels(image);
+
+        if (maxError > 0) {
+            // Fully transparent pixels look the same whatever their color.
+            for (int i = 0; i < argb.length; i++) {
+                if ((argb[i] >>> 24) == 0) {
+                    argb[i] = 0;
+                }
+            }
+        }
+
+        Histogram histogram = new Histogram();
+
+        for (int i = 0; i < argb.length && (histogram.size <= MAX_COLORS || maxError > 0); i++) {
+            histogram.add(argb[i]);
+        }
+
+        int[] palette;
+
+        if (histogram.size <= MAX_COLORS) {
+            palette = histogram.getColors();
+        } else if (maxError > 0) {
+            palette = medianCut(histogram);
+        } else {
+            return null;
+        }
+
+        palette = sortTranslucentFirst(palette);
+
+        if (!histogram.mapTo(palette, maxError)) {
+            return null;
+        }
+
+        byte[] indices = new byte[argb.length];
+
+        for (int i = 0; i < argb.length; i++) {
+            indices[i] = (byte) histogram.getIndex(argb[i]);
+        }
+
+        return new PaletteImage(width, height, palette, indices);
+    }
+
+    /**
+     * Get the PNG bit depth needed for the palette indices.
+     *
+     * @return 1, 2, 4 or 8.
+     */
+    int getBitDepth() {
+        if (colors.length <= 2) {
+            return 1;
+        } else if (colors.length <= 4) {
+            return 2;
+        } else if (colors.length <= 16) {
+            return 4;
+        }
+
+        return 8;
+    }
+
+    /**
+     * Get the number of palette colors which are not opaque.
+     *
+     * @return the number of colors, which come first in the palette.
+     */
+    int getTranslucentCount() {
+        int count = 0;
+
+        while (count < colors.length && (colors[count] >>> 24) != 0xff) {
+            count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * Pack a row of palette indices into bytes at the bit depth, most
+     * significant bits first.
+     *
+     * @param y     the row.
+     * @param bytes the array to receive the packed row.
+     */
+    void getRow(int y, byte[] bytes) {
+        int depth = getBitDepth();
+        int start = y * width;
+
+        if (depth == 8) {
+            System.arraycopy(indices, start, bytes, 0, width);
+            return;
+        }
+
+        int perByte = 8 / depth;
+
+        Arrays.fill(bytes, 0, (width + perByte - 1) / perByte, (byte) 0);
+        for (int x = 0; x < width; x++) {
+            int shift = 8 - depth * (x % perByte + 1);
+
+            bytes[x / perByte] |= (indices[start + x] & 0xff) << shift;
+        }
+    }
+
+    /**
+     * Create a buffered image with an indexed color model from the palette,
+     * for encoders which write such images as indexed color PNG files.
+     *
+     * @return the buffered image.
+     */
+    BufferedImage toBufferedImage() {
+        int    depth = getBitDepth();
+        int    size  = colors.length;
+        byte[] r     = new byte[size];
+        byte[] g     = new byte[size];
+        byte[] b     = new byte[size];
+        byte[] a     = new byte[size];
+
+        for (int i = 0; i < size; i++) {
+            a[i] = (byte) (colors[i] >>> 24);
+            r[i] = (byte) (colors[i] >> 16);
+            g[i] = (byte) (colors[i] >> 8);
+            b[i] = (byte) colors[i];
+        }
+
+        IndexColorModel model  = new IndexColorModel(depth, size, r, g, b, a);
+        BufferedImage   image  = new BufferedImage(width, height,
+                                                   depth == 8 ? BufferedImage.TYPE_BYTE_INDEXED : BufferedImage.TYPE_BYTE_BINARY,
+                                                   model);
+        int[]           pixels = new int[indices.length];
+
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = indices[i] & 0xff;
+        }
+
+        image.getRaster().setPixels(0, 0, width, height, pixels);
+        return image;
+    }
+
+    /**
+     * Get a copy of an image's pixels as non-premultiplied ARGB, row by row,
+     * reading straight from the data buffer of {@code TYPE_INT_ARGB} images.
+     *
+     * @param  image the image.
+     *
+     * @return the pixels.
+     */
+    static int[] getPixels(BufferedImage image) {
+        int   width  = image.getWidth();
+        int   height = image.getHeight();
+        int[] argb   = new int[width * height];
+
+        if (image.getType() == BufferedImage.TYPE_INT_ARGB && image.getRaster().getParent() == null
+                && image.getSampleModel() instanceof SinglePixelPackedSampleModel) {
+            DataBufferInt buffer = (DataBufferInt) image.getRaster().getDataBuffer();
+            int           stride = ((SinglePixelPackedSampleModel) image.getSampleModel()).getScanlineStride();
+
+            for (int y = 0; y < height; y++) {
+                System.arraycopy(buffer.getData(), buffer.getOffset() + y * stride, argb, y * width, width);
+            }
+        } else {
+            image.getRGB(0, 0, width, height, argb, 0, width);
+        }
+
+        return argb;
+    }
+
+    /**
+     * Choose a palette for more colors than it can hold by median cut:
+     * repeatedly split the box of colors with the widest range in any
+     * channel at the median of that channel, weighted by the number of
+     * pixels, until there are as many boxes as palette entries. Each box's
+     * color is the weighted mean of its colors.
+     *
+     * @param  histogram the colors and the number of pixels of each.
+     *
+     * @return the palette.
+     */
+    private static int[] medianCut(Histogram histogram) {
+        int[] distinct = histogram.getColors();
+        int[] counts   = histogram.getCounts();
+        int[] order    = new int[distinct.length];
+
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+
+        // Each box is a range of order, from starts[i] to ends[i], with the
+        // range of its widest channel.
+        int[] starts   = new int[MAX_COLORS];
+        int[] ends     = new int[MAX_COLORS];
+        int[] ranges   = new int[MAX_COLORS];
+        int[] channels = new int[MAX_COLORS];
+        int   boxes    = 1;
+
+        ends[0] = order.length;
+        measure(distinct, order, starts, ends, ranges, channels, 0);
+
+        while (boxes < MAX_COLORS) {
+            int widest = 0;
+
+            for (int box = 1; box < boxes; box++) {
+                if (ranges[box] > ranges[widest]) {
+                    widest = box;
+                }
+            }
+
+            if (ranges[widest] == 0) {
+                break;
+            }
+
+            int split = sortAndSplit(distinct, counts, order, starts[widest], ends[widest], channels[widest]);
+
+            starts[boxes] = split;
+            ends[boxes]   = ends[widest];
+            ends[widest]  = split;
+            measure(distinct, order, starts, ends, ranges, channels, widest);
+            measure(distinct, order, starts, ends, ranges, channels, boxes);
+            boxes++;
+        }
+
+        int[] palette = new int[boxes];
+
+        for (int box = 0; box < boxes; box++) {
+            long[] sums  = new long[4];
+            long   total = 0;
+
+            for (int i = starts[box]; i < ends[box]; i++) {
+                int color = distinct[order[i]];
+                int count = counts[order[i]];
+
+                for (int channel = 0; channel < 4; channel++) {
+                    sums[channel] += (long) getChannel(color, channel) * count;
+                }
+
+                total += count;
+            }
+
+            int color = 0;
+
+            for (int channel = 0; channel < 4; channel++) {
+                color |= (int) ((sums[channel] + total / 2) / total) << (channel * 8);
+            }
+
+            palette[box] = color;
+        }
+
+        return palette;
+    }
+
+    /**
+     * Find the widest channel of a box of colors.
+     *
+     * @param distinct the colors.
+     * @param order    the order of the colors, grouped into boxes.
+     * @param starts   the start of each box in the order.
+     * @param ends     the end of each box in the order.
+     * @param ranges   receives the range of the widest channel of each box.
+     * @param channels receives the widest channel of each box.
+     * @param box      the box.
+     */
+    private static void measure(int[] distinct, int[] order, int[] starts, int[] ends, int[] ranges, int[] channels,
+            int box) {
+        ranges[box]   = 0;
+        channels[box] = 0;
+
+        for (int channel = 0; channel < 4; channel++) {
+            int range = getRange(distinct, order, starts[box], ends[box], channel);
+
+            if (range > ranges[box]) {
+                ranges[box]   = range;
+                channels[box] = channel;
+            }
+        }
+    }
+
+    /**
+     * Get the range of a channel over a box of colors.
+     *
+     * @param  distinct the colors.
+     * @param  order    the order of the colors, grouped into boxes.
+     * @param  start    the start of the box in the order.
+     * @param  end      the end of the box in the order.
+     * @param  channel  the channel, 0 for blue to 3 for alpha.
+     *
+     * @return the difference between the largest and smallest values.
+     */
+    private static int getRange(int[] distinct, int[] order, int start, int end, int channel) {
+        int min = 255;
+        int max = 0;
+
+        for (int i = start; i < end; i++) {
+            int value = getChannel(distinct[order[i]], channel);
+
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+
+        return max - min;
+    }
+
+    /**
+     * Sort a box of colors by a channel and find where to split it so that
+     * each half covers about half the pixels.
+     *
+     * @param  distinct the colors.
+     * @param  counts   the number of pixels of each color.
+     * @param  order    the order of the colors, grouped into boxes.
+     * @param  start    the start of the box in the order.
+     * @param  end      the end of the box in the order.
+     * @param  channel  the channel, 0 for blue to 3 for alpha.
+     *
+     * @return the start of the second half, strictly between {@code start}
+     *         and {@code end}.
+     */
+    private static int sortAndSplit(int[] distinct, int[] counts, int[] order, int start, int end, int channel) {
+        long[] keys  = new long[end - start];
+        long   total = 0;
+
+        for (int i = start; i < end; i++) {
+            keys[i - start] = ((long) getChannel(distinct[order[i]], channel) << 32) | order[i];
+            total          += counts[order[i]];
+        }
+
+        Arrays.sort(keys);
+
+        for (int i = start; i < end; i++) {
+            order[i] = (int) keys[i - start];
+        }
+
+        long half = 0;
+
+        for (int i = start; i < end - 1; i++) {
+            half += counts[order[i]];
+
+            // Split between different values of the channel, so that each half is narrower.
+            if (half * 2 >= total && getChannel(distinct[order[i]], channel) != getChannel(distinct[order[i + 1]], channel)) {
+                return i + 1;
+            }
+        }
+
+        // Past the median all the values are equal, so split before them.
+        for (int i = end - 1; i > start; i--) {
+            if (getChannel(distinct[order[i]], channel) != getChannel(distinct[order[i - 1]], channel)) {
+                return i;
+            }
+        }
+
+        return start + 1;
+    }
+
+    /**
+     * Get a channel of a color.
+     *
+     * @param  color   the ARGB color.
+     * @param  channel the channel, 0 for blue to 3 for alpha.
+     *
+     * @return the channel's value.
+     */
+    private static int getChannel(int color, int channel) {
+        return (color >>> (channel * 8)) & 0xff;
+    }
+
+    /**
+     * Order a palette with the colors which are not opaque first.
+     *
+     * @param  palette the palette.
+     *
+     * @return the ordered palette.
+     */
+    private static int[] sortTranslucentFirst(int[] palette) {
+        int[] sorted = new int[palette.length];
+        int   next   = 0;
+
+        for (int color : palette) {
+            if ((color >>> 24) != 0xff) {
+                sorted[next++] = color;
+            }
+        }
+
+        for (int color : palette) {
+            if ((color >>> 24) == 0xff) {
+                sorted[next++] = color;
+            }
+        }
+
+        return sorted;
+    }
+
+    /**
+     * The distinct colors of an image, with the number of pixels of each and,
+     * once a palette is chosen, the palette index of each. Held in an open
+     * addressing hash table, since there may be many colors.
+     */
+    private static class Histogram {
+
+        /** The colors, in the slots which are used. */
+        private int[] keys = new int[1024];
+
+        /** The number of pixels of each color. */
+        private int[] counts = new int[1024];
+
+        /** The palette index of each color, once mapped. */
+        private int[] values;
+
+        /** Whether each slot is used. */
+        private boolean[] used = new boolean[1024];
+
+        /** The number of distinct colors. */
+        int size;
+
+        /**
+         * Count a pixel of a color.
+         *
+         * @param color the ARGB color.
+         */
+        void add(int color) {
+            int slot = find(color);
+
+            if (!used[slot]) {
+                used[slot] = true;
+                keys[slot] = color;
+                size++;
+
+                if (size * 2 > keys.length) {
+                    grow();
+                    slot = find(color);
+                }
+            }
+
+            counts[slot]++;
+        }
+
+        /**
+         * Get the palette index of a color, once mapped.
+         *
+         * @param  color the ARGB color.
+         *
+         * @return the palette index.
+         */
+        int getIndex(int color) {
+            return values[find(color)];
+        }
+
+        /**
+         * Get the distinct colors.
+         *
+         * @return the colors, in the order of {@link #getCounts()}.
+         */
+        int[] getColors() {
+            int[] colors = new int[size];
+            int   next   = 0;
+
+            for (int slot = 0; slot < keys.length; slot++) {
+                if (used[slot]) {
+                    colors[next++] = keys[slot];
+                }
+            }
+
+            return colors;
+        }
+
+        /**
+         * Get the number of pixels of each color.
+         *
+         * @return the counts, in the order of {@link #getColors()}.
+         */
+        int[] getCounts() {
+            int[] result = new int[size];
+            int   next   = 0;
+
+            for (int slot = 0; slot < keys.length; slot++) {
+                if (used[slot]) {
+                    result[next++] = counts[slot];
+                }
+            }
+
+            return result;
+        }
+
+        /**
+         * Map each color to the nearest palette color, by the sum of the
+         * squares of the channel differences.
+         *
+         * @param  palette  the palette.
+         * @param  maxError the largest difference allowed in any channel.
+         *
+         * @return {@code true} if every color is within the error allowed of
+         *         its palette color, {@code false} otherwise.
+         */
+        boolean mapTo(int[] palette, int maxError) {
+            int[][] channels = new int[4][palette.length];
+
+            for (int i = 0; i < palette.length; i++) {
+                for (int channel = 0; channel < 4; channel++) {
+                    channels[channel][i] = getChannel(palette[i], channel);
+                }
+            }
+
+            values = new int[keys.length];
+
+            for (int slot = 0; slot < keys.length; slot++) {
+                if (!used[slot]) {
+                    continue;
+                }
+
+                int color     = keys[slot];
+                int b         = getChannel(color, 0);
+                int g         = getChannel(color, 1);
+                int r         = getChannel(color, 2);
+                int a         = getChannel(color, 3);
+                int best      = 0;
+                int bestError = Integer.MAX_VALUE;
+
+                for (int i = 0; i < palette.length && bestError > 0; i++) {
+                    int db    = b - channels[0][i];
+                    int dg    = g - channels[1][i];
+                    int dr    = r - channels[2][i];
+                    int da    = a - channels[3][i];
+                    int error = db * db + dg * dg + dr * dr + da * da;
+
+                    if (error < bestError) {
+                        best      = i;
+                        bestError = error;
+                    }
+                }
+
+                for (int channel = 0; channel < 4; channel++) {
+                    if (Math.abs(getChannel(color, channel) - getChannel(palette[best], channel)) > maxError) {
+                        return false;
+                    }
+                }
+
+                values[slot] = best;
+            }
+
+            return true;
+        }
+
+        /**
+         * Find the slot of a color, or the empty slot where it belongs.
+         *
+         * @param  color the ARGB color.
+         *
+         * @return the slot.
+         */
+        private int find(int color) {
+            int mask = keys.length - 1;
+            int hash = color * 0x9e3779b9;
+            int slot = (hash ^ hash >>> 16) & mask;
+
+            while (used[slot] && keys[slot] != color) {
+                slot = (slot + 1) & mask;
+            }
+
+            return slot;
+        }
+
+        /**
+         * Double the size of the table.
+         */
+        private void grow() {
+            int[]     oldKeys   = keys;
+            int[]     oldCounts = counts;
+            boolean[] oldUsed   = used;
+
+            keys   = new int[oldKeys.length * 2];
+            counts = new int[oldKeys.length * 2];
+            used   = new boolean[oldKeys.length * 2];
+
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldUsed[i]) {
+                    int slot = find(oldKeys[i]);
+
+                    used[slot]   = true;
+                    keys[slot]   = oldKeys[i];
+                    counts[slot] = oldCounts[i];
+                }
+            }
+        }
+    }
+}
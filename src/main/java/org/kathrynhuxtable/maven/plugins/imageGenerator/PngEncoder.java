@@ -0,0 +1,939 @@
+/*
+ * Copyright (c) 2010 Kathryn Huxtable.
+ *
+ * This file is part of the Image Generator Maven plugin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.kathrynhuxtable.maven.plugins.imageGenerator;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes 8-bit RGBA PNG files directly from the pixels of a buffered image,
+ * or indexed color PNG files from a palette image, with control over the
+ * deflate level and the row filter.
+ *
+ * <p>Large images are split into bands of rows which are filtered and
+ * compressed in parallel, each band primed with the last 32K of the band
+ * before it, and joined into a single zlib stream. The output is an ordinary
+ * PNG file.</p>
+ */
+class PngEncoder {
+
+    /**
+     * The PNG row filter strategies.
+     */
+    enum Filter {
+        NONE, SUB, UP, AVERAGE, PAETH,
+
+        /** Choose the filter for each row with the smallest sum of differences. */
+        ADAPTIVE
+    }
+
+    /** The PNG file signature. */
+    private static final byte[] SIGNATURE = { (byte) 137, 80, 78, 71, 13, 10, 26, 10 };
+
+    /** Bytes per pixel of RGBA images. */
+    private static final int BPP = 4;
+
+    /** The size of the deflate window, and so of the dictionary for each band. */
+    private static final int WINDOW_SIZE = 32768;
+
+    /** The approximate number of uncompressed bytes in each band. */
+    private static final int BAND_SIZE = 256 * 1024;
+
+    /** The approximate number of compressed bytes in each IDAT chunk of a streamed image. */
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    /** The largest prime smaller than 65536, used by Adler-32. */
+    private static final long ADLER_BASE = 65521;
+
+    /** The deflate level, from 0 to 9. */
+    private final int compressionLevel;
+
+    /** The row filter strategy. */
+    private final Filter filter;
+
+    /** The threads used to compress bands, or {@code null} to compress serially. */
+    private final ExecutorService deflatePool;
+
+    /**
+     * Create a new PngEncoder.
+     *
+     * @param compressionLevel the deflate level, from 0 (none) to 9 (best).
+     * @param filter           the row filter strategy.
+     * @param deflatePool      the threads used to compress the bands of large
+     *                         images, or {@code null} to compress serially.
+     */
+    public PngEncoder(int compressionLevel, Filter filter, ExecutorService deflatePool) {
+        if (compressionLevel < 0 || compressionLevel > 9) {
+            throw new IllegalArgumentException("Compression level must be between 0 and 9: " + compressionLevel);
+        }
+
+        this.compressionLevel = compressionLevel;
+        this.filter           = filter;
+        this.deflatePool      = deflatePool;
+    }
+
+    /**
+     * Write an image to a PNG file.
+     *
+     * @param  image the image.
+     * @param  file  the file.
+     *
+     * @throws IOException if the file cannot be written.
+     */
+    public void write(BufferedImage image, File file) throws IOException {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 65536);
+
+        try {
+            write(image, out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Write an image to a stream in PNG format.
+     *
+     * @param  image the image.
+     * @param  out   the stream.
+     *
+     * @throws IOException if the stream cannot be written.
+     */
+    public void write(BufferedImage image, OutputStream out) throws IOException {
+        Pixels pixels = new Pixels(image);
+
+        out.write(SIGNATURE);
+        writeHeader(out, pixels.width, pixels.height, 8, 6);
+        writeData(out, pixels, filter);
+    }
+
+    /**
+     * Write an image painted a strip of rows at a time to a stream in PNG
+     * format. Each strip is filtered and compressed as soon as it is painted,
+     * and the compressed data written as it accumulates, so neither the whole
+     * image nor its compressed form is ever held in memory. The rows are
+     * compressed serially, since the bands of the parallel encoder need the
+     * rows before them.
+     *
+     * @param  width   the image width.
+     * @param  height  the image height.
+     * @param  painter paints the strips of the image, from the top down.
+     * @param  out     the stream.
+     *
+     * @throws IOException if the stream cannot be written.
+     */
+    public void write(int width, int height, StripPainter painter, OutputStream out) throws IOException {
+        Band                  band = new Band(new Strips(width, height, painter), filter, 0, height, true);
+        ByteArrayOutputStream data = band.compressed;
+
+        out.write(SIGNATURE);
+        writeHeader(out, width, height, 8, 6);
+
+        data.write(0x78);
+        data.write(getZlibFlags());
+
+        band.begin();
+        try {
+            for (int y = 0; y < height; y++) {
+                band.deflateRow(y);
+
+                if (data.size() >= CHUNK_SIZE) {
+                    writeChunk(out, "IDAT", data.toByteArray());
+                    data.reset();
+                }
+            }
+
+            band.finish();
+        } finally {
+            band.end();
+        }
+
+        new DataOutputStream(data).writeInt((int) band.adler);
+        writeChunk(out, "IDAT", data.toByteArray());
+        writeChunk(out, "IEND", new byte[0]);
+    }
+
+    /**
+     * Write a palette image to a stream in indexed color PNG format, with a
+     * transparency chunk if any palette color is not opaque. The rows are
+     * not filtered, as is best for palette images.
+     *
+     * @param  image the palette image.
+     * @param  out   the stream.
+     *
+     * @throws IOException if the stream cannot be written.
+     */
+    public void write(PaletteImage image, OutputStream out) throws IOException {
+        int    size        = image.colors.length;
+        int    translucent = image.getTranslucentCount();
+        byte[] palette     = new byte[size * 3];
+        byte[] alpha       = new byte[translucent];
+
+        for (int i = 0; i < size; i++) {
+            palette[i * 3]     = (byte) (image.colors[i] >> 16);
+            palette[i * 3 + 1] = (byte) (image.colors[i] >> 8);
+            palette[i * 3 + 2] = (byte) image.colors[i];
+        }
+
+        for (int i = 0; i < translucent; i++) {
+            alpha[i] = (byte) (image.colors[i] >>> 24);
+        }
+
+        out.write(SIGNATURE);
+        writeHeader(out, image.width, image.height, image.getBitDepth(), 3);
+        writeChunk(out, "PLTE", palette);
+        if (translucent > 0) {
+            writeChunk(out, "tRNS", alpha);
+        }
+
+        writeData(out, new IndexedRows(image), Filter.NONE);
+    }
+
+    /**
+     * Filter and compress the rows of an image, in bands, and write them as
+     * IDAT chunks followed by the IEND chunk.
+     *
+     * @param  out       the stream.
+     * @param  rows      the rows of the image.
+     * @param  rowFilter the row filter strategy.
+     *
+     * @throws IOException if the stream cannot be written.
+     */
+    private void writeData(OutputStream out, Rows rows, Filter rowFilter) throws IOException {
+        int rowsPerBand = Math.max(1, BAND_SIZE / (rows.rowBytes + 1));
+        int bands       = (rows.height + rowsPerBand - 1) / rowsPerBand;
+
+        List<Future<Band>> futures = new ArrayList<Future<Band>>(bands);
+
+        for (int i = 0; i < bands; i++) {
+            int  start = i * rowsPerBand;
+            int  end   = Math.min(rows.height, start + rowsPerBand);
+            Band band  = new Band(rows, rowFilter, start, end, i == bands - 1);
+
+            if (deflatePool == null || bands == 1) {
+                band.call();
+                futures.add(new DoneFuture(band));
+            } else {
+                futures.add(deflatePool.submit(band));
+            }
+        }
+
+        long adler = 1;
+
+        for (int i = 0; i < bands; i++) {
+            Band band = getBand(futures.get(i));
+
+            adler = i == 0 ? band.adler : combineAdler(adler, band.adler, band.length);
+
+            ByteArrayOutputStream data = band.compressed;
+
+            if (i == 0) {
+                byte[] body = data.toByteArray();
+
+                data = new ByteArrayOutputStream(body.length + 6);
+                data.write(0x78);
+                data.write(getZlibFlags());
+                data.write(body);
+            }
+
+            if (i == bands - 1) {
+                new DataOutputStream(data).writeInt((int) adler);
+            }
+
+            writeChunk(out, "IDAT", data.toByteArray());
+        }
+
+        writeChunk(out, "IEND", new byte[0]);
+    }
+
+    /**
+     * Wait for a band to be compressed.
+     *
+     * @param  future the future result of compressing the band.
+     *
+     * @return the compressed band.
+     *
+     * @throws IOException if compression failed or was interrupted.
+     */
+    private Band getBand(Future<Band> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compressing image", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Unable to compress image", e.getCause());
+        }
+    }
+
+    /**
+     * Write the IHDR chunk.
+     *
+     * @param  out       the stream.
+     * @param  width     the image width.
+     * @param  height    the image height.
+     * @param  bitDepth  the bits per sample or palette index.
+     * @param  colorType the color type, 6 for RGBA or 3 for indexed color.
+     *
+     * @throws IOException if the stream cannot be written.
+     */
+    private void writeHeader(OutputStream out, int width, int height, int bitDepth, int colorType) throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream(13);
+        DataOutputStream      data   = new DataOutputStream(header);
+
+        data.writeInt(width);
+        data.writeInt(height);
+        data.writeByte(bitDepth);
+        data.writeByte(colorType);
+        data.writeByte(0); // Deflate compression.
+        data.writeByte(0); // Adaptive filtering.
+        data.writeByte(0); // No interlace.
+        writeChunk(out, "IHDR", header.toByteArray());
+    }
+
+    /**
+     * Write a PNG chunk.
+     *
+     * @param  out  the stream.
+     * @param  type the chunk type.
+     * @param  data the chunk data.
+     *
+     * @throws IOException if the stream cannot be written.
+     */
+    private static void writeChunk(OutputStream out, String type, byte[] data) throws IOException {
+        DataOutputStream chunk     = new DataOutputStream(out);
+        byte[]           typeBytes = type.getBytes("US-ASCII");
+        CRC32            crc       = new CRC32();
+
+        crc.update(typeBytes);
+        crc.update(data);
+
+        chunk.writeInt(data.length);
+        chunk.write(typeBytes);
+        chunk.write(data);
+        chunk.writeInt((int) crc.getValue());
+        chunk.flush();
+    }
+
+    /**
+     * Get the second byte of the zlib header, recording the compression level
+     * and making the header a multiple of 31.
+     *
+     * @return the FLG byte.
+     */
+    private int getZlibFlags() {
+        int level;
+
+        if (compressionLevel < 2) {
+            level = 0;
+        } else if (compressionLevel < 6) {
+            level = 1;
+        } else if (compressionLevel == 6) {
+            level = 2;
+        } else {
+            level = 3;
+        }
+
+        int flags = level << 6;
+
+        return flags + 31 - ((0x78 << 8) + flags) % 31;
+    }
+
+    /**
+     * Combine the Adler-32 checksums of two consecutive blocks of data, as
+     * zlib's {@code adler32_combine} does.
+     *
+     * @param  adler1 the checksum of the first block.
+     * @param  adler2 the checksum of the second block.
+     * @param  len2   the length of the second block.
+     *
+     * @return the checksum of the two blocks together.
+     */
+    static long combineAdler(long adler1, long adler2, long len2) {
+        long rem  = len2 % ADLER_BASE;
+        long sum1 = adler1 & 0xffff;
+        long sum2 = (rem * sum1) % ADLER_BASE;
+
+        sum1 += (adler2 & 0xffff) + ADLER_BASE - 1;
+        sum2 += ((adler1 >> 16) & 0xffff) + ((adler2 >> 16) & 0xffff) + ADLER_BASE - rem;
+
+        if (sum1 >= ADLER_BASE) {
+            sum1 -= ADLER_BASE;
+        }
+
+        if (sum1 >= ADLER_BASE) {
+            sum1 -= ADLER_BASE;
+        }
+
+        if (sum2 >= (ADLER_BASE << 1)) {
+            sum2 -= (ADLER_BASE << 1);
+        }
+
+        if (sum2 >= ADLER_BASE) {
+            sum2 -= ADLER_BASE;
+        }
+
+        return sum1 | (sum2 << 16);
+    }
+
+    /**
+     * Paints an image a strip of rows at a time, for images too large to be
+     * painted whole.
+     */
+    interface StripPainter {
+
+        /**
+         * Paint a strip of the image. The strips are requested from the top
+         * of the image down, and each may reuse the buffer of the last.
+         *
+         * @param  y the first row of the strip.
+         *
+         * @return an image holding the rows from {@code y} down, for as many
+         *         rows as it is high. It may extend past the bottom of the
+         *         image.
+         */
+        BufferedImage paintStrip(int y);
+    }
+
+    /**
+     * The rows of an image, as the bytes to be filtered.
+     */
+    private abstract static class Rows {
+        final int width;
+        final int height;
+        final int rowBytes;
+        final int bpp;
+
+        /**
+         * Create a new Rows.
+         *
+         * @param width    the image width.
+         * @param height   the image height.
+         * @param rowBytes the number of bytes in each row.
+         * @param bpp      the number of bytes per pixel, rounded up to one,
+         *                 used by the filters.
+         */
+        Rows(int width, int height, int rowBytes, int bpp) {
+            this.width    = width;
+            this.height   = height;
+            this.rowBytes = rowBytes;
+            this.bpp      = bpp;
+        }
+
+        /**
+         * Convert a row of the image to bytes.
+         *
+         * @param y       the row.
+         * @param scratch a scratch array of at least {@code width} integers.
+         * @param bytes   the array to receive the bytes.
+         */
+        abstract void getRow(int y, int[] scratch, byte[] bytes);
+    }
+
+    /**
+     * Access to the pixels of an image as non-premultiplied ARGB integers,
+     * reading straight from the data buffer of {@code TYPE_INT_ARGB} images.
+     */
+    private static class Pixels extends Rows {
+        final BufferedImage image;
+        final int[]         data;
+        final int           offset;
+        final int           stride;
+
+        /**
+         * Create a new Pixels.
+         *
+         * @param image the image.
+         */
+        Pixels(BufferedImage image) {
+            super(image.getWidth(), image.getHeight(), image.getWidth() * BPP, BPP);
+            this.image = image;
+
+            if (image.getType() == BufferedImage.TYPE_INT_ARGB && image.getRaster().getParent() == null
+                    && image.getSampleModel() instanceof SinglePixelPackedSampleModel) {
+                DataBufferInt buffer = (DataBufferInt) image.getRaster().getDataBuffer();
+
+                data   = buffer.getData();
+                offset = buffer.getOffset();
+                stride = ((SinglePixelPackedSampleModel) image.getSampleModel()).getScanlineStride();
+            } else {
+                data   = null;
+                offset = 0;
+                stride = width;
+            }
+        }
+
+        /**
+         * Convert a row of pixels to RGBA bytes.
+         *
+         * @param y       the row.
+         * @param scratch a scratch array of at least {@code width} integers,
+         *                used if the pixels cannot be read directly.
+         * @param bytes   the array to receive the bytes.
+         */
+        void getRow(int y, int[] scratch, byte[] bytes) {
+            int[] src = data;
+            int   pos = offset + y * stride;
+
+            if (src == null) {
+                image.getRGB(0, y, width, 1, scratch, 0, width);
+                src = scratch;
+                pos = 0;
+            }
+
+            for (int x = 0, i = 0; x < width; x++) {
+                int argb = src[pos + x];
+
+                bytes[i++] = (byte) (argb >> 16);
+                bytes[i++] = (byte) (argb >> 8);
+                bytes[i++] = (byte) argb;
+                bytes[i++] = (byte) (argb >> 24);
+            }
+        }
+    }
+
+    /**
+     * The rows of an image painted a strip at a time. The rows must be read
+     * from the top down.
+     */
+    private static class Strips extends Rows {
+        final StripPainter painter;
+        Pixels             strip;
+        int                stripY;
+
+        /**
+         * Create a new Strips.
+         *
+         * @param width   the image width.
+         * @param height  the image height.
+         * @param painter paints the strips of the image.
+         */
+        Strips(int width, int height, StripPainter painter) {
+            super(width, height, width * BPP, BPP);
+            this.painter = painter;
+        }
+
+        /**
+         * Convert a row of pixels to RGBA bytes, painting the strip holding
+         * it first if it is past the last.
+         *
+         * @param y       the row.
+         * @param scratch a scratch array of at least {@code width} integers.
+         * @param bytes   the array to receive the bytes.
+         */
+        void getRow(int y, int[] scratch, byte[] bytes) {
+            if (strip == null || y >= stripY + strip.height) {
+                strip  = new Pixels(painter.paintStrip(y));
+                stripY = y;
+            }
+
+            strip.getRow(y - stripY, scratch, bytes);
+        }
+    }
+
+    /**
+     * The rows of a palette image, as packed palette indices.
+     */
+    private static class IndexedRows extends Rows {
+        final PaletteImage image;
+
+        /**
+         * Create a new IndexedRows.
+         *
+         * @param image the palette image.
+         */
+        IndexedRows(PaletteImage image) {
+            super(image.width, image.height, (image.width * image.getBitDepth() + 7) / 8, 1);
+            this.image = image;
+        }
+
+        /**
+         * @see org.kathrynhuxtable.maven.plugins.imageGenerator.PngEncoder.Rows#getRow(int, int[], byte[])
+         */
+        void getRow(int y, int[] scratch, byte[] bytes) {
+            image.getRow(y, bytes);
+        }
+    }
+
+    /**
+     * A band of rows, filtered and compressed as part of the zlib stream.
+     */
+    private class Band implements Callable<Band> {
+        private final Rows          pixels;
+        private final Filter        rowFilter;
+        private final int           bpp;
+        private final int           start;
+        private final int           end;
+        private final boolean       last;
+        private final int           rowBytes;
+        private final int[]         scratch;
+        private final byte[][]      candidates;
+        private byte[]              prev;
+        private byte[]              cur;
+        private Deflater            deflater;
+        private Adler32             checksum;
+        private byte[]              buffer;
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        long                        adler;
+        long                        length;
+
+        /**
+         * Create a new Band.
+         *
+         * @param pixels    the image rows.
+         * @param rowFilter the row filter strategy.
+         * @param start     the first row of the band.
+         * @param end       the row after the last row of the band.
+         * @param last      {@code true} if this is the last band of the image.
+         */
+        Band(Rows pixels, Filter rowFilter, int start, int end, boolean last) {
+            this.pixels     = pixels;
+            this.rowFilter  = rowFilter;
+            this.bpp        = pixels.bpp;
+            this.start      = start;
+            this.end        = end;
+            this.last       = last;
+            this.rowBytes   = pixels.rowBytes;
+            this.scratch    = new int[pixels.width];
+            this.candidates = new byte[Filter.ADAPTIVE.ordinal()][rowBytes + 1];
+            this.prev       = new byte[rowBytes];
+            this.cur        = new byte[rowBytes];
+        }
+
+        /**
+         * Filter and compress the rows of the band.
+         *
+         * @return this band.
+         */
+        public Band call() {
+            begin();
+            try {
+                for (int y = start; y < end; y++) {
+                    deflateRow(y);
+                }
+
+                finish();
+            } finally {
+                end();
+            }
+
+            return this;
+        }
+
+        /**
+         * Start compressing the band, with the end of the previous band as
+         * the dictionary.
+         */
+        void begin() {
+            deflater = new Deflater(compressionLevel, true);
+            checksum = new Adler32();
+            buffer   = new byte[65536];
+
+            if (start > 0) {
+                deflater.setDictionary(getDictionary());
+            } else {
+                Arrays.fill(prev, (byte) 0);
+            }
+        }
+
+        /**
+         * Filter and compress a row. The rows must be compressed in order.
+         *
+         * @param y the row.
+         */
+        void deflateRow(int y) {
+            byte[] row = filterRow(y);
+
+            checksum.update(row);
+            deflater.setInput(row);
+            while (!deflater.needsInput()) {
+                compressed.write(buffer, 0, deflater.deflate(buffer));
+            }
+        }
+
+        /**
+         * Flush the compressed data of the band, ending the zlib stream if
+         * this is the last band.
+         */
+        void finish() {
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    compressed.write(buffer, 0, deflater.deflate(buffer));
+                }
+            } else {
+                int n;
+
+                do {
+                    n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    compressed.write(buffer, 0, n);
+                } while (n == buffer.length);
+            }
+
+            adler  = checksum.getValue();
+            length = (long) (end - start) * (rowBytes + 1);
+        }
+
+        /**
+         * Release the deflater.
+         */
+        void end() {
+            deflater.end();
+        }
+
+        /**
+         * Filter the rows which precede the band to recreate the end of the
+         * previous band's uncompressed data, for use as the dictionary. This
+         * leaves the previous row ready for the first row of the band.
+         *
+         * @return the dictionary.
+         */
+        private byte[] getDictionary() {
+            int rows  = Math.min(start, (WINDOW_SIZE + rowBytes) / (rowBytes + 1));
+            int first = start - rows;
+
+            if (first > 0) {
+                pixels.getRow(first - 1, scratch, prev);
+            } else {
+                Arrays.fill(prev, (byte) 0);
+            }
+
+            ByteArrayOutputStream dictionary = new ByteArrayOutputStream(rows * (rowBytes + 1));
+
+            for (int y = first; y < start; y++) {
+                byte[] row = filterRow(y);
+
+                dictionary.write(row, 0, row.length);
+            }
+
+            byte[] bytes = dictionary.toByteArray();
+
+            if (bytes.length <= WINDOW_SIZE) {
+                return bytes;
+            }
+
+            byte[] window = new byte[WINDOW_SIZE];
+
+            System.arraycopy(bytes, bytes.length - WINDOW_SIZE, window, 0, WINDOW_SIZE);
+            return window;
+        }
+
+        /**
+         * Read and filter a row. The previous row must already be in
+         * {@code prev}; on return the row just read is.
+         *
+         * @param  y the row.
+         *
+         * @return the filter type byte followed by the filtered row.
+         */
+        private byte[] filterRow(int y) {
+            pixels.getRow(y, scratch, cur);
+
+            byte[] row;
+
+            if (rowFilter == Filter.ADAPTIVE) {
+                row = null;
+                long best = Long.MAX_VALUE;
+
+                for (int type = 0; type < candidates.length; type++) {
+                    long sum = applyFilter(type, candidates[type]);
+
+                    if (sum < best) {
+                        best = sum;
+                        row  = candidates[type];
+                    }
+                }
+            } else {
+                row = candidates[rowFilter.ordinal()];
+                applyFilter(rowFilter.ordinal(), row);
+            }
+
+            byte[] swap = prev;
+
+            prev = cur;
+            cur  = swap;
+            return row;
+        }
+
+        /**
+         * Apply a filter to the current row. Each filter has its own loop to
+         * keep the per-byte work small.
+         *
+         * @param  type the filter type, from 0 to 4.
+         * @param  out  the array to receive the filter type and filtered row.
+         *
+         * @return the sum of the absolute values of the filtered bytes, as
+         *         signed bytes, used to choose an adaptive filter.
+         */
+        private long applyFilter(int type, byte[] out) {
+            byte[] x   = cur;
+            byte[] b   = prev;
+            long   sum = 0;
+
+            out[0] = (byte) type;
+            switch (type) {
+
+            case 1:
+                for (int i = 0; i < bpp; i++) {
+                    sum += Math.abs(out[i + 1] = x[i]);
+                }
+
+                for (int i = bpp; i < rowBytes; i++) {
+                    sum += Math.abs(out[i + 1] = (byte) (x[i] - x[i - bpp]));
+                }
+
+                break;
+
+            case 2:
+                for (int i = 0; i < rowBytes; i++) {
+                    sum += Math.abs(out[i + 1] = (byte) (x[i] - b[i]));
+                }
+
+                break;
+
+            case 3:
+                for (int i = 0; i < bpp; i++) {
+                    sum += Math.abs(out[i + 1] = (byte) (x[i] - ((b[i] & 0xff) >>> 1)));
+                }
+
+                for (int i = bpp; i < rowBytes; i++) {
+                    sum += Math.abs(out[i + 1] = (byte) (x[i] - (((x[i - bpp] & 0xff) + (b[i] & 0xff)) >>> 1)));
+                }
+
+                break;
+
+            case 4:
+                for (int i = 0; i < bpp; i++) {
+                    sum += Math.abs(out[i + 1] = (byte) (x[i] - b[i]));
+                }
+
+                for (int i = bpp; i < rowBytes; i++) {
+                    sum += Math.abs(out[i + 1] = (byte) (x[i] - paeth(x[i - bpp] & 0xff, b[i] & 0xff, b[i - bpp] & 0xff)));
+                }
+
+                break;
+
+            default:
+                for (int i = 0; i < rowBytes; i++) {
+                    sum += Math.abs(out[i + 1] = x[i]);
+                }
+
+                break;
+            }
+
+            return sum;
+        }
+
+        /**
+         * The Paeth predictor.
+         *
+         * @param  a the byte to the left.
+         * @param  b the byte above.
+         * @param  c the byte above and to the left.
+         *
+         * @return whichever of a, b and c is closest to {@code a + b - c}.
+         */
+        private int paeth(int a, int b, int c) {
+            int p  = a + b - c;
+            int pa = Math.abs(p - a);
+            int pb = Math.abs(p - b);
+            int pc = Math.abs(p - c);
+
+            if (pa <= pb && pa <= pc) {
+                return a;
+            } else if (pb <= pc) {
+                return b;
+            }
+
+            return c;
+        }
+    }
+
+    /**
+     * A future for a band compressed on the calling thread.
+     */
+    private static class DoneFuture implements Future<Band> {
+        private final Band band;
+
+        /**
+         * Create a new DoneFuture.
+         *
+         * @param band the compressed band.
+         */
+        DoneFuture(Band band) {
+            this.band = band;
+        }
+
+        /**
+         * @see java.util.concurrent.Future#cancel(boolean)
+         */
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        /**
+         * @see java.util.concurrent.Future#isCancelled()
+         */
+        public boolean isCancelled() {
+            return false;
+        }
+
+        /**
+         * @see java.util.concurrent.Future#isDone()
+         */
+        public boolean isDone() {
+            return true;
+        }
+
+        /**
+         * @see java.util.concurrent.Future#get()
+         */
+        public Band get() {
+            return band;
+        }
+
+        /**
+         * @see java.util.concurrent.Future#get(long, java.util.concurrent.TimeUnit)
+         */
+        public Band get(long timeout, TimeUnit unit) {
+            return band;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2010 Kathryn Huxtable.
+ *
+ * This file is part of the Image Generator Maven plugin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.kathrynhuxtable.maven.plugins.imageGenerator;
+
+import java.io.File;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+import java.util.List;
+
+/**
+ * A class loader which loads the classes and resources in the project's
+ * class directories itself, before asking its parent for the jars. Each
+ * execution creates one over the class loader for the jars it shares with
+ * other modules, and the watch goal creates a new one whenever the classes
+ * are recompiled, so that the new classes are rendered even though the
+ * plugin's class realm still holds the old ones.
+ */
+class ProjectClassLoader extends URLClassLoader {
+
+    /**
+     * Create a new ProjectClassLoader.
+     *
+     * @param directories the class directories.
+     * @param parent      the class loader for everything else.
+     */
+    public ProjectClassLoader(List<File> directories, ClassLoader parent) {
+        super(toURLs(directories), parent);
+    }
+
+    /**
+     * @see java.lang.ClassLoader#loadClass(java.lang.String, boolean)
+     */
+    protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        Class<?> c = findLoadedClass(name);
+
+        if (c == null && findResource(name.replace('.', '/') + ".class") != null) {
+            c = findClass(name);
+        }
+
+        if (c == null) {
+            return super.loadClass(name, resolve);
+        }
+
+        if (resolve) {
+            resolveClass(c);
+        }
+
+        return c;
+    }
+
+    /**
+     * @see java.lang.ClassLoader#getResource(java.lang.String)
+     */
+    public URL getResource(String name) {
+        URL url = findResource(name);
+
+        return url != null ? url : super.getResource(name);
+    }
+
+    /**
+     * Convert directories to URLs.
+     *
+     * @param  directories the directories.
+     *
+     * @return the URLs.
+     */
+    private static URL[] toURLs(List<File> directories) {
+        URL[] urls = new URL[directories.size()];
+
+        for (int i = 0; i < urls.length; i++) {
+            try {
+                urls[i] = directories.get(i).toURI().toURL();
+            } catch (MalformedURLException e) {
+                throw new IllegalArgumentException("Invalid class directory " + directories.get(i), e);
+            }
+        }
+
+        return urls;
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright (c) 2010 Kathryn Huxtable.
+ *
+ * This file is part of the Image Generator Maven plugin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.kathrynhuxtable.maven.plugins.imageGenerator;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A persistent cache of rendered image files, shared between builds and
+ * projects.
+ *
+ * <p>Each image is stored under the SHA-1 of its specification, the look and
+ * feel class name, the scale and the fingerprint of the runtime classpath, so
+ * any change to these produces a different key. The fingerprint is computed
+ * from the contents of the jars and class directories rather than their
+ * paths, so builds in other checkouts or on other machines with the same
+ * classes share the cached images. Files are stored in sub-directories
+ * named by the first two characters of the key.</p>
+ *
+ * <p>Image files are hard linked into and out of the cache, so a hit costs
+ * no more than creating a directory entry. If the file system cannot link
+ * them, such as when the cache is on another device, they are copied
+ * instead. Every image file is replaced rather than overwritten, so writing
+ * an image file never changes a cached one.</p>
+ *
+ * <p>The cache is kept below a maximum size by deleting the least recently
+ * used files. A file is marked as used by setting its modification time when
+ * it is stored or restored. Deleting a cached file leaves any image file
+ * linked to it.</p>
+ */
+class RenderCache {
+
+    /** The root directory of the cache. */
+    private final File directory;
+
+    /** The maximum total size of the cached files, in bytes. */
+    private final long maxSize;
+
+    /** The fingerprint of the runtime classpath. */
+    private final String classpathFingerprint;
+
+    /** Whether to link files, until linking has failed once. */
+    private volatile boolean link = true;
+
+    /**
+     * Create a new RenderCache.
+     *
+     * @param directory            the root directory of the cache.
+     * @param maxSize              the maximum total size of the cached files,
+     *                             in bytes.
+     * @param classpathFingerprint the fingerprint of the runtime classpath.
+     */
+    public RenderCache(File directory, long maxSize, String classpathFingerprint) {
+        this.directory            = directory;
+        this.maxSize              = maxSize;
+        this.classpathFingerprint = classpathFingerprint;
+    }
+
+    /**
+     * Compute the cache key for an image.
+     *
+     * @param  info        the image specification.
+     * @param  lookAndFeel the look and feel class name.
+     * @param  scale       the scale the image is rendered at.
+     * @param  derivative  the derivative, or {@code null} for the image.
+     *
+     * @return the cache key.
+     */
+    public String getKey(ImageInfo info, String lookAndFeel, ImageScale scale, ImageDerivative derivative) {
+        String key = info.canonicalForm() + "\n" + lookAndFeel + "\n" + classpathFingerprint;
+
+        // Images at scale one keep the keys they had before scales were added.
+        if (scale.factor != 1f) {
+            key += "\nscale " + scale.factor;
+        }
+
+        if (derivative != null) {
+            key += "\nderivative " + derivative.canonicalForm();
+        }
+
+        return Digests.sha1(key);
+    }
+
+    /**
+     * Link or copy the cached image file for a key to the output file, if
+     * there is one.
+     *
+     * @param  key  the cache key.
+     * @param  file the output file.
+     *
+     * @return {@code true} if the file was restored from the cache,
+     *         {@code false} if the key is not in the cache.
+     *
+     * @throws IOException if the cached file cannot be linked or copied.
+     */
+    public boolean restore(String key, File file) throws IOException {
+        File cached = getCacheFile(key);
+
+        if (!cached.isFile()) {
+            return false;
+        }
+
+        cached.setLastModified(System.currentTimeMillis());
+
+        // Replace rather than overwrite a hard link to another image file.
+        file.delete();
+        linkFile(cached, file);
+        return true;
+    }
+
+    /**
+     * Store a newly written image file in the cache. The file is linked or
+     * copied to a temporary file which is then renamed, so concurrent builds
+     * never see a partially written entry.
+     *
+     * @param  key  the cache key.
+     * @param  file the image file.
+     *
+     * @throws IOException if the file cannot be linked or copied into the
+     *                     cache.
+     */
+    public void store(String key, File file) throws IOException {
+        File cached = getCacheFile(key);
+        File dir    = cached.getParentFile();
+
+        if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+            throw new IOException("Unable to create cache directory " + dir);
+        }
+
+        File temp = File.createTempFile(key, ".tmp", dir);
+
+        try {
+            temp.delete();
+            linkFile(file, temp);
+            if (!temp.renameTo(cached)) {
+                // Another build stored the same key first, which is fine.
+                if (!cached.isFile()) {
+                    throw new IOException("Unable to rename " + temp + " to " + cached);
+                }
+            }
+        } finally {
+            temp.delete();
+        }
+    }
+
+    /**
+     * Delete the least recently used files until the cache is no larger than
+     * its maximum size.
+     *
+     * @return the number of files deleted.
+     */
+    public int evict() {
+        List<File> files = new ArrayList<File>();
+        long       size  = 0;
+        File[]     dirs  = directory.listFiles();
+
+        if (dirs == null) {
+            return 0;
+        }
+
+        for (File dir : dirs) {
+            File[] entries = dir.listFiles();
+
+            if (entries != null) {
+                for (File entry : entries) {
+                    files.add(entry);
+                    size += entry.length();
+                }
+            }
+        }
+
+        if (size <= maxSize) {
+            return 0;
+        }
+
+        Collections.sort(files, new Comparator<File>() {
+                public int compare(File f1, File f2) {
+                    long m1 = f1.lastModified();
+                    long m2 = f2.lastModified();
+
+                    return m1 < m2 ? -1 : (m1 == m2 ? 0 : 1);
+                }
+            });
+
+        int deleted = 0;
+
+        for (File file : files) {
+            if (size <= maxSize) {
+                break;
+            }
+
+            long length = file.length();
+
+            if (file.delete()) {
+                size -= length;
+                deleted++;
+            }
+        }
+
+        return deleted;
+    }
+
+    /**
+     * Get the cache file for a key.
+     *
+     * @param  key the cache key.
+     *
+     * @return the file in which the image for the key is cached.
+     */
+    private File getCacheFile(String key) {
+        return new File(new File(directory, key.substring(0, 2)), key + ".png");
+    }
+
+    /**
+     * Link a file to a new name, or copy it if the file system cannot link
+     * it.
+     *
+     * @param  from the existing file.
+     * @param  to   the new file, which must not exist.
+     *
+     * @throws IOException if the file can be neither linked nor copied.
+     */
+    private void linkFile(File from, File to) throws IOException {
+        if (link) {
+            try {
+                Files.createLink(to.toPath(), from.toPath());
+                return;
+            } catch (IOException e) {
+                link = false;
+            } catch (UnsupportedOperationException e) {
+                link = false;
+            }
+        }
+
+        copyFile(from, to);
+    }
+
+    /**
+     * Copy a file.
+     *
+     * @param  from the file to copy.
+     * @param  to   the file to copy it to.
+     *
+     * @throws IOException if the copy fails.
+     */
+    static void copyFile(File from, File to) throws IOException {
+        FileChannel in  = new FileInputStream(from).getChannel();
+        FileChannel out = null;
+
+        try {
+            out = new FileOutputStream(to).getChannel();
+            long size = in.size();
+
+            for (long position = 0; position < size;) {
+                position += in.transferTo(position, size - position, out);
+            }
+        } finally {
+            in.close();
+            if (out != null) {
+                out.close();
+            }
+        }
+    }
+}
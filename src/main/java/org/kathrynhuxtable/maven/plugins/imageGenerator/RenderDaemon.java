@@ -0,0 +1,268 @@
+/*
+ * Copyright (c) 2010 Kathryn Huxtable.
+ *
+ * This file is part of the Image Generator Maven plugin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.kathrynhuxtable.maven.plugins.imageGenerator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+import java.security.SecureRandom;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * A long-lived headless JVM which keeps the look and feel and the project's
+ * classes loaded, and renders batches of images sent by the goal over a local
+ * socket. This saves the start up of AWT, Swing and the look and feel on
+ * every build.
+ *
+ * <p>The daemon is started by the goal with the project's runtime classpath,
+ * and serves only clients with the same classpath fingerprint. When a client
+ * with a different fingerprint connects, the daemon exits so that the client
+ * can start one for the new classpath. It also exits when it has been idle
+ * for a while, or when another daemon has taken over its port file.</p>
+ *
+ * <p>Batches are rendered one at a time, since the look and feel is global to
+ * the JVM.</p>
+ *
+ * @see DaemonProtocol
+ */
+public class RenderDaemon {
+
+    /** How often to check whether the daemon has been idle too long. */
+    private static final int CHECK_INTERVAL = 60 * 1000;
+
+    /** The port file. */
+    private final File portFile;
+
+    /** The fingerprint of the classpath the daemon was started with. */
+    private final String fingerprint;
+
+    /** How long to wait for a client before exiting, in milliseconds. */
+    private final long idleTimeout;
+
+    /** The look and feels to set up before the first client connects. */
+    private final List<String> lookAndFeels;
+
+    /** Renders the batches, keeping the look and feels between them. */
+    private final BatchRenderer batchRenderer;
+
+    /** The token a client must send, so that only the owner can connect. */
+    private String token;
+
+    /**
+     * Create a new RenderDaemon.
+     *
+     * @param portFile     the port file.
+     * @param fingerprint  the fingerprint of the classpath.
+     * @param idleTimeout  how long to wait for a client before exiting, in
+     *                     milliseconds.
+     * @param maxPoolBytes the maximum number of bytes of images to keep for
+     *                     reuse.
+     * @param lookAndFeels the look and feels to set up in advance.
+     */
+    public RenderDaemon(File portFile, String fingerprint, long idleTimeout, long maxPoolBytes, List<String> lookAndFeels) {
+        this.portFile      = portFile;
+        this.fingerprint   = fingerprint;
+        this.idleTimeout   = idleTimeout;
+        this.lookAndFeels  = lookAndFeels;
+        this.batchRenderer = new BatchRenderer(maxPoolBytes, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Run a daemon.
+     *
+     * @param args the port file, the classpath fingerprint, the idle timeout
+     *             in minutes, the maximum bytes of images to keep for reuse,
+     *             and the look and feels to set up in advance.
+     */
+    public static void main(String[] args) {
+        List<String> lookAndFeels = new ArrayList<String>();
+
+        for (int i = 4; i < args.length; i++) {
+            lookAndFeels.add(args[i]);
+        }
+
+        int status = 0;
+
+        try {
+            new RenderDaemon(new File(args[0]), args[1], Long.parseLong(args[2]) * 60 * 1000, Long.parseLong(args[3]),
+                             lookAndFeels).run();
+        } catch (Exception e) {
+            e.printStackTrace();
+            status = 1;
+        }
+
+        // AWT threads would otherwise keep the JVM running.
+        System.exit(status);
+    }
+
+    /**
+     * Set up the look and feels, then serve clients until told to exit or
+     * idle for too long.
+     *
+     * @throws IOException if the server socket or the port file cannot be
+     *                     created.
+     */
+    public void run() throws IOException {
+        for (String laf : lookAndFeels) {
+            try {
+                batchRenderer.setLookAndFeel(laf);
+            } catch (MojoExecutionException e) {
+                log("Unable to set up look and feel " + laf + ": " + e.getMessage());
+            }
+        }
+
+        ServerSocket server = new ServerSocket(0, 50, InetAddress.getByName(null));
+
+        try {
+            byte[] bytes = new byte[16];
+
+            new SecureRandom().nextBytes(bytes);
+            token = Digests.toHex(bytes);
+
+            Properties properties = new Properties();
+
+            properties.setProperty("port", Integer.toString(server.getLocalPort()));
+            properties.setProperty("token", token);
+            properties.setProperty("fingerprint", fingerprint);
+            DaemonProtocol.writePortFile(portFile, properties);
+            log("Listening on port " + server.getLocalPort());
+
+            server.setSoTimeout(CHECK_INTERVAL);
+
+            long lastUsed = System.currentTimeMillis();
+
+            while (true) {
+                Socket socket;
+
+                try {
+                    socket = server.accept();
+                } catch (SocketTimeoutException e) {
+                    if (System.currentTimeMillis() - lastUsed > idleTimeout) {
+                        log("Idle for too long, exiting");
+                        break;
+                    } else if (!ownsPortFile()) {
+                        log("Another daemon has taken over, exiting");
+                        break;
+                    }
+
+                    continue;
+                }
+
+                boolean keepRunning;
+
+                try {
+                    keepRunning = serve(socket);
+                } catch (IOException e) {
+                    log("Lost connection to client: " + e);
+                    keepRunning = true;
+                } finally {
+                    socket.close();
+                }
+
+                if (!keepRunning) {
+                    log("Classpath changed, exiting");
+                    break;
+                }
+
+                lastUsed = System.currentTimeMillis();
+            }
+        } finally {
+            server.close();
+            if (ownsPortFile()) {
+                portFile.delete();
+            }
+
+            batchRenderer.close();
+        }
+    }
+
+    /**
+     * Serve one client, rendering its batch of images.
+     *
+     * @param  socket the client's socket.
+     *
+     * @return {@code false} if the client has a different classpath, so the
+     *         daemon must exit, {@code true} otherwise.
+     *
+     * @throws IOException if the connection fails, or the client sends
+     *                     nothing for too long.
+     */
+    private boolean serve(Socket socket) throws IOException {
+        DataInputStream  in  = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+        socket.setSoTimeout(DaemonProtocol.HANDSHAKE_TIMEOUT);
+        if (in.readInt() != DaemonProtocol.VERSION || !token.equals(in.readUTF())) {
+            // Not a client of this version of the daemon. Ignore it.
+            return true;
+        }
+
+        boolean accepted = fingerprint.equals(in.readUTF());
+
+        out.writeBoolean(accepted);
+        out.flush();
+
+        if (!accepted) {
+            return false;
+        }
+
+        // A client which falls silent for as long as the daemon waits idle has gone.
+        socket.setSoTimeout((int) Math.min(idleTimeout, Integer.MAX_VALUE));
+
+        batchRenderer.readSettings(in);
+        batchRenderer.renderBatch(in, out);
+        return true;
+    }
+
+    /**
+     * Check whether the port file still names this daemon.
+     *
+     * @return {@code true} if it does, {@code false} if it has been deleted or
+     *         another daemon has replaced it.
+     */
+    private boolean ownsPortFile() {
+        Properties properties = DaemonProtocol.readPortFile(portFile);
+
+        return properties != null && token != null && token.equals(properties.getProperty("token"));
+    }
+
+    /**
+     * Log a message to the daemon's log file.
+     *
+     * @param message the message.
+     */
+    private static void log(String message) {
+        System.out.println(new java.util.Date() + " " + message);
+    }
+}
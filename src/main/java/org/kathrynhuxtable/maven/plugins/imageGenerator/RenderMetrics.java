@@ -0,0 +1,638 @@
+/*
+ * Copyright (c) 2010 Kathryn Huxtable.
+ *
+ * This file is part of the Image Generator Maven plugin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.kathrynhuxtable.maven.plugins.imageGenerator;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * Timings and outcomes of the images generated by one execution, written as
+ * a JSON or CSV report.
+ *
+ * <p>Each image file has a record saying whether it was rendered, copied from
+ * the cache or left unchanged, and why. Rendered images record the time spent
+ * parsing, constructing, laying out, painting, encoding and writing them, and
+ * the bytes written. When an image is rendered at several scales, the
+ * component is constructed and laid out once, and that time is recorded
+ * against the first scale.</p>
+ *
+ * <p>Records are added on the painting thread. The encode and write times of
+ * a record are set on a writer thread before the writer pool finishes, so the
+ * report must only be written once the pool has finished.</p>
+ */
+class RenderMetrics {
+
+    /** The outcome of an image which was painted and written. */
+    static final String RENDERED = "rendered";
+
+    /** The outcome of an image which was restored from the cache. */
+    static final String CACHED = "cached";
+
+    /**
+     * The outcome of an image with the same specification as another, whose
+     * image file was linked or copied.
+     */
+    static final String DUPLICATE = "duplicate";
+
+    /** The outcome of an image which was the same as last time. */
+    static final String UNCHANGED = "unchanged";
+
+    /** The time the execution started, from {@link System#nanoTime()}. */
+    private final long startTime = System.nanoTime();
+
+    /** The time the execution finished, or zero if it has not. */
+    private long endTime;
+
+    /** The records, in the order the images were generated. */
+    private final List<ImageRecord> images = new ArrayList<ImageRecord>();
+
+    /** The time spent setting each look and feel, in nanoseconds. */
+    private final Map<String, Long> lookAndFeelTimes = new LinkedHashMap<String, Long>();
+
+    /**
+     * The time spent parsing each image in the config file, in nanoseconds,
+     * until it is charged to the first record for the image.
+     */
+    private final Map<String, Long> parseTimes = new HashMap<String, Long>();
+
+    /** The time spent reading the manifest, in nanoseconds. */
+    private long manifestReadTime;
+
+    /**
+     * Record the time spent reading the manifest.
+     *
+     * @param nanos the time, in nanoseconds.
+     */
+    public void manifestRead(long nanos) {
+        manifestReadTime = nanos;
+    }
+
+    /**
+     * Record the time spent setting a look and feel.
+     *
+     * @param lookAndFeel the look and feel class name.
+     * @param nanos       the time, in nanoseconds.
+     */
+    public void lookAndFeelSet(String lookAndFeel, long nanos) {
+        Long total = lookAndFeelTimes.get(lookAndFeel);
+
+        lookAndFeelTimes.put(lookAndFeel, total == null ? nanos : total + nanos);
+    }
+
+    /**
+     * Wrap a handler so that the time the parser spends reading each image,
+     * between one image and the next, is recorded for it.
+     *
+     * @param  handler the handler.
+     *
+     * @return the wrapped handler.
+     */
+    public ConfigParser.ImageHandler timeParsing(final ConfigParser.ImageHandler handler) {
+        return new ConfigParser.ImageHandler() {
+                private long last = System.nanoTime();
+
+                public void image(String filename, ImageInfo info) throws MojoExecutionException {
+                    parseTimes.put(filename, System.nanoTime() - last);
+                    try {
+                        handler.image(filename, info);
+                    } finally {
+                        last = System.nanoTime();
+                    }
+                }
+            };
+    }
+
+    /**
+     * Add a record for an image file.
+     *
+     * @param  filename   the filename from the config file.
+     * @param  target     the look and feel the image is rendered in.
+     * @param  scale      the scale the image is rendered at.
+     * @param  derivative the derivative the image file holds, or
+     *                    {@code null} for the image.
+     * @param  outcome    the outcome, {@link #RENDERED}, {@link #CACHED} or
+     *                    {@link #UNCHANGED}.
+     * @param  reason     why the image was generated, or {@code null} if it
+     *                    was unchanged.
+     *
+     * @return the record.
+     */
+    public ImageRecord add(String filename, RenderTarget target, ImageScale scale, ImageDerivative derivative, String outcome,
+            String reason) {
+        ImageRecord record = new ImageRecord(target.describe(filename, scale, derivative), target.lookAndFeel, scale, derivative,
+                                             outcome, reason);
+        Long        parse  = parseTimes.remove(filename);
+
+        if (parse != null) {
+            record.parseTime = parse;
+        }
+
+        images.add(record);
+        return record;
+    }
+
+    /**
+     * Mark the end of the execution.
+     */
+    public void finish() {
+        endTime = System.nanoTime();
+    }
+
+    /**
+     * Count the records with an outcome.
+     *
+     * @param  outcome the outcome.
+     *
+     * @return the number of records.
+     */
+    public int count(String outcome) {
+        int count = 0;
+
+        for (ImageRecord record : images) {
+            if (record.outcome.equals(outcome)) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Count the image files written with a palette.
+     *
+     * @return the number of image files.
+     */
+    public int countPalette() {
+        int count = 0;
+
+        for (ImageRecord record : images) {
+            if (record.paletteColors > 0) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Get the total bytes saved by writing image files with palettes.
+     *
+     * @return the bytes saved.
+     */
+    public long getBytesSaved() {
+        return getTotals()[ImageRecord.TIME_NAMES.length + 1];
+    }
+
+    /**
+     * Get the elapsed time of the execution.
+     *
+     * @return the time, in nanoseconds.
+     */
+    public long getElapsedTime() {
+        return (endTime == 0 ? System.nanoTime() : endTime) - startTime;
+    }
+
+    /**
+     * Get the time spent setting each look and feel.
+     *
+     * @return the times in nanoseconds, by look and feel class name.
+     */
+    public Map<String, Long> getLookAndFeelTimes() {
+        return lookAndFeelTimes;
+    }
+
+    /**
+     * Get the rendered images which took longest, slowest first.
+     *
+     * @param  count the maximum number of images.
+     *
+     * @return the records.
+     */
+    public List<ImageRecord> getSlowest(int count) {
+        List<ImageRecord> rendered = new ArrayList<ImageRecord>();
+
+        for (ImageRecord record : images) {
+            if (record.outcome.equals(RENDERED)) {
+                rendered.add(record);
+            }
+        }
+
+        Collections.sort(rendered, new Comparator<ImageRecord>() {
+                public int compare(ImageRecord r1, ImageRecord r2) {
+                    long t1 = r1.getTotalTime();
+                    long t2 = r2.getTotalTime();
+
+                    return t1 > t2 ? -1 : (t1 == t2 ? 0 : 1);
+                }
+            });
+
+        return rendered.subList(0, Math.min(count, rendered.size()));
+    }
+
+    /**
+     * Write the report as JSON.
+     *
+     * @param  file the report file.
+     *
+     * @throws IOException if the file cannot be written.
+     */
+    public void writeJson(File file) throws IOException {
+        Writer writer = openWriter(file);
+
+        try {
+            long[] totals = getTotals();
+
+            writer.write("{\n  \"elapsedMillis\": " + millis(getElapsedTime()) + ",\n");
+            writer.write("  \"manifestReadMillis\": " + millis(manifestReadTime) + ",\n");
+            writer.write("  \"images\": " + images.size() + ",\n");
+            writer.write("  \"rendered\": " + count(RENDERED) + ",\n");
+            writer.write("  \"cached\": " + count(CACHED) + ",\n");
+            writer.write("  \"duplicate\": " + count(DUPLICATE) + ",\n");
+            writer.write("  \"unchanged\": " + count(UNCHANGED) + ",\n");
+            writer.write("  \"totals\": {" + formatTimes(totals, true) + ", \"bytes\": " + totals[6] + ", \"bytesSaved\": "
+                         + totals[7] + "},\n");
+            writer.write("  \"lookAndFeels\": [");
+
+            String separator = "\n";
+
+            for (Map.Entry<String, Long> entry : lookAndFeelTimes.entrySet()) {
+                writer.write(separator + "    {\"lookAndFeel\": " + quote(entry.getKey()) + ", \"setupMillis\": "
+                             + millis(entry.getValue()) + "}");
+                separator = ",\n";
+            }
+
+            writer.write("\n  ],\n  \"files\": [");
+            separator = "\n";
+
+            for (ImageRecord record : images) {
+                writer.write(separator + "    {\"file\": " + quote(record.name) + ", \"lookAndFeel\": "
+                             + quote(record.lookAndFeel) + ", \"scale\": " + record.scale.factor + ", \"outcome\": "
+                             + quote(record.outcome) + ", \"reason\": "
+                             + (record.reason == null ? "null" : quote(record.reason)) + ", "
+                             + formatTimes(record.getTimes(), true) + ", \"bytes\": " + record.bytes + ", \"paletteColors\": "
+                             + record.paletteColors + ", \"bytesSaved\": " + record.bytesSaved + "}");
+                separator = ",\n";
+            }
+
+            writer.write("\n  ]\n}\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Write the records as CSV, one line per image file.
+     *
+     * @param  file the report file.
+     *
+     * @throws IOException if the file cannot be written.
+     */
+    public void writeCsv(File file) throws IOException {
+        Writer writer = openWriter(file);
+
+        try {
+            writer.write("file,lookAndFeel,scale,outcome,reason");
+            for (String name : ImageRecord.TIME_NAMES) {
+                writer.write("," + name + "Millis");
+            }
+
+            writer.write(",bytes,paletteColors,bytesSaved\n");
+
+            for (ImageRecord record : images) {
+                writer.write(csv(record.name) + "," + csv(record.lookAndFeel) + "," + record.scale.factor + ","
+                             + record.outcome + "," + (record.reason == null ? "" : record.reason));
+                for (long time : record.getTimes()) {
+                    writer.write("," + millis(time));
+                }
+
+                writer.write("," + record.bytes + "," + record.paletteColors + "," + record.bytesSaved + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Describe the times of a record for logging, e.g. "12.345 ms (parse
+     * 0.010, construct 1.200, ...)".
+     *
+     * @param  record the record.
+     *
+     * @return the description.
+     */
+    static String describeTimes(ImageRecord record) {
+        return millis(record.getTotalTime()) + " ms (" + formatTimes(record.getTimes(), false) + ")";
+    }
+
+    /**
+     * Add up the times and bytes of all the records.
+     *
+     * @return the total of each time, followed by the total bytes and the
+     *         total bytes saved by palettes.
+     */
+    private long[] getTotals() {
+        long[] totals = new long[ImageRecord.TIME_NAMES.length + 2];
+
+        for (ImageRecord record : images) {
+            long[] times = record.getTimes();
+
+            for (int i = 0; i < times.length; i++) {
+                totals[i] += times[i];
+            }
+
+            totals[times.length]     += record.bytes;
+            totals[times.length + 1] += record.bytesSaved;
+        }
+
+        return totals;
+    }
+
+    /**
+     * Format a list of times as name and value pairs, either as JSON members,
+     * e.g. {@code "parseMillis": 0.010}, or for logging, e.g.
+     * {@code parse 0.010}.
+     *
+     * @param  times the times, in nanoseconds, in the order of
+     *               {@link ImageRecord#TIME_NAMES}.
+     * @param  json  {@code true} to format as JSON members.
+     *
+     * @return the formatted times, in milliseconds.
+     */
+    private static String formatTimes(long[] times, boolean json) {
+        StringBuilder buffer = new StringBuilder();
+
+        for (int i = 0; i < ImageRecord.TIME_NAMES.length; i++) {
+            if (i > 0) {
+                buffer.append(", ");
+            }
+
+            if (json) {
+                buffer.append('"').append(ImageRecord.TIME_NAMES[i]).append("Millis\": ");
+            } else {
+                buffer.append(ImageRecord.TIME_NAMES[i]).append(' ');
+            }
+
+            buffer.append(millis(times[i]));
+        }
+
+        return buffer.toString();
+    }
+
+    /**
+     * Format nanoseconds as milliseconds.
+     *
+     * @param  nanos the time, in nanoseconds.
+     *
+     * @return the time in milliseconds, to three decimal places.
+     */
+    static String millis(long nanos) {
+        return String.format(Locale.ENGLISH, "%.3f", nanos / 1e6);
+    }
+
+    /**
+     * Quote a string for JSON.
+     *
+     * @param  s the string.
+     *
+     * @return the quoted string.
+     */
+    static String quote(String s) {
+        StringBuilder buffer = new StringBuilder(s.length() + 2).append('"');
+
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+
+            if (c == '"' || c == '\\') {
+                buffer.append('\\').append(c);
+            } else if (c < 0x20) {
+                buffer.append(String.format("\\u%04x", (int) c));
+            } else {
+                buffer.append(c);
+            }
+        }
+
+        return buffer.append('"').toString();
+    }
+
+    /**
+     * Quote a string for CSV if it needs it.
+     *
+     * @param  s the string.
+     *
+     * @return the string, quoted if it contains a comma or quote.
+     */
+    private static String csv(String s) {
+        if (s.indexOf(',') < 0 && s.indexOf('"') < 0) {
+            return s;
+        }
+
+        return "\"" + s.replace("\"", "\"\"") + "\"";
+    }
+
+    /**
+     * Open a UTF-8 writer on a file, creating its directory if necessary.
+     *
+     * @param  file the file.
+     *
+     * @return the writer.
+     *
+     * @throws IOException if the file cannot be opened.
+     */
+    static Writer openWriter(File file) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create directory " + dir);
+        }
+
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+    }
+
+    /**
+     * The outcome and timings of one image file.
+     */
+    static class ImageRecord {
+
+        /** The names of the times, in the order of {@link #getTimes()}. */
+        static final String[] TIME_NAMES = { "parse", "construct", "layout", "paint", "encode", "write" };
+
+        /** The image file described for logging, e.g. "metal/button@2x". */
+        final String name;
+
+        /** The look and feel class name. */
+        final String lookAndFeel;
+
+        /** The scale the image is rendered at. */
+        final ImageScale scale;
+
+        /** The derivative the image file holds, or {@code null} for the image. */
+        final ImageDerivative derivative;
+
+        /** The outcome. */
+        final String outcome;
+
+        /** Why the image was generated, or {@code null} if it was unchanged. */
+        final String reason;
+
+        /** The time spent parsing the image, in nanoseconds. */
+        long parseTime;
+
+        /** The time spent constructing the component, in nanoseconds. */
+        long constructTime;
+
+        /** The time spent laying out the component, in nanoseconds. */
+        long layoutTime;
+
+        /** The time spent painting the component, in nanoseconds. */
+        long paintTime;
+
+        /** The time spent encoding the image, in nanoseconds. */
+        long encodeTime;
+
+        /** The time spent writing the image file, in nanoseconds. */
+        long writeTime;
+
+        /** The size of the image file, in bytes. */
+        long bytes;
+
+        /**
+         * The number of colors in the image file's palette, or zero if it is
+         * written in full color.
+         */
+        int paletteColors;
+
+        /** The bytes saved by writing the image file with a palette. */
+        long bytesSaved;
+
+        /**
+         * Create a new ImageRecord.
+         *
+         * @param name        the image file described for logging.
+         * @param lookAndFeel the look and feel class name.
+         * @param scale       the scale the image is rendered at.
+         * @param derivative  the derivative the image file holds, or
+         *                    {@code null} for the image.
+         * @param outcome     the outcome.
+         * @param reason      why the image was generated, or {@code null}.
+         */
+        public ImageRecord(String name, String lookAndFeel, ImageScale scale, ImageDerivative derivative, String outcome,
+                String reason) {
+            this.name        = name;
+            this.lookAndFeel = lookAndFeel;
+            this.scale       = scale;
+            this.derivative  = derivative;
+            this.outcome     = outcome;
+            this.reason      = reason;
+        }
+
+        /**
+         * Get the times, in the order of {@link #TIME_NAMES}.
+         *
+         * @return the times, in nanoseconds.
+         */
+        long[] getTimes() {
+            return new long[] { parseTime, constructTime, layoutTime, paintTime, encodeTime, writeTime };
+        }
+
+        /**
+         * Get the total time spent on the image.
+         *
+         * @return the time, in nanoseconds.
+         */
+        long getTotalTime() {
+            return parseTime + constructTime + layoutTime + paintTime + encodeTime + writeTime;
+        }
+    }
+
+    /**
+     * An output stream which records the time spent in, and the bytes passed
+     * to, the stream it wraps. Wrapped around a file stream, this is the time
+     * spent writing the file.
+     */
+    static class TimingOutputStream extends FilterOutputStream {
+
+        /** The time spent in the wrapped stream, in nanoseconds. */
+        long time;
+
+        /** The number of bytes written. */
+        long bytes;
+
+        /**
+         * Create a new TimingOutputStream.
+         *
+         * @param out the stream to wrap.
+         */
+        public TimingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        /**
+         * @see java.io.FilterOutputStream#write(int)
+         */
+        @Override
+        public void write(int b) throws IOException {
+            long start = System.nanoTime();
+
+            out.write(b);
+            time += System.nanoTime() - start;
+            bytes++;
+        }
+
+        /**
+         * @see java.io.FilterOutputStream#write(byte[], int, int)
+         */
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            long start = System.nanoTime();
+
+            out.write(b, off, len);
+            time += System.nanoTime() - start;
+            bytes += len;
+        }
+
+        /**
+         * @see java.io.FilterOutputStream#close()
+         */
+        @Override
+        public void close() throws IOException {
+            long start = System.nanoTime();
+
+            super.close();
+            time += System.nanoTime() - start;
+        }
+    }
+}
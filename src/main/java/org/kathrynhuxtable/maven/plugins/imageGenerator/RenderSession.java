@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2010 Kathryn Huxtable.
+ *
+ * This file is part of the Image Generator Maven plugin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.kathrynhuxtable.maven.plugins.imageGenerator;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * The class loader for the dependency jars, the look and feels and the image
+ * pool of the executions with the same jars on the runtime classpath and the
+ * same look and feels, kept for the rest of the Maven session so that later
+ * executions and modules need not load the jars and set up the look and feels
+ * again.
+ *
+ * <p>The jars are identified by their contents, so reactor modules with the
+ * same dependencies share a session. Each module's own class directories are
+ * loaded by each execution in a {@link ProjectClassLoader} over the session's
+ * class loader, which is the context class loader while the execution runs
+ * and is given to the session's renderer while it paints the execution's
+ * images. The look and feel is set up once for all of them, unless a
+ * module's class directories hold another class for it. The image pool is
+ * emptied at the end of each execution, so idle sessions hold no images.</p>
+ *
+ * <p>The plugin's classes are loaded once per Maven session, so the sessions
+ * are held statically. They are closed when an execution from a new Maven
+ * session arrives, as when Maven is embedded, and when the JVM exits.</p>
+ *
+ * <p>Modules built in parallel may share a session, and the look and feel is
+ * global to the JVM whichever session set it, so all painting is done while
+ * holding {@link #SWING_LOCK}.</p>
+ */
+class RenderSession {
+
+    /** Held while setting the look and feel and creating and painting components. */
+    static final Object SWING_LOCK = new Object();
+
+    /** The sessions, by key. */
+    private static final Map<String, RenderSession> sessions = new HashMap<String, RenderSession>();
+
+    /** The start time of the Maven session the sessions belong to. */
+    private static Date mavenSessionStartTime;
+
+    /** Whether the sessions are closed when the JVM exits. */
+    private static boolean shutdownHookAdded;
+
+    /** The class loader for the jars of the runtime classpath. */
+    final ClassLoader classLoader;
+
+    /** The pool of images to paint into. */
+    final ImagePool imagePool;
+
+    /** Creates and paints the components. */
+    final ComponentRenderer renderer;
+
+    /**
+     * Create a new RenderSession.
+     *
+     * @param classLoader the class loader for the jars of the runtime
+     *                    classpath.
+     * @param imagePool   the pool of images to paint into.
+     */
+    public RenderSession(ClassLoader classLoader, ImagePool imagePool) {
+        this.classLoader = classLoader;
+        this.imagePool   = imagePool;
+        this.renderer    = new ComponentRenderer(imagePool, classLoader);
+    }
+
+    /**
+     * Creates a session when there is none to reuse.
+     */
+    interface Factory {
+
+        /**
+         * Create a session.
+         *
+         * @return the session.
+         *
+         * @throws MojoExecutionException if the session cannot be created.
+         */
+        RenderSession create() throws MojoExecutionException;
+    }
+
+    /**
+     * Get the session for a key, creating it if this is the first execution
+     * with the key in the Maven session.
+     *
+     * @param  startTime the start time of the Maven session, or {@code null}
+     *                   if unknown, in which case all executions in the JVM
+     *                   are taken to be in the same Maven session.
+     * @param  key       the fingerprint of the jars of the runtime classpath
+     *                   and the look and feels.
+     * @param  factory   creates the session if necessary.
+     *
+     * @return the session.
+     *
+     * @throws MojoExecutionException if the session cannot be created.
+     */
+    static synchronized RenderSession get(Date startTime, String key, Factory factory) throws MojoExecutionException {
+        if (startTime != null && !startTime.equals(mavenSessionStartTime)) {
+            if (mavenSessionStartTime != null) {
+                closeAll();
+            }
+
+            mavenSessionStartTime = startTime;
+        }
+
+        RenderSession session = sessions.get(key);
+
+        if (session == null) {
+            session = factory.create();
+            sessions.put(key, session);
+
+            if (!shutdownHookAdded) {
+                Runtime.getRuntime().addShutdownHook(new Thread("imagegenerator-session-shutdown") {
+                        public void run() {
+                            closeAll();
+                        }
+                    });
+                shutdownHookAdded = true;
+            }
+        }
+
+        return session;
+    }
+
+    /**
+     * Check whether a session has been created for a key.
+     *
+     * @param  key the fingerprint of the jars of the runtime classpath and
+     *             the look and feels.
+     *
+     * @return {@code true} if it has, {@code false} otherwise.
+     */
+    static synchronized boolean exists(String key) {
+        return sessions.containsKey(key);
+    }
+
+    /**
+     * Close all the sessions.
+     */
+    static synchronized void closeAll() {
+        List<RenderSession> closing = new ArrayList<RenderSession>(sessions.values());
+
+        sessions.clear();
+        for (RenderSession session : closing) {
+            session.close();
+        }
+    }
+
+    /**
+     * Release the session's resources.
+     */
+    private void close() {
+        if (classLoader instanceof IndexedClassLoader) {
+            ((IndexedClassLoader) classLoader).close();
+        }
+    }
+}
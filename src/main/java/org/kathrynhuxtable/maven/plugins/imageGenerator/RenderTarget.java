@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2010 Kathryn Huxtable.
+ *
+ * This file is part of the Image Generator Maven plugin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.kathrynhuxtable.maven.plugins.imageGenerator;
+
+import java.io.File;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A look and feel to render the images in, and where to write them.
+ *
+ * <p>With a single look and feel the images are written straight into the
+ * output directory. With several, each look and feel's images are written
+ * into a sub-directory named after it, e.g. {@code metal/button.png}, or are
+ * given a suffix, e.g. {@code button-metal.png}.</p>
+ */
+class RenderTarget {
+
+    /** The look and feel class name. */
+    final String lookAndFeel;
+
+    /** The fingerprint of the look and feel and the runtime classpath. */
+    final String fingerprint;
+
+    /** The directory to write the images into. */
+    private final File directory;
+
+    /** The suffix added to each filename. */
+    private final String suffix;
+
+    /** The sub-directory name and a slash, or an empty string. */
+    private final String prefix;
+
+    /** The first filename with each image specification, by its digest. */
+    Map<String, String> firstFilenames = new HashMap<String, String>();
+
+    /**
+     * Create a new RenderTarget.
+     *
+     * @param lookAndFeel     the look and feel class name.
+     * @param fingerprint     the fingerprint of the look and feel and the
+     *                        runtime classpath.
+     * @param outputDirectory the output directory.
+     * @param subdirectory    the sub-directory of the output directory to
+     *                        write the images into, or {@code null} to write
+     *                        them into the output directory.
+     * @param suffix          the suffix added to each filename.
+     */
+    public RenderTarget(String lookAndFeel, String fingerprint, File outputDirectory, String subdirectory, String suffix) {
+        this.lookAndFeel = lookAndFeel;
+        this.fingerprint = fingerprint;
+        this.suffix      = suffix;
+
+        if (subdirectory == null) {
+            directory = outputDirectory;
+            prefix    = "";
+        } else {
+            directory = new File(outputDirectory, subdirectory);
+            prefix    = subdirectory + "/";
+        }
+    }
+
+    /**
+     * Get a short name for a look and feel, for use in file and directory
+     * names, e.g. "metal" for {@code javax.swing.plaf.metal.MetalLookAndFeel}.
+     *
+     * @param  lookAndFeel the look and feel class name.
+     *
+     * @return the short name.
+     */
+    static String getShortName(String lookAndFeel) {
+        String name = lookAndFeel.substring(lookAndFeel.lastIndexOf('.') + 1);
+
+        if (name.endsWith("LookAndFeel") && name.length() > "LookAndFeel".length()) {
+            name = name.substring(0, name.length() - "LookAndFeel".length());
+        }
+
+        return name.toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Get the directory the images are written into.
+     *
+     * @return the directory.
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Get the fingerprint saved for the images at a scale.
+     *
+     * @param  scale the scale.
+     *
+     * @return the fingerprint.
+     */
+    public String getFingerprint(ImageScale scale) {
+        return fingerprint + scale.suffix;
+    }
+
+    /**
+     * Get the file to write an image into.
+     *
+     * @param  filename the filename from the config file.
+     * @param  scale    the scale the image is rendered at.
+     *
+     * @return the image file.
+     */
+    public File getImageFile(String filename, ImageScale scale) {
+        return getImageFile(filename, scale, null);
+    }
+
+    /**
+     * Get the file to write an image or one of its derivatives into.
+     *
+     * @param  filename   the filename from the config file.
+     * @param  scale      the scale the image is rendered at.
+     * @param  derivative the derivative, or {@code null} for the image.
+     *
+     * @return the image file.
+     */
+    public File getImageFile(String filename, ImageScale scale, ImageDerivative derivative) {
+        return new File(directory, getName(filename, scale, derivative) + ".png");
+    }
+
+    /**
+     * Get the path of the file to write an image into, relative to the output
+     * directory, e.g. "metal/button@2x.png".
+     *
+     * @param  filename the filename from the config file.
+     * @param  scale    the scale the image is rendered at.
+     *
+     * @return the path.
+     */
+    public String getPath(String filename, ImageScale scale) {
+        return getPath(filename, scale, null);
+    }
+
+    /**
+     * Get the path of the file to write an image or one of its derivatives
+     * into, relative to the output directory, e.g.
+     * "metal/button-thumb@2x.png".
+     *
+     * @param  filename   the filename from the config file.
+     * @param  scale      the scale the image is rendered at.
+     * @param  derivative the derivative, or {@code null} for the image.
+     *
+     * @return the path.
+     */
+    public String getPath(String filename, ImageScale scale, ImageDerivative derivative) {
+        return prefix + getName(filename, scale, derivative) + ".png";
+    }
+
+    /**
+     * Describe an image for logging, e.g. "metal/button@2x".
+     *
+     * @param  filename the filename from the config file.
+     * @param  scale    the scale the image is rendered at.
+     *
+     * @return the description.
+     */
+    public String describe(String filename, ImageScale scale) {
+        return describe(filename, scale, null);
+    }
+
+    /**
+     * Describe an image or one of its derivatives for logging, e.g.
+     * "metal/button-thumb@2x".
+     *
+     * @param  filename   the filename from the config file.
+     * @param  scale      the scale the image is rendered at.
+     * @param  derivative the derivative, or {@code null} for the image.
+     *
+     * @return the description.
+     */
+    public String describe(String filename, ImageScale scale, ImageDerivative derivative) {
+        return prefix + getName(filename, scale, derivative);
+    }
+
+    /**
+     * Get the name of an image file without its directory or extension.
+     *
+     * @param  filename   the filename from the config file.
+     * @param  scale      the scale the image is rendered at.
+     * @param  derivative the derivative, or {@code null} for the image.
+     *
+     * @return the name.
+     */
+    private String getName(String filename, ImageScale scale, ImageDerivative derivative) {
+        return filename + (derivative == null ? "" : derivative.suffix) + suffix + scale.suffix;
+    }
+}
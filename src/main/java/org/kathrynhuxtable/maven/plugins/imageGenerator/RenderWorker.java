@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2010 Kathryn Huxtable.
+ *
+ * This file is part of the Image Generator Maven plugin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.kathrynhuxtable.maven.plugins.imageGenerator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * A headless JVM forked by the goal to render batches of images in parallel
+ * with other workers. The worker reads batches from its standard input and
+ * replies on its standard output, using the same messages as a
+ * {@link RenderDaemon}, and exits when its standard input is closed.
+ *
+ * <p>The worker first sets up the look and feels, then writes the protocol
+ * version to tell the goal it is ready. The settings used to write the image
+ * files follow, once, and then any number of batches. Anything the
+ * components print goes to the standard error, which the goal shares.</p>
+ *
+ * @see WorkerPool
+ */
+public class RenderWorker {
+
+    /**
+     * Run a worker.
+     *
+     * @param args the maximum bytes of images to keep for reuse, and the look
+     *             and feels to set up in advance.
+     */
+    public static void main(String[] args) {
+        // Keep stray output from the components out of the replies.
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 65536));
+        DataInputStream  in  = new DataInputStream(new BufferedInputStream(System.in, 65536));
+
+        System.setOut(System.err);
+
+        // Other workers share the processors.
+        BatchRenderer batchRenderer = new BatchRenderer(Long.parseLong(args[0]), 1);
+        int           status        = 0;
+
+        try {
+            for (int i = 1; i < args.length; i++) {
+                try {
+                    batchRenderer.setLookAndFeel(args[i]);
+                } catch (MojoExecutionException e) {
+                    System.err.println("Unable to set up look and feel " + args[i] + ": " + e.getMessage());
+                }
+            }
+
+            out.writeInt(DaemonProtocol.VERSION);
+            out.flush();
+
+            batchRenderer.readSettings(in);
+            while (true) {
+                batchRenderer.renderBatch(in, out);
+            }
+        } catch (EOFException e) {
+            // The goal has finished with the worker.
+        } catch (IOException e) {
+            e.printStackTrace();
+            status = 1;
+        } finally {
+            batchRenderer.close();
+        }
+
+        // AWT threads would otherwise keep the JVM running.
+        System.exit(status);
+    }
+}
@@ -0,0 +1,358 @@
+/*
+ * Copyright (c) 2010 Kathryn Huxtable.
+ *
+ * This file is part of the Image Generator Maven plugin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.kathrynhuxtable.maven.plugins.imageGenerator;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * Renders batches of images in forked {@link RenderWorker} JVMs, so that
+ * images can be painted on several processors at once despite the look and
+ * feel being global to each JVM.
+ *
+ * <p>Each worker is served by a thread of the goal, which takes the next
+ * batch as soon as the worker has finished the last one, so that workers
+ * given cheap batches take more of them. The number of batches waiting for a
+ * worker is bounded, and {@link #submit} blocks when the limit is reached.</p>
+ *
+ * <p>When a worker dies, its batch is given to another worker. A batch which
+ * has killed two workers, and the batches left when every worker has died,
+ * are returned by {@link #finish} to be rendered in the build.</p>
+ */
+class WorkerPool {
+
+    /** The number of workers a batch may be given to before it is returned. */
+    private static final int MAX_ATTEMPTS = 2;
+
+    /** The command which starts a worker. */
+    private final List<String> command;
+
+    /** The number of workers. */
+    private final int workers;
+
+    /** The batches waiting for a worker, in the order they are to be taken. */
+    private final LinkedList<Batch> pending = new LinkedList<Batch>();
+
+    /** The batches rendered by the workers. */
+    private final List<Batch> completed = new ArrayList<Batch>();
+
+    /** The batches to be rendered in the build. */
+    private final List<Batch> failed = new ArrayList<Batch>();
+
+    /** The reasons workers died, for the goal to log. */
+    private final List<String> warnings = new ArrayList<String>();
+
+    /** The worker processes. */
+    private final List<Process> processes = new ArrayList<Process>();
+
+    /** The threads serving the workers. */
+    private final List<Thread> threads = new ArrayList<Thread>();
+
+    /** The number of workers which have not died. */
+    private int liveWorkers;
+
+    /** Whether all the batches have been submitted. */
+    private boolean closed;
+
+    /** Whether the workers have been killed. */
+    private boolean destroyed;
+
+    /** The first error reported by a worker, or {@code null} if none. */
+    private String error;
+
+    /**
+     * Create a new WorkerPool. No worker is started until {@link #start} is
+     * called.
+     *
+     * @param command the command which starts a worker, without the worker's
+     *                arguments.
+     * @param workers the number of workers.
+     */
+    public WorkerPool(List<String> command, int workers) {
+        this.command = command;
+        this.workers = workers;
+    }
+
+    /**
+     * Start the workers. Each worker sets up the look and feels and is sent
+     * the settings used to write the image files before it takes a batch.
+     *
+     * @param encoder          the PNG encoder, {@code builtin} or
+     *                         {@code imageio}.
+     * @param compressionLevel the compression level.
+     * @param filterStrategy   the filter strategy.
+     * @param palette          the palette reduction.
+     * @param paletteMaxError  the largest difference allowed in any channel
+     *                         by lossy palette reduction.
+     * @param writerThreads    the number of writer threads in each worker.
+     * @param writerQueueSize  the maximum number of images painted but not yet
+     *                         written in each worker.
+     * @param tileHeight       the height of the strips tall panels are painted
+     *                         in, or zero to paint every panel whole.
+     */
+    public void start(final String encoder, final int compressionLevel, final String filterStrategy, final String palette,
+            final int paletteMaxError, final int writerThreads, final int writerQueueSize, final int tileHeight) {
+        NamedThreadFactory factory = new NamedThreadFactory("imagegenerator-worker");
+
+        liveWorkers = workers;
+
+        for (int i = 0; i < workers; i++) {
+            Thread thread = factory.newThread(new Runnable() {
+                    public void run() {
+                        serveWorker(encoder, compressionLevel, filterStrategy, palette, paletteMaxError, writerThreads,
+                                    writerQueueSize, tileHeight);
+                    }
+                });
+
+            threads.add(thread);
+            thread.start();
+        }
+    }
+
+    /**
+     * Queue a batch for the next free worker, blocking while too many batches
+     * are waiting. If every worker has died, the batch is kept to be rendered
+     * in the build.
+     *
+     * @param  batch the batch.
+     *
+     * @throws MojoExecutionException if interrupted while waiting.
+     */
+    public synchronized void submit(Batch batch) throws MojoExecutionException {
+        try {
+            while (liveWorkers > 0 && pending.size() >= workers * 2) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while waiting for a rendering worker", e);
+        }
+
+        if (liveWorkers == 0) {
+            failed.add(batch);
+        } else {
+            pending.add(batch);
+            notifyAll();
+        }
+    }
+
+    /**
+     * Wait for the workers to render the batches submitted, then stop them.
+     *
+     * @return the batches which must be rendered in the build.
+     *
+     * @throws MojoExecutionException if a worker failed to render an image, or
+     *                                if interrupted while waiting.
+     */
+    public List<Batch> finish() throws MojoExecutionException {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            destroy();
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while waiting for the rendering workers", e);
+        }
+
+        if (error != null) {
+            throw new MojoExecutionException("A rendering worker failed: " + error);
+        }
+
+        return failed;
+    }
+
+    /**
+     * Get the batches the workers have rendered.
+     *
+     * @return the batches.
+     */
+    public synchronized List<Batch> getCompleted() {
+        return completed;
+    }
+
+    /**
+     * Get the reasons workers died.
+     *
+     * @return the reasons.
+     */
+    public synchronized List<String> getWarnings() {
+        return warnings;
+    }
+
+    /**
+     * Kill the workers without waiting for them. Used when the goal fails.
+     */
+    public synchronized void destroy() {
+        closed    = true;
+        destroyed = true;
+        pending.clear();
+        notifyAll();
+
+        for (Process process : processes) {
+            process.destroy();
+        }
+    }
+
+    /**
+     * Start a worker and give it batches until there are no more, or until
+     * it dies.
+     *
+     * @param encoder          the PNG encoder.
+     * @param compressionLevel the compression level.
+     * @param filterStrategy   the filter strategy.
+     * @param palette          the palette reduction.
+     * @param paletteMaxError  the largest difference allowed in any channel
+     *                         by lossy palette reduction.
+     * @param writerThreads    the number of writer threads.
+     * @param writerQueueSize  the maximum number of images painted but not yet
+     *                         written.
+     * @param tileHeight       the height of the strips tall panels are painted
+     *                         in.
+     */
+    private void serveWorker(String encoder, int compressionLevel, String filterStrategy, String palette, int paletteMaxError,
+            int writerThreads, int writerQueueSize, int tileHeight) {
+        DaemonClient client = null;
+        Batch        batch  = null;
+
+        try {
+            Process process;
+
+            synchronized (this) {
+                if (destroyed) {
+                    return;
+                }
+
+                process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+                processes.add(process);
+            }
+
+            client = DaemonClient.attach(process);
+            client.begin(encoder, compressionLevel, filterStrategy, palette, paletteMaxError, writerThreads, writerQueueSize,
+                         tileHeight);
+
+            while ((batch = take()) != null) {
+                List<RenderMetrics.ImageRecord> records = new ArrayList<RenderMetrics.ImageRecord>();
+
+                for (ImageGeneratorMojo.DaemonImage image : batch.images) {
+                    client.render(image.target.lookAndFeel, image.info, image.records, image.files);
+                    records.addAll(image.records);
+                }
+
+                completed(batch, client.finish(records));
+                batch = null;
+            }
+        } catch (IOException e) {
+            died(batch, e);
+        } finally {
+            if (client != null) {
+                client.close();
+            }
+        }
+    }
+
+    /**
+     * Take the next batch, waiting for one to be submitted.
+     *
+     * @return the batch, or {@code null} if there are no more.
+     */
+    private synchronized Batch take() {
+        while (pending.isEmpty() && !closed) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                return null;
+            }
+        }
+
+        Batch batch = pending.poll();
+
+        notifyAll();
+        return batch;
+    }
+
+    /**
+     * Record a batch a worker has finished.
+     *
+     * @param batch the batch.
+     * @param error the worker's error message, which is empty if all the
+     *              images were written.
+     */
+    private synchronized void completed(Batch batch, String error) {
+        if (error.length() == 0) {
+            completed.add(batch);
+        } else if (this.error == null) {
+            this.error = error;
+        }
+    }
+
+    /**
+     * Record that a worker has died, and give its batch to another worker.
+     *
+     * @param batch the batch the worker was rendering, or {@code null} if
+     *              none.
+     * @param e     the reason the worker died.
+     */
+    private synchronized void died(Batch batch, IOException e) {
+        liveWorkers--;
+        warnings.add("A rendering worker died" + (batch == null ? "" : " rendering " + batch.images.size() + " images") + ": " + e);
+
+        if (batch != null) {
+            if (++batch.attempts < MAX_ATTEMPTS && liveWorkers > 0) {
+                pending.addFirst(batch);
+            } else {
+                failed.add(batch);
+            }
+        }
+
+        if (liveWorkers == 0) {
+            failed.addAll(pending);
+            pending.clear();
+        }
+
+        notifyAll();
+    }
+
+    /**
+     * A batch of images given to one worker. The states of a component are
+     * kept in one batch so that the worker paints them from one component.
+     */
+    static class Batch {
+
+        /** The images, in the order they are rendered. */
+        final List<ImageGeneratorMojo.DaemonImage> images = new ArrayList<ImageGeneratorMojo.DaemonImage>();
+
+        /** The estimated cost of rendering the images, in pixels. */
+        long cost;
+
+        /** The number of workers which have died rendering the batch. */
+        int attempts;
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) 2010 Kathryn Huxtable.
+ *
+ * This file is part of the Image Generator Maven plugin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.kathrynhuxtable.maven.plugins.imageGenerator;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * Tests that the build stamp matches until the settings, the config file,
+ * a file on the classpath, the manifest or a directory of images changes,
+ * and that an execution clears it before generating anything.
+ */
+public class BuildStampTest extends TestCase {
+
+    /** The settings the stamps are written with. */
+    private static final String SETTINGS = "lookAndFeel javax.swing.plaf.metal.MetalLookAndFeel\n";
+
+    /** A temporary directory holding the inputs, outputs and stamp. */
+    private File dir;
+
+    /** The stamp file. */
+    private File stampFile;
+
+    /** The config file. */
+    private File configFile;
+
+    /** The manifest file. */
+    private File manifestFile;
+
+    /** A class directory on the classpath. */
+    private File classes;
+
+    /** A jar on the classpath. */
+    private File jar;
+
+    /** A directory holding images. */
+    private File images;
+
+    /**
+     * @see junit.framework.TestCase#setUp()
+     */
+    protected void setUp() throws IOException {
+        dir          = RenderCacheTest.createTempDirectory();
+        stampFile    = new File(dir, "image-generator.manifest.stamp");
+        configFile   = new File(dir, "image-generator.xml");
+        manifestFile = new File(dir, "image-generator.manifest");
+        classes      = new File(dir, "classes");
+        jar          = new File(dir, "dependency.jar");
+        images       = new File(dir, "images");
+
+        RenderCacheTest.write(configFile, "<images />");
+        RenderCacheTest.write(manifestFile, "imagegenerator-manifest 1\n");
+        RenderCacheTest.write(new File(classes, "org/example/Button.class"), "class");
+        RenderCacheTest.write(jar, "jar");
+        RenderCacheTest.write(new File(images, "button.png"), "image");
+
+        setLastModified(-60000L, configFile, manifestFile, new File(classes, "org/example/Button.class"), jar,
+                        new File(images, "button.png"), images);
+    }
+
+    /**
+     * @see junit.framework.TestCase#tearDown()
+     */
+    protected void tearDown() {
+        RenderCacheTest.delete(dir);
+    }
+
+    /**
+     * Test that a stamp matches what it was written from, and that a missing
+     * or cleared stamp, or one of another version, is not read.
+     *
+     * @throws IOException if the stamp cannot be written.
+     */
+    public void testUpToDate() throws IOException {
+        assertNull(BuildStamp.read(stampFile));
+
+        writeStamp();
+        assertNull(check());
+        assertNull(check());
+
+        BuildStamp.clear(stampFile);
+        assertTrue(stampFile.isFile());
+        assertNull(BuildStamp.read(stampFile));
+
+        writeStamp();
+        RenderCacheTest.write(stampFile, RenderCacheTest.read(stampFile).replace("version=1", "version=0"));
+        assertNull(BuildStamp.read(stampFile));
+    }
+
+    /**
+     * Test that other settings invalidate the stamp.
+     *
+     * @throws IOException if the stamp cannot be written.
+     */
+    public void testSettings() throws IOException {
+        writeStamp();
+        assertEquals("the settings", BuildStamp.read(stampFile).check(SETTINGS + "scales 2\n", configFile, getClasspath(),
+                                                                       manifestFile));
+    }
+
+    /**
+     * Test that a config file with other contents invalidates the stamp, but
+     * one only touched does not.
+     *
+     * @throws IOException if a file cannot be written.
+     */
+    public void testConfigFile() throws IOException {
+        writeStamp();
+
+        configFile.setLastModified(System.currentTimeMillis());
+        assertNull(check());
+
+        RenderCacheTest.write(configFile, "<IMAGES />");
+        assertEquals("the config file", check());
+
+        configFile.delete();
+        assertEquals("the config file", check());
+    }
+
+    /**
+     * Test that a file added to or changed in a class directory, or a changed
+     * jar, invalidates the stamp.
+     *
+     * @throws IOException if a file cannot be written.
+     */
+    public void testClasspath() throws IOException {
+        writeStamp();
+        RenderCacheTest.write(new File(classes, "org/example/Label.class"), "class");
+        assertEquals("the classpath", check());
+
+        writeStamp();
+        setLastModified(-1000L, new File(classes, "org/example/Button.class"));
+        assertEquals("the classpath", check());
+
+        writeStamp();
+        RenderCacheTest.write(jar, "changed jar");
+        assertEquals("the classpath", check());
+    }
+
+    /**
+     * Test that a changed manifest, as written by another execution,
+     * invalidates the stamp.
+     *
+     * @throws IOException if a file cannot be written.
+     */
+    public void testManifest() throws IOException {
+        writeStamp();
+        RenderCacheTest.write(manifestFile, "imagegenerator-manifest 1\nbutton.png\tf\ts\t5\t0\th\n");
+        assertEquals("the manifest", check());
+    }
+
+    /**
+     * Test that an image added to or removed from a directory of images
+     * invalidates the stamp.
+     *
+     * @throws IOException if a file cannot be written.
+     */
+    public void testImageDirectory() throws IOException {
+        writeStamp();
+        new File(images, "button.png").delete();
+        images.setLastModified(System.currentTimeMillis());
+        assertEquals("directory " + images.getAbsoluteFile(), check());
+    }
+
+    /**
+     * Test that an execution records the stamp when it has generated the
+     * images, returns at once while nothing changes, and clears the stamp
+     * before it generates anything, so that an execution which fails leaves
+     * no stamp to match.
+     *
+     * @throws Exception if the images cannot be generated.
+     */
+    public void testExecution() throws Exception {
+        File               module = new File(dir, "module");
+        ImageGeneratorMojo mojo   = createMojo(module, "javax.swing.JButton");
+
+        mojo.execute();
+
+        File moduleStamp = new File(module, "image-generator.manifest.stamp");
+
+        assertNotNull(BuildStamp.read(moduleStamp));
+
+        mojo = createMojo(module, "javax.swing.JButton");
+        mojo.execute();
+        assertTrue(mojo.getLog().toString(), ((ImageGeneratorMojoTest.RecordingLog) mojo.getLog()).contains("The images are up to date"));
+
+        mojo = createMojo(module, "org.example.Missing");
+        try {
+            mojo.execute();
+            fail("Expected the missing class not to be rendered");
+        } catch (MojoExecutionException e) {
+            // Expected.
+        }
+
+        assertTrue(moduleStamp.isFile());
+        assertNull(BuildStamp.read(moduleStamp));
+    }
+
+    /**
+     * Set up a goal to render one component.
+     *
+     * @param  module    the directory of the module.
+     * @param  className the class of the component.
+     *
+     * @return the goal.
+     *
+     * @throws IOException if the config file cannot be written.
+     */
+    private static ImageGeneratorMojo createMojo(File module, String className) throws IOException {
+        return ImageGeneratorMojoTest.createMojo(new ImageGeneratorMojo(), module,
+                                                 "<image file='button' class='" + className + "' width='80' height='25'>"
+                                                 + "<argument type='String' value='Button' /></image>");
+    }
+
+    /**
+     * Write the stamp for the current state of the files.
+     *
+     * @throws IOException if the stamp cannot be written.
+     */
+    private void writeStamp() throws IOException {
+        BuildStamp.write(stampFile, SETTINGS, configFile, getClasspath(), manifestFile, Collections.singleton(images));
+    }
+
+    /**
+     * Check the stamp against the current state of the files.
+     *
+     * @return what has changed, or {@code null} if nothing has.
+     */
+    private String check() {
+        return BuildStamp.read(stampFile).check(SETTINGS, configFile, getClasspath(), manifestFile);
+    }
+
+    /**
+     * Get the runtime classpath elements.
+     *
+     * @return the class directory and the jar.
+     */
+    private List<String> getClasspath() {
+        return Arrays.asList(classes.getPath(), jar.getPath());
+    }
+
+    /**
+     * Move the modification times of files into the past, so that a file
+     * written again during a test is given another time.
+     *
+     * @param offset the milliseconds to add to the current time.
+     * @param files  the files.
+     */
+    private static void setLastModified(long offset, File... files) {
+        long time = System.currentTimeMillis() + offset;
+
+        for (File file : files) {
+            file.setLastModified(time);
+        }
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright (c) 2010 Kathryn Huxtable.
+ *
+ * This file is part of the Image Generator Maven plugin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.kathrynhuxtable.maven.plugins.imageGenerator;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Tests that image sets are expanded into every combination of the values of
+ * their axes, with the last axis varying fastest, that the values replace the
+ * sizes and add to the arguments and client properties of the set, and that
+ * filename templates which would make images share a file are rejected.
+ */
+public class ConfigParserTest extends TestCase {
+
+    /** The filenames passed to the handler, in order. */
+    private List<String> filenames;
+
+    /** The images passed to the handler, in order. */
+    private List<ImageInfo> images;
+
+    /**
+     * @see junit.framework.TestCase#setUp()
+     */
+    protected void setUp() {
+        filenames = new ArrayList<String>();
+        images    = new ArrayList<ImageInfo>();
+    }
+
+    /**
+     * Test that the combinations are generated in odometer order, the last
+     * axis varying fastest.
+     *
+     * @throws Exception if the config cannot be parsed.
+     */
+    public void testOdometerOrder() throws Exception {
+        parse("<imageSet file='i-${a}-${b}-${c}' class='javax.swing.JButton' width='10' height='5'>"
+              + axis("a", "1", "2") + axis("b", "x", "y", "z") + axis("c", "p", "q") + "</imageSet>");
+
+        List<String> expected = new ArrayList<String>();
+
+        for (String a : new String[] { "1", "2" }) {
+            for (String b : new String[] { "x", "y", "z" }) {
+                for (String c : new String[] { "p", "q" }) {
+                    expected.add("i-" + a + "-" + b + "-" + c);
+                }
+            }
+        }
+
+        assertEquals(expected, filenames);
+    }
+
+    /**
+     * Test that the values of later axes replace the sizes and client
+     * properties of earlier ones and of the set, and that their arguments
+     * follow those of the set in the order of the axes.
+     *
+     * @throws Exception if the config cannot be parsed.
+     */
+    public void testValues() throws Exception {
+        parse("<imageSet file='button-${size}-${text}' class='javax.swing.JButton' width='100' height='27'"
+              + " panelWidth='120' panelHeight='32'>"
+              + "<argument type='String' value='first' />"
+              + "<clientProperty name='p' type='String' value='set' />"
+              + "<axis name='size'>"
+              + "<value name='small' width='80' height='20'>"
+              + "<clientProperty name='p' type='String' value='small' /></value>"
+              + "<value name='regular' /></axis>"
+              + "<axis name='text'>"
+              + "<value name='ok' height='22'><argument type='String' value='OK' /></value>"
+              + "<value name='cancel'><argument type='Integer' value='3' />"
+              + "<clientProperty name='p' type='String' value='cancel' /></value></axis>"
+              + "</imageSet>");
+
+        assertEquals(Arrays.asList("button-small-ok", "button-small-cancel", "button-regular-ok", "button-regular-cancel"),
+                     filenames);
+
+        assertImage(images.get(0), 80, 22, 120, 32, "small", "first", "OK");
+        assertImage(images.get(1), 80, 20, 120, 32, "cancel", "first", 3);
+        assertImage(images.get(2), 100, 22, 120, 32, "set", "first", "OK");
+        assertImage(images.get(3), 100, 27, 120, 32, "cancel", "first", 3);
+
+        for (ImageInfo image : images) {
+            assertEquals("javax.swing.JButton", image.className);
+        }
+    }
+
+    /**
+     * Test that the panel size of a set without one follows the size given
+     * by each value.
+     *
+     * @throws Exception if the config cannot be parsed.
+     */
+    public void testPanelSizeDefaults() throws Exception {
+        parse("<imageSet file='f-${s}' class='javax.swing.JButton' width='10' height='5'>"
+              + "<axis name='s'><value name='a' /><value name='b' width='20' height='8' /></axis></imageSet>");
+
+        assertImage(images.get(0), 10, 5, 10, 5, null);
+        assertImage(images.get(1), 20, 8, 20, 8, null);
+    }
+
+    /**
+     * Test that an axis with a single value need not appear in the filename,
+     * and that an image set with states is passed once for each state of
+     * each combination.
+     *
+     * @throws Exception if the config cannot be parsed.
+     */
+    public void testSingleValueAndStates() throws Exception {
+        parse("<imageSet file='f-${s}' class='javax.swing.JButton' width='10' height='5'>"
+              + axis("s", "a", "b") + axis("fixed", "only")
+              + "<states><state name='on' selected='true' /><state name='off' selected='false' /></states>"
+              + "</imageSet>");
+
+        assertEquals(Arrays.asList("f-a-on", "f-a-off", "f-b-on", "f-b-off"), filenames);
+    }
+
+    /**
+     * Test that the images before and after an image set are passed as they
+     * are.
+     *
+     * @throws Exception if the config cannot be parsed.
+     */
+    public void testImagesAroundSet() throws Exception {
+        parse("<image file='before' class='javax.swing.JButton' width='1' height='2' />"
+              + "<imageSet file='set-${s}' class='javax.swing.JButton' width='10' height='5'>" + axis("s", "a", "b")
+              + "</imageSet>"
+              + "<image file='after' class='javax.swing.JButton' width='3' height='4' />");
+
+        assertEquals(Arrays.asList("before", "set-a", "set-b", "after"), filenames);
+        assertImage(images.get(3), 3, 4, 3, 4, null);
+    }
+
+    /**
+     * Test each error in the axes and filename template of an image set.
+     */
+    public void testTemplateErrors() {
+        assertError("An axis of image set f-${s} has no name",
+                    "<imageSet file='f-${s}' class='c' width='1' height='1'><axis><value name='a' /></axis></imageSet>");
+        assertError("Duplicate axis s in image set f-${s}",
+                    "<imageSet file='f-${s}' class='c' width='1' height='1'>" + axis("s", "a") + axis("s", "b")
+                    + "</imageSet>");
+        assertError("No value in axis s of image set f-${s}",
+                    "<imageSet file='f-${s}' class='c' width='1' height='1'><axis name='s' /></imageSet>");
+        assertError("A value of axis s of image set f-${s} has no name",
+                    "<imageSet file='f-${s}' class='c' width='1' height='1'><axis name='s'><value /></axis></imageSet>");
+        assertError("The file of image set f-${s} does not use axis t",
+                    "<imageSet file='f-${s}' class='c' width='1' height='1'>" + axis("s", "a", "b") + axis("t", "x", "y")
+                    + "</imageSet>");
+        assertError("Unknown axis t in the file of image set f-${s}-${t}",
+                    "<imageSet file='f-${s}-${t}' class='c' width='1' height='1'>" + axis("s", "a", "b") + "</imageSet>");
+        assertTrue(filenames.isEmpty());
+    }
+
+    /**
+     * Test that an invalid size in a value is reported against the image
+     * set.
+     */
+    public void testInvalidSize() {
+        assertError("Invalid number in image set f-${s}",
+                    "<imageSet file='f-${s}' class='c' width='1' height='1'>"
+                    + "<axis name='s'><value name='a' width='wide' /></axis></imageSet>");
+    }
+
+    /**
+     * Parse the images of a config file, collecting them in order.
+     *
+     * @param  images the image and imageSet elements.
+     *
+     * @throws MojoExecutionException if the config is invalid.
+     * @throws SAXException           if the XML is not well formed.
+     * @throws IOException            if the config cannot be read.
+     */
+    private void parse(String images) throws MojoExecutionException, SAXException, IOException {
+        ConfigParser.parse(toStream("<images>" + images + "</images>"), new ConfigParser.ImageHandler() {
+                public void image(String filename, ImageInfo info) {
+                    filenames.add(filename);
+                    ConfigParserTest.this.images.add(info);
+                }
+            });
+    }
+
+    /**
+     * Check that parsing a config fails with a message.
+     *
+     * @param message the expected message.
+     * @param images  the image and imageSet elements.
+     */
+    private void assertError(String message, String images) {
+        try {
+            parse(images);
+            fail("Expected " + message);
+        } catch (MojoExecutionException e) {
+            assertEquals(message, e.getMessage());
+        } catch (Exception e) {
+            fail("Expected " + message + ", not " + e);
+        }
+    }
+
+    /**
+     * Check the sizes, client property {@code p} and arguments of an image.
+     *
+     * @param image       the image.
+     * @param width       the expected width.
+     * @param height      the expected height.
+     * @param panelWidth  the expected panel width.
+     * @param panelHeight the expected panel height.
+     * @param property    the expected value of client property {@code p}.
+     * @param args        the expected arguments.
+     */
+    private static void assertImage(ImageInfo image, int width, int height, int panelWidth, int panelHeight,
+            String property, Object... args) {
+        assertEquals("width", width, image.width);
+        assertEquals("height", height, image.height);
+        assertEquals("panel width", panelWidth, image.panelWidth);
+        assertEquals("panel height", panelHeight, image.panelHeight);
+        assertEquals("property", property, image.properties.get("p"));
+        assertEquals("arguments", Arrays.asList(args), Arrays.asList(image.args));
+    }
+
+    /**
+     * Write an axis element with values having only names.
+     *
+     * @param  name   the name of the axis.
+     * @param  values the names of its values.
+     *
+     * @return the axis element.
+     */
+    private static String axis(String name, String... values) {
+        StringBuilder buffer = new StringBuilder("<axis name='" + name + "'>");
+
+        for (String value : values) {
+            buffer.append("<value name='").append(value).append("' />");
+        }
+
+        return buffer.append("</axis>").toString();
+    }
+
+    /**
+     * Get a stream of the UTF-8 bytes of a string.
+     *
+     * @param  text the string.
+     *
+     * @return the stream.
+     *
+     * @throws UnsupportedEncodingException never, as UTF-8 is always
+     *                                      supported.
+     */
+    private static ByteArrayInputStream toStream(String text) throws UnsupportedEncodingException {
+        return new ByteArrayInputStream(text.getBytes("UTF-8"));
+    }
+}
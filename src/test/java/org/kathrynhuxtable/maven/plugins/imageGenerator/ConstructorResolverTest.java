@@ -0,0 +1,329 @@
+/*
+ * Copyright (c) 2010 Kathryn Huxtable.
+ *
+ * This file is part of the Image Generator Maven plugin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.kathrynhuxtable.maven.plugins.imageGenerator;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.lang.reflect.Constructor;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.swing.JButton;
+import javax.swing.JProgressBar;
+
+import junit.framework.TestCase;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * Tests that constructors are chosen as the Java language chooses them:
+ * first without unboxing, then with unboxing and widening, taking the most
+ * specific, and failing when none is.
+ */
+public class ConstructorResolverTest extends TestCase {
+
+    /** The resolver under test. */
+    private ConstructorResolver resolver;
+
+    /**
+     * @see junit.framework.TestCase#setUp()
+     */
+    protected void setUp() {
+        resolver = new ConstructorResolver(ConstructorResolverTest.class.getClassLoader());
+    }
+
+    /**
+     * Test that a constructor accepting the argument as an object is chosen
+     * over one which needs it unboxed.
+     *
+     * @throws MojoExecutionException if no constructor is found.
+     */
+    public void testObjectBeforeUnboxing() throws MojoExecutionException {
+        assertParameters(resolve(ObjectOrInt.class, 1), Object.class);
+    }
+
+    /**
+     * Test that the most specific of several constructors accepting the
+     * argument as an object is chosen.
+     *
+     * @throws MojoExecutionException if no constructor is found.
+     */
+    public void testMostSpecificObject() throws MojoExecutionException {
+        assertParameters(resolve(Hierarchy.class, 1), Integer.class);
+        assertParameters(resolve(Hierarchy.class, 1.5), Number.class);
+        assertParameters(resolve(Hierarchy.class, "text"), Object.class);
+    }
+
+    /**
+     * Test that unboxing chooses the exact primitive type, or else the
+     * narrowest it widens to.
+     *
+     * @throws MojoExecutionException if no constructor is found.
+     */
+    public void testUnboxingAndWidening() throws MojoExecutionException {
+        assertParameters(resolve(Primitives.class, 1), int.class);
+        assertParameters(resolve(Primitives.class, (short) 1), int.class);
+        assertParameters(resolve(Primitives.class, 1L), long.class);
+        assertParameters(resolve(Primitives.class, 1f), double.class);
+        assertParameters(resolve(Primitives.class, 'c'), int.class);
+        assertParameters(resolve(Primitives.class, true), boolean.class);
+    }
+
+    /**
+     * Test that a wrapper does not match a primitive it does not widen to.
+     */
+    public void testNoNarrowing() {
+        assertNoConstructor(LongOnly.class, 1.5);
+        assertNoConstructor(LongOnly.class, true);
+        assertNoConstructor(LongOnly.class, "1");
+    }
+
+    /**
+     * Test that several applicable constructors with none most specific are
+     * an error.
+     */
+    public void testAmbiguous() {
+        try {
+            resolve(Ambiguous.class, 1, 2);
+            fail("Expected an ambiguous constructor");
+        } catch (MojoExecutionException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Ambiguous constructor for "));
+        }
+    }
+
+    /**
+     * Test that an unknown class is an error.
+     */
+    public void testUnknownClass() {
+        try {
+            resolver.resolve("org.kathrynhuxtable.NoSuchComponent");
+            fail("Expected the class not to be found");
+        } catch (MojoExecutionException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Unable to find the class "));
+        }
+    }
+
+    /**
+     * Test that the constructor is remembered for the class and argument
+     * types, but not for other argument types.
+     *
+     * @throws MojoExecutionException if no constructor is found.
+     */
+    public void testRemembered() throws MojoExecutionException {
+        Constructor<?> first = resolve(Primitives.class, 1);
+
+        assertSame(first, resolve(Primitives.class, 2));
+        assertNotSame(first, resolve(Primitives.class, 2L));
+    }
+
+    /**
+     * Test that constructors are remembered for each class loader, so that a
+     * class loaded from a project's class directory is not confused with the
+     * class of the same name loaded elsewhere, and that the constructors of a
+     * class loader are forgotten once it is no longer used.
+     *
+     * @throws IOException            if the class directory cannot be
+     *                                written.
+     * @throws MojoExecutionException if no constructor is found.
+     */
+    public void testRememberedByClassLoader() throws IOException, MojoExecutionException {
+        File dir = RenderCacheTest.createTempDirectory();
+
+        try {
+            IndexedClassLoaderTest.writeClass(dir, LongOnly.class);
+
+            ProjectClassLoader project = new ProjectClassLoader(Collections.singletonList(dir), getClass().getClassLoader());
+
+            try {
+                Constructor<?> own   = resolve(LongOnly.class, 1);
+                Constructor<?> other = resolver.resolve(project, LongOnly.class.getName(), 1);
+
+                assertSame(LongOnly.class, own.getDeclaringClass());
+                assertSame(project, other.getDeclaringClass().getClassLoader());
+                assertSame(own, resolve(LongOnly.class, 2));
+                assertSame(other, resolver.resolve(project, LongOnly.class.getName(), 2));
+
+                resolver.forget(project);
+                assertNotSame(other, resolver.resolve(project, LongOnly.class.getName(), 2));
+                assertSame(own, resolve(LongOnly.class, 2));
+            } finally {
+                project.close();
+            }
+        } finally {
+            RenderCacheTest.delete(dir);
+        }
+    }
+
+    /**
+     * Test the constructors of Swing components as the config files use them.
+     *
+     * @throws MojoExecutionException if no constructor is found.
+     */
+    public void testSwingComponents() throws MojoExecutionException {
+        assertParameters(resolver.resolve(JButton.class.getName(), "Button"), String.class);
+        assertParameters(resolver.resolve(JProgressBar.class.getName(), 0, 0, 100), int.class, int.class, int.class);
+        assertParameters(resolver.resolve(JProgressBar.class.getName()));
+    }
+
+    /**
+     * Resolve the constructor of a test class.
+     *
+     * @param  c    the class.
+     * @param  args the arguments.
+     *
+     * @return the constructor.
+     *
+     * @throws MojoExecutionException if no single constructor matches.
+     */
+    private Constructor<?> resolve(Class<?> c, Object... args) throws MojoExecutionException {
+        return resolver.resolve(c.getName(), args);
+    }
+
+    /**
+     * Check that no constructor of a class matches an argument.
+     *
+     * @param c   the class.
+     * @param arg the argument.
+     */
+    private void assertNoConstructor(Class<?> c, Object arg) {
+        try {
+            resolve(c, arg);
+            fail("Expected no constructor to match " + arg);
+        } catch (MojoExecutionException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("No public constructor of "));
+        }
+    }
+
+    /**
+     * Check the parameter types of a constructor.
+     *
+     * @param constructor the constructor.
+     * @param types       the expected parameter types.
+     */
+    private static void assertParameters(Constructor<?> constructor, Class<?>... types) {
+        assertEquals(Arrays.asList(types), Arrays.asList(constructor.getParameterTypes()));
+    }
+
+    /**
+     * Accepts an object or an int.
+     */
+    public static class ObjectOrInt {
+
+        /**
+         * @param o the argument.
+         */
+        public ObjectOrInt(Object o) {
+        }
+
+        /**
+         * @param i the argument.
+         */
+        public ObjectOrInt(int i) {
+        }
+    }
+
+    /**
+     * Accepts objects of more and less specific types.
+     */
+    public static class Hierarchy {
+
+        /**
+         * @param o the argument.
+         */
+        public Hierarchy(Object o) {
+        }
+
+        /**
+         * @param n the argument.
+         */
+        public Hierarchy(Number n) {
+        }
+
+        /**
+         * @param i the argument.
+         */
+        public Hierarchy(Integer i) {
+        }
+    }
+
+    /**
+     * Accepts primitives only.
+     */
+    public static class Primitives {
+
+        /**
+         * @param b the argument.
+         */
+        public Primitives(boolean b) {
+        }
+
+        /**
+         * @param i the argument.
+         */
+        public Primitives(int i) {
+        }
+
+        /**
+         * @param l the argument.
+         */
+        public Primitives(long l) {
+        }
+
+        /**
+         * @param d the argument.
+         */
+        public Primitives(double d) {
+        }
+    }
+
+    /**
+     * Accepts a long only.
+     */
+    public static class LongOnly {
+
+        /**
+         * @param l the argument.
+         */
+        public LongOnly(long l) {
+        }
+    }
+
+    /**
+     * Has two constructors equally specific for two integers.
+     */
+    public static class Ambiguous {
+
+        /**
+         * @param a the first argument.
+         * @param b the second argument.
+         */
+        public Ambiguous(Integer a, Object b) {
+        }
+
+        /**
+         * @param a the first argument.
+         * @param b the second argument.
+         */
+        public Ambiguous(Object a, Integer b) {
+        }
+    }
+}
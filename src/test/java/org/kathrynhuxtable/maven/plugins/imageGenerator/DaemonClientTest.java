@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2010 Kathryn Huxtable.
+ *
+ * This file is part of the Image Generator Maven plugin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.kathrynhuxtable.maven.plugins.imageGenerator;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.URI;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+
+import junit.framework.TestCase;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * Tests that daemons and workers are started with their classpath in a jar
+ * rather than on the command line, and that the client tells a daemon which
+ * has exited from one which does not answer.
+ */
+public class DaemonClientTest extends TestCase {
+
+    /** A temporary directory holding the classpath jars and port files. */
+    private File dir;
+
+    /**
+     * @see junit.framework.TestCase#setUp()
+     */
+    protected void setUp() throws IOException {
+        dir = RenderCacheTest.createTempDirectory();
+    }
+
+    /**
+     * @see junit.framework.TestCase#tearDown()
+     */
+    protected void tearDown() {
+        RenderCacheTest.delete(dir);
+    }
+
+    /**
+     * Test that the manifest of the classpath jar lists every element, with
+     * directories ending in a slash, and that the jar is reused for the same
+     * classpath but not for another.
+     *
+     * @throws Exception if the jar cannot be written or read.
+     */
+    public void testClasspathJar() throws Exception {
+        File classes = new File(dir, "target dir/classes");
+        File jar     = new File(dir, "lib/dependency.jar");
+
+        classes.mkdirs();
+        RenderCacheTest.write(jar, "");
+
+        List<String> classpath = Arrays.asList(classes.getPath(), jar.getPath(), new File(dir, "missing.jar").getPath());
+        File         pathing   = DaemonClient.getClasspathJar(classpath, dir);
+        JarFile      jarFile   = new JarFile(pathing);
+        String       value;
+
+        try {
+            value = jarFile.getManifest().getMainAttributes().getValue(Attributes.Name.CLASS_PATH);
+        } finally {
+            jarFile.close();
+        }
+
+        String[] urls = value.split(" ");
+
+        assertEquals(3, urls.length);
+        assertTrue(urls[0], urls[0].endsWith("/classes/"));
+        for (int i = 0; i < urls.length; i++) {
+            assertEquals(new File(classpath.get(i)).getAbsoluteFile(), new File(new URI(urls[i])));
+        }
+
+        assertEquals(pathing, DaemonClient.getClasspathJar(classpath, dir));
+        assertFalse(pathing.equals(DaemonClient.getClasspathJar(classpath.subList(0, 2), dir)));
+    }
+
+    /**
+     * Test that a JVM started with a classpath far longer than a command line
+     * may be runs its main class.
+     *
+     * @throws Exception if the JVM cannot be started.
+     */
+    public void testLongClasspath() throws Exception {
+        List<String> classpath = new ArrayList<String>(DaemonClient.getClasspath(null));
+
+        classpath.add(new File(DaemonClientTest.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath());
+
+        StringBuilder name = new StringBuilder();
+
+        for (int i = 0; i < 100; i++) {
+            name.append('x');
+        }
+
+        for (int i = 0; i < 3000; i++) {
+            classpath.add(new File(dir, name + "/dependency-" + i + ".jar").getPath());
+        }
+
+        List<String> command = DaemonClient.getCommand(classpath, Hello.class, dir);
+
+        assertTrue(command.toString().length() < 1000);
+
+        Process        process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        BufferedReader reader  = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+
+        try {
+            assertEquals("hello", reader.readLine());
+        } finally {
+            reader.close();
+        }
+
+        assertEquals(0, process.waitFor());
+    }
+
+    /**
+     * Test that there is no daemon when its port file is missing or refers to
+     * a closed port, and that the port file of a daemon which has exited is
+     * deleted.
+     *
+     * @throws IOException if the port file cannot be written.
+     */
+    public void testNoDaemon() throws IOException {
+        File portFile = new File(dir, "daemon.port");
+
+        assertNull(DaemonClient.connect(portFile, "fingerprint"));
+
+        ServerSocket server = new ServerSocket(0, 1, InetAddress.getByName(null));
+
+        writePortFile(portFile, server.getLocalPort());
+        server.close();
+
+        assertNull(DaemonClient.connect(portFile, "fingerprint"));
+        assertFalse(portFile.exists());
+    }
+
+    /**
+     * Test that a daemon which accepts the connection but never answers is
+     * reported, and its port file left for it.
+     *
+     * @throws IOException if the port file cannot be written.
+     */
+    public void testDaemonDoesNotAnswer() throws IOException {
+        File         portFile = new File(dir, "daemon.port");
+        ServerSocket server   = new ServerSocket(0, 1, InetAddress.getByName(null));
+
+        try {
+            writePortFile(portFile, server.getLocalPort());
+
+            long start = System.currentTimeMillis();
+
+            try {
+                DaemonClient.connect(portFile, "fingerprint");
+                fail("Expected the daemon not to answer");
+            } catch (IOException e) {
+                assertTrue(System.currentTimeMillis() - start >= DaemonProtocol.HANDSHAKE_TIMEOUT - 100);
+            }
+
+            assertTrue(portFile.isFile());
+        } finally {
+            server.close();
+        }
+    }
+
+    /**
+     * Write the port file of a daemon.
+     *
+     * @param  portFile the port file.
+     * @param  port     the port the daemon listens on.
+     *
+     * @throws IOException if the port file cannot be written.
+     */
+    private static void writePortFile(File portFile, int port) throws IOException {
+        Properties properties = new Properties();
+
+        properties.setProperty("port", Integer.toString(port));
+        properties.setProperty("token", "token");
+        DaemonProtocol.writePortFile(portFile, properties);
+    }
+
+    /**
+     * Run by a JVM started by a test.
+     */
+    public static class Hello {
+
+        /**
+         * Print a greeting.
+         *
+         * @param  args not used.
+         *
+         * @throws MojoExecutionException never, but the plugin API must be on
+         *                                the classpath to load this class.
+         */
+        public static void main(String[] args) throws MojoExecutionException {
+            System.out.println("hello");
+        }
+    }
+}
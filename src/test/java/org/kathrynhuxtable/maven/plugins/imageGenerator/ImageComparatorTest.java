@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2010 Kathryn Huxtable.
+ *
+ * This file is part of the Image Generator Maven plugin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.kathrynhuxtable.maven.plugins.imageGenerator;
+
+import java.awt.image.BufferedImage;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that strict comparison finds any difference in a visible pixel, that
+ * a pixel differs only by more than the tolerance and an image changes only
+ * with more differing pixels than are allowed, and that the diff image shows
+ * the differing pixels in red over the faded baseline.
+ */
+public class ImageComparatorTest extends TestCase {
+
+    /** An opaque color. */
+    private static final int COLOR = 0xff406080;
+
+    /**
+     * Test that strict comparison finds a difference of one in any channel
+     * of the first or last pixel, or another size, but ignores the color of
+     * pixels which are fully transparent in both images.
+     */
+    public void testStrict() {
+        ImageComparator comparator = new ImageComparator(0, 0);
+        BufferedImage   baseline   = createImage(4, 3, COLOR);
+
+        assertFalse(comparator.hasChanged(baseline, createImage(4, 3, COLOR)));
+        assertTrue(comparator.hasChanged(baseline, setPixel(createImage(4, 3, COLOR), 0, 0, COLOR + 1)));
+        assertTrue(comparator.hasChanged(baseline, setPixel(createImage(4, 3, COLOR), 3, 2, COLOR - 0x01000000)));
+        assertTrue(comparator.hasChanged(baseline, createImage(3, 4, COLOR)));
+
+        assertFalse(comparator.hasChanged(createImage(4, 3, 0x00ff0000), createImage(4, 3, 0x0000ff00)));
+        assertTrue(comparator.hasChanged(createImage(4, 3, 0x00ff0000), createImage(4, 3, 0x0100ff00)));
+    }
+
+    /**
+     * Test that a pixel differing by exactly the tolerance in a channel is
+     * the same and one more is not, and that an image changes only when more
+     * pixels differ than are allowed.
+     */
+    public void testTolerance() {
+        BufferedImage baseline = createImage(4, 3, COLOR);
+        BufferedImage one      = setPixel(createImage(4, 3, COLOR), 1, 1, COLOR + 0x000300);
+        BufferedImage two      = setPixel(setPixel(createImage(4, 3, COLOR), 1, 1, COLOR + 0x000300), 2, 1, COLOR - 0x030000);
+
+        assertFalse(new ImageComparator(3, 0).hasChanged(baseline, one));
+        assertTrue(new ImageComparator(2, 0).hasChanged(baseline, one));
+
+        assertFalse(new ImageComparator(2, 1).hasChanged(baseline, one));
+        assertTrue(new ImageComparator(2, 1).hasChanged(baseline, two));
+        assertFalse(new ImageComparator(2, 2).hasChanged(baseline, two));
+
+        ImageComparator.Difference difference = new ImageComparator(2, 0).measure(baseline, two, false);
+
+        assertEquals(2, difference.pixels);
+        assertEquals(3, difference.maxDifference);
+        assertNull(difference.diffImage);
+        assertEquals(0, new ImageComparator(3, 0).measure(baseline, two, false).pixels);
+    }
+
+    /**
+     * Test that the diff image covers both images, with the differing pixels
+     * and those outside the baseline in red and the others faded to gray at a
+     * quarter of their alpha.
+     */
+    public void testDiffImage() {
+        BufferedImage baseline = createImage(3, 2, 0xffffffff);
+        BufferedImage image    = setPixel(createImage(4, 2, 0xffffffff), 1, 0, 0xff000000);
+
+        ImageComparator.Difference difference = new ImageComparator(0, 0).measure(baseline, image, true);
+        BufferedImage              diff       = difference.diffImage;
+
+        assertEquals(3, difference.pixels);
+        assertEquals(255, difference.maxDifference);
+        assertEquals(4, diff.getWidth());
+        assertEquals(2, diff.getHeight());
+        assertEquals(0x3fffffff, diff.getRGB(0, 0));
+        assertEquals(0xffff0000, diff.getRGB(1, 0));
+        assertEquals(0x3fffffff, diff.getRGB(2, 1));
+        assertEquals(0xffff0000, diff.getRGB(3, 0));
+        assertEquals(0xffff0000, diff.getRGB(3, 1));
+    }
+
+    /**
+     * Create an image filled with one color.
+     *
+     * @param  width  the width.
+     * @param  height the height.
+     * @param  argb   the color.
+     *
+     * @return the image.
+     */
+    private static BufferedImage createImage(int width, int height, int argb) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, argb);
+            }
+        }
+
+        return image;
+    }
+
+    /**
+     * Set one pixel of an image.
+     *
+     * @param  image the image.
+     * @param  x     the column.
+     * @param  y     the row.
+     * @param  argb  the color.
+     *
+     * @return the image.
+     */
+    private static BufferedImage setPixel(BufferedImage image, int x, int y, int argb) {
+        image.setRGB(x, y, argb);
+
+        return image;
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2010 Kathryn Huxtable.
+ *
+ * This file is part of the Image Generator Maven plugin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.kathrynhuxtable.maven.plugins.imageGenerator;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that the compare goal writes diff images only for changed images,
+ * deletes those left by an earlier comparison, and compares only the images
+ * of its own shard without reporting the others' baselines as removed.
+ */
+public class ImageCompareMojoTest extends TestCase {
+
+    /** A temporary directory holding the config file, images and baselines. */
+    private File dir;
+
+    /** The directory of baseline images. */
+    private File baselines;
+
+    /** The directory of diff images. */
+    private File diffs;
+
+    /**
+     * @see junit.framework.TestCase#setUp()
+     */
+    protected void setUp() throws Exception {
+        dir       = RenderCacheTest.createTempDirectory();
+        baselines = new File(dir, "baselines");
+        diffs     = new File(dir, "diffs");
+
+        ImageGeneratorMojo mojo = ImageGeneratorMojoTest.createMojo(new ImageGeneratorMojo(), dir, images("Button"));
+
+        mojo.setOutputDirectory(baselines);
+        mojo.setManifestFile(new File(dir, "baselines.manifest"));
+        mojo.execute();
+    }
+
+    /**
+     * @see junit.framework.TestCase#tearDown()
+     */
+    protected void tearDown() {
+        RenderCacheTest.delete(dir);
+    }
+
+    /**
+     * Test that a changed image is given a diff image only when diff images
+     * are written, and that a diff image left by an earlier comparison is
+     * deleted once its image no longer has one.
+     *
+     * @throws Exception if the images cannot be generated or compared.
+     */
+    public void testDiffImages() throws Exception {
+        File stale = new File(diffs, "a.png");
+        File diff  = new File(diffs, "b.png");
+
+        RenderCacheTest.write(stale, "stale");
+
+        ImageCompareMojo mojo = createMojo(images("Changed"), true);
+
+        mojo.execute();
+        assertTrue(mojo.getLog().toString(), log(mojo).contains("3 images with " + baselines));
+        assertTrue(mojo.getLog().toString(), log(mojo).contains("1 changed, 0 added and 0 removed"));
+        assertFalse(stale.exists());
+        assertTrue(diff.isFile());
+
+        createMojo(images("Changed"), false).execute();
+        assertFalse(diff.exists());
+
+        createMojo(images("Changed"), true).execute();
+        assertTrue(diff.isFile());
+
+        mojo = createMojo(images("Button"), true);
+        mojo.execute();
+        assertTrue(mojo.getLog().toString(), log(mojo).contains("0 changed, 0 added and 0 removed"));
+        assertFalse(diff.exists());
+    }
+
+    /**
+     * Test that each shard compares only the images it rendered, that
+     * together the shards compare every image, and that no shard reports
+     * the baselines of the others as removed.
+     *
+     * @throws Exception if the images cannot be generated or compared.
+     */
+    public void testShards() throws Exception {
+        int compared = 0;
+
+        for (int i = 0; i < 2; i++) {
+            ImageCompareMojo mojo = createMojo(images("Button"), true);
+
+            mojo.setOutputDirectory(new File(dir, "image-shards/" + i));
+            mojo.setManifestFile(new File(dir, "image-shards/" + i + ".manifest"));
+            mojo.setShardIndex(i);
+            mojo.setShardCount(2);
+            mojo.execute();
+
+            int count = 0;
+
+            for (String filename : new String[] { "a", "b", "c" }) {
+                if (ImageGeneratorMojo.getShard(filename, 2) == i) {
+                    count++;
+                }
+            }
+
+            assertTrue(mojo.getLog().toString(), log(mojo).contains("Compared " + count + " images"));
+            assertTrue(mojo.getLog().toString(), log(mojo).contains("0 changed, 0 added and 0 removed"));
+            compared += count;
+        }
+
+        assertEquals(3, compared);
+    }
+
+    /**
+     * Set up the compare goal.
+     *
+     * @param  images          the image elements of the config file.
+     * @param  writeDiffImages whether to write diff images.
+     *
+     * @return the goal.
+     *
+     * @throws IOException if the config file cannot be written.
+     */
+    private ImageCompareMojo createMojo(String images, boolean writeDiffImages) throws IOException {
+        ImageCompareMojo mojo = ImageGeneratorMojoTest.createMojo(new ImageCompareMojo(), dir, images);
+
+        mojo.setBaselineDirectory(baselines);
+        mojo.setDiffDirectory(diffs);
+        mojo.setCompareReportFile(new File(dir, "imagegenerator-compare.json"));
+        mojo.setCompareTolerance(0);
+        mojo.setCompareMaxPixels(0);
+        mojo.setCompareThreads(2);
+        mojo.setWriteDiffImages(writeDiffImages);
+        mojo.setFailOnChange(false);
+
+        return mojo;
+    }
+
+    /**
+     * Get the log of a goal.
+     *
+     * @param  mojo the goal.
+     *
+     * @return the log.
+     */
+    private static ImageGeneratorMojoTest.RecordingLog log(ImageGeneratorMojo mojo) {
+        return (ImageGeneratorMojoTest.RecordingLog) mojo.getLog();
+    }
+
+    /**
+     * Describe two buttons and a label, the second button with some text.
+     *
+     * @param  text the text of the second button.
+     *
+     * @return the image elements.
+     */
+    private static String images(String text) {
+        return "<image file='a' class='javax.swing.JButton' width='80' height='25'><argument type='String' value='Same' /></image>"
+               + "<image file='b' class='javax.swing.JButton' width='80' height='25'><argument type='String' value='" + text
+               + "' /></image>"
+               + "<image file='c' class='javax.swing.JLabel' width='80' height='25'><argument type='String' value='Label' /></image>";
+    }
+}
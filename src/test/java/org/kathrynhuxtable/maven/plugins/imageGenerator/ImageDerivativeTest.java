@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2010 Kathryn Huxtable.
+ *
+ * This file is part of the Image Generator Maven plugin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.kathrynhuxtable.maven.plugins.imageGenerator;
+
+import java.awt.image.BufferedImage;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * Tests that derivatives are parsed from their fractions and boxes, that
+ * they are sized from the panel size at any scale, and that downscaling
+ * keeps flat colors and does not let the colors of transparent pixels bleed
+ * into the edges of a component.
+ */
+public class ImageDerivativeTest extends TestCase {
+
+    /**
+     * Test parsing fractions, percentages and boxes, and that the canonical
+     * form of each is read back as the same derivative.
+     *
+     * @throws MojoExecutionException if a derivative is invalid.
+     */
+    public void testParse() throws MojoExecutionException {
+        List<ImageDerivative> list = ImageDerivative.parse(" thumb=50%, half=0.5,icon=64x , tall=x10, box=64x48,, ");
+
+        assertEquals(5, list.size());
+        assertDerivative(list.get(0), "thumb", 0.5f, 0, 0);
+        assertDerivative(list.get(1), "half", 0.5f, 0, 0);
+        assertDerivative(list.get(2), "icon", 0f, 64, 0);
+        assertDerivative(list.get(3), "tall", 0f, 0, 10);
+        assertDerivative(list.get(4), "box", 0f, 64, 48);
+        assertEquals("-thumb", list.get(0).suffix);
+
+        for (ImageDerivative derivative : list) {
+            assertEquals(derivative, ImageDerivative.parseDerivative(derivative.canonicalForm()));
+        }
+
+        assertTrue(ImageDerivative.parse("").isEmpty());
+    }
+
+    /**
+     * Test that each kind of invalid derivative is an error.
+     */
+    public void testParseErrors() {
+        assertInvalid("thumb", "Invalid derivative \"thumb\", expected a name and a size such as thumb=50%");
+        assertInvalid("=50%", "Invalid derivative \"=50%\", expected a name and a size such as thumb=50%");
+        assertInvalid("icon=x", "Derivative icon must limit the width or the height");
+        assertInvalid("icon=0x5", "Invalid size in derivative \"icon=0x5\"");
+        assertInvalid("thumb=big", "Invalid size in derivative \"thumb=big\"");
+        assertInvalid("thumb=0%", "Derivative thumb must be larger than 0% and no larger than 100%");
+        assertInvalid("thumb=150%", "Derivative thumb must be larger than 0% and no larger than 100%");
+        assertInvalid("thumb=50%, thumb=25%", "Derivative thumb is specified more than once");
+    }
+
+    /**
+     * Test the sizes of derivatives of an image painted at scales one and
+     * two, as given in the usage documentation.
+     *
+     * @throws MojoExecutionException if a derivative is invalid.
+     */
+    public void testDeriveSizes() throws MojoExecutionException {
+        ImageInfo info = new ImageInfo();
+
+        info.panelWidth  = 120;
+        info.panelHeight = 32;
+
+        for (int scale = 1; scale <= 2; scale++) {
+            BufferedImage image = new BufferedImage(120 * scale, 32 * scale, BufferedImage.TYPE_INT_ARGB);
+
+            assertSize(derive("thumb=50%", image, info), 60 * scale, 16 * scale);
+            assertSize(derive("icon=64x", image, info), 64 * scale, 17 * scale);
+            assertSize(derive("tall=x10", image, info), (int) Math.round(120 * scale * 10 / 32.0), 10 * scale);
+            assertSize(derive("box=64x48", image, info), 64 * scale, 17 * scale);
+            assertSize(derive("tiny=1x1", image, info), scale, 1);
+            assertSame(image, derive("large=200x", image, info));
+            assertSame(image, derive("whole=100%", image, info));
+        }
+    }
+
+    /**
+     * Test that an image of one opaque color keeps its color at sizes reached
+     * by halving, by averaging, and by both.
+     */
+    public void testFlatColor() {
+        BufferedImage image = new BufferedImage(101, 37, BufferedImage.TYPE_INT_RGB);
+
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, 0x336699);
+            }
+        }
+
+        int[][] sizes = { { 51, 19 }, { 60, 37 }, { 13, 5 }, { 1, 1 }, { 101, 37 } };
+
+        for (int[] size : sizes) {
+            BufferedImage derivative = ImageDerivative.downscale(image, size[0], size[1]);
+
+            assertSize(derivative, size[0], size[1]);
+            assertPixels(size[0] + "x" + size[1], derivative, 0xff336699, 0xffffffff);
+        }
+    }
+
+    /**
+     * Test that the colors of transparent pixels do not bleed into the
+     * opaque pixels beside them, whether halved or averaged, so that a
+     * component's edge is as bright as the component.
+     */
+    public void testPremultipliedEdges() {
+        BufferedImage image = new BufferedImage(100, 40, BufferedImage.TYPE_INT_ARGB);
+
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                // Transparent red beside opaque blue.
+                image.setRGB(x, y, (x + y) % 3 == 0 ? 0x00ff0000 : 0xff0000ff);
+            }
+        }
+
+        int[][] sizes = { { 50, 20 }, { 33, 13 }, { 17, 40 }, { 7, 3 } };
+
+        for (int[] size : sizes) {
+            BufferedImage derivative = ImageDerivative.downscale(image, size[0], size[1]);
+
+            assertSize(derivative, size[0], size[1]);
+            assertPixels(size[0] + "x" + size[1], derivative, 0x0000ff, 0x00ffffff);
+
+            for (int y = 0; y < size[1]; y++) {
+                for (int x = 0; x < size[0]; x++) {
+                    int alpha = derivative.getRGB(x, y) >>> 24;
+
+                    assertTrue(size[0] + "x" + size[1] + ": alpha " + alpha, alpha > 0 && alpha < 255);
+                }
+            }
+        }
+    }
+
+    /**
+     * Test that a fully transparent image stays fully transparent.
+     */
+    public void testTransparent() {
+        BufferedImage image = new BufferedImage(64, 64, BufferedImage.TYPE_INT_ARGB);
+
+        assertPixels("transparent", ImageDerivative.downscale(image, 21, 9), 0, 0xff000000);
+    }
+
+    /**
+     * Parse a derivative and derive it from an image.
+     *
+     * @param  derivative the derivative.
+     * @param  image      the image.
+     * @param  info       the image specification.
+     *
+     * @return the derivative image.
+     *
+     * @throws MojoExecutionException if the derivative is invalid.
+     */
+    private static BufferedImage derive(String derivative, BufferedImage image, ImageInfo info)
+        throws MojoExecutionException {
+        return ImageDerivative.parseDerivative(derivative).derive(image, info);
+    }
+
+    /**
+     * Check the fields of a derivative.
+     *
+     * @param derivative the derivative.
+     * @param name       the expected name.
+     * @param factor     the expected fraction of the image's size.
+     * @param maxWidth   the expected largest width.
+     * @param maxHeight  the expected largest height.
+     */
+    private static void assertDerivative(ImageDerivative derivative, String name, float factor, int maxWidth, int maxHeight) {
+        assertEquals(name, derivative.name);
+        assertEquals(name, factor, derivative.factor, 0f);
+        assertEquals(name, maxWidth, derivative.maxWidth);
+        assertEquals(name, maxHeight, derivative.maxHeight);
+    }
+
+    /**
+     * Check that parsing derivatives fails with a message.
+     *
+     * @param derivatives the derivatives.
+     * @param message     the expected message.
+     */
+    private static void assertInvalid(String derivatives, String message) {
+        try {
+            ImageDerivative.parse(derivatives);
+            fail("Expected " + message);
+        } catch (MojoExecutionException e) {
+            assertEquals(message, e.getMessage());
+        }
+    }
+
+    /**
+     * Check the size of an image.
+     *
+     * @param image  the image.
+     * @param width  the expected width.
+     * @param height the expected height.
+     */
+    private static void assertSize(BufferedImage image, int width, int height) {
+        assertEquals("width", width, image.getWidth());
+        assertEquals("height", height, image.getHeight());
+    }
+
+    /**
+     * Check that some bits of every pixel of an image are as expected.
+     *
+     * @param name     the name of the case, for failure messages.
+     * @param image    the image.
+     * @param expected the expected pixel.
+     * @param mask     the bits of each pixel to compare.
+     */
+    private static void assertPixels(String name, BufferedImage image, int expected, int mask) {
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                if ((image.getRGB(x, y) & mask) != (expected & mask)) {
+                    fail(name + ": pixel " + x + "," + y + " is " + Integer.toHexString(image.getRGB(x, y)) + ", expected "
+                         + Integer.toHexString(expected));
+                }
+            }
+        }
+    }
+}
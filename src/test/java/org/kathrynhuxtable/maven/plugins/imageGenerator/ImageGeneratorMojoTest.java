@@ -0,0 +1,451 @@
+/*
+ * Copyright (c) 2010 Kathryn Huxtable.
+ *
+ * This file is part of the Image Generator Maven plugin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.kathrynhuxtable.maven.plugins.imageGenerator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+
+import java.nio.file.Files;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import javax.swing.JButton;
+import javax.swing.LookAndFeel;
+import javax.swing.UIManager;
+import javax.swing.plaf.metal.MetalLookAndFeel;
+
+import junit.framework.TestCase;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+/**
+ * Tests that entries with the same specification are rendered once and
+ * linked, that entries differing only in their derivatives or their state
+ * are each rendered, and that modules sharing a render session share its
+ * renderer and look and feel while rendering their own classes.
+ */
+public class ImageGeneratorMojoTest extends TestCase {
+
+    /** The look and feel the images are rendered in. */
+    static final String LAF = "javax.swing.plaf.metal.MetalLookAndFeel";
+
+    /** The class loaders of the fixture buttons created, in order, public for copies loaded elsewhere. */
+    public static final List<ClassLoader> fixtureLoaders = Collections.synchronizedList(new ArrayList<ClassLoader>());
+
+    /** A temporary directory holding the config file and the images. */
+    private File dir;
+
+    /**
+     * @see junit.framework.TestCase#setUp()
+     */
+    protected void setUp() throws IOException {
+        dir = RenderCacheTest.createTempDirectory();
+    }
+
+    /**
+     * @see junit.framework.TestCase#tearDown()
+     */
+    protected void tearDown() {
+        RenderCacheTest.delete(dir);
+    }
+
+    /**
+     * Test that identical entries are rendered once and linked, with their
+     * derivatives, and that entries which differ only in their derivatives
+     * or their state are not.
+     *
+     * @throws Exception if the images cannot be generated.
+     */
+    public void testDuplicates() throws Exception {
+        RecordingLog log = generate("link");
+
+        assertTrue(log.toString(), log.contains("Rendered 6 images, restored 0 from cache, linked 3 duplicates, and left 0 unchanged"));
+        assertTrue(log.toString(), log.contains("Found 2 duplicate entries of 2 images, linked 3 image files instead of rendering them"));
+
+        assertLinked("a", "b", true);
+        assertLinked("c", "d", true);
+        assertLinked("c-thumb", "d-thumb", true);
+
+        assertLinked("a", "c", false);
+        assertLinked("e-on", "e-off", false);
+        assertLinked("e-off", "f", false);
+    }
+
+    /**
+     * Test that duplicates are copied rather than linked if asked.
+     *
+     * @throws Exception if the images cannot be generated.
+     */
+    public void testCopiedDuplicates() throws Exception {
+        RecordingLog log = generate("copy");
+
+        assertTrue(log.toString(), log.contains("Rendered 6 images, restored 0 from cache, copied 3 duplicates"));
+        assertLinked("a", "b", false);
+        assertSameContents("a", "b");
+        assertSameContents("c-thumb", "d-thumb");
+    }
+
+    /**
+     * Test that every entry is rendered if duplicates are to be rendered.
+     *
+     * @throws Exception if the images cannot be generated.
+     */
+    public void testRenderedDuplicates() throws Exception {
+        RecordingLog log = generate("render");
+
+        assertTrue(log.toString(), log.contains("Rendered 9 images, restored 0 from cache"));
+        assertLinked("a", "b", false);
+        assertSameContents("a", "b");
+    }
+
+    /**
+     * Test that modules with the same jars and look and feel share the
+     * session's renderer, that a module with class directories renders the
+     * components in them without setting the look and feel again, and that
+     * one whose class directories hold the look and feel sets it up from
+     * them.
+     *
+     * @throws Exception if the images cannot be generated.
+     */
+    public void testSharedRenderer() throws Exception {
+        Date               start = new Date();
+        ImageGeneratorMojo first = createModule("first", start, "javax.swing.JButton");
+
+        first.execute();
+
+        LookAndFeel laf = UIManager.getLookAndFeel();
+
+        assertSame(TestLookAndFeel.class, laf.getClass());
+
+        ImageGeneratorMojo second = createModule("second", start, FixtureButton.class.getName());
+
+        IndexedClassLoaderTest.writeClass(new File(dir, "second/classes"), FixtureButton.class);
+        fixtureLoaders.clear();
+        second.execute();
+
+        assertSame(first.renderer, second.renderer);
+        assertSame("look and feel set again", laf, UIManager.getLookAndFeel());
+        assertEquals(1, fixtureLoaders.size());
+        assertTrue(fixtureLoaders.get(0) instanceof ProjectClassLoader);
+        assertTrue(new File(dir, "second/images/image.png").isFile());
+
+        ImageGeneratorMojo third = createModule("third", start, "javax.swing.JButton");
+
+        IndexedClassLoaderTest.writeClass(new File(dir, "third/classes"), TestLookAndFeel.class);
+        third.execute();
+
+        assertSame(first.renderer, third.renderer);
+        assertNotSame(TestLookAndFeel.class, UIManager.getLookAndFeel().getClass());
+        assertTrue(UIManager.getLookAndFeel().getClass().getClassLoader() instanceof ProjectClassLoader);
+    }
+
+    /**
+     * Test that a look and feel which cannot be set fails the goal with the
+     * cause in the message, rather than printing it.
+     *
+     * @throws Exception if the config file cannot be written.
+     */
+    public void testMissingLookAndFeel() throws Exception {
+        ImageGeneratorMojo    mojo    = createMojo(new ImageGeneratorMojo(), dir,
+                                                   "<image file='a' class='javax.swing.JButton' width='80' height='25' />");
+        PrintStream           err     = System.err;
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+
+        mojo.setLookAndFeel("org.example.MissingLookAndFeel");
+        System.setErr(new PrintStream(printed, true));
+
+        try {
+            mojo.execute();
+            fail("Expected the look and feel not to be set");
+        } catch (MojoExecutionException e) {
+            assertEquals("Unable to set look and feel org.example.MissingLookAndFeel: "
+                         + "java.lang.ClassNotFoundException: org.example.MissingLookAndFeel", e.getMessage());
+            assertTrue(e.getCause() instanceof ClassNotFoundException);
+        } finally {
+            System.setErr(err);
+        }
+
+        assertEquals("", printed.toString());
+    }
+
+    /**
+     * Set up a goal for a module with a class directory of its own, joining
+     * the render session of the other modules of a Maven session.
+     *
+     * @param  name      the name of the module.
+     * @param  start     the start time of the Maven session.
+     * @param  className the class of the component to render.
+     *
+     * @return the goal.
+     *
+     * @throws IOException if the config file cannot be written.
+     */
+    private ImageGeneratorMojo createModule(String name, Date start, String className) throws IOException {
+        File               module  = new File(dir, name);
+        File               classes = new File(module, "classes");
+        ImageGeneratorMojo mojo    = createMojo(new ImageGeneratorMojo(), module,
+                                                "<image file='image' class='" + className + "' width='80' height='25'>"
+                                                + "<argument type='String' value='" + name + "' /></image>");
+
+        classes.mkdirs();
+        mojo.setLookAndFeel(TestLookAndFeel.class.getName());
+        mojo.setRuntimeClasspathElements(Collections.singletonList(classes.getPath()));
+        mojo.setSessionStartTime(start);
+
+        return mojo;
+    }
+
+    /**
+     * Generate the duplicate and nearly duplicate images.
+     *
+     * @param  duplicateImages how to create the image files of duplicates.
+     *
+     * @return the log of the execution.
+     *
+     * @throws Exception if the images cannot be generated.
+     */
+    private RecordingLog generate(String duplicateImages) throws Exception {
+        String button = " class='javax.swing.JButton' width='80' height='25'><argument type='String' value='Same' /></image>";
+        String toggle = " class='javax.swing.JToggleButton' width='80' height='25'><argument type='String' value='Same' />";
+
+        ImageGeneratorMojo mojo = createMojo(new ImageGeneratorMojo(), dir,
+                                             "<image file='a'" + button
+                                             + "<image file='b'" + button
+                                             + "<image file='c' derivatives='thumb=50%'" + button
+                                             + "<image file='d' derivatives='thumb=50%'" + button
+                                             + "<image file='e'" + toggle
+                                             + "<states><state name='on' selected='true' /><state name='off' selected='false' />"
+                                             + "</states></image>"
+                                             + "<image file='f'" + toggle + "</image>");
+
+        mojo.setDuplicateImages(duplicateImages);
+        mojo.execute();
+
+        return (RecordingLog) mojo.getLog();
+    }
+
+    /**
+     * Check whether two image files are hard links to the same file.
+     *
+     * @param  first  the name of the first image.
+     * @param  second the name of the second image.
+     * @param  linked whether they should be.
+     *
+     * @throws IOException if the files cannot be compared.
+     */
+    private void assertLinked(String first, String second, boolean linked) throws IOException {
+        assertEquals(first + " and " + second, linked,
+                     Files.isSameFile(new File(dir, "images/" + first + ".png").toPath(),
+                                      new File(dir, "images/" + second + ".png").toPath()));
+    }
+
+    /**
+     * Check that two image files have the same contents.
+     *
+     * @param  first  the name of the first image.
+     * @param  second the name of the second image.
+     *
+     * @throws IOException if the files cannot be read.
+     */
+    private void assertSameContents(String first, String second) throws IOException {
+        assertEquals(first + " and " + second, Digests.sha1(new File(dir, "images/" + first + ".png")),
+                     Digests.sha1(new File(dir, "images/" + second + ".png")));
+    }
+
+    /**
+     * Set up a goal to generate the images of a config file in a directory,
+     * with every parameter at its default and the log recorded. The images
+     * are written to {@code images} in the directory, and every other file
+     * beside it.
+     *
+     * @param  <T>    the type of the goal.
+     * @param  mojo   the goal.
+     * @param  dir    the directory.
+     * @param  images the image elements of the config file.
+     *
+     * @return the goal.
+     *
+     * @throws IOException if the config file cannot be written.
+     */
+    static <T extends ImageGeneratorMojo> T createMojo(T mojo, File dir, String images) throws IOException {
+        File configFile = new File(dir, "image-generator.xml");
+
+        writeConfig(configFile, images);
+
+        mojo.setLog(new RecordingLog());
+        mojo.setConfigFile(configFile);
+        mojo.setLookAndFeel(LAF);
+        mojo.setLookAndFeelLayout("directory");
+        mojo.setScales("1");
+        mojo.setOutputDirectory(new File(dir, "images"));
+        mojo.setManifestFile(new File(dir, "image-generator.manifest"));
+        mojo.setUpToDateCheck(true);
+        mojo.setShardIndex(0);
+        mojo.setShardCount(1);
+        mojo.setDuplicateImages("link");
+        mojo.setEncoder("builtin");
+        mojo.setCompressionLevel(6);
+        mojo.setFilterStrategy("none");
+        mojo.setPalette("none");
+        mojo.setPaletteMaxError(4);
+        mojo.setImagePoolMaxMemory(64);
+        mojo.setCacheMaxSize(256);
+        mojo.setMetricsFile(new File(dir, "imagegenerator-metrics.json"));
+        mojo.setMetricsSlowestCount(10);
+        mojo.setDaemonDirectory(new File(dir, "daemon"));
+        mojo.setDaemonIdleTimeout(30);
+        mojo.setClassIndexFile(new File(dir, "imagegenerator-class-index"));
+        mojo.setJarDigestFile(new File(dir, "imagegenerator-jar-digests"));
+
+        return mojo;
+    }
+
+    /**
+     * Write a config file.
+     *
+     * @param  configFile the config file.
+     * @param  images     the image elements.
+     *
+     * @throws IOException if the config file cannot be written.
+     */
+    static void writeConfig(File configFile, String images) throws IOException {
+        RenderCacheTest.write(configFile, "<?xml version='1.0'?>\n<images>" + images + "</images>\n");
+    }
+
+    /**
+     * A look and feel which a module's class directories may hold.
+     */
+    public static class TestLookAndFeel extends MetalLookAndFeel {
+    }
+
+    /**
+     * A component which a module's class directories may hold, which records
+     * the class loader of its class when created.
+     */
+    public static class FixtureButton extends JButton {
+
+        /**
+         * Create a new FixtureButton.
+         *
+         * @param text the text of the button.
+         */
+        public FixtureButton(String text) {
+            super(text);
+
+            // Recorded in the test's class, which each copy of this class shares.
+            fixtureLoaders.add(getClass().getClassLoader());
+        }
+    }
+
+    /**
+     * A log which records the messages rather than printing them.
+     */
+    static class RecordingLog extends SystemStreamLog {
+
+        /** The messages, each preceded by its level. */
+        final List<String> messages = new ArrayList<String>();
+
+        /**
+         * Check whether a message at any level contains some text.
+         *
+         * @param  text the text.
+         *
+         * @return {@code true} if a message contains it, {@code false}
+         *         otherwise.
+         */
+        synchronized boolean contains(String text) {
+            for (String message : messages) {
+                if (message.contains(text)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        /**
+         * Forget the messages recorded so far.
+         */
+        synchronized void clear() {
+            messages.clear();
+        }
+
+        /**
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public synchronized String toString() {
+            StringBuilder buffer = new StringBuilder();
+
+            for (String message : messages) {
+                buffer.append(message).append('\n');
+            }
+
+            return buffer.toString();
+        }
+
+        /**
+         * @see org.apache.maven.plugin.logging.SystemStreamLog#debug(java.lang.CharSequence)
+         */
+        @Override
+        public synchronized void debug(CharSequence content) {
+            messages.add("[debug] " + content);
+        }
+
+        /**
+         * @see org.apache.maven.plugin.logging.SystemStreamLog#info(java.lang.CharSequence)
+         */
+        @Override
+        public synchronized void info(CharSequence content) {
+            messages.add("[info] " + content);
+        }
+
+        /**
+         * @see org.apache.maven.plugin.logging.SystemStreamLog#warn(java.lang.CharSequence)
+         */
+        @Override
+        public synchronized void warn(CharSequence content) {
+            messages.add("[warn] " + content);
+        }
+
+        /**
+         * @see org.apache.maven.plugin.logging.SystemStreamLog#warn(java.lang.CharSequence,
+         *      java.lang.Throwable)
+         */
+        @Override
+        public synchronized void warn(CharSequence content, Throwable error) {
+            messages.add("[warn] " + content + ": " + error);
+        }
+
+        /**
+         * @see org.apache.maven.plugin.logging.SystemStreamLog#error(java.lang.CharSequence)
+         */
+        @Override
+        public synchronized void error(CharSequence content) {
+            messages.add("[error] " + content);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2010 Kathryn Huxtable.
+ *
+ * This file is part of the Image Generator Maven plugin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.kathrynhuxtable.maven.plugins.imageGenerator;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * Tests that image specifications are equal only if they draw the same
+ * image with the same derivatives, and that the canonical form, which keys
+ * rendered images, depends on the state but not on the derivatives.
+ */
+public class ImageInfoTest extends TestCase {
+
+    /**
+     * Test that equal specifications have equal hash codes and canonical
+     * forms.
+     */
+    public void testEqual() {
+        ImageInfo info  = RenderCacheTest.createInfo("Button");
+        ImageInfo other = RenderCacheTest.createInfo("Button");
+
+        info.properties.put("JComponent.sizeVariant", "small");
+        other.properties.put("JComponent.sizeVariant", "small");
+
+        assertEquals(info, other);
+        assertEquals(info.hashCode(), other.hashCode());
+        assertEquals(info.canonicalForm(), other.canonicalForm());
+
+        assertFalse(info.equals(RenderCacheTest.createInfo("Other")));
+        assertFalse(info.canonicalForm().equals(RenderCacheTest.createInfo("Other").canonicalForm()));
+    }
+
+    /**
+     * Test that specifications differing only in their derivatives are not
+     * equal but have the same canonical form, since they render the same
+     * image.
+     *
+     * @throws MojoExecutionException if a derivative is invalid.
+     */
+    public void testDerivatives() throws MojoExecutionException {
+        ImageInfo info  = RenderCacheTest.createInfo("Button");
+        ImageInfo thumb = RenderCacheTest.createInfo("Button");
+
+        thumb.derivatives = ImageDerivative.parse("thumb=50%");
+
+        assertFalse(info.equals(thumb));
+        assertFalse(thumb.equals(info));
+        assertTrue(info.sameComponent(thumb));
+        assertEquals(info.canonicalForm(), thumb.canonicalForm());
+
+        ImageInfo other = RenderCacheTest.createInfo("Button");
+
+        other.derivatives = ImageDerivative.parse("thumb=50%");
+        assertEquals(thumb, other);
+        assertEquals(thumb.hashCode(), other.hashCode());
+
+        other.derivatives = ImageDerivative.parse("thumb=25%");
+        assertFalse(thumb.equals(other));
+    }
+
+    /**
+     * Test that states of the same component are not equal to each other or
+     * to the component without a state, and have different canonical forms,
+     * while the name of a state does not matter.
+     */
+    public void testStates() {
+        ImageInfo info     = RenderCacheTest.createInfo("Button");
+        ImageInfo selected = info.withState(createState("on", true));
+        ImageInfo cleared  = info.withState(createState("off", false));
+
+        assertTrue(selected.sameComponent(info));
+        assertFalse(selected.equals(info));
+        assertFalse(info.equals(selected));
+        assertFalse(selected.equals(cleared));
+        assertFalse(selected.canonicalForm().equals(info.canonicalForm()));
+        assertFalse(selected.canonicalForm().equals(cleared.canonicalForm()));
+
+        ImageInfo renamed = info.withState(createState("checked", true));
+
+        assertEquals(selected, renamed);
+        assertEquals(selected.hashCode(), renamed.hashCode());
+        assertEquals(selected.canonicalForm(), renamed.canonicalForm());
+    }
+
+    /**
+     * Create a state which sets only the selected flag.
+     *
+     * @param  name     the name of the state.
+     * @param  selected whether the component is selected.
+     *
+     * @return the state.
+     */
+    private static ImageState createState(String name, boolean selected) {
+        ImageState           state = new ImageState();
+        Map<String, Boolean> flags = new HashMap<String, Boolean>();
+
+        flags.put("selected", selected);
+        state.name       = name;
+        state.flags      = flags;
+        state.properties = new HashMap<String, Object>();
+
+        return state;
+    }
+}
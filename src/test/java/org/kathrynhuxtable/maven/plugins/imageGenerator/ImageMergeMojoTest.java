@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2010 Kathryn Huxtable.
+ *
+ * This file is part of the Image Generator Maven plugin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.kathrynhuxtable.maven.plugins.imageGenerator;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.file.Files;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that the shards' image files are merged into the output directory,
+ * and that merging never writes through an image file linked to another.
+ */
+public class ImageMergeMojoTest extends TestCase {
+
+    /** A temporary directory holding the config file, shards and images. */
+    private File dir;
+
+    /**
+     * @see junit.framework.TestCase#setUp()
+     */
+    protected void setUp() throws IOException {
+        dir = RenderCacheTest.createTempDirectory();
+    }
+
+    /**
+     * @see junit.framework.TestCase#tearDown()
+     */
+    protected void tearDown() {
+        RenderCacheTest.delete(dir);
+    }
+
+    /**
+     * Test that an image file linked to a duplicate by an earlier build is
+     * replaced when its shard rendered it differently, leaving the duplicate
+     * as it was.
+     *
+     * @throws Exception if the images cannot be generated or merged.
+     */
+    public void testLinkedDuplicate() throws Exception {
+        ImageGeneratorMojo full = ImageGeneratorMojoTest.createMojo(new ImageGeneratorMojo(), dir, images("Same"));
+
+        full.execute();
+
+        File a = new File(dir, "images/a.png");
+        File b = new File(dir, "images/b.png");
+
+        assertTrue(Files.isSameFile(a.toPath(), b.toPath()));
+
+        String original = Digests.sha1(a);
+
+        for (int i = 0; i < 2; i++) {
+            ImageGeneratorMojo shard = ImageGeneratorMojoTest.createMojo(new ImageGeneratorMojo(), dir, images("Other"));
+
+            shard.setOutputDirectory(new File(dir, "image-shards/" + i));
+            shard.setManifestFile(new File(dir, "image-shards/" + i + "/" + ImageMergeMojo.SHARD_MANIFEST));
+            shard.setShardIndex(i);
+            shard.setShardCount(2);
+            shard.execute();
+        }
+
+        ImageMergeMojo merge = ImageGeneratorMojoTest.createMojo(new ImageMergeMojo(), dir, images("Other"));
+
+        merge.setShardDirectory(new File(dir, "image-shards"));
+        merge.execute();
+
+        ImageGeneratorMojoTest.RecordingLog log = (ImageGeneratorMojoTest.RecordingLog) merge.getLog();
+
+        assertTrue(log.toString(), log.contains("Merged 3 image files, copying 1 of them"));
+        assertEquals(original, Digests.sha1(a));
+        assertFalse(Digests.sha1(b).equals(original));
+        assertEquals(Digests.sha1(shardFile("b.png")), Digests.sha1(b));
+        assertFalse(Files.isSameFile(a.toPath(), b.toPath()));
+
+        Manifest manifest = Manifest.read(new File(dir, "image-generator.manifest"));
+
+        assertTrue(manifest.get("a.png").matches(a));
+        assertTrue(manifest.get("b.png").matches(b));
+    }
+
+    /**
+     * Get an image file from whichever shard rendered it.
+     *
+     * @param  path the path of the image file.
+     *
+     * @return the image file.
+     */
+    private File shardFile(String path) {
+        File file = new File(dir, "image-shards/0/" + path);
+
+        return file.isFile() ? file : new File(dir, "image-shards/1/" + path);
+    }
+
+    /**
+     * Describe two buttons and a label, the second button with some text and
+     * the first with the text "Same".
+     *
+     * @param  text the text of the second button.
+     *
+     * @return the image elements.
+     */
+    private static String images(String text) {
+        return "<image file='a' class='javax.swing.JButton' width='80' height='25'><argument type='String' value='Same' /></image>"
+               + "<image file='b' class='javax.swing.JButton' width='80' height='25'><argument type='String' value='" + text
+               + "' /></image>"
+               + "<image file='c' class='javax.swing.JLabel' width='80' height='25'><argument type='String' value='Label' /></image>";
+    }
+}
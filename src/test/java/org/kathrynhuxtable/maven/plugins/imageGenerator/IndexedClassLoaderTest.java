@@ -0,0 +1,353 @@
+/*
+ * Copyright (c) 2010 Kathryn Huxtable.
+ *
+ * This file is part of the Image Generator Maven plugin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.kathrynhuxtable.maven.plugins.imageGenerator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.net.URL;
+
+import java.nio.charset.Charset;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that the indexed class loader finds classes and resources in
+ * classpath order through its index, that the index is reused only while a
+ * jar is unchanged, and that the project class loader loads the project's
+ * classes before its parent's.
+ */
+public class IndexedClassLoaderTest extends TestCase {
+
+    /** A temporary directory holding the jars, class directories and index. */
+    private File dir;
+
+    /** The loaders created by a test, closed after it. */
+    private IndexedClassLoader[] loaders = new IndexedClassLoader[0];
+
+    /**
+     * @see junit.framework.TestCase#setUp()
+     */
+    protected void setUp() throws IOException {
+        dir = RenderCacheTest.createTempDirectory();
+    }
+
+    /**
+     * @see junit.framework.TestCase#tearDown()
+     */
+    protected void tearDown() {
+        for (IndexedClassLoader loader : loaders) {
+            loader.close();
+        }
+
+        RenderCacheTest.delete(dir);
+    }
+
+    /**
+     * Test that a class in a jar is loaded through the index by the indexed
+     * class loader itself, that missing classpath elements are skipped, and
+     * that the index is written whole and reused by the next loader.
+     *
+     * @throws Exception if the jar cannot be written or the class loaded.
+     */
+    public void testLoadClass() throws Exception {
+        File jar       = new File(dir, "fixture.jar");
+        File indexFile = new File(dir, "index/class-index");
+
+        writeJar(jar, classEntry(Fixture.class), null, "META-INF/fixture.txt", "fixture");
+
+        List<String>       classpath = Arrays.asList(new File(dir, "missing.jar").getPath(), new File(dir, "missing").getPath(),
+                                                     jar.getPath());
+        IndexedClassLoader loader    = createLoader(classpath, indexFile, null);
+        Class<?>           c         = loader.loadClass(Fixture.class.getName());
+
+        assertSame(loader, c.getClassLoader());
+        assertNotSame(Fixture.class, c);
+        assertEquals(jar.toURI().toURL(), c.getProtectionDomain().getCodeSource().getLocation());
+        assertNotNull(c.getPackage());
+        assertEquals(1, loader.getJarsIndexed());
+
+        try {
+            loader.loadClass(Fixture.class.getPackage().getName() + ".Missing");
+            fail("Expected the class not to be found");
+        } catch (ClassNotFoundException e) {
+            // Expected.
+        }
+
+        List<String> lines = Arrays.asList(RenderCacheTest.read(indexFile).split("\n"));
+
+        assertEquals(2, lines.size());
+        assertEquals("imagegenerator-class-index 1", lines.get(0));
+        assertTrue(lines.get(1), lines.get(1).startsWith(jar.getAbsolutePath() + '\t' + jar.length() + '\t'));
+        assertTrue(lines.get(1), lines.get(1).contains("\tMETA-INF/\t") || lines.get(1).endsWith("\tMETA-INF/"));
+        assertFalse(new File(indexFile.getPath() + ".tmp").exists());
+
+        IndexedClassLoader again = createLoader(classpath, indexFile, null);
+
+        assertEquals(0, again.getJarsIndexed());
+        assertSame(again, again.loadClass(Fixture.class.getName()).getClassLoader());
+        assertNotNull(again.getResource("META-INF/fixture.txt"));
+    }
+
+    /**
+     * Test that a jar changed since it was indexed is indexed again, so that
+     * its new directories are found, and that a corrupt index is ignored.
+     *
+     * @throws Exception if a jar cannot be written or a resource read.
+     */
+    public void testStaleIndex() throws Exception {
+        File         jar       = new File(dir, "resources.jar");
+        File         indexFile = new File(dir, "class-index");
+        List<String> classpath = Collections.singletonList(jar.getPath());
+
+        writeJar(jar, "old/resource.txt", "old");
+        assertNotNull(createLoader(classpath, indexFile, null).getResource("old/resource.txt"));
+
+        long lastModified = jar.lastModified();
+
+        writeJar(jar, "new/directory/resource.txt", "a newer resource");
+        jar.setLastModified(lastModified + 2000);
+
+        IndexedClassLoader loader = createLoader(classpath, indexFile, null);
+
+        assertEquals(1, loader.getJarsIndexed());
+        assertEquals("a newer resource", read(loader.getResource("new/directory/resource.txt")));
+        assertNull(loader.getResource("old/resource.txt"));
+        assertEquals(0, createLoader(classpath, indexFile, null).getJarsIndexed());
+
+        RenderCacheTest.write(indexFile, "imagegenerator-class-index 0\n" + jar.getAbsolutePath() + "\t" + jar.length() + "\t"
+                              + jar.lastModified() + "\n");
+        loader = createLoader(classpath, indexFile, null);
+        assertEquals(1, loader.getJarsIndexed());
+        assertNotNull(loader.getResource("new/directory/resource.txt"));
+    }
+
+    /**
+     * Test that resources held by several class directories and jars are
+     * found in classpath order.
+     *
+     * @throws Exception if a jar cannot be written or a resource read.
+     */
+    public void testClasspathOrder() throws Exception {
+        File first   = new File(dir, "first.jar");
+        File classes = new File(dir, "classes");
+        File last    = new File(dir, "last.jar");
+
+        writeJar(first, "shared/resource.txt", "first");
+        RenderCacheTest.write(new File(classes, "shared/resource.txt"), "classes");
+        RenderCacheTest.write(new File(classes, "directory.txt"), "classes");
+        writeJar(last, "shared/resource.txt", "last", "last.txt", "last");
+
+        IndexedClassLoader loader = createLoader(Arrays.asList(first.getPath(), classes.getPath(), last.getPath()), null, null);
+
+        assertEquals("first", read(loader.getResource("shared/resource.txt")));
+        assertEquals("classes", read(loader.getResource("directory.txt")));
+        assertEquals("last", read(loader.getResource("last.txt")));
+
+        List<URL> urls = Collections.list(loader.getResources("shared/resource.txt"));
+
+        assertEquals(3, urls.size());
+        assertEquals("first", read(urls.get(0)));
+        assertEquals("classes", read(urls.get(1)));
+        assertEquals("last", read(urls.get(2)));
+    }
+
+    /**
+     * Test that the project class loader loads a class in its directories
+     * itself, even though its parent has the class too, and leaves other
+     * classes and resources to its parent.
+     *
+     * @throws Exception if a jar or class cannot be written or loaded.
+     */
+    public void testProjectClassesFirst() throws Exception {
+        File jar     = new File(dir, "dependency.jar");
+        File classes = new File(dir, "classes");
+
+        writeJar(jar, classEntry(Fixture.class), null, "shared.txt", "jar", classEntry(Other.class), null);
+        writeClass(classes, Fixture.class);
+        RenderCacheTest.write(new File(classes, "shared.txt"), "classes");
+
+        IndexedClassLoader parent  = createLoader(Collections.singletonList(jar.getPath()), null, null);
+        ProjectClassLoader project = new ProjectClassLoader(Collections.singletonList(classes), parent);
+
+        try {
+            Class<?> fixture = project.loadClass(Fixture.class.getName());
+            Class<?> other   = project.loadClass(Other.class.getName());
+
+            assertSame(project, fixture.getClassLoader());
+            assertSame(fixture, project.loadClass(Fixture.class.getName()));
+            assertNotSame(parent.loadClass(Fixture.class.getName()), fixture);
+            assertSame(parent, other.getClassLoader());
+            assertEquals("classes", read(project.getResource("shared.txt")));
+            assertEquals("jar", read(parent.getResource("shared.txt")));
+        } finally {
+            project.close();
+        }
+    }
+
+    /**
+     * Create an indexed class loader, to be closed after the test.
+     *
+     * @param  classpath the classpath elements.
+     * @param  indexFile the index file, or {@code null}.
+     * @param  parent    the parent class loader, or {@code null} for the
+     *                   bootstrap class loader.
+     *
+     * @return the class loader.
+     *
+     * @throws IOException if a jar cannot be read.
+     */
+    private IndexedClassLoader createLoader(List<String> classpath, File indexFile, ClassLoader parent) throws IOException {
+        IndexedClassLoader loader = new IndexedClassLoader(classpath, indexFile, parent);
+
+        loaders = Arrays.copyOf(loaders, loaders.length + 1);
+        loaders[loaders.length - 1] = loader;
+
+        return loader;
+    }
+
+    /**
+     * Get the name of the class file of a class.
+     *
+     * @param  c the class.
+     *
+     * @return the name.
+     */
+    private static String classEntry(Class<?> c) {
+        return c.getName().replace('.', '/') + ".class";
+    }
+
+    /**
+     * Write a jar of entries, given as name and contents pairs. A
+     * {@code null} contents copies the class file of this test's class
+     * loader with that name.
+     *
+     * @param  jar     the jar file.
+     * @param  entries the entries.
+     *
+     * @throws IOException if the jar cannot be written.
+     */
+    private static void writeJar(File jar, String... entries) throws IOException {
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+
+        try {
+            for (int i = 0; i < entries.length; i += 2) {
+                out.putNextEntry(new ZipEntry(entries[i]));
+                out.write(entries[i + 1] == null ? readClass(entries[i]) : entries[i + 1].getBytes(Charset.forName("UTF-8")));
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Copy the class file of a class into a class directory.
+     *
+     * @param  classes the class directory.
+     * @param  c       the class.
+     *
+     * @throws IOException if the class file cannot be written.
+     */
+    static void writeClass(File classes, Class<?> c) throws IOException {
+        File file = new File(classes, classEntry(c));
+
+        file.getParentFile().mkdirs();
+
+        FileOutputStream out = new FileOutputStream(file);
+
+        try {
+            out.write(readClass(classEntry(c)));
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Read a class file from this test's class loader.
+     *
+     * @param  name the name of the class file.
+     *
+     * @return the contents.
+     *
+     * @throws IOException if it cannot be read.
+     */
+    private static byte[] readClass(String name) throws IOException {
+        return readAll(IndexedClassLoaderTest.class.getClassLoader().getResourceAsStream(name));
+    }
+
+    /**
+     * Read a resource as a UTF-8 string.
+     *
+     * @param  url the URL of the resource.
+     *
+     * @return the string.
+     *
+     * @throws IOException if the resource cannot be read.
+     */
+    private static String read(URL url) throws IOException {
+        return new String(readAll(url.openStream()), Charset.forName("UTF-8"));
+    }
+
+    /**
+     * Read and close a stream.
+     *
+     * @param  in the stream.
+     *
+     * @return its contents.
+     *
+     * @throws IOException if the stream cannot be read.
+     */
+    private static byte[] readAll(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out    = new ByteArrayOutputStream();
+            byte[]                buffer = new byte[8192];
+
+            for (int count; (count = in.read(buffer)) >= 0;) {
+                out.write(buffer, 0, count);
+            }
+
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * A class copied into jars and class directories to be loaded.
+     */
+    public static class Fixture {
+    }
+
+    /**
+     * Another class copied into jars to be loaded.
+     */
+    public static class Other {
+    }
+}
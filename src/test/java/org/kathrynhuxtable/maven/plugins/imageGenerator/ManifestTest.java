@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2010 Kathryn Huxtable.
+ *
+ * This file is part of the Image Generator Maven plugin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.kathrynhuxtable.maven.plugins.imageGenerator;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that manifests are read back as written, that a manifest in another
+ * format is read as empty, that a failed write leaves the old manifest, and
+ * that an image file is taken as unchanged by its length, then its
+ * modification time, then its digest.
+ */
+public class ManifestTest extends TestCase {
+
+    /** A temporary directory holding the manifest and the image files. */
+    private File dir;
+
+    /** The manifest file. */
+    private File file;
+
+    /**
+     * @see junit.framework.TestCase#setUp()
+     */
+    protected void setUp() throws IOException {
+        dir  = RenderCacheTest.createTempDirectory();
+        file = new File(dir, "target/image-generator.manifest");
+    }
+
+    /**
+     * @see junit.framework.TestCase#tearDown()
+     */
+    protected void tearDown() {
+        RenderCacheTest.delete(dir);
+    }
+
+    /**
+     * Test that the entries are read back in order with every field, and
+     * that writing again replaces the manifest.
+     *
+     * @throws IOException if the manifest cannot be written.
+     */
+    public void testRoundTrip() throws IOException {
+        Manifest manifest = new Manifest();
+
+        manifest.put("metal/button@2x.png", new Manifest.Entry("fingerprint", "spec", 1234L, 1286000000000L, "hash"));
+        manifest.put("button.png", new Manifest.Entry("other", "spec2", 0L, 0L, "hash2"));
+        manifest.write(file);
+
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+        assertTrue(RenderCacheTest.read(file).startsWith("imagegenerator-manifest 1\n"));
+
+        Manifest read = Manifest.read(file);
+
+        assertEquals(Arrays.asList("metal/button@2x.png", "button.png"), new ArrayList<String>(read.getPaths()));
+        assertEntry(read.get("metal/button@2x.png"), "fingerprint", "spec", 1234L, 1286000000000L, "hash");
+        assertEntry(read.get("button.png"), "other", "spec2", 0L, 0L, "hash2");
+        assertTrue(read.contains("button.png"));
+        assertFalse(read.contains("missing.png"));
+        assertNull(read.get("missing.png"));
+
+        Manifest replacement = new Manifest();
+
+        replacement.put("button.png", new Manifest.Entry("new", "spec3", 1L, 2L, "hash3"));
+        replacement.write(file);
+
+        read = Manifest.read(file);
+        assertEquals(1, read.getPaths().size());
+        assertEntry(read.get("button.png"), "new", "spec3", 1L, 2L, "hash3");
+    }
+
+    /**
+     * Test that a missing manifest, one in another format and one with an
+     * invalid number are read as empty, and that lines with the wrong number
+     * of fields are skipped.
+     *
+     * @throws IOException if a manifest cannot be written.
+     */
+    public void testRejected() throws IOException {
+        assertTrue(Manifest.read(file).getPaths().isEmpty());
+
+        RenderCacheTest.write(file, "imagegenerator-manifest 0\nbutton.png\tf\ts\t1\t2\th\n");
+        assertTrue(Manifest.read(file).getPaths().isEmpty());
+
+        RenderCacheTest.write(file, "button.png\tf\ts\t1\t2\th\n");
+        assertTrue(Manifest.read(file).getPaths().isEmpty());
+
+        RenderCacheTest.write(file, "imagegenerator-manifest 1\nbutton.png\tf\ts\t1\t2\th\nlabel.png\tf\ts\tlong\t2\th\n");
+        assertTrue(Manifest.read(file).getPaths().isEmpty());
+
+        RenderCacheTest.write(file, "imagegenerator-manifest 1\nbutton.png\tf\ts\t1\t2\th\nlabel.png\tf\ts\t1\t2\nicon.png\tf\ts\t1\t2\th\tx\n");
+
+        Manifest manifest = Manifest.read(file);
+
+        assertEquals(Arrays.asList("button.png"), new ArrayList<String>(manifest.getPaths()));
+    }
+
+    /**
+     * Test that a manifest which cannot be written leaves the last complete
+     * one.
+     *
+     * @throws IOException if the manifest cannot be written the first time.
+     */
+    public void testFailedWriteLeavesManifest() throws IOException {
+        Manifest manifest = new Manifest();
+
+        manifest.put("button.png", new Manifest.Entry("fingerprint", "spec", 1L, 2L, "hash"));
+        manifest.write(file);
+
+        String contents = RenderCacheTest.read(file);
+
+        // The temporary file cannot be created where a directory is.
+        new File(file.getPath() + ".tmp").mkdirs();
+        manifest.put("label.png", new Manifest.Entry("fingerprint", "spec", 1L, 2L, "hash"));
+
+        try {
+            manifest.write(file);
+            fail("Expected the manifest not to be written");
+        } catch (IOException e) {
+            // Expected.
+        }
+
+        assertEquals(contents, RenderCacheTest.read(file));
+        assertEquals(1, Manifest.read(file).getPaths().size());
+    }
+
+    /**
+     * Test that an image file is unchanged if its length and modification
+     * time are, without reading it, or if only its modification time has
+     * changed and its digest has not, and is changed otherwise.
+     *
+     * @throws IOException if an image file cannot be written.
+     */
+    public void testMatches() throws IOException {
+        File image = new File(dir, "button.png");
+
+        RenderCacheTest.write(image, "image");
+        image.setLastModified(1286000000000L);
+
+        Manifest.Entry entry = Manifest.Entry.create("fingerprint", "spec", image, null);
+
+        assertEquals(Digests.sha1(image), entry.hash);
+        assertTrue(entry.matches(image));
+
+        // The same length and time are trusted without reading the file.
+        RenderCacheTest.write(image, "IMAGE");
+        image.setLastModified(1286000000000L);
+        assertTrue(entry.matches(image));
+
+        // Another time with the same length is checked against the digest.
+        image.setLastModified(1286000060000L);
+        assertFalse(entry.matches(image));
+
+        RenderCacheTest.write(image, "image");
+        image.setLastModified(1286000060000L);
+        assertTrue(entry.matches(image));
+
+        // Another length is changed, whatever the time.
+        RenderCacheTest.write(image, "images");
+        image.setLastModified(1286000000000L);
+        assertFalse(entry.matches(image));
+
+        image.delete();
+        assertFalse(entry.matches(image));
+
+        File empty = new File(dir, "empty.png");
+
+        RenderCacheTest.write(empty, "");
+
+        Manifest.Entry emptyEntry = Manifest.Entry.create("fingerprint", "spec", empty, null);
+
+        assertTrue(emptyEntry.matches(empty));
+        empty.delete();
+        assertFalse(emptyEntry.matches(empty));
+    }
+
+    /**
+     * Test that the digest of the previous entry is reused for a file of the
+     * same length, and computed again for another length.
+     *
+     * @throws IOException if an image file cannot be written or read.
+     */
+    public void testCreateReusesDigest() throws IOException {
+        File image = new File(dir, "button.png");
+
+        RenderCacheTest.write(image, "image");
+
+        Manifest.Entry previous = new Manifest.Entry("fingerprint", "spec", image.length(), 0L, "previous");
+
+        assertEquals("previous", Manifest.Entry.create("fingerprint", "spec", image, previous).hash);
+
+        RenderCacheTest.write(image, "longer image");
+
+        Manifest.Entry entry = Manifest.Entry.create("fingerprint", "spec2", image, previous);
+
+        assertEntry(entry, "fingerprint", "spec2", image.length(), image.lastModified(), Digests.sha1(image));
+    }
+
+    /**
+     * Check the fields of an entry.
+     *
+     * @param entry        the entry.
+     * @param fingerprint  the expected fingerprint.
+     * @param specHash     the expected digest of the specification.
+     * @param length       the expected length.
+     * @param lastModified the expected modification time.
+     * @param hash         the expected digest of the file.
+     */
+    private static void assertEntry(Manifest.Entry entry, String fingerprint, String specHash, long length, long lastModified,
+            String hash) {
+        assertNotNull(entry);
+        assertEquals(fingerprint, entry.fingerprint);
+        assertEquals(specHash, entry.specHash);
+        assertEquals(length, entry.length);
+        assertEquals(lastModified, entry.lastModified);
+        assertEquals(hash, entry.hash);
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2010 Kathryn Huxtable.
+ *
+ * This file is part of the Image Generator Maven plugin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.kathrynhuxtable.maven.plugins.imageGenerator;
+
+import java.awt.image.BufferedImage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import javax.swing.JButton;
+import javax.swing.JCheckBox;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that images with at most 256 colors are reduced to a palette
+ * exactly, that lossy reduction keeps every channel of every pixel, alpha
+ * included, within the error allowed, and that palette images are written
+ * as PNG files which decode to the same pixels.
+ */
+public class PaletteImageTest extends TestCase {
+
+    /**
+     * Test that images with up to 256 colors, some translucent, are reduced
+     * exactly, at the smallest bit depth, with the translucent colors first.
+     */
+    public void testLossless() {
+        for (int count : new int[] { 1, 2, 3, 4, 5, 16, 17, 255, 256 }) {
+            BufferedImage image   = createImage(new Random(count), count, 40, 30);
+            PaletteImage  reduced = PaletteImage.create(image, 0);
+
+            assertNotNull(count + " colors", reduced);
+            assertEquals(count + " colors", count, reduced.colors.length);
+            assertEquals(count + " colors", count <= 2 ? 1 : count <= 4 ? 2 : count <= 16 ? 4 : 8, reduced.getBitDepth());
+            assertPixels(count + " colors", image, reduced, 0);
+
+            int translucent = reduced.getTranslucentCount();
+
+            for (int i = translucent; i < reduced.colors.length; i++) {
+                assertEquals(count + " colors: opaque color after the translucent ones", 0xff, reduced.colors[i] >>> 24);
+            }
+        }
+    }
+
+    /**
+     * Test that an image with more than 256 colors is not reduced without
+     * loss.
+     */
+    public void testTooManyColors() {
+        assertNull(PaletteImage.create(createImage(new Random(1), 257, 40, 30), 0));
+    }
+
+    /**
+     * Test that lossy reduction of an image of smooth gradients, with varying
+     * alpha, keeps every channel within the error allowed.
+     */
+    public void testLossy() {
+        BufferedImage image = new BufferedImage(200, 100, BufferedImage.TYPE_INT_ARGB);
+
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                int alpha = x < 10 ? 0 : Math.min(255, y * 3);
+
+                image.setRGB(x, y, (alpha << 24) | (x << 16) | ((y * 2) << 8) | ((x + y) & 0xff));
+            }
+        }
+
+        for (int maxError : new int[] { 16, 32, 64 }) {
+            PaletteImage reduced = PaletteImage.create(image, maxError);
+
+            assertNotNull("error " + maxError, reduced);
+            assertTrue("error " + maxError, reduced.colors.length <= PaletteImage.MAX_COLORS);
+            assertPixels("error " + maxError, image, reduced, maxError);
+        }
+    }
+
+    /**
+     * Test that lossy reduction gives up on noise it cannot reduce within the
+     * error allowed.
+     */
+    public void testLossyTooNoisy() {
+        BufferedImage image  = new BufferedImage(100, 100, BufferedImage.TYPE_INT_ARGB);
+        Random        random = new Random(5);
+
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, 0xff000000 | random.nextInt(0x1000000));
+            }
+        }
+
+        assertNull(PaletteImage.create(image, 2));
+    }
+
+    /**
+     * Test that palette images of components and of many colors are written
+     * as PNG files with the same pixels, through the builtin encoder and
+     * through ImageIO.
+     *
+     * @throws IOException if an image cannot be encoded or decoded.
+     */
+    public void testEncode() throws IOException {
+        BufferedImage[] images = {
+            PngEncoderTest.paint(new JButton("Button"), BufferedImage.TYPE_INT_ARGB),
+            PngEncoderTest.paint(new JCheckBox("Check box", true), BufferedImage.TYPE_INT_ARGB),
+            createImage(new Random(2), 2, 33, 7),
+            createImage(new Random(3), 13, 33, 7),
+            createImage(new Random(4), 200, 33, 7),
+        };
+
+        for (int i = 0; i < images.length; i++) {
+            PaletteImage reduced = PaletteImage.create(images[i], 0);
+
+            assertNotNull("image " + i, reduced);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+            new PngEncoder(6, PngEncoder.Filter.NONE, null).write(reduced, out);
+            PngEncoderTest.assertSamePixels("image " + i + ", builtin", images[i],
+                                            ImageIO.read(new ByteArrayInputStream(out.toByteArray())));
+
+            out.reset();
+            ImageIO.write(reduced.toBufferedImage(), "png", out);
+            PngEncoderTest.assertSamePixels("image " + i + ", ImageIO", images[i],
+                                            ImageIO.read(new ByteArrayInputStream(out.toByteArray())));
+        }
+    }
+
+    /**
+     * Check that each pixel of a palette image is within an error of the
+     * image it was reduced from. Pixels which are fully transparent in both
+     * look the same whatever their colors.
+     *
+     * @param name     the name of the case, for failure messages.
+     * @param image    the image.
+     * @param reduced  the palette image.
+     * @param maxError the largest difference allowed in any channel.
+     */
+    private static void assertPixels(String name, BufferedImage image, PaletteImage reduced, int maxError) {
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                int expected = image.getRGB(x, y);
+                int actual   = reduced.colors[reduced.indices[y * image.getWidth() + x] & 0xff];
+
+                if (maxError > 0 && (expected >>> 24) == 0 && (actual >>> 24) == 0) {
+                    continue;
+                }
+
+                for (int shift = 0; shift < 32; shift += 8) {
+                    int difference = Math.abs(((expected >>> shift) & 0xff) - ((actual >>> shift) & 0xff));
+
+                    if (difference > maxError) {
+                        fail(name + ": pixel " + x + "," + y + " is " + Integer.toHexString(actual) + ", expected "
+                             + Integer.toHexString(expected));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Create an image using every one of a number of random colors, about a
+     * quarter of them translucent or transparent.
+     *
+     * @param  random the source of the colors.
+     * @param  count  the number of colors.
+     * @param  width  the image width.
+     * @param  height the image height.
+     *
+     * @return the image.
+     */
+    private static BufferedImage createImage(Random random, int count, int width, int height) {
+        int[] colors = new int[count];
+
+        for (int i = 0; i < count; i++) {
+            int alpha = random.nextInt(4) == 0 ? random.nextInt(255) : 0xff;
+
+            // Distinct colors, whatever the alpha.
+            colors[i] = (alpha << 24) | (i << 8) | random.nextInt(256);
+        }
+
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+
+        for (int i = 0; i < width * height; i++) {
+            image.setRGB(i % width, i / width, colors[i < count ? i : random.nextInt(count)]);
+        }
+
+        return image;
+    }
+}
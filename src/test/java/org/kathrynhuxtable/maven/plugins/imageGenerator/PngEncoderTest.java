@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) 2010 Kathryn Huxtable.
+ *
+ * This file is part of the Image Generator Maven plugin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.kathrynhuxtable.maven.plugins.imageGenerator;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Adler32;
+
+import javax.imageio.ImageIO;
+
+import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JComponent;
+import javax.swing.JProgressBar;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that the images written by the builtin PNG encoder are read back
+ * with the same pixels by ImageIO, at every filter and compression level,
+ * and with the rows split into one or several bands.
+ */
+public class PngEncoderTest extends TestCase {
+
+    /** The width of the random images, giving 255 rows in each band. */
+    private static final int WIDTH = 256;
+
+    /** The heights of the random images, giving one, two and three bands. */
+    private static final int[] HEIGHTS = { 1, 255, 256, 700 };
+
+    /** The threads compressing the bands in parallel. */
+    private ExecutorService deflatePool;
+
+    /**
+     * @see junit.framework.TestCase#setUp()
+     */
+    protected void setUp() {
+        deflatePool = Executors.newFixedThreadPool(3);
+    }
+
+    /**
+     * @see junit.framework.TestCase#tearDown()
+     */
+    protected void tearDown() {
+        deflatePool.shutdown();
+    }
+
+    /**
+     * Test random images, whose rows compress poorly, at every filter and
+     * level, serially and in parallel.
+     *
+     * @throws IOException if an image cannot be encoded or decoded.
+     */
+    public void testRandomImages() throws IOException {
+        Random random = new Random(42);
+
+        for (int height : HEIGHTS) {
+            BufferedImage image = createRandomImage(random, WIDTH, height);
+
+            for (PngEncoder.Filter filter : PngEncoder.Filter.values()) {
+                for (int level = 0; level <= 9; level++) {
+                    String name = height + " rows, " + filter + ", level " + level;
+
+                    assertRoundTrip(name + ", serial", image, new PngEncoder(level, filter, null));
+                    assertRoundTrip(name + ", parallel", image, new PngEncoder(level, filter, deflatePool));
+                }
+            }
+        }
+    }
+
+    /**
+     * Test images of flat colors, whose bands refer back into the dictionary
+     * taken from the band before.
+     *
+     * @throws IOException if an image cannot be encoded or decoded.
+     */
+    public void testRepetitiveImage() throws IOException {
+        BufferedImage image = new BufferedImage(300, 2000, BufferedImage.TYPE_INT_ARGB);
+
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, ((x / 7 + y / 5) % 3 == 0) ? 0x80336699 : 0xffeeeeee);
+            }
+        }
+
+        for (PngEncoder.Filter filter : PngEncoder.Filter.values()) {
+            for (int level = 0; level <= 9; level++) {
+                assertRoundTrip(filter + ", level " + level, image, new PngEncoder(level, filter, deflatePool));
+            }
+        }
+    }
+
+    /**
+     * Test components painted in the Metal look and feel, including an image
+     * which is not {@code TYPE_INT_ARGB}, whose pixels are read with
+     * {@code getRGB}.
+     *
+     * @throws IOException if an image cannot be encoded or decoded.
+     */
+    public void testComponentImages() throws IOException {
+        JComponent[] components = { new JButton("Button"), new JCheckBox("Check box", true), new JProgressBar() };
+
+        for (JComponent component : components) {
+            for (int type : new int[] { BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_ARGB_PRE }) {
+                BufferedImage image = paint(component, type);
+
+                for (PngEncoder.Filter filter : PngEncoder.Filter.values()) {
+                    assertRoundTrip(component.getClass().getSimpleName() + ", " + filter, image,
+                                    new PngEncoder(6, filter, deflatePool));
+                }
+            }
+        }
+    }
+
+    /**
+     * Test an image painted and compressed a strip at a time.
+     *
+     * @throws IOException if the image cannot be encoded or decoded.
+     */
+    public void testStrips() throws IOException {
+        final BufferedImage image = createRandomImage(new Random(7), 120, 333);
+
+        for (PngEncoder.Filter filter : PngEncoder.Filter.values()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+            new PngEncoder(6, filter, null).write(image.getWidth(), image.getHeight(), new PngEncoder.StripPainter() {
+                    public BufferedImage paintStrip(int y) {
+                        return image.getSubimage(0, y, image.getWidth(), Math.min(50, image.getHeight() - y));
+                    }
+                }, out);
+
+            assertSamePixels("strips, " + filter, image, ImageIO.read(new ByteArrayInputStream(out.toByteArray())));
+        }
+    }
+
+    /**
+     * Test that combining the checksums of two blocks gives the checksum of
+     * both.
+     */
+    public void testCombineAdler() {
+        Random random = new Random(3);
+
+        for (int length : new int[] { 0, 1, 5552, 65521, 100000 }) {
+            byte[] first  = new byte[random.nextInt(70000)];
+            byte[] second = new byte[length];
+
+            random.nextBytes(first);
+            random.nextBytes(second);
+
+            Adler32 whole = new Adler32();
+
+            whole.update(first);
+            whole.update(second);
+
+            assertEquals("length " + length, whole.getValue(),
+                         PngEncoder.combineAdler(adler(first), adler(second), second.length));
+        }
+    }
+
+    /**
+     * Encode an image and check that it is decoded with the same pixels.
+     *
+     * @param  name    the name of the case, for failure messages.
+     * @param  image   the image.
+     * @param  encoder the encoder.
+     *
+     * @throws IOException if the image cannot be encoded or decoded.
+     */
+    private static void assertRoundTrip(String name, BufferedImage image, PngEncoder encoder) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        encoder.write(image, out);
+        assertSamePixels(name, image, ImageIO.read(new ByteArrayInputStream(out.toByteArray())));
+    }
+
+    /**
+     * Check that two images have the same size and non-premultiplied pixels.
+     *
+     * @param name     the name of the case, for failure messages.
+     * @param expected the image written.
+     * @param actual   the image read.
+     */
+    static void assertSamePixels(String name, BufferedImage expected, BufferedImage actual) {
+        assertNotNull(name + ": not decoded", actual);
+        assertEquals(name + ": width", expected.getWidth(), actual.getWidth());
+        assertEquals(name + ": height", expected.getHeight(), actual.getHeight());
+
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                if (expected.getRGB(x, y) != actual.getRGB(x, y)) {
+                    fail(name + ": pixel " + x + "," + y + " is " + Integer.toHexString(actual.getRGB(x, y)) + ", expected "
+                         + Integer.toHexString(expected.getRGB(x, y)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Create an image of random pixels, of every alpha.
+     *
+     * @param  random the source of the pixels.
+     * @param  width  the image width.
+     * @param  height the image height.
+     *
+     * @return the image.
+     */
+    static BufferedImage createRandomImage(Random random, int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+
+        return image;
+    }
+
+    /**
+     * Paint a component at its preferred size.
+     *
+     * @param  component the component.
+     * @param  type      the type of image to paint into.
+     *
+     * @return the image.
+     */
+    static BufferedImage paint(JComponent component, int type) {
+        component.setSize(component.getPreferredSize());
+        component.doLayout();
+
+        BufferedImage image = new BufferedImage(component.getWidth(), component.getHeight(), type);
+        Graphics2D    g     = image.createGraphics();
+
+        try {
+            component.paint(g);
+        } finally {
+            g.dispose();
+        }
+
+        return image;
+    }
+
+    /**
+     * Compute the Adler-32 checksum of some bytes.
+     *
+     * @param  bytes the bytes.
+     *
+     * @return the checksum.
+     */
+    private static long adler(byte[] bytes) {
+        Adler32 adler = new Adler32();
+
+        adler.update(bytes);
+        return adler.getValue();
+    }
+}
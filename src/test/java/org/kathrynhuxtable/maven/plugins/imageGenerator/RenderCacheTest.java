@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) 2010 Kathryn Huxtable.
+ *
+ * This file is part of the Image Generator Maven plugin.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.kathrynhuxtable.maven.plugins.imageGenerator;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+
+import java.util.HashMap;
+
+import junit.framework.TestCase;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * Tests that cache keys change with everything an image depends on, that
+ * images are stored and restored whole, that restoring an image never
+ * changes another image file linked to the one it replaces, and that the
+ * least recently used images are evicted first.
+ */
+public class RenderCacheTest extends TestCase {
+
+    /** The look and feel the images are rendered in. */
+    private static final String LAF = "javax.swing.plaf.metal.MetalLookAndFeel";
+
+    /** A temporary directory holding the cache and the image files. */
+    private File dir;
+
+    /** The cache under test. */
+    private RenderCache cache;
+
+    /**
+     * @see junit.framework.TestCase#setUp()
+     */
+    protected void setUp() throws IOException {
+        dir   = createTempDirectory();
+        cache = new RenderCache(new File(dir, "cache"), 1024 * 1024, "fingerprint");
+    }
+
+    /**
+     * @see junit.framework.TestCase#tearDown()
+     */
+    protected void tearDown() {
+        delete(dir);
+    }
+
+    /**
+     * Test that the key depends on the specification, look and feel,
+     * classpath fingerprint, scale and derivative, and that images at scale
+     * one keep the keys they had before scales were added.
+     *
+     * @throws MojoExecutionException if a derivative is invalid.
+     */
+    public void testKey() throws MojoExecutionException {
+        ImageInfo       info      = createInfo("Button");
+        ImageScale      one       = new ImageScale(1f);
+        ImageDerivative thumbnail = ImageDerivative.parseDerivative("thumb=50%");
+        String          key       = cache.getKey(info, LAF, one, null);
+
+        assertEquals(Digests.sha1(info.canonicalForm() + "\n" + LAF + "\nfingerprint"), key);
+        assertEquals(key, cache.getKey(createInfo("Button"), LAF, new ImageScale(1f), null));
+
+        assertFalse(key.equals(cache.getKey(createInfo("Other"), LAF, one, null)));
+        assertFalse(key.equals(cache.getKey(info, "javax.swing.plaf.nimbus.NimbusLookAndFeel", one, null)));
+        assertFalse(key.equals(new RenderCache(cache(), 0, "other").getKey(info, LAF, one, null)));
+        assertFalse(key.equals(cache.getKey(info, LAF, new ImageScale(2f), null)));
+        assertFalse(key.equals(cache.getKey(info, LAF, one, thumbnail)));
+        assertFalse(cache.getKey(info, LAF, one, thumbnail).equals(
+                        cache.getKey(info, LAF, one, ImageDerivative.parseDerivative("thumb=25%"))));
+    }
+
+    /**
+     * Test that a stored image is restored with the same contents, by linking
+     * it where the file system allows, and that an image not in the cache is
+     * not.
+     *
+     * @throws IOException if a file cannot be written or read.
+     */
+    public void testStoreAndRestore() throws IOException {
+        File file = new File(dir, "button.png");
+
+        assertFalse(cache.restore("0123456789", file));
+        assertFalse(file.exists());
+
+        write(file, "image");
+        cache.store("0123456789", file);
+        assertTrue(new File(cache(), "01/0123456789.png").isFile());
+
+        file.delete();
+        assertTrue(cache.restore("0123456789", file));
+        assertEquals("image", read(file));
+        assertTrue("linked", Files.isSameFile(file.toPath(), new File(cache(), "01/0123456789.png").toPath()));
+
+        // Storing the same key again, as another build would, is fine.
+        cache.store("0123456789", file);
+        assertTrue(cache.restore("0123456789", file));
+        assertEquals("image", read(file));
+    }
+
+    /**
+     * Test that restoring an image over an image file hard linked to another,
+     * as duplicate images are, replaces it rather than writing through the
+     * link, and that replacing a restored image leaves the cached one.
+     *
+     * @throws IOException if a file cannot be written, read or linked.
+     */
+    public void testRestoreReplacesLinkedFile() throws IOException {
+        File original  = new File(dir, "original.png");
+        File duplicate = new File(dir, "duplicate.png");
+        File source    = new File(dir, "source.png");
+
+        write(source, "cached");
+        cache.store("abcdef", source);
+
+        write(original, "stale");
+        Files.createLink(duplicate.toPath(), original.toPath());
+
+        assertTrue(cache.restore("abcdef", duplicate));
+        assertEquals("cached", read(duplicate));
+        assertEquals("stale", read(original));
+
+        // Image files are replaced, never overwritten, when written again.
+        duplicate.delete();
+        write(duplicate, "rendered");
+        assertTrue(cache.restore("abcdef", new File(dir, "again.png")));
+        assertEquals("cached", read(new File(dir, "again.png")));
+    }
+
+    /**
+     * Test that the least recently stored or restored images are evicted
+     * until the cache is no larger than its maximum size.
+     *
+     * @throws IOException if a file cannot be written.
+     */
+    public void testEvict() throws IOException {
+        RenderCache small = new RenderCache(cache(), 30, "fingerprint");
+        long        now   = System.currentTimeMillis();
+
+        for (int i = 0; i < 5; i++) {
+            File file = new File(dir, "image" + i + ".png");
+
+            write(file, "0123456789");
+            small.store("key" + i, file);
+            new File(cache(), "ke/key" + i + ".png").setLastModified(now - (10 - i) * 60000L);
+        }
+
+        assertEquals(0, new RenderCache(cache(), 50, "fingerprint").evict());
+
+        // Restoring the oldest marks it as the most recently used.
+        assertTrue(small.restore("key0", new File(dir, "restored.png")));
+
+        assertEquals(2, small.evict());
+        assertTrue(new File(cache(), "ke/key0.png").isFile());
+        assertFalse(new File(cache(), "ke/key1.png").exists());
+        assertFalse(new File(cache(), "ke/key2.png").exists());
+        assertTrue(new File(cache(), "ke/key3.png").isFile());
+        assertTrue(new File(cache(), "ke/key4.png").isFile());
+
+        // An image file linked to an evicted entry is left alone.
+        assertEquals("0123456789", read(new File(dir, "image1.png")));
+        assertEquals(0, small.evict());
+    }
+
+    /**
+     * Get the root directory of the cache under test.
+     *
+     * @return the directory.
+     */
+    private File cache() {
+        return new File(dir, "cache");
+    }
+
+    /**
+     * Create the specification of a button.
+     *
+     * @param  text the text of the button.
+     *
+     * @return the specification.
+     */
+    static ImageInfo createInfo(String text) {
+        ImageInfo info = new ImageInfo();
+
+        info.className   = "javax.swing.JButton";
+        info.width       = 100;
+        info.height      = 27;
+        info.panelWidth  = 120;
+        info.panelHeight = 32;
+        info.args        = new Object[] { text };
+        info.properties  = new HashMap<String, Object>();
+
+        return info;
+    }
+
+    /**
+     * Create an empty temporary directory.
+     *
+     * @return the directory.
+     *
+     * @throws IOException if the directory cannot be created.
+     */
+    static File createTempDirectory() throws IOException {
+        return Files.createTempDirectory("imagegenerator").toFile();
+    }
+
+    /**
+     * Delete a file, or a directory and everything in it.
+     *
+     * @param file the file or directory.
+     */
+    static void delete(File file) {
+        File[] files = file.listFiles();
+
+        if (files != null) {
+            for (File f : files) {
+                delete(f);
+            }
+        }
+
+        file.delete();
+    }
+
+    /**
+     * Write a string to a file as UTF-8.
+     *
+     * @param  file the file.
+     * @param  text the string.
+     *
+     * @throws IOException if the file cannot be written.
+     */
+    static void write(File file, String text) throws IOException {
+        File parent = file.getParentFile();
+
+        if (parent != null) {
+            parent.mkdirs();
+        }
+
+        Files.write(file.toPath(), text.getBytes(Charset.forName("UTF-8")));
+    }
+
+    /**
+     * Read a file as a UTF-8 string.
+     *
+     * @param  file the file.
+     *
+     * @return the string.
+     *
+     * @throws IOException if the file cannot be read.
+     */
+    static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), Charset.forName("UTF-8"));
+    }
+}